@@ -120,6 +120,7 @@ CREATE TABLE `download_record`
     `user_id`            bigint(20)   NOT NULL,
     `path`               varchar(255) DEFAULT NULL,
     `status`             smallint(1)  NOT NULL,
+    `row_count`          bigint(20)   DEFAULT NULL,
     `create_time`        datetime     NOT NULL,
     `last_download_time` datetime     DEFAULT NULL,
     PRIMARY KEY (`id`) USING BTREE,
@@ -127,6 +128,31 @@ CREATE TABLE `download_record`
 ) ENGINE = InnoDB
   DEFAULT CHARSET = utf8mb4;
 
+-- ----------------------------
+-- Table structure for export_job
+-- ----------------------------
+DROP TABLE IF EXISTS `export_job`;
+CREATE TABLE `export_job`
+(
+    `id`             bigint(20)   NOT NULL AUTO_INCREMENT,
+    `action`         varchar(32)  NOT NULL,
+    `record_id`      bigint(20)   NOT NULL,
+    `uuid`           varchar(50)  DEFAULT NULL,
+    `user_id`        bigint(20)   DEFAULT NULL,
+    `priority`       int(11)      NOT NULL DEFAULT 0,
+    `status`         smallint(1)  NOT NULL,
+    `attempts`       int(11)      NOT NULL DEFAULT 0,
+    `context`        longtext     NOT NULL,
+    `owner`          varchar(255) DEFAULT NULL,
+    `create_time`    datetime     NOT NULL,
+    `start_time`     datetime     DEFAULT NULL,
+    `heartbeat_time` datetime     DEFAULT NULL,
+    `end_time`       datetime     DEFAULT NULL,
+    PRIMARY KEY (`id`) USING BTREE,
+    KEY `idx_status` (`status`) USING BTREE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
 -- ----------------------------
 -- Table structure for favorite
 -- ----------------------------
@@ -656,6 +682,7 @@ CREATE TABLE `share_download_record` (
   `name` varchar(255) NOT NULL,
   `path` varchar(255) DEFAULT NULL,
   `status` smallint(1) NOT NULL,
+  `row_count` bigint(20) DEFAULT NULL,
   `create_time` datetime NOT NULL,
   `last_download_time` datetime DEFAULT NULL,
   PRIMARY KEY (`id`) USING BTREE
@@ -0,0 +1,5 @@
+ALTER TABLE `download_record`
+    ADD COLUMN `row_count` bigint(20) DEFAULT NULL AFTER `status`;
+
+ALTER TABLE `share_download_record`
+    ADD COLUMN `row_count` bigint(20) DEFAULT NULL AFTER `status`;
@@ -0,0 +1,19 @@
+CREATE TABLE IF NOT EXISTS `export_job`
+(
+    `id`          bigint(20)   NOT NULL AUTO_INCREMENT,
+    `action`      varchar(32)  NOT NULL,
+    `record_id`   bigint(20)   NOT NULL,
+    `uuid`        varchar(50)  DEFAULT NULL,
+    `user_id`     bigint(20)   DEFAULT NULL,
+    `priority`    int(11)      NOT NULL DEFAULT 0,
+    `status`      smallint(1)  NOT NULL,
+    `attempts`    int(11)      NOT NULL DEFAULT 0,
+    `context`     longtext     NOT NULL,
+    `owner`       varchar(255) DEFAULT NULL,
+    `create_time` datetime     NOT NULL,
+    `start_time`  datetime     DEFAULT NULL,
+    `end_time`    datetime     DEFAULT NULL,
+    PRIMARY KEY (`id`) USING BTREE,
+    KEY `idx_status` (`status`) USING BTREE
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
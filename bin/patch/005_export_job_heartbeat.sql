@@ -0,0 +1,2 @@
+ALTER TABLE `export_job`
+    ADD COLUMN `heartbeat_time` datetime DEFAULT NULL AFTER `start_time`;
@@ -0,0 +1,68 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.cache;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import edp.core.model.ColumnarPaginate;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * 结果缓存条目：超过 softExpireTime 视为过期但仍可返回（后台刷新），超过 hardExpireTime 不再使用
+ */
+@Data
+public class CachedResult implements Serializable {
+
+    private static final long serialVersionUID = 2871940350328154512L;
+
+    private ColumnarPaginate paginate;
+
+    private long createTime;
+
+    private long softExpireTime;
+
+    private long hardExpireTime;
+
+    public CachedResult() {
+    }
+
+    public CachedResult(ColumnarPaginate paginate, long softTtl, long hardTtl) {
+        this.paginate = paginate;
+        this.createTime = System.currentTimeMillis();
+        this.softExpireTime = createTime + softTtl;
+        this.hardExpireTime = createTime + Math.max(softTtl, hardTtl);
+    }
+
+    @JsonIgnore
+    public boolean isStale(long now) {
+        return now >= softExpireTime;
+    }
+
+    @JsonIgnore
+    public boolean isExpired(long now) {
+        return now >= hardExpireTime;
+    }
+
+    @JsonIgnore
+    public long estimateBytes() {
+        return 128L + (null == paginate || null == paginate.getResult() ? 0L : paginate.getResult().estimateBytes());
+    }
+}
@@ -0,0 +1,532 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.query.QueryScheduler;
+import edp.core.enums.QueryPriorityEnum;
+import edp.core.model.ColumnarPaginate;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 两级查询结果缓存：
+ * L1 为按字节数限制容量的堆内缓存，L2 为 Redis 或本地磁盘，磁盘缓存同样按字节数限制，超出时淘汰最久未访问的文件；
+ * 超过软过期时间的结果仍直接返回，同时在共享的后台查询线程池中以后台优先级刷新，超过硬过期时间才同步查询
+ */
+@Slf4j
+@Component
+public class ResultCache {
+
+    public static final String HEADER_CACHE_STATUS = "X-Visualis-Cache";
+
+    public static final String HEADER_CACHE_AGE = "X-Visualis-Cache-Age";
+
+    private static final String REDIS_PREFIX = "visualis:result:";
+
+    private static final String L2_REDIS = "redis";
+
+    private static final String L2_DISK = "disk";
+
+    private static final String DISK_SUFFIX = ".json.gz";
+
+    private static final String DISK_SEPARATOR = "-";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    public enum Status {
+        HIT, STALE, MISS, BYPASS
+    }
+
+    private static final ThreadLocal<Lookup> LOOKUP = new ThreadLocal<>();
+
+    /**
+     * 磁盘缓存与 Redis 缓存使用相同的 JSON 序列化
+     */
+    private static final GenericJackson2JsonRedisSerializer JSON_SERIALIZER = new GenericJackson2JsonRedisSerializer();
+
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder l1Hits = new LongAdder();
+
+    private final LongAdder l2Hits = new LongAdder();
+
+    private final LongAdder staleHits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder refreshes = new LongAdder();
+
+    private final LongAdder refreshFailures = new LongAdder();
+
+    private Cache<String, CachedResult> l1;
+
+    /**
+     * 磁盘缓存文件索引，文件名中带有硬过期时间，启动时从目录重建
+     */
+    private final ConcurrentHashMap<String, DiskEntry> diskEntries = new ConcurrentHashMap<>();
+
+    private final AtomicLong diskBytes = new AtomicLong();
+
+    private final LongAdder diskEvictions = new LongAdder();
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${source.result-cache.l1-max-bytes:268435456}")
+    private long l1MaxBytes;
+
+    /**
+     * redis / disk / none
+     */
+    @Value("${source.result-cache.l2:redis}")
+    private String l2Type;
+
+    @Value("${source.result-cache.disk-path:}")
+    private String diskPath;
+
+    @Value("${source.result-cache.disk-max-bytes:1073741824}")
+    private long diskMaxBytes;
+
+    private File diskDir;
+
+    @PostConstruct
+    public void init() {
+        l1 = Caffeine.newBuilder()
+                .maximumWeight(l1MaxBytes)
+                .weigher((String k, CachedResult v) -> (int) Math.min(Integer.MAX_VALUE, v.estimateBytes()))
+                .expireAfter(new Expiry<String, CachedResult>() {
+                    @Override
+                    public long expireAfterCreate(String key, CachedResult value, long currentTime) {
+                        return remainingNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, CachedResult value, long currentTime, long currentDuration) {
+                        return remainingNanos(value);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, CachedResult value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+
+        if (L2_DISK.equalsIgnoreCase(l2Type)) {
+            diskDir = new File(StringUtils.isEmpty(diskPath) ? System.getProperty("java.io.tmpdir") + File.separator + "visualis-result-cache" : diskPath);
+            if (!diskDir.exists() && !diskDir.mkdirs()) {
+                log.warn("result cache dir {} can not be created, disk cache disabled", diskDir.getAbsolutePath());
+                diskDir = null;
+            } else {
+                loadDiskEntries();
+            }
+        }
+    }
+
+    /**
+     * 定期删除已过期的磁盘缓存文件，并把磁盘占用收敛到 disk-max-bytes 以内
+     */
+    @Scheduled(fixedDelayString = "${source.result-cache.disk-sweep-interval:60000}")
+    public void sweepDisk() {
+        if (null == diskDir) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        diskEntries.forEach((key, entry) -> {
+            if (entry.expireTime <= now) {
+                removeDiskEntry(key, entry);
+            }
+        });
+        evictDisk();
+    }
+
+    /**
+     * 从缓存读取结果，未命中或已硬过期时执行 loader 并写入缓存；
+     * 软过期的结果直接返回并触发一次后台刷新
+     *
+     * @param key
+     * @param loader
+     * @param softTtl 毫秒
+     * @param hardTtl 毫秒
+     * @param flush   为 true 时跳过读取，强制刷新
+     */
+    public PaginateWithQueryColumns get(String key, Callable<PaginateWithQueryColumns> loader, long softTtl, long hardTtl, boolean flush) throws Exception {
+        long now = System.currentTimeMillis();
+        if (!flush) {
+            CachedResult cached = lookup(key, now);
+            if (null != cached) {
+                if (cached.isStale(now)) {
+                    staleHits.increment();
+                    setLookup(Status.STALE, cached, now);
+                    refreshAsync(key, loader, softTtl, hardTtl);
+                } else {
+                    setLookup(Status.HIT, cached, now);
+                }
+                return cached.getPaginate().toPaginate();
+            }
+        }
+
+        misses.increment();
+        setLookup(Status.MISS, null, now);
+        return load(key, loader, softTtl, hardTtl);
+    }
+
+    public void evict(String key) {
+        l1.invalidate(key);
+        if (isRedisTier()) {
+            redisUtils.delete(REDIS_PREFIX + key);
+        } else if (null != diskDir) {
+            DiskEntry entry = diskEntries.get(key);
+            if (null != entry) {
+                removeDiskEntry(key, entry);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("l1Entries", l1.estimatedSize());
+        stats.put("l1MaxBytes", l1MaxBytes);
+        stats.put("l2", isRedisTier() ? L2_REDIS : null != diskDir ? L2_DISK : "none");
+        if (null != diskDir) {
+            stats.put("diskEntries", diskEntries.size());
+            stats.put("diskBytes", diskBytes.get());
+            stats.put("diskMaxBytes", diskMaxBytes);
+            stats.put("diskEvictions", diskEvictions.sum());
+        }
+        stats.put("l1Hits", l1Hits.sum());
+        stats.put("l2Hits", l2Hits.sum());
+        stats.put("staleHits", staleHits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("refreshing", refreshing.size());
+        stats.put("refreshes", refreshes.sum());
+        stats.put("refreshFailures", refreshFailures.sum());
+        return stats;
+    }
+
+    /**
+     * 标记当前请求未使用缓存
+     */
+    public static void bypass() {
+        LOOKUP.set(new Lookup(Status.BYPASS, -1L));
+    }
+
+    /**
+     * 清除当前线程的缓存查找状态，查询失败或结果不返回给请求方时调用
+     */
+    public static void clearStatus() {
+        LOOKUP.remove();
+    }
+
+    /**
+     * 读取并清除当前线程最近一次缓存查找的状态，转为响应头
+     */
+    public static HttpHeaders statusHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        Lookup lookup = LOOKUP.get();
+        LOOKUP.remove();
+        if (null != lookup) {
+            headers.add(HEADER_CACHE_STATUS, lookup.status.name());
+            if (lookup.age >= 0) {
+                headers.add(HEADER_CACHE_AGE, String.valueOf(lookup.age));
+            }
+        }
+        return headers;
+    }
+
+    private PaginateWithQueryColumns load(String key, Callable<PaginateWithQueryColumns> loader, long softTtl, long hardTtl) throws Exception {
+        PaginateWithQueryColumns paginate = loader.call();
+        if (null != paginate && paginate.getResultSize() > 0 && !paginate.isTotalCountEstimated()) {
+            store(key, new CachedResult(ColumnarPaginate.of(paginate), softTtl, hardTtl));
+        }
+        return paginate;
+    }
+
+    private void refreshAsync(String key, Callable<PaginateWithQueryColumns> loader, long softTtl, long hardTtl) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        try {
+            executorRegistry.getBackgroundQueryExecutor().execute(() -> {
+                // 刷新仍经过准入控制，排队时让位于交互查询
+                QueryScheduler.setPriority(QueryPriorityEnum.BACKGROUND);
+                try {
+                    refreshes.increment();
+                    load(key, loader, softTtl, hardTtl);
+                } catch (Exception e) {
+                    refreshFailures.increment();
+                    log.warn("refresh result cache ({}) error: {}", key, e.getMessage());
+                } finally {
+                    QueryScheduler.clearPriority();
+                    refreshing.remove(key);
+                }
+            });
+        } catch (Exception e) {
+            refreshing.remove(key);
+            log.warn("submit result cache refresh ({}) error: {}", key, e.getMessage());
+        }
+    }
+
+    private CachedResult lookup(String key, long now) {
+        CachedResult cached = l1.getIfPresent(key);
+        if (null != cached && !cached.isExpired(now)) {
+            l1Hits.increment();
+            return cached;
+        }
+
+        cached = getL2(key);
+        if (null != cached && !cached.isExpired(now)) {
+            l2Hits.increment();
+            l1.put(key, cached);
+            return cached;
+        }
+        return null;
+    }
+
+    private void store(String key, CachedResult cached) {
+        l1.put(key, cached);
+        long ttl = cached.getHardExpireTime() - System.currentTimeMillis();
+        if (ttl <= 0) {
+            return;
+        }
+        try {
+            if (isRedisTier()) {
+                redisUtils.set(REDIS_PREFIX + key, cached, ttl);
+            } else if (null != diskDir) {
+                writeDisk(key, cached);
+            }
+        } catch (Exception e) {
+            log.warn("write result cache ({}) error: {}", key, e.getMessage());
+        }
+    }
+
+    private CachedResult getL2(String key) {
+        try {
+            if (isRedisTier()) {
+                Object object = redisUtils.get(REDIS_PREFIX + key);
+                return object instanceof CachedResult ? (CachedResult) object : null;
+            } else if (null != diskDir) {
+                return readDisk(key);
+            }
+        } catch (Exception e) {
+            log.warn("read result cache ({}) error: {}", key, e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 文件名为 key-硬过期时间.json.gz，同一 key 重新写入时删除旧文件
+     */
+    private void writeDisk(String key, CachedResult cached) throws IOException {
+        File tmp = File.createTempFile(key + DISK_SUFFIX, TMP_SUFFIX, diskDir);
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp))) {
+            out.write(JSON_SERIALIZER.serialize(cached));
+        }
+        long bytes = tmp.length();
+        if (bytes > diskMaxBytes) {
+            tmp.delete();
+            return;
+        }
+        File file = new File(diskDir, key + DISK_SEPARATOR + cached.getHardExpireTime() + DISK_SUFFIX);
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+        }
+        DiskEntry entry = new DiskEntry(file, bytes, cached.getHardExpireTime());
+        DiskEntry previous = diskEntries.put(key, entry);
+        diskBytes.addAndGet(bytes);
+        if (null != previous) {
+            diskBytes.addAndGet(-previous.bytes);
+            if (!previous.file.equals(file)) {
+                previous.file.delete();
+            }
+        }
+        if (diskBytes.get() > diskMaxBytes) {
+            evictDisk();
+        }
+    }
+
+    private CachedResult readDisk(String key) throws IOException {
+        DiskEntry entry = diskEntries.get(key);
+        if (null == entry) {
+            return null;
+        }
+        if (entry.expireTime <= System.currentTimeMillis()) {
+            removeDiskEntry(key, entry);
+            return null;
+        }
+        CachedResult cached;
+        try (InputStream in = new GZIPInputStream(new FileInputStream(entry.file))) {
+            cached = JSON_SERIALIZER.deserialize(StreamUtils.copyToByteArray(in), CachedResult.class);
+        } catch (FileNotFoundException e) {
+            removeDiskEntry(key, entry);
+            return null;
+        }
+        if (null == cached || cached.isExpired(System.currentTimeMillis())) {
+            removeDiskEntry(key, entry);
+            return null;
+        }
+        entry.lastAccess = System.currentTimeMillis();
+        return cached;
+    }
+
+    /**
+     * 按文件名重建索引，以文件修改时间作为最近访问时间；无法识别的文件及写入中断遗留的临时文件直接删除
+     */
+    private void loadDiskEntries() {
+        File[] files = diskDir.listFiles();
+        if (null == files) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            String name = file.getName();
+            int index = name.lastIndexOf(DISK_SEPARATOR);
+            long expireTime = -1L;
+            if (name.endsWith(DISK_SUFFIX) && index > 0) {
+                try {
+                    expireTime = Long.parseLong(name.substring(index + 1, name.length() - DISK_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    expireTime = -1L;
+                }
+            }
+            if (expireTime <= now) {
+                file.delete();
+                continue;
+            }
+            DiskEntry entry = new DiskEntry(file, file.length(), expireTime);
+            entry.lastAccess = file.lastModified();
+            DiskEntry previous = diskEntries.put(name.substring(0, index), entry);
+            diskBytes.addAndGet(entry.bytes);
+            if (null != previous) {
+                diskBytes.addAndGet(-previous.bytes);
+                previous.file.delete();
+            }
+        }
+        evictDisk();
+    }
+
+    /**
+     * 磁盘占用超过 disk-max-bytes 时按最近访问时间从旧到新删除
+     */
+    private void evictDisk() {
+        if (diskBytes.get() <= diskMaxBytes) {
+            return;
+        }
+        synchronized (diskEntries) {
+            List<Map.Entry<String, DiskEntry>> entries = new ArrayList<>(diskEntries.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            for (Map.Entry<String, DiskEntry> e : entries) {
+                if (diskBytes.get() <= diskMaxBytes) {
+                    break;
+                }
+                if (removeDiskEntry(e.getKey(), e.getValue())) {
+                    diskEvictions.increment();
+                }
+            }
+        }
+    }
+
+    private boolean removeDiskEntry(String key, DiskEntry entry) {
+        if (!diskEntries.remove(key, entry)) {
+            return false;
+        }
+        diskBytes.addAndGet(-entry.bytes);
+        entry.file.delete();
+        return true;
+    }
+
+    private boolean isRedisTier() {
+        return L2_REDIS.equalsIgnoreCase(l2Type) && redisUtils.isRedisEnable();
+    }
+
+    private static long remainingNanos(CachedResult value) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, value.getHardExpireTime() - System.currentTimeMillis()));
+    }
+
+    private static void setLookup(Status status, CachedResult cached, long now) {
+        LOOKUP.set(new Lookup(status, null == cached ? -1L : (now - cached.getCreateTime()) / 1000));
+    }
+
+
+    private static final class DiskEntry {
+        private final File file;
+        private final long bytes;
+        private final long expireTime;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        DiskEntry(File file, long bytes, long expireTime) {
+            this.file = file;
+            this.bytes = bytes;
+            this.expireTime = expireTime;
+        }
+    }
+
+    private static final class Lookup {
+        private final Status status;
+        private final long age;
+
+        Lookup(Status status, long age) {
+            this.status = status;
+            this.age = age;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.executor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 共享线程池注册表，替代每次请求新建线程池
+ */
+@Slf4j
+@Component
+public class ExecutorRegistry {
+
+    /**
+     * 变量解析（数据权限中心等远程调用）
+     */
+    public static final String PARAM_RESOLVE = "param-resolve";
+
+    /**
+     * 数据上传批量插入
+     */
+    public static final String UPLOAD_INSERT = "upload-insert";
+
+    /**
+     * 后台查询（结果缓存刷新等），队列满时直接拒绝，不占用请求线程
+     */
+    public static final String BACKGROUND_QUERY = "background-query";
+
+    private final Map<String, InstrumentedThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    @Value("${source.executor.param-resolve.pool-size:16}")
+    private int paramResolvePoolSize;
+
+    @Value("${source.executor.param-resolve.queue-capacity:256}")
+    private int paramResolveQueueCapacity;
+
+    @Value("${source.executor.upload-insert.pool-size:8}")
+    private int uploadInsertPoolSize;
+
+    @Value("${source.executor.upload-insert.queue-capacity:64}")
+    private int uploadInsertQueueCapacity;
+
+    @Value("${source.executor.background-query.pool-size:4}")
+    private int backgroundQueryPoolSize;
+
+    @Value("${source.executor.background-query.queue-capacity:64}")
+    private int backgroundQueryQueueCapacity;
+
+    public InstrumentedThreadPoolExecutor getParamResolveExecutor() {
+        return get(PARAM_RESOLVE, paramResolvePoolSize, paramResolveQueueCapacity);
+    }
+
+    public InstrumentedThreadPoolExecutor getUploadInsertExecutor() {
+        return get(UPLOAD_INSERT, uploadInsertPoolSize, uploadInsertQueueCapacity);
+    }
+
+    public InstrumentedThreadPoolExecutor getBackgroundQueryExecutor() {
+        return get(BACKGROUND_QUERY, backgroundQueryPoolSize, backgroundQueryQueueCapacity, false);
+    }
+
+    public InstrumentedThreadPoolExecutor get(String name, int poolSize, int queueCapacity) {
+        return get(name, poolSize, queueCapacity, true);
+    }
+
+    /**
+     * @param callerRunsPolicy 队列满时是否由调用线程执行，为 false 时直接拒绝；同名线程池以首次创建时为准
+     */
+    public InstrumentedThreadPoolExecutor get(String name, int poolSize, int queueCapacity, boolean callerRunsPolicy) {
+        return executors.computeIfAbsent(name, k -> new InstrumentedThreadPoolExecutor(k, Math.max(poolSize, 1), Math.max(queueCapacity, 1), callerRunsPolicy));
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        executors.values().forEach(e -> stats.add(e.getStats()));
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executors.forEach((name, executor) -> {
+            log.info("shutdown executor: {}", name);
+            executor.shutdown();
+        });
+    }
+}
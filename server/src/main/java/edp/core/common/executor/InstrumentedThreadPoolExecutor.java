@@ -0,0 +1,152 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.executor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有界、具名、带统计的线程池：
+ * 队列满时默认由调用线程直接执行（CallerRuns），避免无界排队；
+ * 不能占用调用线程的场景（如异步查询）可改为直接拒绝
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+
+    private final String name;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder callerRuns = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder queueMillis = new LongAdder();
+
+    private final LongAdder runMillis = new LongAdder();
+
+    private final ThreadLocal<Long> startTime = new ThreadLocal<>();
+
+    public InstrumentedThreadPoolExecutor(String name, int poolSize, int queueCapacity) {
+        this(name, poolSize, queueCapacity, true);
+    }
+
+    /**
+     * @param callerRunsPolicy 为 false 时队列满直接抛出 RejectedExecutionException
+     */
+    public InstrumentedThreadPoolExecutor(String name, int poolSize, int queueCapacity, boolean callerRunsPolicy) {
+        super(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler((r, executor) -> {
+            if (!callerRunsPolicy) {
+                rejected.increment();
+                throw new RejectedExecutionException("executor " + name + " is full");
+            }
+            callerRuns.increment();
+            if (!executor.isShutdown()) {
+                r.run();
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submitted.increment();
+        super.execute(new TimedTask(command));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        super.beforeExecute(t, r);
+        long now = System.currentTimeMillis();
+        if (r instanceof TimedTask) {
+            queueMillis.add(now - ((TimedTask) r).enqueueTime);
+        }
+        startTime.set(now);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        super.afterExecute(r, t);
+        Long start = startTime.get();
+        if (null != start) {
+            runMillis.add(System.currentTimeMillis() - start);
+            startTime.remove();
+        }
+        Runnable task = r instanceof TimedTask ? ((TimedTask) r).task : r;
+        if (null != t) {
+            failed.increment();
+        } else if (task instanceof Future && ((Future) task).isDone()) {
+            try {
+                ((Future) task).get();
+            } catch (CancellationException | ExecutionException e) {
+                failed.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("poolSize", getPoolSize());
+        stats.put("maxPoolSize", getMaximumPoolSize());
+        stats.put("largestPoolSize", getLargestPoolSize());
+        stats.put("active", getActiveCount());
+        stats.put("queueSize", getQueue().size());
+        stats.put("queueRemaining", getQueue().remainingCapacity());
+        stats.put("submitted", submitted.sum());
+        stats.put("completed", getCompletedTaskCount());
+        stats.put("failed", failed.sum());
+        stats.put("callerRuns", callerRuns.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("queueMillis", queueMillis.sum());
+        stats.put("runMillis", runMillis.sum());
+        return stats;
+    }
+
+
+    private static final class TimedTask implements Runnable {
+        private final Runnable task;
+        private final long enqueueTime = System.currentTimeMillis();
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
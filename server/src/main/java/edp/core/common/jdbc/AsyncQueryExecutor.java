@@ -0,0 +1,52 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.core.common.jdbc;
+
+import edp.core.enums.QueryJobStatusEnum;
+import edp.core.model.PaginateWithQueryColumns;
+
+/**
+ * 支持提交后轮询的查询执行器（如 Linkis），提交不阻塞调用线程
+ */
+public interface AsyncQueryExecutor {
+
+    /**
+     * 提交脚本，返回执行 id
+     */
+    String submit(String script) throws Exception;
+
+    QueryJobStatusEnum getStatus(String execId);
+
+    /**
+     * 执行进度 0 ~ 1
+     */
+    float getProgress(String execId);
+
+    /**
+     * 失败原因，未失败时为 null
+     */
+    String getErrorMessage(String execId);
+
+    /**
+     * 读取已成功任务的最后一个结果集，pageNo / pageSize 小于 1 时读取全部
+     */
+    PaginateWithQueryColumns fetch(String execId, int pageNo, int pageSize) throws Exception;
+
+    boolean cancel(String execId);
+}
@@ -0,0 +1,108 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.common.query.Cancellable;
+import edp.core.common.query.QueryCancellationRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.jdbc.core.StatementCallback;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 创建的 Statement 登记到当前请求的取消 ticket，请求被取代时调用 Statement.cancel()；
+ * 实例按连接池共享，maxRows、fetchSize 按次通过 query 参数设置到 Statement，不修改模板本身
+ */
+public class CancellableJdbcTemplate extends JdbcTemplate {
+
+    public CancellableJdbcTemplate(DataSource dataSource, boolean lazyInit) {
+        super(dataSource, lazyInit);
+    }
+
+    @Override
+    protected void applyStatementSettings(Statement stmt) throws SQLException {
+        super.applyStatementSettings(stmt);
+        if (null != QueryCancellationRegistry.current()) {
+            QueryCancellationRegistry.attachCurrent(new StatementHandle(stmt));
+        }
+    }
+
+    /**
+     * 按次指定 maxRows 与 fetchSize 查询
+     *
+     * @param maxRows   最大行数，0 为不限制
+     * @param fetchSize 小于 0 时使用模板默认值；MySQL 流式读取传 Integer.MIN_VALUE
+     */
+    public <T> T query(String sql, int maxRows, int fetchSize, ResultSetExtractor<T> rse) {
+        return execute((StatementCallback<T>) stmt -> {
+            stmt.setMaxRows(Math.max(maxRows, 0));
+            if (fetchSize >= 0 || fetchSize == Integer.MIN_VALUE) {
+                stmt.setFetchSize(fetchSize);
+            }
+            ResultSet rs = null;
+            try {
+                rs = stmt.executeQuery(sql);
+                return rse.extractData(rs);
+            } finally {
+                JdbcUtils.closeResultSet(rs);
+            }
+        });
+    }
+
+    public <T> T query(String sql, int maxRows, ResultSetExtractor<T> rse) {
+        return query(sql, maxRows, -1, rse);
+    }
+
+    public List<Map<String, Object>> queryForList(String sql, int maxRows) {
+        return query(sql, maxRows, new RowMapperResultSetExtractor<>(getColumnMapRowMapper()));
+    }
+
+    private static final class StatementHandle implements Cancellable {
+        private final Statement statement;
+
+        StatementHandle(Statement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        public void cancel() throws Exception {
+            if (!statement.isClosed()) {
+                statement.cancel();
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            try {
+                return statement.isClosed();
+            } catch (SQLException e) {
+                return true;
+            }
+        }
+    }
+}
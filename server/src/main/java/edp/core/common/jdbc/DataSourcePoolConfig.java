@@ -0,0 +1,54 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.core.common.jdbc;
+
+import com.alibaba.fastjson.JSONObject;
+import lombok.Data;
+
+/**
+ * 单个数据源的连接池配置，来源于 source config 中的 pool：
+ * {"pool": {"maxActive": 20, "minIdle": 1, "initialSize": 1, "maxWait": 10000}}；
+ * 未配置的项使用 source.* 全局配置
+ */
+@Data
+public class DataSourcePoolConfig {
+
+    public static final String CONFIG_KEY = "pool";
+
+    private Integer maxActive;
+
+    private Integer minIdle;
+
+    private Integer initialSize;
+
+    private Long maxWait;
+
+    public static DataSourcePoolConfig of(JSONObject config) {
+        JSONObject pool = null == config ? null : config.getJSONObject(CONFIG_KEY);
+        if (null == pool) {
+            return null;
+        }
+        DataSourcePoolConfig poolConfig = new DataSourcePoolConfig();
+        poolConfig.setMaxActive(pool.getInteger("maxActive"));
+        poolConfig.setMinIdle(pool.getInteger("minIdle"));
+        poolConfig.setInitialSize(pool.getInteger("initialSize"));
+        poolConfig.setMaxWait(pool.getLong("maxWait"));
+        return poolConfig;
+    }
+}
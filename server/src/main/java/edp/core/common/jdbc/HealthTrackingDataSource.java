@@ -0,0 +1,81 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * 查询路径借出连接时回报数据源健康状态；
+ * 连接池等待超时说明池已满而非数据源故障，不计入失败
+ */
+public class HealthTrackingDataSource extends DelegatingDataSource {
+
+    private final SourceHealthTracker healthTracker;
+
+    private final String key;
+
+    private final String jdbcUrl;
+
+    public HealthTrackingDataSource(DataSource targetDataSource, SourceHealthTracker healthTracker, String key, String jdbcUrl) {
+        super(targetDataSource);
+        this.healthTracker = healthTracker;
+        this.key = key;
+        this.jdbcUrl = jdbcUrl;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        try {
+            Connection connection = obtainTargetDataSource().getConnection();
+            healthTracker.recordSuccess(key);
+            return connection;
+        } catch (SQLException e) {
+            record(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        try {
+            Connection connection = obtainTargetDataSource().getConnection(username, password);
+            healthTracker.recordSuccess(key);
+            return connection;
+        } catch (SQLException e) {
+            record(e);
+            throw e;
+        }
+    }
+
+    private void record(SQLException e) {
+        if (!isPoolWaitTimeout(e)) {
+            healthTracker.recordFailure(key, jdbcUrl);
+        }
+    }
+
+    static boolean isPoolWaitTimeout(Throwable e) {
+        return e instanceof GetConnectionTimeoutException;
+    }
+}
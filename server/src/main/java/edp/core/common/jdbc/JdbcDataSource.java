@@ -24,16 +24,23 @@ import com.alibaba.druid.util.StringUtils;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
 import edp.core.exception.SourceException;
+import edp.core.utils.MD5Util;
 import edp.core.utils.ServerUtils;
 import edp.core.utils.SourceUtils;
 import edp.davinci.core.config.SpringContextHolder;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.HashMap;
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import static edp.core.consts.Consts.JDBC_DATASOURCE_DEFAULT_VERSION;
 
@@ -92,30 +99,167 @@ public class JdbcDataSource {
     @Getter
     private int queryTimeout;
 
-    private static volatile Map<String, DruidDataSource> dataSourceMap = new HashMap<>();
+    @Value("${source.idle-evict-minutes:30}")
+    private long idleEvictMinutes;
 
-    public synchronized void removeDatasource(String jdbcUrl, String username, String password, String version, boolean isExt) {
-        String key = SourceUtils.getKey(jdbcUrl, username, password, version, isExt);
+    @Value("${spring.datasource.validation-query:}")
+    private String validationQuery;
+
+    @Value("${source.keep-alive:true}")
+    private boolean keepAlive;
+
+    @Value("${source.circuit-breaker.failure-threshold:3}")
+    private int failureThreshold;
+
+    @Value("${source.circuit-breaker.base-backoff:5000}")
+    private long baseBackoff;
+
+    @Value("${source.circuit-breaker.max-backoff:300000}")
+    private long maxBackoff;
+
+    @Getter
+    private SourceHealthTracker healthTracker;
+
+    @PostConstruct
+    public void init() {
+        healthTracker = new SourceHealthTracker(failureThreshold, baseBackoff, maxBackoff);
+    }
+
+    /**
+     * 每个数据源一个 holder，不同数据源的初始化互不阻塞
+     */
+    private static final ConcurrentHashMap<String, DataSourceHolder> dataSourceMap = new ConcurrentHashMap<>();
 
-        if (dataSourceMap.containsKey(key)) {
-            DruidDataSource druidDataSource = dataSourceMap.get(key);
-            druidDataSource.close();
-            dataSourceMap.remove(key);
+    public void removeDatasource(String jdbcUrl, String username, String password, String version, boolean isExt) {
+        String key = SourceUtils.getKey(jdbcUrl, username, password, version, isExt);
+        DataSourceHolder holder = dataSourceMap.remove(key);
+        healthTracker.remove(key);
+        if (null != holder) {
+            holder.close();
         }
     }
 
-    public synchronized DruidDataSource getDataSource(String jdbcUrl, String username, String password, String database, String version, boolean isExt) throws SourceException {
+    public DruidDataSource getDataSource(String jdbcUrl, String username, String password, String database, String version, boolean isExt) throws SourceException {
+        return getDataSource(jdbcUrl, username, password, database, version, isExt, null);
+    }
+
+    public DruidDataSource getDataSource(String jdbcUrl, String username, String password, String database, String version, boolean isExt, DataSourcePoolConfig poolConfig) throws SourceException {
         String key = SourceUtils.getKey(jdbcUrl, username, password, version, isExt);
+        healthTracker.checkAvailable(key, jdbcUrl);
+        DataSourceHolder holder = dataSourceMap.computeIfAbsent(key, k -> new DataSourceHolder(jdbcUrl));
+        DruidDataSource dataSource = holder.get();
+        if (null != dataSource) {
+            if (null != poolConfig && !poolConfig.equals(holder.poolConfig)) {
+                synchronized (holder) {
+                    applyPoolConfig(dataSource, poolConfig, jdbcUrl);
+                    holder.poolConfig = poolConfig;
+                }
+            }
+            return dataSource;
+        }
+        synchronized (holder) {
+            dataSource = holder.get();
+            if (null == dataSource) {
+                try {
+                    dataSource = createDataSource(jdbcUrl, username, password, database, version, isExt, poolConfig);
+                } catch (SourceException e) {
+                    healthTracker.recordFailure(key, jdbcUrl);
+                    throw e;
+                }
+                holder.set(dataSource);
+                holder.poolConfig = poolConfig;
+                // holder 已被并发移除时重新登记
+                dataSourceMap.putIfAbsent(key, holder);
+            }
+        }
+        return dataSource;
+    }
 
-        if (dataSourceMap.containsKey(key) && dataSourceMap.get(key) != null) {
-            DruidDataSource druidDataSource = dataSourceMap.get(key);
-            if (!druidDataSource.isClosed()) {
-                return druidDataSource;
-            } else {
-                dataSourceMap.remove(key);
+    /**
+     * 与连接池一同缓存的 JdbcTemplate，借出连接的结果计入数据源健康状态；
+     * 连接池不在登记表中（已被回收或替换）时返回不缓存的实例
+     */
+    public CancellableJdbcTemplate getJdbcTemplate(String key, String jdbcUrl, DruidDataSource dataSource) {
+        DataSourceHolder holder = dataSourceMap.get(key);
+        if (null == holder || holder.dataSource != dataSource) {
+            return newJdbcTemplate(key, jdbcUrl, dataSource);
+        }
+        CancellableJdbcTemplate template = holder.jdbcTemplate;
+        if (null == template) {
+            synchronized (holder) {
+                if (holder.dataSource != dataSource) {
+                    return newJdbcTemplate(key, jdbcUrl, dataSource);
+                }
+                template = holder.jdbcTemplate;
+                if (null == template) {
+                    template = newJdbcTemplate(key, jdbcUrl, dataSource);
+                    holder.jdbcTemplate = template;
+                }
+            }
+        }
+        return template;
+    }
+
+    private CancellableJdbcTemplate newJdbcTemplate(String key, String jdbcUrl, DruidDataSource dataSource) {
+        CancellableJdbcTemplate template = new CancellableJdbcTemplate(new HealthTrackingDataSource(dataSource, healthTracker, key, jdbcUrl), false);
+        template.setFetchSize(1000);
+        return template;
+    }
+
+    /**
+     * 关闭长时间未使用的连接池
+     */
+    @Scheduled(fixedDelayString = "${source.idle-evict-interval:60000}")
+    public void evictIdleDataSources() {
+        if (idleEvictMinutes <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long deadline = now - TimeUnit.MINUTES.toMillis(idleEvictMinutes);
+        for (Map.Entry<String, DataSourceHolder> entry : dataSourceMap.entrySet()) {
+            DataSourceHolder holder = entry.getValue();
+            // 调用方可能缓存了连接池引用而不经过 getDataSource，按借出次数判断是否仍在使用
+            if (holder.touchIfUsed(now)) {
+                continue;
+            }
+            if (holder.lastAccess < deadline && dataSourceMap.remove(entry.getKey(), holder)) {
+                log.info("close idle datasource: {}", holder.jdbcUrl);
+                holder.close();
             }
         }
+    }
+
+    /**
+     * 连接池运行状态，不包含密码
+     */
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Map.Entry<String, DataSourceHolder> entry : dataSourceMap.entrySet()) {
+            DataSourceHolder holder = entry.getValue();
+            DruidDataSource dataSource = holder.dataSource;
+            if (null == dataSource) {
+                continue;
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            //不暴露连接串与账号，以连接池 key 的摘要区分
+            stats.put("id", MD5Util.getMD5(entry.getKey(), false, 16));
+            stats.put("type", SourceUtils.getDataSourceName(holder.jdbcUrl));
+            stats.put("active", dataSource.getActiveCount());
+            stats.put("idle", dataSource.getPoolingCount());
+            stats.put("maxActive", dataSource.getMaxActive());
+            stats.put("waitThreadCount", dataSource.getWaitThreadCount());
+            stats.put("notEmptyWaitCount", dataSource.getNotEmptyWaitCount());
+            stats.put("notEmptyWaitMillis", dataSource.getNotEmptyWaitMillis());
+            stats.put("createCount", dataSource.getCreateCount());
+            stats.put("closed", dataSource.isClosed());
+            stats.put("lastAccess", holder.lastAccess);
+            stats.putAll(healthTracker.getStats(entry.getKey()));
+            list.add(stats);
+        }
+        return list;
+    }
 
+    private DruidDataSource createDataSource(String jdbcUrl, String username, String password, String database, String version, boolean isExt, DataSourcePoolConfig poolConfig) throws SourceException {
         DruidDataSource instance = new DruidDataSource();
 
         if (StringUtils.isEmpty(version) || !isExt || JDBC_DATASOURCE_DEFAULT_VERSION.equals(version)) {
@@ -137,17 +281,24 @@ public class JdbcDataSource {
             instance.setDriverClassLoader(ExtendedJdbcClassLoader.getExtJdbcClassLoader(path));
         }
 
+        boolean hasPool = null != poolConfig;
         instance.setUrl(jdbcUrl.trim());
         instance.setUsername(jdbcUrl.toLowerCase().contains(DataTypeEnum.ELASTICSEARCH.getFeature()) ? null : username);
         instance.setPassword((jdbcUrl.toLowerCase().contains(DataTypeEnum.PRESTO.getFeature()) || jdbcUrl.toLowerCase().contains(DataTypeEnum.ELASTICSEARCH.getFeature())) ?
                 null : password);
-        instance.setInitialSize(initialSize);
-        instance.setMinIdle(minIdle);
-        instance.setMaxActive(maxActive);
-        instance.setMaxWait(maxWait);
+        instance.setInitialSize(hasPool && null != poolConfig.getInitialSize() ? poolConfig.getInitialSize() : initialSize);
+        instance.setMinIdle(hasPool && null != poolConfig.getMinIdle() ? poolConfig.getMinIdle() : minIdle);
+        instance.setMaxActive(hasPool && null != poolConfig.getMaxActive() ? poolConfig.getMaxActive() : maxActive);
+        instance.setMaxWait(hasPool && null != poolConfig.getMaxWait() ? poolConfig.getMaxWait() : maxWait);
         instance.setTimeBetweenEvictionRunsMillis(timeBetweenEvictionRunsMillis);
         instance.setMinEvictableIdleTimeMillis(minEvictableIdleTimeMillis);
-        instance.setTestWhileIdle(false);
+        // 连接在空闲时后台校验并保活，借出时不再校验
+        instance.setTestWhileIdle(testWhileIdle);
+        instance.setKeepAlive(keepAlive);
+        String query = getValidationQuery(jdbcUrl);
+        if (null != query) {
+            instance.setValidationQuery(query);
+        }
         instance.setTestOnBorrow(testOnBorrow);
         instance.setTestOnReturn(testOnReturn);
         instance.setConnectionErrorRetryAttempts(connectionErrorRetryAttempts);
@@ -158,9 +309,96 @@ public class JdbcDataSource {
             instance.init();
         } catch (Exception e) {
             log.error("Exception during pool initialization", e);
+            instance.close();
             throw new SourceException(e.getMessage());
         }
-        dataSourceMap.put(key, instance);
         return instance;
     }
+
+    /**
+     * 数据源修改连接池配置后调整运行中的连接池，未配置的项恢复为 source.* 全局配置；initialSize 只在创建时生效
+     */
+    private void applyPoolConfig(DruidDataSource dataSource, DataSourcePoolConfig poolConfig, String jdbcUrl) {
+        int newMaxActive = null != poolConfig.getMaxActive() ? poolConfig.getMaxActive() : maxActive;
+        int newMinIdle = null != poolConfig.getMinIdle() ? poolConfig.getMinIdle() : minIdle;
+        try {
+            // 先放宽再收紧，保证调整过程中 minIdle 不大于 maxActive
+            if (newMaxActive >= dataSource.getMaxActive()) {
+                dataSource.setMaxActive(newMaxActive);
+                dataSource.setMinIdle(newMinIdle);
+            } else {
+                dataSource.setMinIdle(newMinIdle);
+                dataSource.setMaxActive(newMaxActive);
+            }
+            dataSource.setMaxWait(null != poolConfig.getMaxWait() ? poolConfig.getMaxWait() : maxWait);
+            log.info("datasource pool config changed to {}, jdbcUrl: {}", poolConfig, jdbcUrl);
+        } catch (IllegalArgumentException e) {
+            log.warn("apply datasource pool config error: {}, jdbcUrl: {}", e.getMessage(), jdbcUrl);
+        }
+    }
+
+    /**
+     * mysql、oracle、sqlserver、postgresql 等由 druid 自带的 ValidConnectionChecker 校验，
+     * 其余按配置的 validation-query 校验，不支持 SELECT 1 的数据源不设置
+     */
+    private String getValidationQuery(String jdbcUrl) {
+        if (StringUtils.isEmpty(validationQuery)) {
+            return null;
+        }
+        String url = jdbcUrl.toLowerCase();
+        if (url.contains(DataTypeEnum.ELASTICSEARCH.getFeature())
+                || url.contains(DataTypeEnum.MONGODB.getFeature())
+                || url.contains(DataTypeEnum.CASSANDRA.getFeature())) {
+            return null;
+        }
+        if (url.contains(DataTypeEnum.ORACLE.getFeature())) {
+            return "SELECT 1 FROM DUAL";
+        }
+        return validationQuery;
+    }
+
+    private static final class DataSourceHolder {
+        private final String jdbcUrl;
+        private volatile DruidDataSource dataSource;
+        private volatile DataSourcePoolConfig poolConfig;
+        private volatile CancellableJdbcTemplate jdbcTemplate;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private long lastConnectCount;
+
+        DataSourceHolder(String jdbcUrl) {
+            this.jdbcUrl = jdbcUrl;
+        }
+
+        DruidDataSource get() {
+            lastAccess = System.currentTimeMillis();
+            DruidDataSource current = dataSource;
+            return null == current || current.isClosed() ? null : current;
+        }
+
+        boolean touchIfUsed(long now) {
+            DruidDataSource current = dataSource;
+            if (null == current) {
+                return false;
+            }
+            long connectCount = current.getConnectCount();
+            if (connectCount != lastConnectCount || current.getActiveCount() > 0) {
+                lastConnectCount = connectCount;
+                lastAccess = now;
+                return true;
+            }
+            return false;
+        }
+
+        void set(DruidDataSource dataSource) {
+            this.dataSource = dataSource;
+            this.jdbcTemplate = null;
+        }
+
+        void close() {
+            DruidDataSource current = dataSource;
+            if (null != current) {
+                current.close();
+            }
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 逐行消费查询结果，用于不在内存中物化整个结果集的场景
+ */
+public interface ResultRowHandler {
+
+    /**
+     * 列元数据，在第一行之前回调一次
+     */
+    void onColumns(List<QueryColumn> columns) throws IOException;
+
+    /**
+     * 一行数据，顺序与 onColumns 中的列一致；数组会被复用，不能持有引用
+     */
+    void onRow(Object[] values) throws IOException;
+
+    void onComplete(int pageNo, int pageSize, long totalCount) throws IOException;
+
+    /**
+     * 是否需要总数；为 false 时分页查询不执行 count，onComplete 的 totalCount 为实际输出的行数
+     */
+    default boolean needTotalCount() {
+        return true;
+    }
+
+    /**
+     * 已物化的结果（如 Hive 数据源）按同样的方式回放
+     */
+    default void onPaginate(PaginateWithQueryColumns paginate) throws IOException {
+        List<QueryColumn> columns = paginate.getColumns();
+        onColumns(columns);
+        Object[] values = new Object[null == columns ? 0 : columns.size()];
+        for (Map<String, Object> row : paginate.getResultList()) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = row.get(columns.get(i).getName());
+            }
+            onRow(values);
+        }
+        onComplete(paginate.getPageNo(), paginate.getPageSize(), paginate.getTotalCount());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import edp.core.exception.SourceException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 数据源健康状态：连续获取连接失败后熔断，熔断期间直接失败，
+ * 熔断时间按失败次数指数退避；到期后放行一个请求探测，成功即恢复
+ */
+@Slf4j
+public class SourceHealthTracker {
+
+    private final ConcurrentHashMap<String, Health> healthMap = new ConcurrentHashMap<>();
+
+    private final int failureThreshold;
+
+    private final long baseBackoff;
+
+    private final long maxBackoff;
+
+    public SourceHealthTracker(int failureThreshold, long baseBackoff, long maxBackoff) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseBackoff = Math.max(1L, baseBackoff);
+        this.maxBackoff = Math.max(this.baseBackoff, maxBackoff);
+    }
+
+    /**
+     * 熔断中的数据源直接抛出异常，不访问数据库
+     */
+    public void checkAvailable(String key, String jdbcUrl) throws SourceException {
+        Health health = healthMap.get(key);
+        if (null == health || health.openUntil == 0L) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (health) {
+            if (health.openUntil == 0L) {
+                return;
+            }
+            if (now >= health.openUntil) {
+                // 放行一个探测请求，探测结果未回报前其余请求继续等待一个基础退避周期
+                health.openUntil = now + baseBackoff;
+                return;
+            }
+        }
+        throw new SourceException("datasource is unavailable, retry after " + Math.max(1L, (health.openUntil - now) / 1000) + "s, jdbcUrl: " + jdbcUrl);
+    }
+
+    public void recordSuccess(String key) {
+        Health health = healthMap.get(key);
+        if (null != health && (health.failures > 0 || health.openUntil > 0L)) {
+            synchronized (health) {
+                health.failures = 0;
+                health.openUntil = 0L;
+            }
+        }
+    }
+
+    public void recordFailure(String key, String jdbcUrl) {
+        Health health = healthMap.computeIfAbsent(key, k -> new Health());
+        synchronized (health) {
+            health.failures++;
+            health.lastFailure = System.currentTimeMillis();
+            if (health.failures >= failureThreshold) {
+                int exponent = Math.min(health.failures - failureThreshold, 20);
+                long backoff = Math.min(maxBackoff, baseBackoff << exponent);
+                health.openUntil = health.lastFailure + backoff;
+                log.warn("datasource marked unhealthy for {}ms after {} failures, jdbcUrl: {}", backoff, health.failures, jdbcUrl);
+            }
+        }
+    }
+
+    public void remove(String key) {
+        healthMap.remove(key);
+    }
+
+    public Map<String, Object> getStats(String key) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Health health = healthMap.get(key);
+        long now = System.currentTimeMillis();
+        stats.put("healthy", null == health || health.openUntil <= now);
+        stats.put("failures", null == health ? 0 : health.failures);
+        stats.put("retryAfter", null == health ? 0L : Math.max(0L, health.openUntil - now));
+        return stats;
+    }
+
+    private static final class Health {
+        private volatile int failures;
+        private volatile long openUntil;
+        private volatile long lastFailure;
+    }
+}
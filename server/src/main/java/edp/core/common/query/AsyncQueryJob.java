@@ -0,0 +1,164 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.core.common.query;
+
+import edp.core.common.jdbc.AsyncQueryExecutor;
+import edp.core.enums.QueryJobStatusEnum;
+import edp.core.model.PaginateWithQueryColumns;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * 异步查询任务：由支持异步的执行器（Linkis）直接提交，
+ * 或在共享线程池中执行同步查询
+ */
+@Getter
+public class AsyncQueryJob {
+
+    private final String id;
+
+    private final Long userId;
+
+    private final Long viewId;
+
+    private final String group;
+
+    private final long createTime = System.currentTimeMillis();
+
+    private final AsyncQueryExecutor executor;
+
+    private final String execId;
+
+    private final CancellationTicket ticket;
+
+    private final Future<PaginateWithQueryColumns> future;
+
+    /**
+     * 异步执行器提交的任务在外部执行，提交时获得的准入许可在观察到任务结束后释放
+     */
+    @Getter(AccessLevel.NONE)
+    private final QueryScheduler.Permit permit;
+
+    AsyncQueryJob(String id, Long userId, Long viewId, String group, AsyncQueryExecutor executor, String execId, QueryScheduler.Permit permit) {
+        this.id = id;
+        this.userId = userId;
+        this.viewId = viewId;
+        this.group = group;
+        this.executor = executor;
+        this.execId = execId;
+        this.ticket = null;
+        this.future = null;
+        this.permit = permit;
+    }
+
+    AsyncQueryJob(String id, Long userId, Long viewId, String group, CancellationTicket ticket, Future<PaginateWithQueryColumns> future) {
+        this.id = id;
+        this.userId = userId;
+        this.viewId = viewId;
+        this.group = group;
+        this.executor = null;
+        this.execId = null;
+        this.ticket = ticket;
+        this.future = future;
+        this.permit = null;
+    }
+
+    public QueryJobStatusEnum getStatus() {
+        if (null != executor) {
+            QueryJobStatusEnum status = executor.getStatus(execId);
+            if (status.isCompleted()) {
+                releasePermit();
+            }
+            return status;
+        }
+        if (future.isCancelled()) {
+            return QueryJobStatusEnum.CANCELLED;
+        }
+        if (!future.isDone()) {
+            return QueryJobStatusEnum.RUNNING;
+        }
+        return null == getErrorMessage() ? QueryJobStatusEnum.SUCCEED : QueryJobStatusEnum.FAILED;
+    }
+
+    public float getProgress() {
+        if (null != executor) {
+            return executor.getProgress(execId);
+        }
+        return future.isDone() ? 1f : 0f;
+    }
+
+    public String getErrorMessage() {
+        if (null != executor) {
+            return executor.getErrorMessage(execId);
+        }
+        if (!future.isDone() || future.isCancelled()) {
+            return null;
+        }
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return null == e.getCause() ? e.getMessage() : e.getCause().getMessage();
+        } catch (Exception e) {
+            return e.getMessage();
+        }
+    }
+
+    /**
+     * 读取结果，任务需已成功结束；分页只对异步执行器提交的任务有效
+     */
+    public PaginateWithQueryColumns fetch(int pageNo, int pageSize) throws Exception {
+        if (null != executor) {
+            return executor.fetch(execId, pageNo, pageSize);
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw null != e.getCause() && e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * 线程池中执行的任务先取消已登记的 Statement，再取消任务本身
+     */
+    public boolean cancel() {
+        if (null != executor) {
+            try {
+                return executor.cancel(execId);
+            } finally {
+                releasePermit();
+            }
+        }
+        ticket.cancel();
+        return future.cancel(true);
+    }
+
+    boolean holdsPermit() {
+        return null != permit && !permit.isReleased();
+    }
+
+    void releasePermit() {
+        if (null != permit) {
+            permit.release();
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.core.common.query;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.jdbc.AsyncQueryExecutor;
+import edp.core.exception.QueryRejectedException;
+import edp.core.model.PaginateWithQueryColumns;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static edp.core.consts.Consts.MINUS;
+
+/**
+ * 异步查询任务登记：提交后立即返回任务 id，调用方轮询状态并获取结果；
+ * 任务只保存在当前节点内存中，超过 job-ttl 未完成的任务会被取消
+ */
+@Slf4j
+@Component
+public class AsyncQueryManager {
+
+    public static final String ASYNC_QUERY = "async-query";
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${source.async-query.job-ttl:3600}")
+    private long jobTtl;
+
+    @Value("${source.async-query.max-jobs:10000}")
+    private long maxJobs;
+
+    @Value("${source.async-query.pool-size:8}")
+    private int poolSize;
+
+    @Value("${source.async-query.queue-capacity:128}")
+    private int queueCapacity;
+
+    @Value("${source.async-query.retry-after:10}")
+    private long retryAfter;
+
+    private Cache<String, AsyncQueryJob> jobs;
+
+    @PostConstruct
+    public void init() {
+        jobs = Caffeine.newBuilder()
+                .maximumSize(maxJobs)
+                .expireAfterWrite(jobTtl, TimeUnit.SECONDS)
+                .removalListener((String id, AsyncQueryJob job, RemovalCause cause) -> {
+                    if (null == job) {
+                        return;
+                    }
+                    if (cause.wasEvicted() && !job.getStatus().isCompleted()) {
+                        log.info("async query job {} expired, cancel it", id);
+                        job.cancel();
+                    }
+                    job.releasePermit();
+                })
+                .build();
+    }
+
+    /**
+     * 通过异步执行器提交，不占用线程等待；permit 为提交前获得的准入许可，任务结束、取消或过期时释放
+     */
+    public AsyncQueryJob submit(Long userId, Long viewId, String group, AsyncQueryExecutor executor, String script, QueryScheduler.Permit permit) throws Exception {
+        String execId;
+        try {
+            execId = executor.submit(script);
+        } catch (Exception e) {
+            permit.release();
+            throw e;
+        }
+        return register(new AsyncQueryJob(newId(), userId, viewId, group, executor, execId, permit));
+    }
+
+    /**
+     * 不支持异步提交的数据源在共享线程池中执行，线程池已满时拒绝而不占用请求线程；
+     * 任务执行的查询登记到任务自己的 ticket，取消任务时取消 Statement
+     *
+     * @throws QueryRejectedException 线程池及队列已满
+     */
+    public AsyncQueryJob submit(Long userId, Long viewId, String group, Callable<PaginateWithQueryColumns> query) {
+        String id = newId();
+        CancellationTicket ticket = QueryCancellationRegistry.newTicket(ASYNC_QUERY + MINUS + id);
+        Future<PaginateWithQueryColumns> future;
+        try {
+            future = executorRegistry.get(ASYNC_QUERY, poolSize, queueCapacity, false)
+                    .submit(() -> QueryCancellationRegistry.call(ticket, query));
+        } catch (RejectedExecutionException e) {
+            throw new QueryRejectedException("too many async queries, please retry later", retryAfter);
+        }
+        return register(new AsyncQueryJob(id, userId, viewId, group, ticket, future));
+    }
+
+    /**
+     * 只返回属于该用户的任务
+     */
+    public AsyncQueryJob get(String id, Long userId) {
+        AsyncQueryJob job = null == id ? null : jobs.getIfPresent(id);
+        return null != job && Objects.equals(job.getUserId(), userId) ? job : null;
+    }
+
+    public boolean cancel(String id, Long userId) {
+        AsyncQueryJob job = get(id, userId);
+        if (null == job) {
+            return false;
+        }
+        jobs.invalidate(id);
+        return job.cancel();
+    }
+
+    /**
+     * 取消用户在某个分组（如 dashboard）下所有未完成的任务
+     */
+    public int cancelGroup(String group, Long userId) {
+        List<AsyncQueryJob> groupJobs = jobs.asMap().values().stream()
+                .filter(job -> Objects.equals(job.getUserId(), userId) && Objects.equals(job.getGroup(), group))
+                .collect(Collectors.toList());
+        int cancelled = 0;
+        for (AsyncQueryJob job : groupJobs) {
+            jobs.invalidate(job.getId());
+            if (!job.getStatus().isCompleted() && job.cancel()) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    public void remove(String id) {
+        jobs.invalidate(id);
+    }
+
+    /**
+     * 调用方可能不再轮询，定期检查仍持有许可的异步执行器任务，结束后释放许可
+     */
+    @Scheduled(fixedDelayString = "${source.async-query.status-interval:5000}")
+    public void releaseFinishedPermits() {
+        jobs.asMap().values().stream().filter(AsyncQueryJob::holdsPermit).forEach(job -> {
+            try {
+                job.getStatus();
+            } catch (Exception e) {
+                log.warn("check async query job {} status error: {}", job.getId(), e.getMessage());
+            }
+        });
+    }
+
+    private AsyncQueryJob register(AsyncQueryJob job) {
+        jobs.put(job.getId(), job);
+        return job;
+    }
+
+    private static String newId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+/**
+ * 可取消的执行中查询（JDBC Statement、Linkis 任务等）
+ */
+public interface Cancellable {
+
+    void cancel() throws Exception;
+
+    /**
+     * 已结束的查询不再需要取消，登记时会被清理
+     */
+    default boolean isDone() {
+        return false;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 请求组中某一代请求的查询登记，被更新的一代取代时取消其下所有查询；
+ * 同一代的多个请求共享同一个 ticket
+ */
+@Slf4j
+public class CancellationTicket {
+
+    private final String group;
+
+    private final long generation;
+
+    private final List<Cancellable> handles = new ArrayList<>();
+
+    private boolean cancelled = false;
+
+    CancellationTicket(String group, long generation) {
+        this.group = group;
+        this.generation = generation;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 登记查询，ticket 已取消时立即取消
+     */
+    public void attach(Cancellable handle) {
+        synchronized (this) {
+            if (!cancelled) {
+                handles.removeIf(Cancellable::isDone);
+                handles.add(handle);
+                return;
+            }
+        }
+        cancelQuietly(handle);
+    }
+
+    /**
+     * @return 实际取消的查询数
+     */
+    public int cancel() {
+        List<Cancellable> running;
+        synchronized (this) {
+            if (cancelled) {
+                return 0;
+            }
+            cancelled = true;
+            running = new ArrayList<>(handles);
+            handles.clear();
+        }
+        int count = 0;
+        for (Cancellable handle : running) {
+            if (!handle.isDone() && cancelQuietly(handle)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean cancelQuietly(Cancellable handle) {
+        try {
+            handle.cancel();
+            return true;
+        } catch (Exception e) {
+            log.warn("cancel query of group ({}) generation {} error: {}", group, generation, e.getMessage());
+            return false;
+        }
+    }
+}
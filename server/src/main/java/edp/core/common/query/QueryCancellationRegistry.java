@@ -0,0 +1,196 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.exception.QueryCancelledException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 取消被取代的查询：
+ * 客户端为每个组件的请求携带请求组（如 dashboard + widget）及递增的代数，
+ * 同一用户同一请求组出现更新的一代时，取消旧一代仍在执行的 JDBC Statement 与 Linkis 任务；
+ * 当前请求的 ticket 绑定在线程上，执行查询处通过 attachCurrent 登记；
+ * ticket 可以嵌套（如异步任务内再执行带请求组的查询），查询同时登记到外层 ticket
+ */
+@Slf4j
+@Component
+public class QueryCancellationRegistry {
+
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final LongAdder superseded = new LongAdder();
+
+    private final LongAdder stale = new LongAdder();
+
+    private final LongAdder cancelledQueries = new LongAdder();
+
+    @Value("${source.query-cancel.enable:true}")
+    private boolean enable;
+
+    @Value("${source.query-cancel.group-ttl:1800}")
+    private long groupTtl;
+
+    @Value("${source.query-cancel.max-groups:100000}")
+    private long maxGroups;
+
+    private Cache<String, CancellationTicket> tickets;
+
+    @PostConstruct
+    public void init() {
+        tickets = Caffeine.newBuilder()
+                .maximumSize(maxGroups)
+                .expireAfterAccess(groupTtl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 登记请求组的一代请求，并取消该组更早一代的查询
+     *
+     * @param group      请求组，为空时不参与取消
+     * @param generation 代数，为空时不参与取消
+     * @return ticket，不参与取消时返回 null
+     * @throws QueryCancelledException 该组已有更新的一代
+     */
+    public CancellationTicket open(String group, Long generation) {
+        if (!enable || StringUtils.isEmpty(group) || null == generation) {
+            return null;
+        }
+        CancellationTicket ticket = new CancellationTicket(group, generation);
+        CancellationTicket[] previous = new CancellationTicket[1];
+        CancellationTicket current = tickets.asMap().compute(group, (k, v) -> {
+            if (null != v && v.getGeneration() >= generation) {
+                return v;
+            }
+            previous[0] = v;
+            return ticket;
+        });
+
+        if (current.getGeneration() > generation) {
+            stale.increment();
+            throw new QueryCancelledException("query of generation " + generation + " is superseded by " + current.getGeneration());
+        }
+        if (null != previous[0]) {
+            superseded.increment();
+            int count = previous[0].cancel();
+            if (count > 0) {
+                cancelledQueries.add(count);
+                log.info("cancel {} superseded queries of group ({}) generation {}", count, group, previous[0].getGeneration());
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 新建不属于任何请求组的 ticket，由创建方自行取消（如异步任务、看板批量查询）
+     */
+    public static CancellationTicket newTicket(String name) {
+        return new CancellationTicket(name, 0L);
+    }
+
+    /**
+     * 在 ticket 绑定的线程上执行，ticket 为空时直接执行
+     */
+    public static <T> T call(CancellationTicket ticket, Callable<T> task) throws Exception {
+        if (null == ticket) {
+            return task.call();
+        }
+        Scope outer = CURRENT.get();
+        CURRENT.set(new Scope(ticket, outer));
+        try {
+            return task.call();
+        } finally {
+            if (null == outer) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    public static CancellationTicket current() {
+        Scope scope = CURRENT.get();
+        return null == scope ? null : scope.ticket;
+    }
+
+    /**
+     * 将查询登记到当前线程的 ticket 及其外层 ticket，没有 ticket 时忽略
+     */
+    public static void attachCurrent(Cancellable handle) {
+        for (Scope scope = CURRENT.get(); null != scope; scope = scope.outer) {
+            scope.ticket.attach(handle);
+        }
+    }
+
+    public static boolean isCurrentCancelled() {
+        return null != cancelledTicket();
+    }
+
+    /**
+     * @throws QueryCancelledException 当前请求已被取代或取消
+     */
+    public static void checkCancelled() {
+        CancellationTicket ticket = cancelledTicket();
+        if (null != ticket) {
+            throw new QueryCancelledException("query of group (" + ticket.getGroup() + ") generation " + ticket.getGeneration() + " is cancelled");
+        }
+    }
+
+    private static CancellationTicket cancelledTicket() {
+        for (Scope scope = CURRENT.get(); null != scope; scope = scope.outer) {
+            if (scope.ticket.isCancelled()) {
+                return scope.ticket;
+            }
+        }
+        return null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enable", enable);
+        stats.put("groups", tickets.estimatedSize());
+        stats.put("superseded", superseded.sum());
+        stats.put("stale", stale.sum());
+        stats.put("cancelledQueries", cancelledQueries.sum());
+        return stats;
+    }
+
+
+    private static final class Scope {
+        private final CancellationTicket ticket;
+        private final Scope outer;
+
+        Scope(CancellationTicket ticket, Scope outer) {
+            this.ticket = ticket;
+            this.outer = outer;
+        }
+    }
+}
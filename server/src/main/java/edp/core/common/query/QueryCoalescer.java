@@ -0,0 +1,238 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import edp.core.exception.QueryCancelledException;
+import edp.core.exception.QueryRejectedException;
+import edp.core.exception.ServerException;
+import edp.core.model.ColumnarPaginate;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.utils.MD5Util;
+import edp.core.utils.RedisUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import static edp.core.consts.Consts.MINUS;
+import static edp.core.consts.Consts.SPACE;
+
+/**
+ * 相同查询合并执行（single-flight）：
+ * 同一节点上并发的相同查询只执行一次，其余请求等待并各自获得结果的浅拷贝；
+ * 开启集群模式后通过 Redis 锁在节点间合并，未抢到锁的节点轮询结果
+ */
+@Slf4j
+@Component
+public class QueryCoalescer {
+
+    private static final String LOCK_PREFIX = "visualis:inflight:lock:";
+
+    private static final String RESULT_PREFIX = "visualis:inflight:result:";
+
+    private static final Pattern PATTERN_BLANK = Pattern.compile("\\s+");
+
+    private final ConcurrentHashMap<String, CompletableFuture<PaginateWithQueryColumns>> inflight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder clusterHits = new LongAdder();
+
+    private final LongAdder waitMillis = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    @Value("${source.query-coalesce.enable:true}")
+    private boolean enable;
+
+    @Value("${source.query-coalesce.cluster:false}")
+    private boolean cluster;
+
+    @Value("${source.query-coalesce.wait-timeout:600000}")
+    private long waitTimeout;
+
+    @Value("${source.query-coalesce.lock-ttl:600000}")
+    private long lockTtl;
+
+    @Value("${source.query-coalesce.result-ttl:10000}")
+    private long resultTtl;
+
+    @Value("${source.query-coalesce.poll-interval:200}")
+    private long pollInterval;
+
+    /**
+     * 合并键：规整空白后的最终 SQL + 数据源 + 分页参数 + 列权限
+     */
+    public String buildKey(Long sourceId, String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(sourceId).append(MINUS)
+                .append(pageNo).append(MINUS)
+                .append(pageSize).append(MINUS)
+                .append(totalCount).append(MINUS)
+                .append(limit).append(MINUS);
+        if (null != excludeColumns) {
+            new TreeSet<>(excludeColumns).forEach(c -> builder.append(c).append(MINUS));
+        }
+        builder.append(PATTERN_BLANK.matcher(sql.trim()).replaceAll(SPACE));
+        return MD5Util.getMD5(builder.toString(), true, 32);
+    }
+
+    public PaginateWithQueryColumns execute(String key, Callable<PaginateWithQueryColumns> loader) throws Exception {
+        if (!enable) {
+            return loader.call();
+        }
+
+        CompletableFuture<PaginateWithQueryColumns> future = new CompletableFuture<>();
+        CompletableFuture<PaginateWithQueryColumns> running = inflight.putIfAbsent(key, future);
+        if (null != running) {
+            hits.increment();
+            return await(key, running, loader);
+        }
+
+        misses.increment();
+        try {
+            PaginateWithQueryColumns paginate = isClusterEnable() ? executeInCluster(key, loader) : loader.call();
+            future.complete(paginate);
+            return paginate;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enable", enable);
+        stats.put("cluster", isClusterEnable());
+        stats.put("inflight", inflight.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("clusterHits", clusterHits.sum());
+        stats.put("waitMillis", waitMillis.sum());
+        stats.put("timeouts", timeouts.sum());
+        return stats;
+    }
+
+    private PaginateWithQueryColumns await(String key, CompletableFuture<PaginateWithQueryColumns> running, Callable<PaginateWithQueryColumns> loader) throws Exception {
+        long start = System.currentTimeMillis();
+        try {
+            PaginateWithQueryColumns paginate = running.get(waitTimeout, TimeUnit.MILLISECONDS);
+            //调用方会修改分页字段与结果列表，不与发起方共享同一实例
+            return null == paginate ? null : paginate.copy();
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            log.warn("wait for inflight query ({}) timeout, execute directly", key);
+            return loader.call();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof QueryCancelledException && !QueryCancellationRegistry.isCurrentCancelled()) {
+                //发起方的请求被取代，本请求仍有效，自行执行
+                return loader.call();
+            }
+            if (cause instanceof QueryRejectedException) {
+                //发起方按其自身配额被拒绝，本请求按自己的配额重新申请执行
+                return loader.call();
+            }
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new ServerException(cause.getMessage(), cause);
+        } finally {
+            waitMillis.add(System.currentTimeMillis() - start);
+        }
+    }
+
+    private PaginateWithQueryColumns executeInCluster(String key, Callable<PaginateWithQueryColumns> loader) throws Exception {
+        String lockKey = LOCK_PREFIX + key;
+        String resultKey = RESULT_PREFIX + key;
+        String token = UUID.randomUUID().toString();
+
+        long start = System.currentTimeMillis();
+        while (!redisUtils.setIfAbsent(lockKey, token, lockTtl)) {
+            PaginateWithQueryColumns paginate = getClusterResult(resultKey);
+            if (null != paginate) {
+                clusterHits.increment();
+                waitMillis.add(System.currentTimeMillis() - start);
+                return paginate;
+            }
+            if (System.currentTimeMillis() - start > waitTimeout) {
+                timeouts.increment();
+                waitMillis.add(System.currentTimeMillis() - start);
+                log.warn("wait for cluster inflight query ({}) timeout, execute directly", key);
+                return loader.call();
+            }
+            Thread.sleep(pollInterval);
+        }
+        waitMillis.add(System.currentTimeMillis() - start);
+
+        try {
+            PaginateWithQueryColumns paginate = loader.call();
+            if (null != paginate) {
+                try {
+                    redisUtils.set(resultKey, ColumnarPaginate.of(paginate), resultTtl);
+                } catch (Exception e) {
+                    log.warn("publish inflight query result error: {}", e.getMessage());
+                }
+            }
+            return paginate;
+        } finally {
+            try {
+                redisUtils.deleteIfEquals(lockKey, token);
+            } catch (Exception e) {
+                log.warn("release inflight query lock error: {}", e.getMessage());
+            }
+        }
+    }
+
+    private PaginateWithQueryColumns getClusterResult(String resultKey) {
+        try {
+            Object object = redisUtils.get(resultKey);
+            if (object instanceof ColumnarPaginate) {
+                return ((ColumnarPaginate) object).toPaginate();
+            }
+            if (object instanceof PaginateWithQueryColumns) {
+                return (PaginateWithQueryColumns) object;
+            }
+        } catch (Exception e) {
+            log.warn("get inflight query result error: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    private boolean isClusterEnable() {
+        return cluster && redisUtils.isRedisEnable();
+    }
+}
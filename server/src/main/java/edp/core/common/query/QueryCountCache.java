@@ -0,0 +1,151 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.utils.MD5Util;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import static edp.core.consts.Consts.AT_SYMBOL;
+import static edp.core.consts.Consts.SPACE;
+
+/**
+ * 分页总数缓存：总数查询在独立线程池中与取数并行执行，
+ * 结果按数据源及规范化后的 count sql 缓存，相同的总数查询在执行中时只执行一次
+ */
+@Slf4j
+@Component
+public class QueryCountCache {
+
+    public static final String QUERY_COUNT = "query-count";
+
+    private static final Pattern PATTERN_BLANK = Pattern.compile("\\s+");
+
+    private final ConcurrentHashMap<String, CompletableFuture<Long>> inflight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder estimates = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private Cache<String, Long> counts;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    /**
+     * 秒
+     */
+    @Value("${source.count-cache.ttl:300}")
+    private long ttl;
+
+    @Value("${source.count-cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${source.count-cache.pool-size:8}")
+    private int poolSize;
+
+    @Value("${source.count-cache.queue-capacity:256}")
+    private int queueCapacity;
+
+    @PostConstruct
+    public void init() {
+        counts = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Math.max(ttl, 1L), TimeUnit.SECONDS)
+                .build();
+    }
+
+    public String buildKey(String jdbcUrl, String username, String countSql) {
+        return MD5Util.getMD5(username + AT_SYMBOL + jdbcUrl + AT_SYMBOL + PATTERN_BLANK.matcher(countSql.trim()).replaceAll(SPACE), true, 32);
+    }
+
+    public Long getIfPresent(String key) {
+        Long count = counts.getIfPresent(key);
+        if (null != count) {
+            hits.increment();
+        }
+        return count;
+    }
+
+    /**
+     * 异步计算总数，已缓存时直接返回已完成的 future
+     */
+    public CompletableFuture<Long> count(String key, Callable<Long> counter) {
+        Long cached = getIfPresent(key);
+        if (null != cached) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        CompletableFuture<Long> running = inflight.putIfAbsent(key, future);
+        if (null != running) {
+            return running;
+        }
+        misses.increment();
+        executorRegistry.get(QUERY_COUNT, poolSize, queueCapacity).execute(() -> {
+            try {
+                Long count = counter.call();
+                if (null != count) {
+                    counts.put(key, count);
+                }
+                future.complete(count);
+            } catch (Throwable e) {
+                failures.increment();
+                future.completeExceptionally(e);
+            } finally {
+                inflight.remove(key, future);
+            }
+        });
+        return future;
+    }
+
+    public void recordEstimate() {
+        estimates.increment();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", counts.estimatedSize());
+        stats.put("inflight", inflight.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("estimates", estimates.sum());
+        stats.put("failures", failures.sum());
+        return stats;
+    }
+}
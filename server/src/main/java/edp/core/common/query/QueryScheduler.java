@@ -0,0 +1,479 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import edp.core.enums.QueryPriorityEnum;
+import edp.core.exception.QueryRejectedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 查询准入控制：按用户、项目、数据源分别限制并发，
+ * 超出并发的查询按优先级（交互 > 下载 > 定时任务）及先后顺序排队，
+ * 队列已满或等待超时时拒绝并给出建议的重试时间
+ */
+@Slf4j
+@Component
+public class QueryScheduler {
+
+    private static final String SCOPE_USER = "user";
+
+    private static final String SCOPE_PROJECT = "project";
+
+    private static final String SCOPE_SOURCE = "source";
+
+    private static final ThreadLocal<QueryPriorityEnum> PRIORITY = new ThreadLocal<>();
+
+    private static final ThreadLocal<Admission> ADMISSION = new ThreadLocal<>();
+
+    /**
+     * 有查询执行或排队的 gate 不过期，空闲超过 gate-idle-timeout 后移除
+     */
+    private Cache<String, Gate> gates;
+
+    @Value("${source.scheduler.enable:true}")
+    private boolean enable;
+
+    @Value("${source.scheduler.per-user:4}")
+    private int perUser;
+
+    @Value("${source.scheduler.per-project:16}")
+    private int perProject;
+
+    /**
+     * 未单独配置连接池时的数据源并发上限
+     */
+    @Value("${source.scheduler.per-source:${source.max-active:10}}")
+    private int perSource;
+
+    @Value("${source.scheduler.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${source.scheduler.max-wait:30000}")
+    private long maxWait;
+
+    /**
+     * 秒
+     */
+    @Value("${source.scheduler.gate-idle-timeout:600}")
+    private long gateIdleTimeout;
+
+    @PostConstruct
+    public void init() {
+        long idleNanos = TimeUnit.SECONDS.toNanos(Math.max(1L, gateIdleTimeout));
+        gates = Caffeine.newBuilder()
+                .expireAfter(new Expiry<String, Gate>() {
+                    @Override
+                    public long expireAfterCreate(String key, Gate gate, long currentTime) {
+                        return gate.isBusy() ? Long.MAX_VALUE : idleNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Gate gate, long currentTime, long currentDuration) {
+                        return gate.isBusy() ? Long.MAX_VALUE : idleNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Gate gate, long currentTime, long currentDuration) {
+                        return gate.isBusy() ? Long.MAX_VALUE : idleNanos;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * 设置当前线程后续查询的优先级，需与 clearPriority 成对使用
+     */
+    public static void setPriority(QueryPriorityEnum priority) {
+        PRIORITY.set(priority);
+    }
+
+    public static void clearPriority() {
+        PRIORITY.remove();
+    }
+
+    public static QueryPriorityEnum currentPriority() {
+        QueryPriorityEnum priority = PRIORITY.get();
+        return null == priority ? QueryPriorityEnum.INTERACTIVE : priority;
+    }
+
+    /**
+     * 当前线程正在执行的查询所获得的准入，不在 execute 内时返回 null
+     */
+    public static Admission currentAdmission() {
+        return ADMISSION.get();
+    }
+
+    /**
+     * 获得用户、项目、数据源三级许可后执行查询，为空的维度不限制
+     *
+     * @param sourceKey   数据源标识
+     * @param sourceLimit 数据源并发上限，小于 1 时使用 source.scheduler.per-source
+     * @param projectId
+     * @param userId
+     * @param task
+     */
+    public <T> T execute(String sourceKey, int sourceLimit, Long projectId, Long userId, Callable<T> task) throws Exception {
+        if (!enable) {
+            return task.call();
+        }
+        Deque<Gate> acquired = new ArrayDeque<>(3);
+        try {
+            acquireAll(sourceKey, sourceLimit, projectId, userId, acquired);
+
+            Admission outer = ADMISSION.get();
+            ADMISSION.set(new Admission(new ArrayList<>(acquired)));
+            long start = System.currentTimeMillis();
+            try {
+                return task.call();
+            } finally {
+                long cost = System.currentTimeMillis() - start;
+                acquired.forEach(g -> g.recordRun(cost));
+                if (null == outer) {
+                    ADMISSION.remove();
+                } else {
+                    ADMISSION.set(outer);
+                }
+            }
+        } finally {
+            while (!acquired.isEmpty()) {
+                release(acquired.pollLast());
+            }
+        }
+    }
+
+    /**
+     * 获得与 execute 相同的三级许可，许可不随调用返回而释放；
+     * 用于提交后在外部执行的任务（如 Linkis 异步任务），任务结束时调用 Permit.release()
+     *
+     * @throws QueryRejectedException 队列已满或等待超时
+     */
+    public Permit acquire(String sourceKey, int sourceLimit, Long projectId, Long userId) throws InterruptedException {
+        Deque<Gate> acquired = new ArrayDeque<>(3);
+        if (!enable) {
+            return new Permit(acquired);
+        }
+        try {
+            acquireAll(sourceKey, sourceLimit, projectId, userId, acquired);
+        } catch (InterruptedException | RuntimeException e) {
+            while (!acquired.isEmpty()) {
+                release(acquired.pollLast());
+            }
+            throw e;
+        }
+        return new Permit(acquired);
+    }
+
+    /**
+     * 在主查询的准入范围内执行附属查询（如分页总数），附属查询在相同的用户、项目、数据源上各占一个许可；
+     * 主查询会等待附属查询，因此附属查询不排队，许可不能立即获得时直接拒绝，由调用方在主查询的许可内串行执行
+     *
+     * @param admission 主查询的准入，为空时直接执行
+     * @param task
+     * @throws QueryRejectedException 没有空闲许可
+     */
+    public <T> T executeAlongside(Admission admission, Callable<T> task) throws Exception {
+        if (!enable || null == admission) {
+            return task.call();
+        }
+        Deque<Gate> acquired = new ArrayDeque<>(admission.gates.size());
+        try {
+            for (Gate gate : admission.gates) {
+                gate.acquireNow();
+                acquired.addLast(gate);
+                touch(gate);
+            }
+            long start = System.currentTimeMillis();
+            try {
+                return task.call();
+            } finally {
+                long cost = System.currentTimeMillis() - start;
+                acquired.forEach(g -> g.recordRun(cost));
+            }
+        } finally {
+            while (!acquired.isEmpty()) {
+                release(acquired.pollLast());
+            }
+        }
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> list = new ArrayList<>();
+        gates.asMap().values().forEach(g -> list.add(g.getStats()));
+        return list;
+    }
+
+    private void acquireAll(String sourceKey, int sourceLimit, Long projectId, Long userId, Deque<Gate> acquired) throws InterruptedException {
+        QueryPriorityEnum priority = currentPriority();
+        // 固定按 用户 -> 项目 -> 数据源 的顺序获取，避免相互等待
+        if (null != userId) {
+            acquire(gate(SCOPE_USER, String.valueOf(userId), perUser), priority, acquired);
+        }
+        if (null != projectId) {
+            acquire(gate(SCOPE_PROJECT, String.valueOf(projectId), perProject), priority, acquired);
+        }
+        if (null != sourceKey) {
+            acquire(gate(SCOPE_SOURCE, sourceKey, sourceLimit > 0 ? sourceLimit : perSource), priority, acquired);
+        }
+    }
+
+    private void acquire(Gate gate, QueryPriorityEnum priority, Deque<Gate> acquired) throws InterruptedException {
+        gate.acquire(priority.getLevel(), maxWait, queueCapacity);
+        acquired.addLast(gate);
+        touch(gate);
+    }
+
+    private void release(Gate gate) {
+        gate.release();
+        touch(gate);
+    }
+
+    /**
+     * 许可变化后按 gate 是否空闲重新计算过期时间；gate 在获取许可前已过期时重新登记，避免同一范围出现两个 gate
+     */
+    private void touch(Gate gate) {
+        gates.asMap().compute(gate.key, (k, v) -> null == v ? gate : v);
+    }
+
+    private Gate gate(String scope, String name, int permits) {
+        Gate gate = gates.get(scope + ":" + name, k -> new Gate(scope, name, permits));
+        gate.permits = Math.max(1, permits);
+        return gate;
+    }
+
+
+    private static final class Gate {
+        private final String key;
+        private final String scope;
+        private final String name;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final PriorityQueue<Waiter> queue = new PriorityQueue<>();
+        private volatile int permits;
+        private int active;
+        private long sequence;
+        private long admitted;
+        private long queued;
+        private long rejected;
+        private long waitMillis;
+        private long completed;
+        private long runMillis;
+
+        Gate(String scope, String name, int permits) {
+            this.key = scope + ":" + name;
+            this.scope = scope;
+            this.name = name;
+            this.permits = Math.max(1, permits);
+        }
+
+        void acquire(int level, long timeoutMillis, int capacity) throws InterruptedException {
+            lock.lock();
+            try {
+                if (active < permits && queue.isEmpty()) {
+                    active++;
+                    admitted++;
+                    return;
+                }
+                if (queue.size() >= capacity) {
+                    rejected++;
+                    throw new QueryRejectedException("too many queries on " + scope + " " + name + ", please retry later", retryAfter());
+                }
+
+                Waiter waiter = new Waiter(level, sequence++, lock.newCondition());
+                queue.add(waiter);
+                queued++;
+                long start = System.currentTimeMillis();
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                try {
+                    while (!waiter.granted) {
+                        if (nanos <= 0L) {
+                            queue.remove(waiter);
+                            rejected++;
+                            throw new QueryRejectedException("query waited too long on " + scope + " " + name + ", please retry later", retryAfter());
+                        }
+                        nanos = waiter.condition.awaitNanos(nanos);
+                    }
+                } catch (InterruptedException e) {
+                    if (waiter.granted) {
+                        releaseLocked();
+                    } else {
+                        queue.remove(waiter);
+                    }
+                    throw e;
+                }
+                admitted++;
+                waitMillis += System.currentTimeMillis() - start;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void acquireNow() {
+            lock.lock();
+            try {
+                if (active < permits && queue.isEmpty()) {
+                    active++;
+                    admitted++;
+                    return;
+                }
+                throw new QueryRejectedException("no free permit on " + scope + " " + name, retryAfter());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean isBusy() {
+            lock.lock();
+            try {
+                return active > 0 || !queue.isEmpty();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release() {
+            lock.lock();
+            try {
+                releaseLocked();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void recordRun(long cost) {
+            lock.lock();
+            try {
+                completed++;
+                runMillis += cost;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 许可直接转交给队首的等待者
+         */
+        private void releaseLocked() {
+            Waiter next = active <= permits ? queue.poll() : null;
+            if (null != next) {
+                next.granted = true;
+                next.condition.signal();
+            } else {
+                active--;
+            }
+        }
+
+        /**
+         * 按平均执行时间估算排在队尾时的等待秒数
+         */
+        private long retryAfter() {
+            long avg = completed > 0 ? runMillis / completed : 1000L;
+            return Math.max(1L, avg * (queue.size() + 1) / permits / 1000L);
+        }
+
+        Map<String, Object> getStats() {
+            lock.lock();
+            try {
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("scope", scope);
+                stats.put("name", name);
+                stats.put("permits", permits);
+                stats.put("active", active);
+                stats.put("queueDepth", queue.size());
+                stats.put("admitted", admitted);
+                stats.put("queued", queued);
+                stats.put("rejected", rejected);
+                stats.put("avgWaitMillis", queued > 0 ? waitMillis / queued : 0L);
+                stats.put("avgRunMillis", completed > 0 ? runMillis / completed : 0L);
+                return stats;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 查询获得许可的各级 gate，用于附属查询在同一范围内准入
+     */
+    public static final class Admission {
+        private final List<Gate> gates;
+
+        private Admission(List<Gate> gates) {
+            this.gates = gates;
+        }
+    }
+
+    /**
+     * acquire 获得的许可，release 可重复调用，只释放一次
+     */
+    public final class Permit {
+        private final Deque<Gate> gates;
+        private final long start = System.currentTimeMillis();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Deque<Gate> gates) {
+            this.gates = gates;
+        }
+
+        public void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            long cost = System.currentTimeMillis() - start;
+            gates.forEach(g -> g.recordRun(cost));
+            while (!gates.isEmpty()) {
+                QueryScheduler.this.release(gates.pollLast());
+            }
+        }
+
+        public boolean isReleased() {
+            return released.get();
+        }
+    }
+
+    private static final class Waiter implements Comparable<Waiter> {
+        private final int level;
+        private final long sequence;
+        private final Condition condition;
+        private boolean granted;
+
+        Waiter(int level, long sequence, Condition condition) {
+            this.level = level;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        @Override
+        public int compareTo(Waiter o) {
+            return level != o.level ? Integer.compare(level, o.level) : Long.compare(sequence, o.sequence);
+        }
+    }
+}
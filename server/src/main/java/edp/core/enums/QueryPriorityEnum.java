@@ -0,0 +1,56 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.enums;
+
+/**
+ * 查询优先级，数值越小越先获得执行许可
+ */
+public enum QueryPriorityEnum {
+
+    /**
+     * 看板、分享页等交互查询
+     */
+    INTERACTIVE(0),
+
+    /**
+     * 下载导出
+     */
+    DOWNLOAD(1),
+
+    /**
+     * 定时任务（邮件等）
+     */
+    SCHEDULE(2),
+
+    /**
+     * 结果缓存后台刷新等可延后的查询
+     */
+    BACKGROUND(3);
+
+    private int level;
+
+    QueryPriorityEnum(int level) {
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+}
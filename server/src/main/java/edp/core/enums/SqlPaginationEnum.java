@@ -0,0 +1,156 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.enums;
+
+import com.alibaba.druid.util.StringUtils;
+
+/**
+ * 分页下推方式，按数据源方言将分页改写进 sql，不支持下推时返回 null，由 ResultSet 跳过前置行
+ */
+public enum SqlPaginationEnum {
+
+    /**
+     * LIMIT offset, size
+     */
+    LIMIT_COMMA("limit_comma", false),
+
+    /**
+     * LIMIT size OFFSET offset
+     */
+    LIMIT_OFFSET("limit_offset", false),
+
+    /**
+     * LIMIT size OFFSET offset，sql 需有最外层 ORDER BY（impala）
+     */
+    ORDERED_LIMIT_OFFSET("ordered_limit_offset", true),
+
+    /**
+     * OFFSET offset ROWS FETCH NEXT size ROWS ONLY，sql 需有最外层 ORDER BY（sqlserver 2012+）
+     */
+    OFFSET_FETCH("offset_fetch", true),
+
+    /**
+     * oracle ROWNUM 嵌套查询，结果中多出 ROW_NUM_COLUMN 列
+     */
+    ROWNUM("rownum", false),
+
+    NONE("none", false);
+
+    public static final String ROW_NUM_COLUMN = "VISUALIS_RN";
+
+    private String type;
+
+    private boolean orderRequired;
+
+    SqlPaginationEnum(String type, boolean orderRequired) {
+        this.type = type;
+        this.orderRequired = orderRequired;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * 生成分页 sql
+     *
+     * @param sql
+     * @param offset 跳过的行数
+     * @param size   返回的行数
+     * @return 不支持下推时返回 null
+     */
+    public String paginate(String sql, int offset, int size) {
+        if (this == NONE || (orderRequired && !hasOuterOrderBy(sql))) {
+            return null;
+        }
+        offset = Math.max(offset, 0);
+        size = Math.max(size, 0);
+        switch (this) {
+            case LIMIT_COMMA:
+                return sql + " LIMIT " + offset + ", " + size;
+            case LIMIT_OFFSET:
+            case ORDERED_LIMIT_OFFSET:
+                return sql + " LIMIT " + size + " OFFSET " + offset;
+            case OFFSET_FETCH:
+                return sql + " OFFSET " + offset + " ROWS FETCH NEXT " + size + " ROWS ONLY";
+            case ROWNUM:
+                return "SELECT * FROM (SELECT P.*, ROWNUM " + ROW_NUM_COLUMN + " FROM (" + sql + ") P WHERE ROWNUM <= " + (offset + size) + ") WHERE " + ROW_NUM_COLUMN + " > " + offset;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 自定义数据源（datasource_driver.yml 中的 paginate）优先，其次按内置数据源类型
+     */
+    public static SqlPaginationEnum typeOf(String type) {
+        if (!StringUtils.isEmpty(type)) {
+            for (SqlPaginationEnum paginationEnum : values()) {
+                if (paginationEnum.type.equalsIgnoreCase(type.trim())) {
+                    return paginationEnum;
+                }
+            }
+        }
+        return NONE;
+    }
+
+    public static SqlPaginationEnum of(DataTypeEnum dataTypeEnum) {
+        if (null == dataTypeEnum) {
+            return NONE;
+        }
+        switch (dataTypeEnum) {
+            case MYSQL:
+                return LIMIT_COMMA;
+            case H2:
+            case PHOENIX:
+            case CLICKHOUSE:
+            case KYLIN:
+            case VERTICA:
+            case HANA:
+                return LIMIT_OFFSET;
+            case IMPALA:
+                return ORDERED_LIMIT_OFFSET;
+            case SQLSERVER:
+                return OFFSET_FETCH;
+            case ORACLE:
+                return ROWNUM;
+            default:
+                return NONE;
+        }
+    }
+
+    private static boolean hasOuterOrderBy(String sql) {
+        String lower = sql.toLowerCase();
+        int index = lower.lastIndexOf("order by");
+        if (index < 0) {
+            return false;
+        }
+        int depth = 0;
+        for (int i = index; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth < 0) {
+                return false;
+            }
+        }
+        return depth == 0;
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列式存储的一列数据，数值列使用原始类型数组，字符串列使用字典编码，空值使用位图标记
+ */
+@Getter
+@Setter
+public abstract class ColumnVector implements Serializable {
+
+    private static final long serialVersionUID = -2739475301924733511L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    protected int size;
+
+    protected long[] nulls;
+
+    public abstract Object get(int row);
+
+    /**
+     * 按列下标从JDBC ResultSet读取当前行的值
+     */
+    public abstract void read(ResultSet rs, int index) throws SQLException;
+
+    public abstract boolean accepts(Object value);
+
+    protected abstract void appendValue(Object value);
+
+    protected abstract void ensureCapacity(int capacity);
+
+    public abstract void trim();
+
+    /**
+     * 估算占用的堆内存字节数，用于按容量限制缓存
+     */
+    public abstract long estimateBytes();
+
+    protected long nullsBytes() {
+        return null == nulls ? 0L : 16L + 8L * nulls.length;
+    }
+
+    public void append(Object value) {
+        if (null == value) {
+            appendNull();
+        } else {
+            appendValue(value);
+        }
+    }
+
+    public void appendNull() {
+        ensureCapacity(size + 1);
+        markNull(size);
+        size++;
+    }
+
+    public boolean isNull(int row) {
+        int word = row >>> 6;
+        return null != nulls && word < nulls.length && (nulls[word] & (1L << row)) != 0;
+    }
+
+    protected void markNull(int row) {
+        int word = row >>> 6;
+        if (null == nulls) {
+            nulls = new long[Math.max(word + 1, 1)];
+        } else if (word >= nulls.length) {
+            nulls = Arrays.copyOf(nulls, Math.max(word + 1, nulls.length * 2));
+        }
+        nulls[word] |= 1L << row;
+    }
+
+    protected void trimNulls() {
+        if (null != nulls) {
+            int words = size == 0 ? 0 : ((size - 1) >>> 6) + 1;
+            if (words < nulls.length) {
+                nulls = Arrays.copyOf(nulls, words);
+            }
+        }
+    }
+
+    protected static int grow(int current, int required) {
+        int capacity = current == 0 ? INITIAL_CAPACITY : current;
+        while (capacity < required) {
+            capacity = capacity + (capacity >> 1);
+        }
+        return capacity;
+    }
+
+    /**
+     * 当值与列类型不匹配时（如Linkis结果集中的非数值），退化为对象列
+     */
+    public ObjectVector toObjectVector() {
+        ObjectVector vector = new ObjectVector();
+        vector.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            vector.append(get(i));
+        }
+        return vector;
+    }
+
+    /**
+     * 根据 java.sql.Types 选择列存储类型
+     */
+    public static ColumnVector forSqlType(int sqlType, boolean signed) {
+        switch (sqlType) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+                return new IntVector();
+            case Types.INTEGER:
+                return signed ? new IntVector() : new LongVector();
+            case Types.BIGINT:
+                return signed ? new LongVector() : new ObjectVector();
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return new DoubleVector();
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+            case Types.LONGNVARCHAR:
+                return new StringVector();
+            default:
+                return new ObjectVector();
+        }
+    }
+
+    /**
+     * 根据类型名（Linkis结果集元数据）选择列存储类型
+     */
+    public static ColumnVector forTypeName(String typeName) {
+        if (null == typeName) {
+            return new ObjectVector();
+        }
+        switch (typeName.trim().toLowerCase()) {
+            case "tinyint":
+            case "smallint":
+            case "int":
+            case "integer":
+                return new IntVector();
+            case "bigint":
+            case "long":
+                return new LongVector();
+            case "double":
+                return new DoubleVector();
+            case "string":
+            case "char":
+            case "varchar":
+                return new StringVector();
+            default:
+                return new ObjectVector();
+        }
+    }
+
+
+    @Getter
+    @Setter
+    public static class IntVector extends ColumnVector {
+        private static final long serialVersionUID = 5467340385730364185L;
+
+        private int[] values = new int[0];
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        public void read(ResultSet rs, int index) throws SQLException {
+            int v = rs.getInt(index);
+            if (rs.wasNull()) {
+                appendNull();
+            } else {
+                ensureCapacity(size + 1);
+                values[size++] = v;
+            }
+        }
+
+        @Override
+        public boolean accepts(Object value) {
+            return null == value || value instanceof Integer;
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            ensureCapacity(size + 1);
+            values[size++] = (Integer) value;
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        public void trim() {
+            if (values.length > size) {
+                values = Arrays.copyOf(values, size);
+            }
+            trimNulls();
+        }
+
+        @Override
+        public long estimateBytes() {
+            return 16L + 4L * values.length + nullsBytes();
+        }
+    }
+
+
+    @Getter
+    @Setter
+    public static class LongVector extends ColumnVector {
+        private static final long serialVersionUID = -3051868012372917632L;
+
+        private long[] values = new long[0];
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        public void read(ResultSet rs, int index) throws SQLException {
+            long v = rs.getLong(index);
+            if (rs.wasNull()) {
+                appendNull();
+            } else {
+                ensureCapacity(size + 1);
+                values[size++] = v;
+            }
+        }
+
+        @Override
+        public boolean accepts(Object value) {
+            return null == value || value instanceof Long;
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            ensureCapacity(size + 1);
+            values[size++] = (Long) value;
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        public void trim() {
+            if (values.length > size) {
+                values = Arrays.copyOf(values, size);
+            }
+            trimNulls();
+        }
+
+        @Override
+        public long estimateBytes() {
+            return 16L + 8L * values.length + nullsBytes();
+        }
+    }
+
+
+    @Getter
+    @Setter
+    public static class DoubleVector extends ColumnVector {
+        private static final long serialVersionUID = 8808937504123581377L;
+
+        private double[] values = new double[0];
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : values[row];
+        }
+
+        @Override
+        public void read(ResultSet rs, int index) throws SQLException {
+            double v = rs.getDouble(index);
+            if (rs.wasNull()) {
+                appendNull();
+            } else {
+                ensureCapacity(size + 1);
+                values[size++] = v;
+            }
+        }
+
+        @Override
+        public boolean accepts(Object value) {
+            return null == value || value instanceof Double;
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            ensureCapacity(size + 1);
+            values[size++] = (Double) value;
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        public void trim() {
+            if (values.length > size) {
+                values = Arrays.copyOf(values, size);
+            }
+            trimNulls();
+        }
+
+        @Override
+        public long estimateBytes() {
+            return 16L + 8L * values.length + nullsBytes();
+        }
+    }
+
+
+    /**
+     * 字典编码的字符串列，重复值只保存一份
+     */
+    @Getter
+    @Setter
+    public static class StringVector extends ColumnVector {
+        private static final long serialVersionUID = 1207456915046725349L;
+
+        private int[] codes = new int[0];
+
+        private List<String> dictionary = new ArrayList<>();
+
+        @JsonIgnore
+        @JSONField(serialize = false)
+        private transient Map<String, Integer> lookup;
+
+        @Override
+        public Object get(int row) {
+            return isNull(row) ? null : dictionary.get(codes[row]);
+        }
+
+        @Override
+        public void read(ResultSet rs, int index) throws SQLException {
+            append(rs.getString(index));
+        }
+
+        @Override
+        public boolean accepts(Object value) {
+            return null == value || value instanceof String;
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            if (null == lookup) {
+                lookup = new HashMap<>();
+                for (int i = 0; i < dictionary.size(); i++) {
+                    lookup.put(dictionary.get(i), i);
+                }
+            }
+            String str = (String) value;
+            Integer code = lookup.get(str);
+            if (null == code) {
+                code = dictionary.size();
+                dictionary.add(str);
+                lookup.put(str, code);
+            }
+            ensureCapacity(size + 1);
+            codes[size++] = code;
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if (capacity > codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length, capacity));
+            }
+        }
+
+        @Override
+        public void trim() {
+            if (codes.length > size) {
+                codes = Arrays.copyOf(codes, size);
+            }
+            trimNulls();
+            lookup = null;
+        }
+
+        @Override
+        public long estimateBytes() {
+            long bytes = 16L + 4L * codes.length + nullsBytes();
+            for (String str : dictionary) {
+                bytes += 40L + 2L * str.length();
+            }
+            return bytes;
+        }
+    }
+
+
+    @Getter
+    @Setter
+    public static class ObjectVector extends ColumnVector {
+        private static final long serialVersionUID = -6112843790231476690L;
+
+        private Object[] values = new Object[0];
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        public void read(ResultSet rs, int index) throws SQLException {
+            append(rs.getObject(index));
+        }
+
+        @Override
+        public boolean accepts(Object value) {
+            return true;
+        }
+
+        @Override
+        public void appendNull() {
+            ensureCapacity(size + 1);
+            values[size++] = null;
+        }
+
+        @Override
+        public boolean isNull(int row) {
+            return null == values[row];
+        }
+
+        @Override
+        protected void appendValue(Object value) {
+            ensureCapacity(size + 1);
+            values[size++] = value;
+        }
+
+        @Override
+        protected void ensureCapacity(int capacity) {
+            if (capacity > values.length) {
+                values = Arrays.copyOf(values, grow(values.length, capacity));
+            }
+        }
+
+        @Override
+        public void trim() {
+            if (values.length > size) {
+                values = Arrays.copyOf(values, size);
+            }
+        }
+
+        @Override
+        public long estimateBytes() {
+            long bytes = 16L + 8L * values.length;
+            for (int i = 0; i < size; i++) {
+                Object value = values[i];
+                if (value instanceof String) {
+                    bytes += 40L + 2L * ((String) value).length();
+                } else if (null != value) {
+                    bytes += 24L;
+                }
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * PaginateWithQueryColumns 的列式序列化形式，用于写入 Redis 等外部缓存
+ */
+@Data
+public class ColumnarPaginate implements Serializable {
+
+    private static final long serialVersionUID = -4408517282919187254L;
+
+    private int pageNo = -1;
+
+    private int pageSize = -1;
+
+    private long totalCount = -1;
+
+    private boolean totalCountEstimated;
+
+    private List<QueryColumn> columns;
+
+    private ColumnarResult result;
+
+    public static ColumnarPaginate of(PaginateWithQueryColumns paginate) {
+        ColumnarPaginate columnarPaginate = new ColumnarPaginate();
+        columnarPaginate.setPageNo(paginate.getPageNo());
+        columnarPaginate.setPageSize(paginate.getPageSize());
+        columnarPaginate.setTotalCount(paginate.getTotalCount());
+        columnarPaginate.setTotalCountEstimated(paginate.isTotalCountEstimated());
+        columnarPaginate.setColumns(paginate.getColumns());
+        columnarPaginate.setResult(null != paginate.getColumnarResult() ?
+                paginate.getColumnarResult() : ColumnarResult.of(paginate.getColumns(), paginate.getResultList()));
+        return columnarPaginate;
+    }
+
+    public PaginateWithQueryColumns toPaginate() {
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setPageNo(pageNo);
+        paginate.setPageSize(pageSize);
+        paginate.setTotalCount(totalCount);
+        paginate.setTotalCountEstimated(totalCountEstimated);
+        paginate.setColumns(columns);
+        paginate.setColumnarResult(result);
+        return paginate;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * 列式查询结果，替代每行一个 LinkedHashMap 的存储方式；
+ * 仍需 List<Map> 的调用方可通过 {@link #asMapList()} 获取惰性视图
+ */
+@Getter
+@Setter
+public class ColumnarResult implements Serializable {
+
+    private static final long serialVersionUID = 3194086437205937125L;
+
+    private int rowCount;
+
+    private List<String> labels = new ArrayList<>();
+
+    private List<ColumnVector> vectors = new ArrayList<>();
+
+    @JsonIgnore
+    @JSONField(serialize = false)
+    private transient Map<String, Integer> labelIndex;
+
+    public ColumnarResult() {
+    }
+
+    public Object getValue(int row, int col) {
+        return vectors.get(col).get(row);
+    }
+
+    /**
+     * 列名对应的列下标；列名重复时取最后一列，与逐行 put 到 Map 的旧行为一致
+     */
+    public int indexOf(Object label) {
+        Integer i = labelIndex().get(label);
+        return null == i ? -1 : i;
+    }
+
+    private Map<String, Integer> labelIndex() {
+        if (null == labelIndex) {
+            Map<String, Integer> index = new HashMap<>(labels.size() * 2);
+            for (int i = 0; i < labels.size(); i++) {
+                index.put(labels.get(i), i);
+            }
+            labelIndex = index;
+        }
+        return labelIndex;
+    }
+
+    public long estimateBytes() {
+        long bytes = 64L;
+        for (String label : labels) {
+            bytes += 40L + 2L * label.length();
+        }
+        for (ColumnVector vector : vectors) {
+            bytes += vector.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 兼容旧接口的只读 List<Map> 视图，按需构造行对象；
+     * 调用方需要修改行或列表时应先复制
+     */
+    public List<Map<String, Object>> asMapList() {
+        return new RowListView();
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * 将已物化的 List<Map> 结果转为列式存储（用于旧数据或缓存写入）
+     */
+    public static ColumnarResult of(List<QueryColumn> columns, List<Map<String, Object>> rows) {
+        Builder builder = newBuilder();
+        if (null != columns) {
+            columns.forEach(c -> builder.addColumn(c.getName(), ColumnVector.forTypeName(c.getType())));
+        } else if (null != rows && !rows.isEmpty()) {
+            rows.get(0).keySet().forEach(k -> builder.addColumn(k, ColumnVector.forTypeName(null)));
+        }
+        if (null != rows) {
+            for (Map<String, Object> row : rows) {
+                for (int i = 0; i < builder.labels.size(); i++) {
+                    builder.append(i, row.get(builder.labels.get(i)));
+                }
+                builder.endRow();
+            }
+        }
+        return builder.build();
+    }
+
+
+    private class RowListView extends AbstractList<Map<String, Object>> implements RandomAccess {
+        @Override
+        public Map<String, Object> get(int row) {
+            if (row < 0 || row >= rowCount) {
+                throw new IndexOutOfBoundsException("row: " + row + ", size: " + rowCount);
+            }
+            return new RowView(row);
+        }
+
+        @Override
+        public int size() {
+            return rowCount;
+        }
+    }
+
+
+    private class RowView extends AbstractMap<String, Object> {
+        private final int row;
+
+        RowView(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int col = indexOf(key);
+            return col < 0 ? null : getValue(row, col);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return labelIndex().size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int col = skipShadowed(0);
+
+                        @Override
+                        public boolean hasNext() {
+                            return col < labels.size();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String, Object> entry = new SimpleImmutableEntry<>(labels.get(col), getValue(row, col));
+                            col = skipShadowed(col + 1);
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return labelIndex().size();
+                }
+            };
+        }
+
+        /**
+         * 跳过被同名后续列覆盖的列
+         */
+        private int skipShadowed(int col) {
+            while (col < labels.size() && indexOf(labels.get(col)) != col) {
+                col++;
+            }
+            return col;
+        }
+    }
+
+
+    public static final class Builder {
+        private final List<String> labels = new ArrayList<>();
+        private final List<ColumnVector> vectors = new ArrayList<>();
+        private int[] ordinals = new int[0];
+        private int rowCount;
+
+        private Builder() {
+        }
+
+        public Builder addColumn(String label, ColumnVector vector) {
+            return addColumn(label, vector, labels.size() + 1);
+        }
+
+        /**
+         * @param ordinal 列在 ResultSet 中的下标（从1开始）
+         */
+        public Builder addColumn(String label, ColumnVector vector, int ordinal) {
+            labels.add(label);
+            vectors.add(vector);
+            ordinals = Arrays.copyOf(ordinals, ordinals.length + 1);
+            ordinals[ordinals.length - 1] = ordinal;
+            return this;
+        }
+
+        public int columnCount() {
+            return labels.size();
+        }
+
+        /**
+         * 按列下标读取 ResultSet 当前行
+         */
+        public void readRow(ResultSet rs) throws SQLException {
+            for (int i = 0; i < vectors.size(); i++) {
+                vectors.get(i).read(rs, ordinals[i]);
+            }
+            rowCount++;
+        }
+
+        public void append(int col, Object value) {
+            ColumnVector vector = vectors.get(col);
+            if (!vector.accepts(value)) {
+                vector = vector.toObjectVector();
+                vectors.set(col, vector);
+            }
+            vector.append(value);
+        }
+
+        public void endRow() {
+            rowCount++;
+        }
+
+        public ColumnarResult build() {
+            vectors.forEach(ColumnVector::trim);
+            ColumnarResult result = new ColumnarResult();
+            result.setRowCount(rowCount);
+            result.setLabels(labels);
+            result.setVectors(vectors);
+            return result;
+        }
+    }
+}
@@ -35,6 +35,11 @@ public class CustomDataSource {
     private String alias_prefix;
     private String alias_suffix;
 
+    /**
+     * 分页下推方式，见 SqlPaginationEnum，如 limit_offset
+     */
+    private String paginate;
+
 
     public void setKeyword_prefix(String keyword_prefix) {
         this.keyword_prefix = getStringValue(keyword_prefix);
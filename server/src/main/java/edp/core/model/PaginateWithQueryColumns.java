@@ -19,8 +19,11 @@
 
 package edp.core.model;
 
+import com.alibaba.fastjson.annotation.JSONField;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -28,7 +31,64 @@ import java.util.Map;
 public class PaginateWithQueryColumns extends Paginate<Map<String, Object>> {
     List<QueryColumn> columns;
 
+    /**
+     * 列式结果，存在时 resultList 为其惰性视图；接口响应只输出 resultList
+     */
+    @JsonIgnore
+    @JSONField(serialize = false)
+    private ColumnarResult columnarResult;
+
+    /**
+     * totalCount 为按统计信息估算的值，精确总数在后台计算并缓存
+     */
+    private boolean totalCountEstimated;
+
     public void setColumns(List<QueryColumn> columns) {
         this.columns = columns;
     }
+
+    @Override
+    public List<Map<String, Object>> getResultList() {
+        if (null != columnarResult) {
+            return columnarResult.asMapList();
+        }
+        return super.getResultList();
+    }
+
+    @Override
+    public void setResultList(List<Map<String, Object>> resultList) {
+        this.columnarResult = null;
+        super.setResultList(resultList);
+    }
+
+    public void setColumnarResult(ColumnarResult columnarResult) {
+        this.columnarResult = columnarResult;
+    }
+
+    /**
+     * 浅拷贝：分页字段与列表各自独立，行数据及列式结果共享
+     */
+    public PaginateWithQueryColumns copy() {
+        PaginateWithQueryColumns copy = new PaginateWithQueryColumns();
+        copy.setPageNo(getPageNo());
+        copy.setPageSize(getPageSize());
+        copy.setTotalCount(getTotalCount());
+        copy.setTotalCountEstimated(totalCountEstimated);
+        copy.setColumns(null == columns ? null : new ArrayList<>(columns));
+        if (null != columnarResult) {
+            copy.setColumnarResult(columnarResult);
+        } else {
+            copy.setResultList(null == super.getResultList() ? null : new ArrayList<>(super.getResultList()));
+        }
+        return copy;
+    }
+
+    @JsonIgnore
+    @JSONField(serialize = false)
+    public int getResultSize() {
+        if (null != columnarResult) {
+            return columnarResult.getRowCount();
+        }
+        return null == super.getResultList() ? 0 : super.getResultList().size();
+    }
 }
@@ -22,11 +22,18 @@ package edp.core.model;
 import edp.davinci.core.common.Constants;
 import lombok.Data;
 
+import java.io.Serializable;
+
 @Data
-public class QueryColumn {
+public class QueryColumn implements Serializable {
+    private static final long serialVersionUID = 6502331807127591023L;
+
     private String name;
     private String type;
 
+    public QueryColumn() {
+    }
+
     public QueryColumn(String name, String type) {
         this.name = name;
         this.type = type.toUpperCase();
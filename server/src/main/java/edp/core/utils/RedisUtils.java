@@ -25,13 +25,22 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.ListOperations;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.stereotype.Component;
 
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 @Component
 public class RedisUtils {
 
+    private static final RedisScript<Long> SET_IF_ABSENT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('SET', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 else return 0 end", Long.class);
+
+    private static final RedisScript<Long> DELETE_IF_EQUALS_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) else return 0 end", Long.class);
+
     @Autowired(required = false)
     @Qualifier("InitRedisTemplate")
     private RedisTemplate<String, Object> redisTemplate;
@@ -70,6 +79,28 @@ public class RedisUtils {
         return false;
     }
 
+    /**
+     * key 不存在时写入并设置过期时间（SET NX PX，原子操作），用于简单的分布式锁
+     */
+    public boolean setIfAbsent(String key, Object value, Long millisecond) {
+        if (null == redisTemplate) {
+            return false;
+        }
+        Long result = redisTemplate.execute(SET_IF_ABSENT_SCRIPT, Collections.singletonList(key), value, millisecond);
+        return null != result && result > 0L;
+    }
+
+    /**
+     * 仅当 key 的值与 value 相同时删除（比较与删除在同一脚本内完成），用于释放自己持有的锁
+     */
+    public boolean deleteIfEquals(String key, Object value) {
+        if (null == redisTemplate) {
+            return false;
+        }
+        Long result = redisTemplate.execute(DELETE_IF_EQUALS_SCRIPT, Collections.singletonList(key), value);
+        return null != result && result > 0L;
+    }
+
     public Object get(String key) {
         if (null == redisTemplate) {
             return null;
@@ -19,10 +19,13 @@
 
 package edp.core.utils;
 
+import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.util.StringUtils;
 import com.webank.wedatasphere.dss.visualis.configuration.CommonConfig;
+import edp.core.common.jdbc.DataSourcePoolConfig;
 import edp.core.common.jdbc.ESDataSource;
 import edp.core.common.jdbc.ExtendedJdbcClassLoader;
+import edp.core.common.jdbc.HealthTrackingDataSource;
 import edp.core.common.jdbc.JdbcDataSource;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
@@ -47,10 +50,17 @@ public class SourceUtils {
 
     private JdbcDataSource jdbcDataSource;
 
+    private DataSourcePoolConfig poolConfig;
+
     public SourceUtils(JdbcDataSource jdbcDataSource) {
         this.jdbcDataSource = jdbcDataSource;
     }
 
+    public SourceUtils(JdbcDataSource jdbcDataSource, DataSourcePoolConfig poolConfig) {
+        this.jdbcDataSource = jdbcDataSource;
+        this.poolConfig = poolConfig;
+    }
+
     /**
      * 获取数据源
      *
@@ -67,50 +77,31 @@ public class SourceUtils {
         if (jdbcUrl.toLowerCase().contains(DataTypeEnum.ELASTICSEARCH.getDesc().toLowerCase())) {
             return ESDataSource.getDataSource(jdbcUrl, userename, password, jdbcDataSource);
         } else {
-            return jdbcDataSource.getDataSource(jdbcUrl, userename, password, database, version, isExt);
+            return jdbcDataSource.getDataSource(jdbcUrl, userename, password, database, version, isExt, poolConfig);
         }
     }
 
+    /**
+     * 从连接池获取连接，连接有效性由连接池后台校验（testWhileIdle / keepAlive），借出时不再校验；
+     * 获取结果计入数据源健康状态（连接池等待超时除外），连续失败后熔断
+     */
     Connection getConnection(String jdbcUrl, String username, String password, String database, String version, boolean isExt) throws SourceException {
         DataSource dataSource = getDataSource(jdbcUrl, username, password, database, version, isExt);
-        Connection connection = null;
-        try {
-            connection = dataSource.getConnection();
-        } catch (Exception e) {
-            connection = null;
-        }
-        try {
-            if (null == connection || connection.isClosed()) {
-                log.info("connection is closed, retry get connection!");
-                releaseDataSource(jdbcUrl, username, password, version, isExt);
-                dataSource = getDataSource(jdbcUrl, username, password, database, version, isExt);
-                connection = dataSource.getConnection();
-            }
-        } catch (Exception e) {
-            log.error("create connection error, jdbcUrl: {}", jdbcUrl);
-            throw new SourceException("create connection error, jdbcUrl: " + jdbcUrl);
+        if (dataSource instanceof DruidDataSource && ((DruidDataSource) dataSource).isClosed()) {
+            // 连接池已被回收，重新获取
+            dataSource = getDataSource(jdbcUrl, username, password, database, version, isExt);
         }
 
+        if (dataSource instanceof DruidDataSource) {
+            String key = getKey(jdbcUrl, username, password, version, isExt);
+            dataSource = new HealthTrackingDataSource(dataSource, jdbcDataSource.getHealthTracker(), key, jdbcUrl);
+        }
         try {
-            if (!connection.isValid(5)) {
-                log.info("connection is invalid, retry get connection!");
-                releaseDataSource(jdbcUrl, username, password, version, isExt);
-                connection = null;
-            }
+            return dataSource.getConnection();
         } catch (Exception e) {
+            log.error("create connection error, jdbcUrl: {}, {}", jdbcUrl, e.getMessage());
+            throw new SourceException("create connection error, jdbcUrl: " + jdbcUrl);
         }
-
-        if (null == connection) {
-            try {
-                dataSource = getDataSource(jdbcUrl, username, password, database, version, isExt);
-                connection = dataSource.getConnection();
-            } catch (SQLException e) {
-                log.error("create connection error, jdbcUrl: {}", jdbcUrl);
-                throw new SourceException("create connection error, jdbcUrl: " + jdbcUrl);
-            }
-        }
-
-        return connection;
     }
 
     void releaseConnection(Connection connection) {
@@ -19,17 +19,32 @@
 
 package edp.core.utils;
 
+import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSONArray;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.common.jdbc.CancellableJdbcTemplate;
+import edp.core.common.jdbc.DataSourcePoolConfig;
 import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.jdbc.ResultRowHandler;
+import edp.core.common.query.CancellationTicket;
+import edp.core.common.query.QueryCancellationRegistry;
+import edp.core.common.query.QueryCountCache;
+import edp.core.common.query.QueryScheduler;
 import edp.core.consts.Consts;
 import edp.core.enums.DataTypeEnum;
+import edp.core.enums.SqlPaginationEnum;
 import edp.core.enums.SqlTypeEnum;
 import edp.core.enums.TypeEnum;
+import edp.core.exception.QueryCancelledException;
+import edp.core.exception.QueryRejectedException;
 import edp.core.exception.ServerException;
 import edp.core.exception.SourceException;
 import edp.core.model.*;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.SqlColumnEnum;
+import edp.davinci.model.Source;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Alias;
@@ -48,18 +63,21 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.annotation.Scope;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.io.StringReader;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 
 import static edp.core.consts.Consts.*;
-import static edp.core.enums.DataTypeEnum.MYSQL;
 import static edp.core.enums.DataTypeEnum.ORACLE;
 
 @Slf4j
@@ -68,9 +86,17 @@ import static edp.core.enums.DataTypeEnum.ORACLE;
 public class SqlUtils {
     private static final Logger sqlLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_SQL.getName());
 
+    private static final Cache<String, Set<String>> QUERY_FROMS_AND_JOINS = Caffeine.newBuilder().maximumSize(2000).build();
+
     @Autowired
     protected JdbcDataSource jdbcDataSource;
 
+    @Autowired
+    protected QueryCountCache queryCountCache;
+
+    @Autowired
+    protected QueryScheduler queryScheduler;
+
     protected String jdbcUrl;
 
     @Value("${source.result-limit:1000000}")
@@ -81,6 +107,8 @@ public class SqlUtils {
 
     private static final String TABLE = "TABLE";
 
+    private static final String POSTGRESQL = "postgresql";
+
     private static final String VIEW = "VIEW";
 
     private static final String[] TABLE_TYPES = new String[]{TABLE, VIEW};
@@ -103,24 +131,55 @@ public class SqlUtils {
 
     private DataTypeEnum dataTypeEnum;
 
+    private SqlPaginationEnum paginationType;
+
     private SourceUtils sourceUtils;
 
+    /**
+     * 按数据源缓存的 SqlUtils，构建后不再修改，可在线程间共享
+     */
+    private static final Cache<String, SqlUtils> INSTANCES = Caffeine.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /**
+     * 数据源方言：keyword / alias 前后缀
+     */
+    private static final Cache<String, String[]> DIALECTS = Caffeine.newBuilder().maximumSize(2000).build();
+
+    private String sourceKey;
+
+    private int maxActive;
+
+    private volatile DataSource dataSource;
+
     public SqlUtils init(BaseSource source) {
-        return SqlUtilsBuilder
+        DataSourcePoolConfig poolConfig = source instanceof Source ? ((Source) source).getPoolConfig() : null;
+        String key = SourceUtils.getKey(source.getJdbcUrl(), source.getUsername(), source.getPassword(), source.getDbVersion(), source.isExt());
+        if (null != poolConfig) {
+            // 连接池配置决定数据源并发上限，配置修改后使用新的实例
+            key = key + AT_SYMBOL + poolConfig;
+        }
+        return INSTANCES.get(key, k -> SqlUtilsBuilder
                 .SqlUtils()
                 .withJdbcUrl(source.getJdbcUrl())
                 .withUsername(source.getUsername())
                 .withPassword(source.getPassword())
                 .withDbVersion(source.getDbVersion())
                 .withIsExt(source.isExt())
+                .withPoolConfig(poolConfig)
                 .withJdbcDataSource(this.jdbcDataSource)
+                .withQueryCountCache(this.queryCountCache)
+                .withQueryScheduler(this.queryScheduler)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
-                .build();
+                .build());
     }
 
     public SqlUtils init(String jdbcUrl, String username, String password, String dbVersion, boolean ext) {
-        return SqlUtilsBuilder
+        String key = SourceUtils.getKey(jdbcUrl, username, password, dbVersion, ext);
+        return INSTANCES.get(key, k -> SqlUtilsBuilder
                 .SqlUtils()
                 .withJdbcUrl(jdbcUrl)
                 .withUsername(username)
@@ -128,9 +187,20 @@ public class SqlUtils {
                 .withDbVersion(dbVersion)
                 .withIsExt(ext)
                 .withJdbcDataSource(this.jdbcDataSource)
+                .withQueryCountCache(this.queryCountCache)
+                .withQueryScheduler(this.queryScheduler)
                 .withResultLimit(this.resultLimit)
                 .withIsQueryLogEnable(this.isQueryLogEnable)
-                .build();
+                .build());
+    }
+
+    /**
+     * 数据源修改或重连时释放缓存的 SqlUtils 及连接池
+     */
+    public void release(BaseSource source) {
+        String key = SourceUtils.getKey(source.getJdbcUrl(), source.getUsername(), source.getPassword(), source.getDbVersion(), source.isExt());
+        INSTANCES.asMap().keySet().removeIf(k -> k.equals(key) || k.startsWith(key + AT_SYMBOL));
+        new SourceUtils(this.jdbcDataSource).releaseDataSource(source.getJdbcUrl(), source.getUsername(), source.getPassword(), source.getDbVersion(), source.isExt());
     }
 
     public void execute(String sql) throws ServerException {
@@ -167,6 +237,17 @@ public class SqlUtils {
         return paginate;
     }
 
+    /**
+     * @param estimateCount 首页总数优先按统计信息估算
+     */
+    public PaginateWithQueryColumns syncQuery4Paginate(String sql, Integer pageNo, Integer pageSize, Integer totalCount, Integer limit, Set<String> excludeColumns, boolean estimateCount) throws Exception {
+        if (!estimateCount) {
+            return syncQuery4Paginate(sql, pageNo, pageSize, totalCount, limit, excludeColumns);
+        }
+        return query4Paginate(sql, null == pageNo || pageNo < 1 ? 0 : pageNo, null == pageSize || pageSize < 1 ? 0 : pageSize,
+                null == totalCount || totalCount < 1 ? 0 : totalCount, null == limit ? -1 : limit, excludeColumns, true);
+    }
+
     @CachePut(value = "query", key = "#sql")
     public List<Map<String, Object>> query4List(String sql, int limit) throws Exception {
         sql = filterAnnotate(sql);
@@ -175,12 +256,11 @@ public class SqlUtils {
         if (isQueryLogEnable) {
             sqlLogger.info("{}  >> \n{}", md5, sql);
         }
-        JdbcTemplate jdbcTemplate = jdbcTemplate();
-        jdbcTemplate.setMaxRows(limit > resultLimit ? resultLimit : limit);
+        CancellableJdbcTemplate jdbcTemplate = jdbcTemplate();
 
         long befor = System.currentTimeMillis();
 
-        List<Map<String, Object>> list = jdbcTemplate.queryForList(sql);
+        List<Map<String, Object>> list = jdbcTemplate.queryForList(sql, limit > resultLimit ? resultLimit : limit);
 
         if (isQueryLogEnable) {
             sqlLogger.info("{} query for >> {} ms", md5, System.currentTimeMillis() - befor);
@@ -191,6 +271,15 @@ public class SqlUtils {
 
     @CachePut(value = "query", keyGenerator = "keyGenerator")
     public PaginateWithQueryColumns query4Paginate(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) throws Exception {
+        return query4Paginate(sql, pageNo, pageSize, totalCount, limit, excludeColumns, false);
+    }
+
+    /**
+     * 分页查询，需要总数时 count 与取数并行执行
+     *
+     * @param estimateCount 总数未缓存时优先按统计信息估算，精确总数在后台计算并缓存
+     */
+    public PaginateWithQueryColumns query4Paginate(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns, boolean estimateCount) throws Exception {
         PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
         sql = filterAnnotate(sql);
         checkSensitiveSql(sql);
@@ -199,21 +288,18 @@ public class SqlUtils {
 
         long befor = System.currentTimeMillis();
 
-        JdbcTemplate jdbcTemplate = jdbcTemplate();
-        jdbcTemplate.setMaxRows(resultLimit);
+        CancellableJdbcTemplate jdbcTemplate = jdbcTemplate();
 
         if (pageNo < 1 && pageSize < 1) {
 
-            if (limit > 0) {
-                resultLimit = limit > resultLimit ? resultLimit : limit;
-            }
+            // 实例在线程间共享，不修改 resultLimit
+            int maxRows = limit > 0 && limit < resultLimit ? limit : resultLimit;
             if (isQueryLogEnable) {
                 sqlLogger.info("{}  >> \n{}", md5, sql);
             }
-            jdbcTemplate.setMaxRows(resultLimit);
-            getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+            getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, maxRows, excludeColumns, -1);
             paginateWithQueryColumns.setPageNo(1);
-            int size = paginateWithQueryColumns.getResultList().size();
+            int size = paginateWithQueryColumns.getResultSize();
             paginateWithQueryColumns.setPageSize(size);
             paginateWithQueryColumns.setTotalCount(size);
         } else {
@@ -222,32 +308,47 @@ public class SqlUtils {
 
             final int startRow = (pageNo - 1) * pageSize;
 
+            String countSql = null;
+            CompletableFuture<Long> countFuture = null;
             if (pageNo == 1 || totalCount == 0) {
-                Object o = jdbcTemplate.queryForObject(getCountSql(sql), Object.class);
-                totalCount = Integer.parseInt(String.valueOf(o));
+                countSql = getCountSql(sql);
+                countFuture = countAsync(countSql);
+                if (estimateCount && !countFuture.isDone()) {
+                    Long estimate = estimateCount(sql);
+                    if (null != estimate) {
+                        totalCount = (int) Math.min(Integer.MAX_VALUE, estimate);
+                        paginateWithQueryColumns.setTotalCountEstimated(true);
+                        countFuture = null;
+                    }
+                }
             }
             if (limit > 0) {
                 limit = limit > resultLimit ? resultLimit : limit;
-                totalCount = limit < totalCount ? limit : totalCount;
             }
 
-            paginateWithQueryColumns.setTotalCount(totalCount);
             int maxRows = limit > 0 && limit < pageSize * pageNo ? limit : pageSize * pageNo;
 
-            if (this.dataTypeEnum == MYSQL) {
-                sql = sql + " LIMIT " + startRow + ", " + pageSize;
-                md5 = MD5Util.getMD5(sql, true, 16);
+            String paginateSql = getPaginationType().paginate(sql, startRow, maxRows - startRow);
+            if (null != paginateSql) {
+                md5 = MD5Util.getMD5(paginateSql, true, 16);
                 if (isQueryLogEnable) {
-                    sqlLogger.info("{}  >> \n{}", md5, sql);
+                    sqlLogger.info("{}  >> \n{}", md5, paginateSql);
                 }
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, -1);
+                getResultForPaginate(paginateSql, paginateWithQueryColumns, jdbcTemplate, resultLimit, getPaginateExcludeColumns(excludeColumns), -1);
             } else {
                 if (isQueryLogEnable) {
                     sqlLogger.info("{}  >> \n{}", md5, sql);
                 }
-                jdbcTemplate.setMaxRows(maxRows);
-                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, excludeColumns, startRow);
+                getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, maxRows, excludeColumns, startRow);
+            }
+
+            if (null != countFuture) {
+                totalCount = awaitCount(countFuture, countSql);
+            }
+            if (limit > 0) {
+                totalCount = limit < totalCount ? limit : totalCount;
             }
+            paginateWithQueryColumns.setTotalCount(totalCount);
         }
 
         if (isQueryLogEnable) {
@@ -257,66 +358,351 @@ public class SqlUtils {
         return paginateWithQueryColumns;
     }
 
-    private void getResultForPaginate(String sql, PaginateWithQueryColumns paginateWithQueryColumns, JdbcTemplate jdbcTemplate, Set<String> excludeColumns, int startRow) {
+    /**
+     * keyset 分页：sql 中已带有上一页末行之后的条件，只取前 pageSize 行，不再计算总数
+     *
+     * @param sql
+     * @param pageNo
+     * @param pageSize
+     * @param totalCount 首页查询得到的总数
+     * @param limit
+     * @param excludeColumns
+     * @return
+     * @throws Exception
+     */
+    public PaginateWithQueryColumns query4Keyset(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns) throws Exception {
+        PaginateWithQueryColumns paginateWithQueryColumns = new PaginateWithQueryColumns();
+        sql = filterAnnotate(sql);
+        checkSensitiveSql(sql);
+
+        long befor = System.currentTimeMillis();
+        if (limit > 0) {
+            limit = limit > resultLimit ? resultLimit : limit;
+            totalCount = limit < totalCount ? limit : totalCount;
+        }
+        int rows = limit > 0 ? Math.min(pageSize, limit - (pageNo - 1) * pageSize) : pageSize;
+        rows = Math.max(rows, 0);
+
+        CancellableJdbcTemplate jdbcTemplate = jdbcTemplate();
+        String paginateSql = getPaginationType().paginate(sql, 0, rows);
+        if (null != paginateSql) {
+            sql = paginateSql;
+            excludeColumns = getPaginateExcludeColumns(excludeColumns);
+        }
+
+        String md5 = MD5Util.getMD5(sql, true, 16);
+        if (isQueryLogEnable) {
+            sqlLogger.info("{}  >> \n{}", md5, sql);
+        }
+        if (rows > 0) {
+            getResultForPaginate(sql, paginateWithQueryColumns, jdbcTemplate, rows, excludeColumns, -1);
+        }
+        paginateWithQueryColumns.setPageNo(pageNo);
+        paginateWithQueryColumns.setPageSize(pageSize);
+        paginateWithQueryColumns.setTotalCount(totalCount);
+
+        if (isQueryLogEnable) {
+            sqlLogger.info("{} query for >> {} ms", md5, System.currentTimeMillis() - befor);
+        }
+        return paginateWithQueryColumns;
+    }
+
+    /**
+     * 异步计算总数，结果按数据源及 count sql 缓存；
+     * 总数查询与主查询使用相同的准入及取消 ticket，另占一个许可
+     */
+    private CompletableFuture<Long> countAsync(String countSql) {
+        QueryScheduler.Admission admission = QueryScheduler.currentAdmission();
+        CancellationTicket ticket = QueryCancellationRegistry.current();
+        Callable<Long> counter = () -> QueryCancellationRegistry.call(ticket, () -> {
+            try {
+                return null == queryScheduler ? count(countSql) : queryScheduler.executeAlongside(admission, () -> count(countSql));
+            } catch (Exception e) {
+                // Statement 被取消时驱动抛出的是 SQLException，统一为取消异常
+                QueryCancellationRegistry.checkCancelled();
+                throw e;
+            }
+        });
+        if (null == queryCountCache) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            try {
+                future.complete(counter.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        return queryCountCache.count(queryCountCache.buildKey(jdbcUrl, username, countSql), counter);
+    }
+
+    private int awaitCount(CompletableFuture<Long> future, String countSql) throws Exception {
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, future.get());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof QueryRejectedException
+                    || (cause instanceof QueryCancelledException && !QueryCancellationRegistry.isCurrentCancelled())) {
+                // 没有空闲许可，或共享的总数查询随其他请求被取消，在当前查询的许可内执行
+                return (int) Math.min(Integer.MAX_VALUE, count(countSql));
+            }
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private long count(String countSql) throws SourceException {
+        Object o = jdbcTemplate().queryForObject(countSql, Object.class);
+        return Long.parseLong(String.valueOf(o));
+    }
+
+    /**
+     * 按数据库统计信息估算结果行数：mysql 取 EXPLAIN 首行 rows，postgresql 取 EXPLAIN (FORMAT JSON) 的 Plan Rows；
+     * 其他数据源或估算失败时返回 null
+     */
+    private Long estimateCount(String sql) {
+        try {
+            if (this.dataTypeEnum == DataTypeEnum.MYSQL) {
+                List<Map<String, Object>> rows = jdbcTemplate().queryForList("EXPLAIN " + sql);
+                Object value = CollectionUtils.isEmpty(rows) ? null : rows.get(0).get("rows");
+                if (null != value) {
+                    queryCountCache.recordEstimate();
+                    return Long.parseLong(String.valueOf(value));
+                }
+            } else if (jdbcUrl.toLowerCase().contains(POSTGRESQL)) {
+                String plan = jdbcTemplate().queryForObject("EXPLAIN (FORMAT JSON) " + sql, String.class);
+                JSONArray array = JSONArray.parseArray(plan);
+                Long value = null == array || array.isEmpty() ? null : array.getJSONObject(0).getJSONObject("Plan").getLong("Plan Rows");
+                if (null != value) {
+                    queryCountCache.recordEstimate();
+                    return value;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("estimate count error: {}", e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * 分页下推方式，自定义数据源可在 datasource_driver.yml 中通过 paginate 指定
+     */
+    private SqlPaginationEnum getPaginationType() {
+        if (null == paginationType) {
+            CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+            paginationType = null != customDataSource && !StringUtils.isEmpty(customDataSource.getPaginate())
+                    ? SqlPaginationEnum.typeOf(customDataSource.getPaginate())
+                    : SqlPaginationEnum.of(dataTypeEnum);
+        }
+        return paginationType;
+    }
+
+    private Set<String> getPaginateExcludeColumns(Set<String> excludeColumns) {
+        if (getPaginationType() != SqlPaginationEnum.ROWNUM) {
+            return excludeColumns;
+        }
+        Set<String> columns = null == excludeColumns ? new HashSet<>() : new HashSet<>(excludeColumns);
+        columns.add(SqlPaginationEnum.ROW_NUM_COLUMN);
+        return columns;
+    }
+
+    private void getResultForPaginate(String sql, PaginateWithQueryColumns paginateWithQueryColumns, CancellableJdbcTemplate jdbcTemplate, int maxRows, Set<String> excludeColumns, int startRow) {
         Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
-        jdbcTemplate.query(sql, rs -> {
+        jdbcTemplate.query(sql, maxRows, rs -> {
             if (null != rs) {
                 ResultSetMetaData metaData = rs.getMetaData();
-                List<QueryColumn> queryColumns = new ArrayList<>();
+                //列标签只计算一次，重名列保留最后一列的值
+                Map<String, Integer> labelOrdinals = new LinkedHashMap<>();
+                Map<String, QueryColumn> columnMap = new LinkedHashMap<>();
                 for (int i = 1; i <= metaData.getColumnCount(); i++) {
                     String key = getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
                     if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(key)) {
                         continue;
                     }
-                    queryColumns.add(new QueryColumn(key, metaData.getColumnTypeName(i)));
+                    labelOrdinals.put(key, i);
+                    columnMap.put(key, new QueryColumn(key, metaData.getColumnTypeName(i)));
                 }
-                paginateWithQueryColumns.setColumns(queryColumns);
-
-                List<Map<String, Object>> resultList = new ArrayList<>();
+                paginateWithQueryColumns.setColumns(new ArrayList<>(columnMap.values()));
+
+                ColumnarResult.Builder builder = ColumnarResult.newBuilder();
+                labelOrdinals.forEach((label, ordinal) -> {
+                    try {
+                        builder.addColumn(label, ColumnVector.forSqlType(metaData.getColumnType(ordinal), isSigned(metaData, ordinal)), ordinal);
+                    } catch (SQLException e) {
+                        builder.addColumn(label, new ColumnVector.ObjectVector(), ordinal);
+                    }
+                });
 
                 try {
                     if (startRow > 0) {
                         rs.absolute(startRow);
                     }
                     while (rs.next()) {
-                        resultList.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+                        builder.readRow(rs);
                     }
                 } catch (Throwable e) {
                     int currentRow = 0;
                     while (rs.next()) {
                         if (currentRow >= startRow) {
-                            resultList.add(getResultObjectMap(excludeColumns, rs, metaData, queryFromsAndJoins));
+                            builder.readRow(rs);
                         }
                         currentRow++;
                     }
                 }
 
-                paginateWithQueryColumns.setResultList(resultList);
+                paginateWithQueryColumns.setColumnarResult(builder.build());
             }
             return paginateWithQueryColumns;
         });
     }
 
-    public String[] querySQLWithResultSetLocation(String sql,  int limit){
-        throw new NotImplementedException();
+    /**
+     * 流式查询，结果逐行交给 handler 处理，不在内存中物化
+     *
+     * @param sql
+     * @param pageNo
+     * @param pageSize
+     * @param totalCount
+     * @param limit
+     * @param excludeColumns
+     * @param handler
+     * @throws Exception
+     */
+    public void query4Stream(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns, ResultRowHandler handler) throws Exception {
+        query4Stream(sql, pageNo, pageSize, totalCount, limit, excludeColumns, false, handler);
     }
 
+    /**
+     * @param keyset sql 中已带有上一页末行之后的条件，只取前 pageSize 行，不再跳过前面的页，也不计算总数
+     */
+    public void query4Stream(String sql, int pageNo, int pageSize, int totalCount, int limit, Set<String> excludeColumns, boolean keyset, ResultRowHandler handler) throws Exception {
+        sql = filterAnnotate(sql);
+        checkSensitiveSql(sql);
 
-    private Map<String, Object> getResultObjectMap(Set<String> excludeColumns, ResultSet rs, ResultSetMetaData metaData, Set<String> queryFromsAndJoins) throws SQLException {
-        Map<String, Object> map = new LinkedHashMap<>();
+        String md5 = MD5Util.getMD5(sql + pageNo + pageSize + limit, true, 16);
+        long befor = System.currentTimeMillis();
 
-        for (int i = 1; i <= metaData.getColumnCount(); i++) {
-            String key = metaData.getColumnLabel(i);
-            String label = getColumnLabel(queryFromsAndJoins, key);
+        CancellableJdbcTemplate jdbcTemplate = jdbcTemplate();
+        int startRow = -1;
+        int maxRows = resultLimit;
+        int fetchSize = -1;
+        String countSql = null;
+        CompletableFuture<Long> countFuture = null;
 
-            if (!CollectionUtils.isEmpty(excludeColumns) && excludeColumns.contains(label)) {
-                continue;
+        if (pageNo < 1 && pageSize < 1) {
+            maxRows = limit > 0 && limit < resultLimit ? limit : resultLimit;
+            //全量导出时 MySQL 驱动默认把整个结果集读入内存，改为逐行流式读取
+            if (dataTypeEnum == DataTypeEnum.MYSQL) {
+                fetchSize = Integer.MIN_VALUE;
             }
-            map.put(label, rs.getObject(key));
+            pageNo = 1;
+            totalCount = -1;
+        } else {
+            startRow = (pageNo - 1) * pageSize;
+            if (!handler.needTotalCount() || (keyset && totalCount <= 0)) {
+                totalCount = -1;
+            } else if (pageNo == 1 || totalCount == 0) {
+                //总数与取数并行执行，在输出结束时使用
+                countSql = getCountSql(sql);
+                countFuture = countAsync(countSql);
+            }
+            if (limit > 0) {
+                limit = limit > resultLimit ? resultLimit : limit;
+            }
+            int rows = limit > 0 && limit < pageSize * pageNo ? limit : pageSize * pageNo;
+            if (keyset) {
+                rows = Math.max(rows - startRow, 0);
+                startRow = 0;
+            }
+            String paginateSql = getPaginationType().paginate(sql, startRow, rows - startRow);
+            if (null != paginateSql) {
+                sql = paginateSql;
+                excludeColumns = getPaginateExcludeColumns(excludeColumns);
+                md5 = MD5Util.getMD5(sql, true, 16);
+                startRow = -1;
+            } else if (rows > 0) {
+                maxRows = rows;
+            } else {
+                //已到 limit，maxRows 为 0 表示不限制，只读取一行并跳过
+                maxRows = 1;
+                startRow = 1;
+            }
+        }
+
+        if (isQueryLogEnable) {
+            sqlLogger.info("{}  >> \n{}", md5, sql);
         }
-        return map;
+
+        Set<String> queryFromsAndJoins = getQueryFromsAndJoins(sql);
+        final int skipRows = startRow;
+        final Set<String> excludes = excludeColumns;
+        Integer rowCount = jdbcTemplate.query(sql, maxRows, fetchSize, rs -> {
+            ResultSetMetaData metaData = rs.getMetaData();
+            Map<String, Integer> labelOrdinals = new LinkedHashMap<>();
+            Map<String, QueryColumn> columnMap = new LinkedHashMap<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                String key = getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i));
+                if (!CollectionUtils.isEmpty(excludes) && excludes.contains(key)) {
+                    continue;
+                }
+                labelOrdinals.put(key, i);
+                columnMap.put(key, new QueryColumn(key, metaData.getColumnTypeName(i)));
+            }
+            int[] ordinals = labelOrdinals.values().stream().mapToInt(Integer::intValue).toArray();
+            Object[] values = new Object[ordinals.length];
+            int count = 0;
+            try {
+                handler.onColumns(new ArrayList<>(columnMap.values()));
+                boolean skipped = skipRows <= 0;
+                if (!skipped) {
+                    try {
+                        rs.absolute(skipRows);
+                        skipped = true;
+                    } catch (Throwable e) {
+                        skipped = false;
+                    }
+                }
+                int currentRow = 0;
+                while (rs.next()) {
+                    if (!skipped && currentRow++ < skipRows) {
+                        continue;
+                    }
+                    for (int i = 0; i < ordinals.length; i++) {
+                        values[i] = rs.getObject(ordinals[i]);
+                    }
+                    handler.onRow(values);
+                    count++;
+                }
+            } catch (IOException e) {
+                throw new ServerException("write query result error: " + e.getMessage(), e);
+            }
+            return count;
+        });
+
+        if (null != countFuture) {
+            totalCount = awaitCount(countFuture, countSql);
+        }
+        if (limit > 0 && totalCount > limit) {
+            totalCount = limit;
+        }
+        handler.onComplete(pageNo, pageSize < 1 ? rowCount : pageSize, totalCount < 0 ? rowCount : totalCount);
+
+        if (isQueryLogEnable) {
+            sqlLogger.info("{} query for >> {} ms", md5, System.currentTimeMillis() - befor);
+        }
+    }
+
+    private static boolean isSigned(ResultSetMetaData metaData, int ordinal) {
+        try {
+            return metaData.isSigned(ordinal);
+        } catch (Throwable e) {
+            return true;
+        }
+    }
+
+    public String[] querySQLWithResultSetLocation(String sql,  int limit){
+        throw new NotImplementedException();
     }
 
+
     public static String getCountSql(String sql) {
         try {
             Select select = (Select) CCJSqlParserUtil.parse(sql);
@@ -329,7 +715,14 @@ public class SqlUtils {
     }
 
 
+    /**
+     * 解析 SQL 中 from/join 的表名或别名前缀，结果按 SQL 缓存，返回只读集合
+     */
     public static Set<String> getQueryFromsAndJoins(String sql) {
+        return QUERY_FROMS_AND_JOINS.get(sql, k -> Collections.unmodifiableSet(parseQueryFromsAndJoins(k)));
+    }
+
+    private static Set<String> parseQueryFromsAndJoins(String sql) {
         Set<String> columnPrefixs = new HashSet<>();
         try {
             Select select = (Select) CCJSqlParserUtil.parse(sql);
@@ -667,13 +1060,35 @@ public class SqlUtils {
     }
 
 
-    public JdbcTemplate jdbcTemplate() throws SourceException {
-        DataSource dataSource = sourceUtils.getDataSource(this.jdbcUrl, this.username, this.password, this.database, this.dbVersion, this.isExt);
-        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    /**
+     * 同一连接池共享一个模板，按次的 maxRows、fetchSize 通过 CancellableJdbcTemplate.query 参数传入，不要修改模板设置
+     */
+    public CancellableJdbcTemplate jdbcTemplate() throws SourceException {
+        DataSource dataSource = getDataSource();
+        if (dataSource instanceof DruidDataSource && null != jdbcDataSource && null != sourceKey) {
+            return jdbcDataSource.getJdbcTemplate(sourceKey, jdbcUrl, (DruidDataSource) dataSource);
+        }
+        CancellableJdbcTemplate jdbcTemplate = new CancellableJdbcTemplate(dataSource, false);
         jdbcTemplate.setFetchSize(1000);
         return jdbcTemplate;
     }
 
+    /**
+     * 连接池解析后保存在实例中，连接池被回收或关闭后重新获取
+     */
+    private DataSource getDataSource() throws SourceException {
+        DataSource current = this.dataSource;
+        if (current instanceof DruidDataSource && !((DruidDataSource) current).isClosed()) {
+            if (null != jdbcDataSource && null != sourceKey) {
+                jdbcDataSource.getHealthTracker().checkAvailable(sourceKey, jdbcUrl);
+            }
+            return current;
+        }
+        current = sourceUtils.getDataSource(this.jdbcUrl, this.username, this.password, this.database, this.dbVersion, this.isExt);
+        this.dataSource = current;
+        return current;
+    }
+
     public boolean testConnection() throws SourceException {
         Connection connection = null;
         try {
@@ -812,60 +1227,48 @@ public class SqlUtils {
         }
     }
 
-    public static String getKeywordPrefix(String jdbcUrl, String dbVersion) {
-        String keywordPrefix = "";
-        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
-        if (null != customDataSource) {
-            keywordPrefix = customDataSource.getKeyword_prefix();
-        } else {
-            DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
-            if (null != dataTypeEnum) {
-                keywordPrefix = dataTypeEnum.getKeywordPrefix();
+    /**
+     * 按 jdbcUrl 及版本缓存 keyword / alias 前后缀，自定义数据源优先
+     */
+    private static String[] getDialect(String jdbcUrl, String dbVersion) {
+        return DIALECTS.get(jdbcUrl + AT_SYMBOL + dbVersion, k -> {
+            String[] dialect = new String[]{EMPTY, EMPTY, EMPTY, EMPTY};
+            CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
+            if (null != customDataSource) {
+                dialect[0] = customDataSource.getKeyword_prefix();
+                dialect[1] = customDataSource.getKeyword_suffix();
+                dialect[2] = customDataSource.getAlias_prefix();
+                dialect[3] = customDataSource.getAlias_suffix();
+            } else {
+                DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
+                if (null != dataTypeEnum) {
+                    dialect[0] = dataTypeEnum.getKeywordPrefix();
+                    dialect[1] = dataTypeEnum.getKeywordSuffix();
+                    dialect[2] = dataTypeEnum.getAliasPrefix();
+                    dialect[3] = dataTypeEnum.getAliasSuffix();
+                }
             }
-        }
-        return StringUtils.isEmpty(keywordPrefix) ? EMPTY : keywordPrefix;
+            for (int i = 0; i < dialect.length; i++) {
+                dialect[i] = StringUtils.isEmpty(dialect[i]) ? EMPTY : dialect[i];
+            }
+            return dialect;
+        });
+    }
+
+    public static String getKeywordPrefix(String jdbcUrl, String dbVersion) {
+        return getDialect(jdbcUrl, dbVersion)[0];
     }
 
     public static String getKeywordSuffix(String jdbcUrl, String dbVersion) {
-        String keywordSuffix = "";
-        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
-        if (null != customDataSource) {
-            keywordSuffix = customDataSource.getKeyword_suffix();
-        } else {
-            DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
-            if (null != dataTypeEnum) {
-                keywordSuffix = dataTypeEnum.getKeywordSuffix();
-            }
-        }
-        return StringUtils.isEmpty(keywordSuffix) ? EMPTY : keywordSuffix;
+        return getDialect(jdbcUrl, dbVersion)[1];
     }
 
     public static String getAliasPrefix(String jdbcUrl, String dbVersion) {
-        String aliasPrefix = "";
-        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
-        if (null != customDataSource) {
-            aliasPrefix = customDataSource.getAlias_prefix();
-        } else {
-            DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
-            if (null != dataTypeEnum) {
-                aliasPrefix = dataTypeEnum.getAliasPrefix();
-            }
-        }
-        return StringUtils.isEmpty(aliasPrefix) ? EMPTY : aliasPrefix;
+        return getDialect(jdbcUrl, dbVersion)[2];
     }
 
     public static String getAliasSuffix(String jdbcUrl, String dbVersion) {
-        String aliasSuffix = "";
-        CustomDataSource customDataSource = CustomDataSourceUtils.getInstance(jdbcUrl, dbVersion);
-        if (null != customDataSource) {
-            aliasSuffix = customDataSource.getAlias_suffix();
-        } else {
-            DataTypeEnum dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
-            if (null != dataTypeEnum) {
-                aliasSuffix = dataTypeEnum.getAliasSuffix();
-            }
-        }
-        return StringUtils.isEmpty(aliasSuffix) ? EMPTY : aliasSuffix;
+        return getDialect(jdbcUrl, dbVersion)[3];
     }
 
 
@@ -941,6 +1344,8 @@ public class SqlUtils {
 
     public static final class SqlUtilsBuilder {
         private JdbcDataSource jdbcDataSource;
+        private QueryCountCache queryCountCache;
+        private QueryScheduler queryScheduler;
         private int resultLimit;
         private boolean isQueryLogEnable;
         private String jdbcUrl;
@@ -948,6 +1353,7 @@ public class SqlUtils {
         private String password;
         private String dbVersion;
         private boolean isExt;
+        private DataSourcePoolConfig poolConfig;
 
         private SqlUtilsBuilder() {
         }
@@ -961,6 +1367,16 @@ public class SqlUtils {
             return this;
         }
 
+        SqlUtilsBuilder withQueryCountCache(QueryCountCache queryCountCache) {
+            this.queryCountCache = queryCountCache;
+            return this;
+        }
+
+        SqlUtilsBuilder withQueryScheduler(QueryScheduler queryScheduler) {
+            this.queryScheduler = queryScheduler;
+            return this;
+        }
+
         SqlUtilsBuilder withResultLimit(int resultLimit) {
             this.resultLimit = resultLimit;
             return this;
@@ -996,17 +1412,26 @@ public class SqlUtils {
             return this;
         }
 
+        SqlUtilsBuilder withPoolConfig(DataSourcePoolConfig poolConfig) {
+            this.poolConfig = poolConfig;
+            return this;
+        }
+
         public SqlUtils build() throws ServerException {
             String datasource = SourceUtils.isSupportedDatasource(jdbcUrl);
             SourceUtils.checkDriver(datasource, jdbcUrl, dbVersion, isExt);
 
             SqlUtils sqlUtils = new SqlUtils(jdbcUrl, username, password, dbVersion, isExt);
             sqlUtils.jdbcDataSource = this.jdbcDataSource;
+            sqlUtils.queryCountCache = this.queryCountCache;
+            sqlUtils.queryScheduler = this.queryScheduler;
             sqlUtils.resultLimit = this.resultLimit;
             sqlUtils.isQueryLogEnable = this.isQueryLogEnable;
             sqlUtils.dataTypeEnum = DataTypeEnum.urlOf(jdbcUrl);
             sqlUtils.database = datasource;
-            sqlUtils.sourceUtils = new SourceUtils(this.jdbcDataSource);
+            sqlUtils.sourceUtils = new SourceUtils(this.jdbcDataSource, this.poolConfig);
+            sqlUtils.sourceKey = SourceUtils.getKey(jdbcUrl, username, password, dbVersion, isExt);
+            sqlUtils.maxActive = null != poolConfig && null != poolConfig.getMaxActive() ? poolConfig.getMaxActive() : 0;
 
             return sqlUtils;
         }
@@ -1016,5 +1441,19 @@ public class SqlUtils {
         return jdbcUrl;
     }
 
+    /**
+     * 数据源标识（与连接池 key 一致），Hive 等非 jdbc 执行器为 null
+     */
+    public String getSourceKey() {
+        return sourceKey;
+    }
+
+    /**
+     * 数据源单独配置的连接池大小，未配置时为 0
+     */
+    public int getMaxActive() {
+        return maxActive;
+    }
+
 }
 
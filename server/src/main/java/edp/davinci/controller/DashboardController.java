@@ -20,10 +20,14 @@
 package edp.davinci.controller;
 
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
 import edp.core.annotation.CurrentUser;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
+import edp.davinci.core.common.DashboardDataWriter;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.config.WebMvcConfig;
 import edp.davinci.dto.dashboardDto.*;
 import edp.davinci.model.Dashboard;
 import edp.davinci.model.DashboardPortal;
@@ -37,6 +41,8 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -44,7 +50,9 @@ import org.springframework.web.bind.annotation.*;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.util.List;
 
 @Api(value = "/dashboardPortals", tags = "dashboardPortals", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
@@ -60,6 +68,8 @@ public class DashboardController extends BaseController {
     @Autowired
     private DashboardService dashboardService;
 
+    private final FastJsonConfig fastJsonConfig = WebMvcConfig.newFastJsonConfig();
+
     /**
      * 获取dashboardPortal列表
      *
@@ -177,6 +187,39 @@ public class DashboardController extends BaseController {
         return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(dashboardMemWidgets));
     }
 
+    /**
+     * 批量获取dashboard下组件的数据，以 NDJSON 逐个输出完成的组件结果
+     *
+     * @param portalId
+     * @param dashboardId
+     * @param param
+     * @param user
+     * @param request
+     * @param response
+     */
+    @ApiOperation(value = "get dashboard data")
+    @PostMapping(value = "/{portalId}/dashboards/{dashboardId}/data", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = {DashboardDataWriter.MEDIA_TYPE, MediaType.APPLICATION_JSON_UTF8_VALUE})
+    public void getDashboardData(@PathVariable("portalId") Long portalId,
+                                 @PathVariable("dashboardId") Long dashboardId,
+                                 @RequestBody(required = false) DashboardDataParam param,
+                                 @ApiIgnore @CurrentUser User user,
+                                 HttpServletRequest request,
+                                 HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        if (invalidId(portalId) || invalidId(dashboardId)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid dashboard id");
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            response.setStatus(resultMap.getCode());
+            response.getOutputStream().write(JSON.toJSONBytes(resultMap, fastJsonConfig.getSerializeConfig(), fastJsonConfig.getSerializeFilters(),
+                    fastJsonConfig.getDateFormat(), JSON.DEFAULT_GENERATE_FEATURE, fastJsonConfig.getSerializerFeatures()));
+            return;
+        }
+
+        response.setContentType(DashboardDataWriter.CONTENT_TYPE);
+        dashboardService.streamDashboardData(portalId, dashboardId, param, user, new DashboardDataWriter(fastJsonConfig, response.getOutputStream()));
+    }
+
     /**
      * 新建dashboardPortal
      *
@@ -0,0 +1,260 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.controller;
+
+import edp.core.annotation.CurrentUser;
+import edp.core.common.cache.ResultCache;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.query.QueryCancellationRegistry;
+import edp.core.common.query.QueryCoalescer;
+import edp.core.common.query.QueryCountCache;
+import edp.core.common.query.QueryScheduler;
+import edp.core.exception.ForbiddenExecption;
+import edp.davinci.common.controller.BaseController;
+import edp.davinci.core.common.Constants;
+import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.service.PermissionSnapshotCache;
+import edp.davinci.core.utils.DacChannelUtil;
+import edp.davinci.core.utils.ResultMaterializationManager;
+import edp.davinci.model.User;
+import edp.davinci.service.excel.ExportJobScheduler;
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+import io.swagger.annotations.ApiResponse;
+import io.swagger.annotations.ApiResponses;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ModelAttribute;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import springfox.documentation.annotations.ApiIgnore;
+
+import javax.servlet.http.HttpServletRequest;
+
+@Api(value = "/monitor", tags = "monitor", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+@ApiResponses(@ApiResponse(code = 404, message = "monitor not found"))
+@Slf4j
+@RestController
+@RequestMapping(value = Constants.BASE_API_PATH + "/monitor", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+public class MonitorController extends BaseController {
+
+    @Autowired
+    private QueryCoalescer queryCoalescer;
+
+    @Autowired
+    private QueryCountCache queryCountCache;
+
+    @Autowired
+    private QueryScheduler queryScheduler;
+
+    @Autowired
+    private QueryCancellationRegistry queryCancellationRegistry;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Autowired
+    private DacChannelUtil dacChannelUtil;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private ResultMaterializationManager resultMaterializationManager;
+
+    @Autowired
+    private JdbcDataSource jdbcDataSource;
+
+    @Autowired
+    private PermissionSnapshotCache permissionSnapshotCache;
+
+    @Autowired
+    private ExportJobScheduler exportJobScheduler;
+
+    /**
+     * 监控接口仅对管理员开放，在所有接口执行前校验
+     *
+     * @param user
+     */
+    @ModelAttribute
+    public void checkAdmin(@ApiIgnore @CurrentUser User user) {
+        if (null == user || !Boolean.TRUE.equals(user.getAdmin())) {
+            throw new ForbiddenExecption("ERROR Permission denied");
+        }
+    }
+
+    /**
+     * 查询合并统计（命中 / 未命中 / 等待）
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get query coalescing stats")
+    @GetMapping("/query/coalescing")
+    public ResponseEntity<ResultMap> getQueryCoalescingStats(@ApiIgnore @CurrentUser User user,
+                                                             HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(queryCoalescer.getStats()));
+    }
+
+    /**
+     * 分页总数缓存统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get query count cache stats")
+    @GetMapping("/query/count")
+    public ResponseEntity<ResultMap> getQueryCountStats(@ApiIgnore @CurrentUser User user,
+                                                        HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(queryCountCache.getStats()));
+    }
+
+    /**
+     * 共享线程池统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get shared executor stats")
+    @GetMapping("/executors")
+    public ResponseEntity<ResultMap> getExecutorStats(@ApiIgnore @CurrentUser User user,
+                                                      HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(executorRegistry.getStats()));
+    }
+
+    /**
+     * 数据权限中心数据缓存统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get data-auth-center cache stats")
+    @GetMapping("/dac/cache")
+    public ResponseEntity<ResultMap> getDacCacheStats(@ApiIgnore @CurrentUser User user,
+                                                      HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(dacChannelUtil.getDataCacheStats()));
+    }
+
+    /**
+     * 查询结果缓存统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get result cache stats")
+    @GetMapping("/result/cache")
+    public ResponseEntity<ResultMap> getResultCacheStats(@ApiIgnore @CurrentUser User user,
+                                                         HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(resultCache.getStats()));
+    }
+
+    /**
+     * 临时 view 物化及本地计算统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get result materialization stats")
+    @GetMapping("/result/materialization")
+    public ResponseEntity<ResultMap> getMaterializationStats(@ApiIgnore @CurrentUser User user,
+                                                             HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(resultMaterializationManager.getStats()));
+    }
+
+    /**
+     * 数据源连接池统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get datasource pool stats")
+    @GetMapping("/datasources")
+    public ResponseEntity<ResultMap> getDataSourceStats(@ApiIgnore @CurrentUser User user,
+                                                        HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(jdbcDataSource.getStats()));
+    }
+
+    /**
+     * 查询准入统计（各用户 / 项目 / 数据源的并发、排队、拒绝及平均等待时间）
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get query scheduler stats")
+    @GetMapping("/query/scheduler")
+    public ResponseEntity<ResultMap> getQuerySchedulerStats(@ApiIgnore @CurrentUser User user,
+                                                            HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payloads(queryScheduler.getStats()));
+    }
+
+    /**
+     * 被取代查询的取消统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get query cancellation stats")
+    @GetMapping("/query/cancellation")
+    public ResponseEntity<ResultMap> getQueryCancellationStats(@ApiIgnore @CurrentUser User user,
+                                                               HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(queryCancellationRegistry.getStats()));
+    }
+
+    /**
+     * 取数链路权限快照缓存统计
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get permission cache stats")
+    @GetMapping("/permission/cache")
+    public ResponseEntity<ResultMap> getPermissionCacheStats(@ApiIgnore @CurrentUser User user,
+                                                             HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(permissionSnapshotCache.getStats()));
+    }
+
+    /**
+     * 导出任务队列统计（排队 / 运行 / 排队与运行耗时）
+     *
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get export job stats")
+    @GetMapping("/export/jobs")
+    public ResponseEntity<ResultMap> getExportJobStats(@ApiIgnore @CurrentUser User user,
+                                                       HttpServletRequest request) {
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(exportJobScheduler.getStats()));
+    }
+}
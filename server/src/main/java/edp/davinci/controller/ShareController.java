@@ -23,6 +23,7 @@ import com.alibaba.druid.util.StringUtils;
 import edp.core.annotation.AuthIgnore;
 import edp.core.annotation.AuthShare;
 import edp.core.annotation.CurrentUser;
+import edp.core.common.cache.ResultCache;
 import edp.core.enums.HttpCodeEnum;
 import edp.core.model.Paginate;
 import edp.davinci.common.controller.BaseController;
@@ -43,6 +44,7 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -203,10 +205,11 @@ public class ShareController extends BaseController {
         }
 
         Paginate<Map<String, Object>> shareData = shareService.getShareData(token, executeParam, user);
+        HttpHeaders cacheHeaders = ResultCache.statusHeaders();
         if (null == user) {
-            return ResponseEntity.ok(new ResultMap().success().payload(shareData));
+            return ResponseEntity.ok().headers(cacheHeaders).body(new ResultMap().success().payload(shareData));
         } else {
-            return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(shareData));
+            return ResponseEntity.ok().headers(cacheHeaders).body(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(shareData));
         }
     }
 
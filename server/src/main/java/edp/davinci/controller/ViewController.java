@@ -20,12 +20,19 @@
 package edp.davinci.controller;
 
 import com.webank.wedatasphere.dss.visualis.service.hive.HiveDBHelper;
+import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
 import edp.core.annotation.CurrentUser;
+import edp.core.enums.HttpCodeEnum;
+import edp.core.common.cache.ResultCache;
 import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
 import edp.davinci.common.controller.BaseController;
 import edp.davinci.core.common.Constants;
 import edp.davinci.core.common.ResultMap;
+import edp.davinci.core.common.StreamingResultWriter;
+import edp.davinci.core.config.WebMvcConfig;
 import edp.davinci.core.utils.DacChannelUtil;
 import edp.davinci.dto.viewDto.*;
 import edp.davinci.model.DacChannel;
@@ -37,7 +44,9 @@ import io.swagger.annotations.ApiResponse;
 import io.swagger.annotations.ApiResponses;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
@@ -45,7 +54,9 @@ import org.springframework.web.bind.annotation.*;
 import springfox.documentation.annotations.ApiIgnore;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
@@ -63,6 +74,11 @@ public class ViewController extends BaseController {
     @Autowired
     private DacChannelUtil dacChannelUtil;
 
+    private final FastJsonConfig fastJsonConfig = WebMvcConfig.newFastJsonConfig();
+
+    @Value("${source.stream-flush-rows:1000}")
+    private int streamFlushRows;
+
     private HiveDBHelper hiveDBHelper;
 
     /**
@@ -310,9 +326,154 @@ public class ViewController extends BaseController {
         }
 
         Paginate<Map<String, Object>> paginate = viewService.getData(id, executeParam, user);
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).headers(ResultCache.statusHeaders()).body(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(paginate));
+    }
+
+
+    /**
+     * 异步提交view数据查询，返回任务id，通过任务接口轮询状态和获取结果
+     *
+     * @param id
+     * @param group        任务分组（如 dashboard），用于批量取消
+     * @param executeParam
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "submit get data job")
+    @PostMapping(value = "/{id}/getdata/submit", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ResultMap> submitData(@PathVariable Long id,
+                                                @RequestParam(required = false) String group,
+                                                @RequestBody(required = false) ViewExecuteParam executeParam,
+                                                @ApiIgnore @CurrentUser User user,
+                                                HttpServletRequest request) {
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        ViewDataJob job = viewService.submitData(id, executeParam, group, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(job));
+    }
+
+    /**
+     * 获取异步查询任务状态
+     *
+     * @param jobId
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get data job status")
+    @GetMapping("/getdata/jobs/{jobId}")
+    public ResponseEntity<ResultMap> getDataJob(@PathVariable String jobId,
+                                                @ApiIgnore @CurrentUser User user,
+                                                HttpServletRequest request) {
+        ViewDataJob job = viewService.getDataJob(jobId, user);
+        return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(job));
+    }
+
+    /**
+     * 获取异步查询任务结果，任务未成功结束时返回失败
+     *
+     * @param jobId
+     * @param pageNo
+     * @param pageSize
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "get data job result")
+    @GetMapping("/getdata/jobs/{jobId}/result")
+    public ResponseEntity<ResultMap> getDataJobResult(@PathVariable String jobId,
+                                                      @RequestParam(required = false, defaultValue = "-1") int pageNo,
+                                                      @RequestParam(required = false, defaultValue = "-1") int pageSize,
+                                                      @ApiIgnore @CurrentUser User user,
+                                                      HttpServletRequest request) {
+        Paginate<Map<String, Object>> paginate = viewService.getDataJobResult(jobId, pageNo, pageSize, user);
         return ResponseEntity.ok().cacheControl(CacheControl.noCache()).body(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(paginate));
     }
 
+    /**
+     * 取消异步查询任务
+     *
+     * @param jobId
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "cancel data job")
+    @DeleteMapping("/getdata/jobs/{jobId}")
+    public ResponseEntity<ResultMap> cancelDataJob(@PathVariable String jobId,
+                                                   @ApiIgnore @CurrentUser User user,
+                                                   HttpServletRequest request) {
+        boolean cancelled = viewService.cancelDataJob(jobId, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(cancelled));
+    }
+
+    /**
+     * 取消分组（如 dashboard）下所有未完成的异步查询任务
+     *
+     * @param group
+     * @param user
+     * @param request
+     * @return
+     */
+    @ApiOperation(value = "cancel data jobs of group")
+    @DeleteMapping("/getdata/jobs")
+    public ResponseEntity<ResultMap> cancelDataJobs(@RequestParam String group,
+                                                    @ApiIgnore @CurrentUser User user,
+                                                    HttpServletRequest request) {
+        if (StringUtils.isEmpty(group)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid job group");
+            return ResponseEntity.status(resultMap.getCode()).body(resultMap);
+        }
+
+        int cancelled = viewService.cancelDataJobs(group, user);
+        return ResponseEntity.ok(new ResultMap(tokenUtils).successAndRefreshToken(request).payload(cancelled));
+    }
+
+
+    /**
+     * 流式获取view数据，结果逐行写出，不在服务端物化整页数据
+     *
+     * @param id
+     * @param executeParam
+     * @param user
+     * @param request
+     * @param response
+     */
+    @ApiOperation(value = "get data by stream")
+    @PostMapping(value = "/{id}/getdata/stream", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public void getDataByStream(@PathVariable Long id,
+                                @RequestBody(required = false) ViewExecuteParam executeParam,
+                                @ApiIgnore @CurrentUser User user,
+                                HttpServletRequest request,
+                                HttpServletResponse response) throws SQLException, IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+        if (invalidId(id)) {
+            ResultMap resultMap = new ResultMap(tokenUtils).failAndRefreshToken(request).message("Invalid view id");
+            response.setStatus(resultMap.getCode());
+            response.getOutputStream().write(JSON.toJSONBytes(resultMap, fastJsonConfig.getSerializeConfig(), fastJsonConfig.getSerializeFilters(),
+                    fastJsonConfig.getDateFormat(), JSON.DEFAULT_GENERATE_FEATURE, fastJsonConfig.getSerializerFeatures()));
+            return;
+        }
+
+        StreamingResultWriter writer = new StreamingResultWriter(fastJsonConfig, response.getOutputStream(), streamFlushRows);
+        try {
+            viewService.streamData(id, executeParam, user, writer);
+        } catch (RuntimeException | SQLException e) {
+            //响应已开始时无法再改状态码，以 error 记录结束输出；未开始时交给统一异常处理
+            if (!writer.isStarted()) {
+                throw e;
+            }
+            log.error("stream data of view ({}) error: {}", id, e.getMessage());
+            writer.fail(HttpCodeEnum.SERVER_ERROR.getCode(), e.getMessage());
+        }
+        writer.finish();
+    }
+
 
     @ApiOperation(value = "get distinct value")
     @PostMapping(value = "/{id}/getdistinctvalue", consumes = MediaType.APPLICATION_JSON_VALUE)
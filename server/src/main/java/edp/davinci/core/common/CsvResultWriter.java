@@ -0,0 +1,115 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.common;
+
+import edp.core.common.jdbc.ResultRowHandler;
+import edp.core.model.QueryColumn;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.LongConsumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 将查询结果逐行写为 CSV，格式与 CsvUtils.formatCsvWithFirstAsHeader 一致（BOM、列名、列类型、数据）；
+ * 只持有固定大小的写缓冲，内存占用与行数无关，可选 gzip 压缩，每 progressRows 行回调一次已写行数
+ */
+public class CsvResultWriter implements ResultRowHandler, Closeable {
+
+    private final Writer writer;
+
+    private final CSVPrinter printer;
+
+    private final int progressRows;
+
+    private final LongConsumer progress;
+
+    private long rows = 0L;
+
+    private boolean started = false;
+
+    public CsvResultWriter(OutputStream outputStream, boolean gzip, int bufferSize, int progressRows, LongConsumer progress) throws IOException {
+        int size = bufferSize > 0 ? bufferSize : 8192;
+        OutputStream out = gzip ? new GZIPOutputStream(outputStream, size) : outputStream;
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), size);
+        this.printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withTrim());
+        this.progressRows = progressRows;
+        this.progress = progress;
+    }
+
+    @Override
+    public void onColumns(List<QueryColumn> columns) throws IOException {
+        started = true;
+        //解决csv用excel打开乱码问题
+        writer.write('\uFEFF');
+        for (QueryColumn column : columns) {
+            printer.print(column.getName());
+        }
+        printer.println();
+        for (QueryColumn column : columns) {
+            printer.print(column.getType());
+        }
+        printer.println();
+    }
+
+    @Override
+    public void onRow(Object[] values) throws IOException {
+        for (Object value : values) {
+            printer.print(value);
+        }
+        printer.println();
+        rows++;
+        if (null != progress && progressRows > 0 && rows % progressRows == 0) {
+            progress.accept(rows);
+        }
+    }
+
+    @Override
+    public boolean needTotalCount() {
+        return false;
+    }
+
+    @Override
+    public void onComplete(int pageNo, int pageSize, long totalCount) throws IOException {
+        printer.flush();
+        if (null != progress) {
+            progress.accept(rows);
+        }
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * 刷新并关闭底层输出流，gzip 时写出压缩尾部
+     */
+    @Override
+    public void close() throws IOException {
+        printer.close();
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.common;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import edp.davinci.dto.dashboardDto.DashboardItemData;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 以 NDJSON（每行一个 JSON 对象）逐个输出 dashboard 组件的查询结果，每行写出后立即刷新；
+ * 使用与 /getdata 相同的 fastjson 配置（null 值、长整型、日期格式）
+ */
+public class DashboardDataWriter {
+
+    public static final String MEDIA_TYPE = "application/x-ndjson";
+
+    public static final String CONTENT_TYPE = MEDIA_TYPE + ";charset=UTF-8";
+
+    private static final byte LINE_SEPARATOR = '\n';
+
+    private final FastJsonConfig fastJsonConfig;
+
+    private final OutputStream outputStream;
+
+    public DashboardDataWriter(FastJsonConfig fastJsonConfig, OutputStream outputStream) {
+        this.fastJsonConfig = fastJsonConfig;
+        this.outputStream = outputStream;
+    }
+
+    public void write(DashboardItemData item) throws IOException {
+        outputStream.write(JSON.toJSONBytes(item, fastJsonConfig.getSerializeConfig(), fastJsonConfig.getSerializeFilters(),
+                fastJsonConfig.getDateFormat(), JSON.DEFAULT_GENERATE_FEATURE, fastJsonConfig.getSerializerFeatures()));
+        outputStream.write(LINE_SEPARATOR);
+        outputStream.flush();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.common;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import edp.core.common.jdbc.ResultRowHandler;
+import edp.core.enums.HttpCodeEnum;
+import edp.core.model.QueryColumn;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static edp.core.consts.Consts.EMPTY;
+
+/**
+ * 以 ResultMap 相同的结构（header + payload）将查询结果流式写出：
+ * 先写列信息，再逐行写数据，每 flushRows 行刷新一次输出流；
+ * 值的序列化使用与 /getdata 相同的 fastjson 配置（日期格式、null 值、长整型）。
+ * 写出列信息后查询失败时，结束 resultList 并追加 error 记录：{"header":...,"payload":{...},"error":{"code":..,"msg":..}}
+ */
+public class StreamingResultWriter implements ResultRowHandler {
+
+    private final Writer writer;
+
+    private final FastJsonConfig fastJsonConfig;
+
+    private final int flushRows;
+
+    /**
+     * 逐行复用，按 /getdata 的 Map 结构序列化
+     */
+    private final Map<String, Object> row = new LinkedHashMap<>();
+
+    private List<QueryColumn> columns;
+
+    private int rows = 0;
+
+    private boolean started = false;
+
+    private boolean finished = false;
+
+    public StreamingResultWriter(FastJsonConfig fastJsonConfig, OutputStream outputStream, int flushRows) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        this.fastJsonConfig = fastJsonConfig;
+        this.flushRows = flushRows > 0 ? flushRows : 1000;
+    }
+
+    @Override
+    public void onColumns(List<QueryColumn> columns) throws IOException {
+        this.columns = columns;
+        this.started = true;
+        writer.write('{');
+        writeHeader();
+        writer.write(",\"payload\":{\"columns\":");
+        writer.write(toJson(columns));
+        writer.write(",\"resultList\":[");
+        writer.flush();
+    }
+
+    @Override
+    public void onRow(Object[] values) throws IOException {
+        row.clear();
+        for (int i = 0; i < values.length; i++) {
+            row.put(columns.get(i).getName(), values[i]);
+        }
+        //整行序列化后再写出，序列化失败时不会留下半行
+        String json = toJson(row);
+        if (rows > 0) {
+            writer.write(',');
+        }
+        writer.write(json);
+        if (++rows % flushRows == 0) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void onComplete(int pageNo, int pageSize, long totalCount) throws IOException {
+        writer.write("],\"pageNo\":" + pageNo + ",\"pageSize\":" + pageSize + ",\"totalCount\":" + totalCount + "}}");
+        finished = true;
+    }
+
+    /**
+     * 已开始输出后查询失败：结束结果数组并写出 error 记录，客户端据此判断结果不完整
+     */
+    public void fail(int code, String message) throws IOException {
+        if (!started || finished) {
+            return;
+        }
+        Map<String, Object> error = new LinkedHashMap<>();
+        error.put("code", code);
+        error.put("msg", null == message ? EMPTY : message);
+        writer.write("]},\"error\":");
+        writer.write(toJson(error));
+        writer.write('}');
+        finished = true;
+    }
+
+    /**
+     * 结束输出，未产生任何结果时与普通接口一致返回空 payload
+     */
+    public void finish() throws IOException {
+        if (!started) {
+            writer.write('{');
+            writeHeader();
+            writer.write(",\"payload\":\"\"}");
+            finished = true;
+        }
+        writer.close();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    private void writeHeader() throws IOException {
+        writer.write("\"header\":{\"code\":" + HttpCodeEnum.OK.getCode() + ",\"msg\":\"Success\"}");
+    }
+
+    private String toJson(Object object) {
+        return JSON.toJSONString(object, fastJsonConfig.getSerializeConfig(), fastJsonConfig.getSerializeFilters(),
+                fastJsonConfig.getDateFormat(), JSON.DEFAULT_GENERATE_FEATURE, fastJsonConfig.getSerializerFeatures());
+    }
+}
@@ -27,17 +27,21 @@ package edp.davinci.core.config;
 import edp.core.enums.HttpCodeEnum;
 import edp.core.exception.ForbiddenExecption;
 import edp.core.exception.NotFoundException;
+import edp.core.exception.QueryCancelledException;
+import edp.core.exception.QueryRejectedException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedExecption;
 import edp.core.utils.TokenUtils;
 import edp.davinci.core.common.ResultMap;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 @ControllerAdvice(annotations = RestController.class)
 @Slf4j
@@ -64,6 +68,23 @@ public class RestExceptionHandler {
         return new ResultMap(tokenUtils).failAndRefreshToken(request).message(e.getMessage());
     }
 
+    @ExceptionHandler(value = QueryRejectedException.class)
+    @ResponseBody
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    private ResultMap queryRejectedExceptionHandler(HttpServletRequest request, HttpServletResponse response, QueryRejectedException e) {
+        log.warn(e.getMessage());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter()));
+        return new ResultMap(tokenUtils).failAndRefreshToken(request).message(e.getMessage());
+    }
+
+    @ExceptionHandler(value = QueryCancelledException.class)
+    @ResponseBody
+    @ResponseStatus(HttpStatus.CONFLICT)
+    private ResultMap queryCancelledExceptionHandler(HttpServletRequest request, QueryCancelledException e) {
+        log.info(e.getMessage());
+        return new ResultMap(tokenUtils).failAndRefreshToken(request).message(e.getMessage());
+    }
+
     @ExceptionHandler(value = ForbiddenExecption.class)
     @ResponseBody
     @ResponseStatus(HttpStatus.FORBIDDEN)
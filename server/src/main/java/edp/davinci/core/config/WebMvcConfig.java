@@ -154,6 +154,20 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
     @Override
     protected void configureMessageConverters(List<HttpMessageConverter<?>> converters) {
         FastJsonHttpMessageConverter fastConverter = new FastJsonHttpMessageConverter();
+
+        //处理中文乱码问题
+        List<MediaType> fastMediaTypes = new ArrayList<>();
+        fastMediaTypes.add(MediaType.APPLICATION_JSON_UTF8);
+        fastMediaTypes.add(MediaType.IMAGE_PNG);
+        fastConverter.setSupportedMediaTypes(fastMediaTypes);
+        fastConverter.setFastJsonConfig(newFastJsonConfig());
+        converters.add(fastConverter);
+    }
+
+    /**
+     * 接口响应的 fastjson 序列化配置，流式接口等直接写响应的场景也使用该配置，保证输出一致
+     */
+    public static FastJsonConfig newFastJsonConfig() {
         FastJsonConfig fastJsonConfig = new FastJsonConfig();
         fastJsonConfig.setSerializerFeatures(SerializerFeature.QuoteFieldNames,
                 SerializerFeature.WriteEnumUsingToString,
@@ -167,14 +181,7 @@ public class WebMvcConfig extends WebMvcConfigurationSupport {
                 return null == source ? EMPTY : source;
             }
         });
-
-        //处理中文乱码问题
-        List<MediaType> fastMediaTypes = new ArrayList<>();
-        fastMediaTypes.add(MediaType.APPLICATION_JSON_UTF8);
-        fastMediaTypes.add(MediaType.IMAGE_PNG);
-        fastConverter.setSupportedMediaTypes(fastMediaTypes);
-        fastConverter.setFastJsonConfig(fastJsonConfig);
-        converters.add(fastConverter);
+        return fastJsonConfig;
     }
 
 
@@ -27,8 +27,21 @@ package edp.davinci.core.enums;
  * To change this template use File | Settings | File Templates.
  */
 public enum ActionEnum {
-    DOWNLOAD,
-    MAIL,
-    SHAREDOWNLOAD
+    DOWNLOAD(0),
+    MAIL(2),
+    SHAREDOWNLOAD(1)
     ;
+
+    /**
+     * 导出任务排队优先级，数值越小越先执行
+     */
+    private int priority;
+
+    ActionEnum(int priority) {
+        this.priority = priority;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
 }
@@ -0,0 +1,37 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.enums;
+
+public enum ExportJobStatus {
+    QUEUED((short) 1),
+    RUNNING((short) 2),
+    SUCCESS((short) 3),
+    FAILED((short) 4),
+    ;
+    private short status;
+
+    ExportJobStatus(short status) {
+        this.status = status;
+    }
+
+    public short getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.model.ColumnVector;
+import edp.core.model.ColumnarResult;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.Getter;
+
+import java.util.*;
+
+/**
+ * 同一 view、筛选条件与参数相同、只在分组 / 聚合上不同的多个组件合并为一次查询：
+ * 分组相同时查询聚合列的并集，分组不同且数据源支持时使用 GROUPING SETS，
+ * 查询结果在内存中按组件拆分
+ */
+@Getter
+public class MergedViewQuery {
+
+    /**
+     * 支持 GROUPING SETS 与 GROUPING() 的数据源
+     */
+    private static final String[] GROUPING_SETS_FEATURES = {"oracle", "sqlserver", "postgresql", "presto", "db2", "vertica", "sap"};
+
+    private final ViewExecuteParam executeParam;
+
+    private MergedViewQuery(ViewExecuteParam executeParam) {
+        this.executeParam = executeParam;
+    }
+
+    public static boolean supportsGroupingSets(String jdbcUrl) {
+        if (null == jdbcUrl) {
+            return false;
+        }
+        String url = jdbcUrl.toLowerCase();
+        for (String feature : GROUPING_SETS_FEATURES) {
+            if (url.startsWith("jdbc:" + feature + ":")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 可合并的组件参数按此 key 归组，不可合并时返回 null；
+     * 分页、limit、keyset 及原生查询不合并，排序列须为分组列
+     */
+    public static String getMergeKey(ViewExecuteParam param) {
+        if (null == param || param.isNativeQuery() || param.getPageNo() > 0 || param.getPageSize() > 0
+                || param.getLimit() > 0 || !CollectionUtils.isEmpty(param.getKeyset())
+                || !CollectionUtils.isEmpty(param.getGroupingSets())) {
+            return null;
+        }
+        List<String> groups = null == param.getGroups() ? Collections.emptyList() : param.getGroups();
+        if (!CollectionUtils.isEmpty(param.getOrders())) {
+            for (Order order : param.getOrders()) {
+                if (null == order || !groups.contains(order.getColumn())) {
+                    return null;
+                }
+            }
+        }
+        return JSON.toJSONString(Arrays.asList(param.getFilters(), param.getParams(), param.getOrders(),
+                param.getCache(), param.getExpired(), param.getFlush()));
+    }
+
+    /**
+     * 合并多个组件的查询参数（调用方保证 getMergeKey 相同），无法合并时返回 null
+     *
+     * @param params
+     * @param groupingSetsSupported 数据源是否支持 GROUPING SETS
+     */
+    public static MergedViewQuery merge(List<ViewExecuteParam> params, boolean groupingSetsSupported) {
+        if (null == params || params.size() < 2) {
+            return null;
+        }
+
+        List<String> groups = new ArrayList<>();
+        Set<Set<String>> groupSets = new LinkedHashSet<>();
+        Map<String, Aggregator> aggregators = new LinkedHashMap<>();
+        for (ViewExecuteParam param : params) {
+            List<String> paramGroups = null == param.getGroups() ? Collections.emptyList() : param.getGroups();
+            paramGroups.stream().filter(g -> !groups.contains(g)).forEach(groups::add);
+            groupSets.add(new HashSet<>(paramGroups));
+            if (null != param.getAggregators()) {
+                param.getAggregators().forEach(a -> aggregators.putIfAbsent(
+                        (a.getFunc().trim() + a.getColumn()).toUpperCase(), new Aggregator(a.getColumn(), a.getFunc())));
+            }
+        }
+
+        boolean useGroupingSets = groupSets.size() > 1;
+        if (useGroupingSets && !groupingSetsSupported) {
+            return null;
+        }
+
+        ViewExecuteParam first = params.get(0);
+        List<Order> orders = null;
+        if (!CollectionUtils.isEmpty(first.getOrders())) {
+            orders = new ArrayList<>();
+            for (Order order : first.getOrders()) {
+                orders.add(new Order(order.getColumn(), order.getDirection()));
+            }
+        }
+
+        ViewExecuteParam merged = new ViewExecuteParam(groups, new ArrayList<>(aggregators.values()), orders,
+                null == first.getFilters() ? null : new ArrayList<>(first.getFilters()),
+                first.getParams(), first.getCache(), null == first.getExpired() ? 0L : first.getExpired(), false);
+        merged.setFlush(first.getFlush());
+        if (useGroupingSets) {
+            List<List<String>> sets = new ArrayList<>();
+            groupSets.forEach(set -> {
+                List<String> list = new ArrayList<>();
+                groups.stream().filter(set::contains).forEach(list::add);
+                sets.add(list);
+            });
+            merged.setGroupingSets(sets);
+        }
+        return new MergedViewQuery(merged);
+    }
+
+    /**
+     * 从合并查询的结果中拆分出单个组件的结果：
+     * 只保留组件的分组列与聚合列，GROUPING SETS 时只保留组件分组集合对应的行
+     */
+    public PaginateWithQueryColumns split(PaginateWithQueryColumns merged, ViewExecuteParam param) {
+        if (null == merged) {
+            return null;
+        }
+
+        Map<String, QueryColumn> mergedColumns = new HashMap<>();
+        if (null != merged.getColumns()) {
+            merged.getColumns().forEach(c -> mergedColumns.put(c.getName().toUpperCase(), c));
+        }
+
+        List<String> labels = new ArrayList<>();
+        if (null != param.getGroups()) {
+            labels.addAll(param.getGroups());
+        }
+        labels.addAll(param.getAggregatorLabels());
+        List<QueryColumn> columns = new ArrayList<>();
+        for (String label : labels) {
+            QueryColumn column = mergedColumns.get(label.toUpperCase());
+            if (null != column && !columns.contains(column)) {
+                columns.add(column);
+            }
+        }
+
+        //各分组列的 GROUPING 标记列名，以及该组件期望的标记值（0 表示参与分组）
+        List<String> flagColumns = new ArrayList<>();
+        List<Boolean> expected = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(executeParam.getGroupingSets())) {
+            List<String> groups = executeParam.getGroups();
+            List<String> paramGroups = null == param.getGroups() ? Collections.emptyList() : param.getGroups();
+            for (int i = 0; i < groups.size(); i++) {
+                QueryColumn flag = mergedColumns.get(ViewExecuteParam.GROUPING_FLAG + i);
+                if (null == flag) {
+                    return null;
+                }
+                flagColumns.add(flag.getName());
+                expected.add(paramGroups.contains(groups.get(i)));
+            }
+        }
+
+        //直接按列读取合并结果，不为每行构造 Map
+        ColumnarResult data = null != merged.getColumnarResult() ? merged.getColumnarResult() :
+                ColumnarResult.of(merged.getColumns(), merged.getResultList());
+        int[] flagIndexes = new int[flagColumns.size()];
+        for (int i = 0; i < flagIndexes.length; i++) {
+            flagIndexes[i] = data.indexOf(flagColumns.get(i));
+        }
+        int[] indexes = new int[columns.size()];
+        ColumnarResult.Builder builder = ColumnarResult.newBuilder();
+        for (int i = 0; i < indexes.length; i++) {
+            QueryColumn column = columns.get(i);
+            indexes[i] = data.indexOf(column.getName());
+            builder.addColumn(column.getName(), ColumnVector.forTypeName(column.getType()));
+        }
+        for (int row = 0; row < data.getRowCount(); row++) {
+            if (!inGroupingSet(data, row, flagIndexes, expected)) {
+                continue;
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                builder.append(i, indexes[i] < 0 ? null : data.getValue(row, indexes[i]));
+            }
+            builder.endRow();
+        }
+        ColumnarResult result = builder.build();
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(columns);
+        paginate.setColumnarResult(result);
+        paginate.setPageNo(1);
+        paginate.setPageSize(result.getRowCount());
+        paginate.setTotalCount(result.getRowCount());
+        return paginate;
+    }
+
+    private static boolean inGroupingSet(ColumnarResult data, int row, int[] flagIndexes, List<Boolean> expected) {
+        for (int i = 0; i < flagIndexes.length; i++) {
+            Object flag = flagIndexes[i] < 0 ? null : data.getValue(row, flagIndexes[i]);
+            boolean grouped = flag instanceof Number ? ((Number) flag).intValue() == 0 : "0".equals(String.valueOf(flag));
+            if (grouped != expected.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.dto.projectDto.ProjectPermission;
+import lombok.Getter;
+
+/**
+ * 用户在某个 project 上的权限快照，供取数链路在内存中完成鉴权；
+ * 快照内对象在多个请求间共享，只读
+ */
+@Getter
+public class PermissionSnapshot {
+
+    private final Long userId;
+
+    private final ProjectDetail projectDetail;
+
+    private final ProjectPermission projectPermission;
+
+    private final boolean maintainer;
+
+    private final boolean allowGetData;
+
+    public PermissionSnapshot(Long userId, ProjectDetail projectDetail, ProjectPermission projectPermission, boolean maintainer, boolean allowGetData) {
+        this.userId = userId;
+        this.projectDetail = projectDetail;
+        this.projectPermission = projectPermission;
+        this.maintainer = maintainer;
+        this.allowGetData = allowGetData;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import com.alibaba.fastjson.JSONObject;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.model.View;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * view 结果缓存策略，来源于 view config 中的 resultCache 配置：
+ * {"resultCache": {"enable": true, "softTtl": 300, "hardTtl": 3600}}（单位秒）；
+ * 未配置时沿用请求参数中的 cache / expired
+ */
+@Slf4j
+@Getter
+public class ViewCachePolicy {
+
+    public static final String CONFIG_KEY = "resultCache";
+
+    private static final ViewCachePolicy NONE = new ViewCachePolicy(false, 0L, 0L);
+
+    private final boolean enable;
+
+    /**
+     * 毫秒
+     */
+    private final long softTtl;
+
+    /**
+     * 毫秒
+     */
+    private final long hardTtl;
+
+    private ViewCachePolicy(boolean enable, long softTtl, long hardTtl) {
+        this.enable = enable;
+        this.softTtl = softTtl;
+        this.hardTtl = Math.max(softTtl, hardTtl);
+    }
+
+    public static ViewCachePolicy of(View view, ViewExecuteParam executeParam) {
+        if (null != view && !StringUtils.isEmpty(view.getConfig())) {
+            try {
+                JSONObject config = JSONObject.parseObject(view.getConfig());
+                JSONObject cacheConfig = null == config ? null : config.getJSONObject(CONFIG_KEY);
+                if (null != cacheConfig) {
+                    if (!cacheConfig.getBooleanValue("enable")) {
+                        return NONE;
+                    }
+                    long softTtl = cacheConfig.getLongValue("softTtl");
+                    long hardTtl = cacheConfig.getLongValue("hardTtl");
+                    if (softTtl > 0L) {
+                        return new ViewCachePolicy(true, softTtl * 1000L, hardTtl * 1000L);
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("parse result cache config of view ({}) error: {}", view.getId(), e.getMessage());
+            }
+        }
+
+        if (null != executeParam
+                && null != executeParam.getCache()
+                && executeParam.getCache()
+                && executeParam.getExpired() > 0L) {
+            long ttl = executeParam.getExpired() * 1000L;
+            return new ViewCachePolicy(true, ttl, ttl);
+        }
+        return NONE;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import edp.davinci.model.View;
+import lombok.Getter;
+
+import java.util.Date;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * view 的 SQL 解析结果（去注释后的 SQL 及参数默认值），
+ * 按 view id + updateTime 缓存，每次请求只需在副本上绑定参数；
+ * 变量列表在权限处理时会被修改，不在此缓存
+ */
+@Getter
+public class ViewSqlPlan {
+
+    private final Long viewId;
+
+    private final Date updateTime;
+
+    private final String sourceSql;
+
+    private final String sourceVariable;
+
+    private final SqlEntity sqlEntity;
+
+    public ViewSqlPlan(View view, SqlEntity sqlEntity) {
+        this.viewId = view.getId();
+        this.updateTime = view.getUpdateTime();
+        this.sourceSql = view.getSql();
+        this.sourceVariable = view.getVariable();
+        this.sqlEntity = sqlEntity;
+    }
+
+    /**
+     * view 更新后（updateTime、sql 或变量变化）计划失效
+     */
+    public boolean matches(View view) {
+        return Objects.equals(viewId, view.getId())
+                && Objects.equals(updateTime, view.getUpdateTime())
+                && Objects.equals(sourceSql, view.getSql())
+                && Objects.equals(sourceVariable, view.getVariable());
+    }
+
+    /**
+     * 返回可修改的 SqlEntity 副本，参数 map 为浅拷贝
+     */
+    public SqlEntity newSqlEntity() {
+        if (null == sqlEntity) {
+            return null;
+        }
+        Map<String, Object> quaryParams = null == sqlEntity.getQuaryParams() ? null : new ConcurrentHashMap<>(sqlEntity.getQuaryParams());
+        Map<String, List<String>> authParams = null == sqlEntity.getAuthParams() ? null : new Hashtable<>(sqlEntity.getAuthParams());
+        return new SqlEntity(sqlEntity.getSql(), quaryParams, authParams);
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.exception.NotFoundException;
+import edp.core.exception.UnAuthorizedExecption;
+import edp.core.utils.RedisUtils;
+import edp.davinci.core.model.PermissionSnapshot;
+import edp.davinci.core.model.RedisMessageEntity;
+import edp.davinci.dao.RelRoleViewMapper;
+import edp.davinci.dto.projectDto.ProjectDetail;
+import edp.davinci.dto.projectDto.ProjectPermission;
+import edp.davinci.model.RelRoleView;
+import edp.davinci.model.User;
+import edp.davinci.service.ProjectService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static edp.core.consts.Consts.MINUS;
+import static edp.davinci.core.common.Constants.DAVINCI_TOPIC_CHANNEL;
+
+/**
+ * 取数链路的权限快照缓存：
+ * 按 用户 + project 缓存 project 详情及权限，按 用户 + view 缓存行列权限；
+ * 短 TTL 兜底，角色、project、组织及 view 权限变更时在事务提交后失效，并通过 Redis 广播到其他节点
+ */
+@Slf4j
+@Component
+public class PermissionSnapshotCache implements RedisMessageHandler {
+
+    public static final String FLAG_ALL = "all";
+
+    public static final String FLAG_PROJECT = "project";
+
+    public static final String FLAG_ORGANIZATION = "organization";
+
+    public static final String FLAG_VIEW = "view";
+
+    /**
+     * 任意失效都会递增，加载期间发生失效时不写入缓存，避免写回旧快照
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    @Autowired
+    private ProjectService projectService;
+
+    @Autowired
+    private RelRoleViewMapper relRoleViewMapper;
+
+    @Autowired
+    private RedisUtils redisUtils;
+
+    @Value("${source.permission-cache.enable:true}")
+    private boolean enable;
+
+    @Value("${source.permission-cache.ttl:60}")
+    private long ttl;
+
+    @Value("${source.permission-cache.max-size:100000}")
+    private long maxSize;
+
+    private Cache<String, PermissionSnapshot> snapshots;
+
+    private Cache<String, List<RelRoleView>> roleViews;
+
+    @PostConstruct
+    public void init() {
+        snapshots = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+        roleViews = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 获取用户在 project 上的权限快照，鉴权失败不缓存
+     *
+     * @param projectId
+     * @param user
+     * @return
+     * @throws NotFoundException
+     * @throws UnAuthorizedExecption
+     */
+    public PermissionSnapshot getSnapshot(Long projectId, User user) throws NotFoundException, UnAuthorizedExecption {
+        String key = user.getId() + MINUS + projectId;
+        PermissionSnapshot snapshot = enable ? snapshots.getIfPresent(key) : null;
+        if (null != snapshot) {
+            hits.increment();
+            return snapshot;
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        ProjectDetail projectDetail = projectService.getProjectDetail(projectId, user, false);
+        ProjectPermission projectPermission = projectService.getProjectPermission(projectDetail, user);
+        snapshot = new PermissionSnapshot(user.getId(), projectDetail, projectPermission,
+                projectPermission.isProjectMaintainer(), projectService.allowGetData(projectDetail, user));
+        if (enable && loadGeneration == generation.get()) {
+            snapshots.put(key, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 获取用户在 view 上关联的角色权限（行列权限）
+     *
+     * @param userId
+     * @param viewId
+     * @return
+     */
+    public List<RelRoleView> getRoleViews(Long userId, Long viewId) {
+        String key = userId + MINUS + viewId;
+        List<RelRoleView> list = enable ? roleViews.getIfPresent(key) : null;
+        if (null != list) {
+            hits.increment();
+            return list;
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        list = relRoleViewMapper.getByUserAndView(userId, viewId);
+        if (null == list) {
+            list = new ArrayList<>();
+        }
+        if (enable && loadGeneration == generation.get()) {
+            roleViews.put(key, list);
+        }
+        return list;
+    }
+
+    public void invalidateProject(Long projectId) {
+        invalidate(FLAG_PROJECT, projectId);
+    }
+
+    public void invalidateOrganization(Long orgId) {
+        invalidate(FLAG_ORGANIZATION, orgId);
+    }
+
+    public void invalidateView(Long viewId) {
+        invalidate(FLAG_VIEW, viewId);
+    }
+
+    /**
+     * 角色成员、角色与 project 的关联等影响面不确定的变更，清空全部快照
+     */
+    public void invalidateAll() {
+        invalidate(FLAG_ALL, 0L);
+    }
+
+    @Override
+    public void handle(Object message, String flag) {
+        // 其他节点发来的 id 经 JSON 反序列化后可能是 Integer
+        if (message instanceof Number) {
+            evict(flag, ((Number) message).longValue());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enable", enable);
+        stats.put("ttl", ttl);
+        stats.put("snapshots", snapshots.estimatedSize());
+        stats.put("roleViews", roleViews.estimatedSize());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("invalidations", invalidations.sum());
+        return stats;
+    }
+
+    /**
+     * 本地立即失效；事务中的变更在提交后再次失效并广播，
+     * 清除提交前按旧数据重新加载的快照
+     */
+    private void invalidate(String flag, Long id) {
+        evict(flag, id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    evict(flag, id);
+                    broadcast(flag, id);
+                }
+            });
+        } else {
+            broadcast(flag, id);
+        }
+    }
+
+    private void broadcast(String flag, Long id) {
+        if (!redisUtils.isRedisEnable()) {
+            return;
+        }
+        try {
+            redisUtils.convertAndSend(DAVINCI_TOPIC_CHANNEL, new RedisMessageEntity(PermissionSnapshotCache.class, id, flag));
+        } catch (Exception e) {
+            log.warn("broadcast permission cache invalidation ({}:{}) error: {}", flag, id, e.getMessage());
+        }
+    }
+
+    private void evict(String flag, Long id) {
+        generation.incrementAndGet();
+        invalidations.increment();
+        if (FLAG_PROJECT.equals(flag)) {
+            snapshots.asMap().values().removeIf(s -> id.equals(s.getProjectDetail().getId()));
+        } else if (FLAG_ORGANIZATION.equals(flag)) {
+            snapshots.asMap().values().removeIf(s -> id.equals(s.getProjectDetail().getOrgId()));
+        } else if (FLAG_VIEW.equals(flag)) {
+            String suffix = MINUS + id;
+            roleViews.asMap().keySet().removeIf(k -> k.endsWith(suffix));
+        } else {
+            snapshots.invalidateAll();
+            roleViews.invalidateAll();
+        }
+    }
+}
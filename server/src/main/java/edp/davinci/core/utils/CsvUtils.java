@@ -41,6 +41,8 @@ import static edp.core.consts.Consts.EMPTY;
 
 public class CsvUtils {
 
+    public static final String GZIP_SUFFIX = ".gz";
+
 
     /**
      * 解析Csv
@@ -207,4 +209,31 @@ public class CsvUtils {
         }
         return csvFullName;
     }
+
+    /**
+     * 在目录下创建导出用的 csv 文件，重名时追加 UUID
+     *
+     * @param filePath
+     * @param fileName
+     * @param gzip     为 true 时文件名以 .csv.gz 结尾
+     * @return
+     */
+    public static File createCsvFile(String filePath, String fileName, boolean gzip) {
+        String suffix = FileTypeEnum.CSV.getFormat() + (gzip ? GZIP_SUFFIX : EMPTY);
+        String name = fileName.trim();
+        if (name.toLowerCase().endsWith(FileTypeEnum.CSV.getFormat())) {
+            name = name.substring(0, name.length() - FileTypeEnum.CSV.getFormat().length());
+        }
+
+        File dir = new File(filePath);
+        if (!dir.exists() || !dir.isDirectory()) {
+            dir.mkdirs();
+        }
+
+        File file = new File(dir, name + suffix);
+        if (file.exists()) {
+            file = new File(dir, name + "_" + UUID.randomUUID() + suffix);
+        }
+        return file;
+    }
 }
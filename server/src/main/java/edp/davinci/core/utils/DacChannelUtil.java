@@ -20,9 +20,18 @@
 package edp.davinci.core.utils;
 
 import com.alibaba.druid.util.StringUtils;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import edp.core.common.executor.ExecutorRegistry;
 import edp.core.exception.NotFoundException;
 import edp.davinci.core.common.ResultMap;
 import edp.davinci.model.DacChannel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -36,11 +45,11 @@ import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
+import static edp.core.consts.Consts.COMMA;
 import static java.util.stream.Collectors.groupingBy;
 
 @Slf4j
@@ -58,9 +67,38 @@ public class DacChannelUtil {
 
     private static final String PAYLOAD = "payload";
 
+    private static final String BIZ_IDS_KEY = "bizIds";
+
+    /**
+     * 权限数据缓存时间（秒）
+     */
+    private long cacheTtl = 300L;
+
+    /**
+     * 写入后超过该时间（秒）的缓存在下次访问时后台刷新
+     */
+    private long cacheRefresh = 240L;
+
+    /**
+     * 请求失败结果的缓存时间（秒）
+     */
+    private long cacheNegativeTtl = 30L;
+
+    /**
+     * 后台刷新失败时，旧数据在 cacheTtl 之后最多继续使用的时间（秒）
+     */
+    private long cacheMaxStale = 60L;
+
+    private long cacheSize = 10000L;
+
+    private volatile LoadingCache<DataKey, DacData> dataCache;
+
     @Autowired
     private RestTemplate restTemplate;
 
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
     public void loadDacMap() {
         if (null != channels) {
             Map<String, List<DacChannel>> map = channels.stream()
@@ -81,6 +119,26 @@ public class DacChannelUtil {
         this.channels = channels;
     }
 
+    public void setCacheTtl(long cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public void setCacheRefresh(long cacheRefresh) {
+        this.cacheRefresh = cacheRefresh;
+    }
+
+    public void setCacheNegativeTtl(long cacheNegativeTtl) {
+        this.cacheNegativeTtl = cacheNegativeTtl;
+    }
+
+    public void setCacheMaxStale(long cacheMaxStale) {
+        this.cacheMaxStale = cacheMaxStale;
+    }
+
+    public void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
     public List getTenants(String dacName) throws NotFoundException {
         if (!dacMap.containsKey(dacName)) {
             log.error("data-auth-center channel :{} is not found", dacName);
@@ -131,29 +189,232 @@ public class DacChannelUtil {
     }
 
 
+    /**
+     * 获取用户在某业务下的权限数据，结果按 channel + bizId + email 缓存
+     */
     public List<Object> getData(String dacName, String bizId, String email) {
         if (dacMap.containsKey(dacName) && !StringUtils.isEmpty(email)) {
-            DacChannel channel = dacMap.get(dacName);
-
-            MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
-            params.add(AUTH_CODE_KEY, channel.getAuthCode());
-            params.add(EMAIL_KEY, email);
-
-            try {
-                ResponseEntity<ResultMap> result = restTemplate.getForEntity(UriComponentsBuilder.
-                                fromHttpUrl(channel.getBaseUrl() + "/bizs/{bizId}/data")
-                                .queryParams(params)
-                                .build().toString(),
-                        ResultMap.class, bizId);
-
-                if (result.getStatusCode().equals(HttpStatus.OK)) {
-                    ResultMap resultMap = result.getBody();
-                    return (List<Object>) resultMap.get(PAYLOAD);
+            return getDataCache().get(new DataKey(dacName, bizId, email)).getData();
+        }
+        return null;
+    }
+
+    /**
+     * 批量获取同一用户在多个业务下的权限数据，channel 开启 batch 时未命中部分合并为一次请求
+     */
+    public Map<String, List<Object>> getData(String dacName, Collection<String> bizIds, String email) {
+        Map<String, List<Object>> result = new HashMap<>();
+        if (dacMap.containsKey(dacName) && !StringUtils.isEmpty(email) && !CollectionUtils.isEmpty(bizIds)) {
+            List<DataKey> keys = bizIds.stream().distinct().map(bizId -> new DataKey(dacName, bizId, email)).collect(Collectors.toList());
+            getDataCache().getAll(keys).forEach((k, v) -> result.put(k.getBizId(), v.getData()));
+        }
+        return result;
+    }
+
+    public boolean isDataCached(String dacName, String bizId, String email) {
+        return null != getDataCache().getIfPresent(new DataKey(dacName, bizId, email));
+    }
+
+    public boolean isBatchEnable(String dacName) {
+        DacChannel channel = dacMap.get(dacName);
+        return null != channel && channel.isBatchEnable();
+    }
+
+    public void invalidateData() {
+        getDataCache().invalidateAll();
+    }
+
+    public Map<String, Object> getDataCacheStats() {
+        CacheStats stats = getDataCache().stats();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", getDataCache().estimatedSize());
+        map.put("hits", stats.hitCount());
+        map.put("misses", stats.missCount());
+        map.put("loadSuccess", stats.loadSuccessCount());
+        map.put("loadFailure", stats.loadFailureCount());
+        map.put("averageLoadPenaltyMillis", TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+        map.put("evictions", stats.evictionCount());
+        return map;
+    }
+
+    private LoadingCache<DataKey, DacData> getDataCache() {
+        if (null == dataCache) {
+            synchronized (this) {
+                if (null == dataCache) {
+                    dataCache = Caffeine.newBuilder()
+                            .maximumSize(cacheSize)
+                            .expireAfter(new DataExpiry())
+                            .refreshAfterWrite(cacheRefresh, TimeUnit.SECONDS)
+                            .executor(executorRegistry.getParamResolveExecutor())
+                            .recordStats()
+                            .build(new DataLoader());
                 }
-            } catch (RestClientException e) {
-                log.error(e.getMessage());
             }
         }
-        return null;
+        return dataCache;
+    }
+
+    private DacData fetchData(DataKey key) {
+        DacChannel channel = dacMap.get(key.getDacName());
+        if (null == channel) {
+            return DacData.FAILED;
+        }
+
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add(AUTH_CODE_KEY, channel.getAuthCode());
+        params.add(EMAIL_KEY, key.getEmail());
+
+        try {
+            ResponseEntity<ResultMap> result = restTemplate.getForEntity(UriComponentsBuilder.
+                            fromHttpUrl(channel.getBaseUrl() + "/bizs/{bizId}/data")
+                            .queryParams(params)
+                            .build().toString(),
+                    ResultMap.class, key.getBizId());
+
+            if (result.getStatusCode().equals(HttpStatus.OK)) {
+                ResultMap resultMap = result.getBody();
+                return new DacData((List<Object>) resultMap.get(PAYLOAD));
+            }
+        } catch (RestClientException e) {
+            log.error(e.getMessage());
+        }
+        return DacData.FAILED;
+    }
+
+    /**
+     * 批量接口：{baseUrl}/bizs/data?bizIds=1,2,3，返回 bizId -> 数据
+     */
+    private Map<DataKey, DacData> fetchDataBatch(String dacName, String email, List<DataKey> keys) {
+        DacChannel channel = dacMap.get(dacName);
+        Map<DataKey, DacData> result = new HashMap<>();
+
+        MultiValueMap<String, String> params = new LinkedMultiValueMap<>();
+        params.add(AUTH_CODE_KEY, channel.getAuthCode());
+        params.add(EMAIL_KEY, email);
+        params.add(BIZ_IDS_KEY, keys.stream().map(DataKey::getBizId).collect(Collectors.joining(COMMA)));
+
+        try {
+            ResponseEntity<ResultMap> response = restTemplate.getForEntity(UriComponentsBuilder.
+                            fromHttpUrl(channel.getBaseUrl() + "/bizs/data")
+                            .queryParams(params)
+                            .build().toString(),
+                    ResultMap.class);
+
+            if (response.getStatusCode().equals(HttpStatus.OK)) {
+                @SuppressWarnings("unchecked")
+                Map<String, List<Object>> payload = (Map<String, List<Object>>) response.getBody().get(PAYLOAD);
+                keys.forEach(k -> result.put(k, null == payload || !payload.containsKey(k.getBizId()) ? DacData.FAILED : new DacData(payload.get(k.getBizId()))));
+                return result;
+            }
+        } catch (RestClientException | ClassCastException e) {
+            log.error(e.getMessage());
+        }
+        keys.forEach(k -> result.put(k, DacData.FAILED));
+        return result;
+    }
+
+
+    private class DataLoader implements CacheLoader<DataKey, DacData> {
+
+        @Override
+        public DacData load(DataKey key) {
+            return fetchData(key);
+        }
+
+        @Override
+        public Map<DataKey, DacData> loadAll(Iterable<? extends DataKey> keys) {
+            Map<DataKey, DacData> result = new HashMap<>();
+            Map<String, List<DataKey>> groups = new HashMap<>();
+            keys.forEach(k -> groups.computeIfAbsent(k.getDacName() + COMMA + k.getEmail(), g -> new ArrayList<>()).add(k));
+            groups.values().forEach(group -> {
+                DataKey first = group.get(0);
+                if (group.size() > 1 && isBatchEnable(first.getDacName())) {
+                    result.putAll(fetchDataBatch(first.getDacName(), first.getEmail(), group));
+                } else {
+                    group.forEach(k -> result.put(k, fetchData(k)));
+                }
+            });
+            return result;
+        }
+
+        /**
+         * 后台刷新失败时保留旧值，避免权限数据因远程服务抖动失效；
+         * 旧值沿用首次写入时间，最多使用到 cacheTtl + cacheMaxStale
+         */
+        @Override
+        public DacData reload(DataKey key, DacData oldValue) {
+            DacData data = fetchData(key);
+            return data.isFailed() && !oldValue.isFailed() ? oldValue.toStale() : data;
+        }
+    }
+
+
+    /**
+     * 成功结果自写入起按 cacheTtl 过期，刷新失败保留的旧值再延长 cacheMaxStale，失败结果按 cacheNegativeTtl 过期
+     */
+    private class DataExpiry implements Expiry<DataKey, DacData> {
+
+        private long ttl(DacData data, long currentTime) {
+            if (data.isFailed()) {
+                return TimeUnit.SECONDS.toNanos(cacheNegativeTtl);
+            }
+            long expireAt = data.getWriteTime() + TimeUnit.SECONDS.toNanos(data.isStale() ? cacheTtl + cacheMaxStale : cacheTtl);
+            return Math.max(0L, expireAt - currentTime);
+        }
+
+        @Override
+        public long expireAfterCreate(DataKey key, DacData value, long currentTime) {
+            return ttl(value, currentTime);
+        }
+
+        @Override
+        public long expireAfterUpdate(DataKey key, DacData value, long currentTime, long currentDuration) {
+            return ttl(value, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(DataKey key, DacData value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+
+    @Getter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static final class DataKey {
+        private final String dacName;
+        private final String bizId;
+        private final String email;
+    }
+
+
+    @Getter
+    private static final class DacData {
+        private static final DacData FAILED = new DacData(null);
+
+        private final List<Object> data;
+
+        private final long writeTime;
+
+        private final boolean stale;
+
+        DacData(List<Object> data) {
+            this(data, System.nanoTime(), false);
+        }
+
+        private DacData(List<Object> data, long writeTime, boolean stale) {
+            this.data = data;
+            this.writeTime = writeTime;
+            this.stale = stale;
+        }
+
+        DacData toStale() {
+            return stale ? this : new DacData(data, writeTime, true);
+        }
+
+        boolean isFailed() {
+            return null == data;
+        }
     }
 }
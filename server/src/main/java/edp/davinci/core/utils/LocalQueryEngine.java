@@ -0,0 +1,471 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.davinci.core.utils;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.model.ColumnVector;
+import edp.core.model.ColumnarResult;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.CollectionUtils;
+import edp.davinci.core.enums.SqlOperatorEnum;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内列式查询：对已物化的结果执行 querySql 模板对应的过滤、分组聚合、排序和分页；
+ * 遇到不支持的聚合函数、操作符或列时返回 null，由调用方回退到数据源执行
+ */
+@Slf4j
+public class LocalQueryEngine {
+
+    private static final Set<String> AGGREGATE_FUNCS = new HashSet<>(Arrays.asList("SUM", "AVG", "COUNT", "COUNTDISTINCT", "MAX", "MIN"));
+
+    private static final Set<String> NUMERIC_TYPES = new HashSet<>();
+
+    static {
+        for (SqlFilter.NumericDataType type : SqlFilter.NumericDataType.values()) {
+            NUMERIC_TYPES.add(type.getType());
+        }
+    }
+
+    private LocalQueryEngine() {
+    }
+
+    public static PaginateWithQueryColumns query(ColumnarResult data, List<QueryColumn> columns, ViewExecuteParam executeParam) {
+        List<String> groups = null == executeParam.getGroups() ? Collections.emptyList() : executeParam.getGroups();
+        List<Aggregator> aggregators = null == executeParam.getAggregators() ? Collections.emptyList() : executeParam.getAggregators();
+
+        int[] groupIndexes = new int[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            groupIndexes[i] = data.indexOf(unquote(groups.get(i)));
+            if (groupIndexes[i] < 0) {
+                return null;
+            }
+        }
+        int[] aggIndexes = new int[aggregators.size()];
+        for (int i = 0; i < aggregators.size(); i++) {
+            Aggregator aggregator = aggregators.get(i);
+            aggIndexes[i] = data.indexOf(unquote(aggregator.getColumn()));
+            if (aggIndexes[i] < 0 || (!executeParam.isNativeQuery()
+                    && (null == aggregator.getFunc() || !AGGREGATE_FUNCS.contains(aggregator.getFunc().trim().toUpperCase())))) {
+                return null;
+            }
+        }
+
+        IntPredicate predicate = row -> true;
+        if (!CollectionUtils.isEmpty(executeParam.getFilters())) {
+            for (String filterStr : executeParam.getFilters()) {
+                IntPredicate p = toPredicate(JSON.parseObject(filterStr, SqlFilter.class), data);
+                if (null == p) {
+                    return null;
+                }
+                predicate = predicate.and(p);
+            }
+        }
+
+        List<String> labels = new ArrayList<>();
+        List<String> types = new ArrayList<>();
+        groups.forEach(g -> labels.add(unquote(g)));
+        for (int index : groupIndexes) {
+            types.add(columns.get(index).getType());
+        }
+
+        List<Object[]> rows = new ArrayList<>();
+        int width = groupIndexes.length + aggIndexes.length;
+        if (executeParam.isNativeQuery() || (aggIndexes.length == 0 && groupIndexes.length == 0)) {
+            //不分组，逐行输出
+            for (int i = 0; i < aggIndexes.length; i++) {
+                labels.add(unquote(aggregators.get(i).getColumn()));
+                types.add(columns.get(aggIndexes[i]).getType());
+            }
+            for (int row = 0; row < data.getRowCount(); row++) {
+                if (predicate.test(row)) {
+                    Object[] values = new Object[width];
+                    for (int i = 0; i < groupIndexes.length; i++) {
+                        values[i] = data.getValue(row, groupIndexes[i]);
+                    }
+                    for (int i = 0; i < aggIndexes.length; i++) {
+                        values[groupIndexes.length + i] = data.getValue(row, aggIndexes[i]);
+                    }
+                    rows.add(values);
+                }
+            }
+        } else {
+            String[] funcs = new String[aggIndexes.length];
+            for (int i = 0; i < aggIndexes.length; i++) {
+                Aggregator aggregator = aggregators.get(i);
+                funcs[i] = aggregator.getFunc().trim().toUpperCase();
+                labels.add(aggregator.getFunc().trim() + "(" + aggregator.getColumn().trim() + ")");
+                types.add(resultType(funcs[i], columns.get(aggIndexes[i]).getType()));
+            }
+
+            Map<List<Object>, Accumulator[]> buckets = new LinkedHashMap<>();
+            for (int row = 0; row < data.getRowCount(); row++) {
+                if (!predicate.test(row)) {
+                    continue;
+                }
+                List<Object> key = new ArrayList<>(groupIndexes.length);
+                for (int index : groupIndexes) {
+                    key.add(data.getValue(row, index));
+                }
+                Accumulator[] accumulators = buckets.computeIfAbsent(key, k -> {
+                    Accumulator[] a = new Accumulator[funcs.length];
+                    for (int i = 0; i < funcs.length; i++) {
+                        a[i] = new Accumulator(funcs[i]);
+                    }
+                    return a;
+                });
+                for (int i = 0; i < aggIndexes.length; i++) {
+                    accumulators[i].add(data.getValue(row, aggIndexes[i]));
+                }
+            }
+            //无分组的聚合在没有数据时也返回一行
+            if (buckets.isEmpty() && groupIndexes.length == 0) {
+                Accumulator[] a = new Accumulator[funcs.length];
+                for (int i = 0; i < funcs.length; i++) {
+                    a[i] = new Accumulator(funcs[i]);
+                }
+                buckets.put(Collections.emptyList(), a);
+            }
+            buckets.forEach((key, accumulators) -> {
+                Object[] values = new Object[width];
+                for (int i = 0; i < key.size(); i++) {
+                    values[i] = key.get(i);
+                }
+                for (int i = 0; i < accumulators.length; i++) {
+                    values[key.size() + i] = accumulators[i].result();
+                }
+                rows.add(values);
+            });
+        }
+
+        if (!sort(rows, labels, executeParam.getOrders())) {
+            return null;
+        }
+        return toPaginate(rows, labels, types, executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getLimit());
+    }
+
+    private static boolean sort(List<Object[]> rows, List<String> labels, List<Order> orders) {
+        if (CollectionUtils.isEmpty(orders)) {
+            return true;
+        }
+        Comparator<Object[]> comparator = null;
+        for (Order order : orders) {
+            String column = unquote(order.getColumn());
+            int index = -1;
+            for (int i = 0; i < labels.size(); i++) {
+                if (labels.get(i).equalsIgnoreCase(column)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return false;
+            }
+            final int col = index;
+            boolean desc = "DESC".equalsIgnoreCase(null == order.getDirection() ? null : order.getDirection().trim());
+            //与 Spark 一致：升序时 null 在前，降序时 null 在后
+            Comparator<Object[]> c = (a, b) -> compareNullable(a[col], b[col]);
+            if (desc) {
+                c = c.reversed();
+            }
+            comparator = null == comparator ? c : comparator.thenComparing(c);
+        }
+        rows.sort(comparator);
+        return true;
+    }
+
+    private static PaginateWithQueryColumns toPaginate(List<Object[]> rows, List<String> labels, List<String> types, int pageNo, int pageSize, int limit) {
+        int total = limit > 0 ? Math.min(limit, rows.size()) : rows.size();
+        boolean paged = pageNo > 0 && pageSize > 0;
+        int from = paged ? Math.min(total, (pageNo - 1) * pageSize) : 0;
+        int to = paged ? Math.min(total, from + pageSize) : total;
+
+        ColumnarResult.Builder builder = ColumnarResult.newBuilder();
+        List<QueryColumn> queryColumns = new ArrayList<>();
+        for (int i = 0; i < labels.size(); i++) {
+            builder.addColumn(labels.get(i), ColumnVector.forTypeName(types.get(i)));
+            queryColumns.add(new QueryColumn(labels.get(i), null == types.get(i) ? "" : types.get(i)));
+        }
+        for (int row = from; row < to; row++) {
+            Object[] values = rows.get(row);
+            for (int i = 0; i < values.length; i++) {
+                builder.append(i, values[i]);
+            }
+            builder.endRow();
+        }
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumnarResult(builder.build());
+        paginate.setColumns(queryColumns);
+        paginate.setPageNo(paged ? pageNo : 1);
+        paginate.setPageSize(paged ? pageSize : to - from);
+        paginate.setTotalCount(total);
+        return paginate;
+    }
+
+    private static IntPredicate toPredicate(SqlFilter filter, ColumnarResult data) {
+        if (null == filter || null == filter.getType()) {
+            return null;
+        }
+        if (SqlFilter.Type.relation.equalsIgnoreCase(filter.getType())) {
+            if (CollectionUtils.isEmpty(filter.getChildren())) {
+                return null;
+            }
+            boolean or = SqlFilter.Type.or.equalsIgnoreCase(String.valueOf(filter.getValue()).trim());
+            IntPredicate predicate = null;
+            for (SqlFilter child : filter.getChildren()) {
+                IntPredicate p = toPredicate(child, data);
+                if (null == p) {
+                    return null;
+                }
+                predicate = null == predicate ? p : or ? predicate.or(p) : predicate.and(p);
+            }
+            return predicate;
+        }
+        if (!SqlFilter.Type.filter.equalsIgnoreCase(filter.getType()) || null == filter.getOperator()) {
+            return null;
+        }
+
+        int col = data.indexOf(unquote(filter.getName()));
+        if (col < 0) {
+            return null;
+        }
+        boolean numeric = null != filter.getSqlType() && NUMERIC_TYPES.contains(filter.getSqlType().trim().toUpperCase());
+        String operator = filter.getOperator().trim().toUpperCase();
+        Object value = filter.getValue();
+
+        if (SqlOperatorEnum.ISNULL.getValue().equals(operator)) {
+            return row -> null == data.getValue(row, col);
+        }
+        if (SqlOperatorEnum.IN.getValue().equals(operator) || SqlOperatorEnum.NoTIN.getValue().equals(operator)) {
+            if (!(value instanceof List)) {
+                return null;
+            }
+            List<Object> literals = new ArrayList<>();
+            ((List<?>) value).forEach(v -> literals.add(literal(v)));
+            boolean not = SqlOperatorEnum.NoTIN.getValue().equals(operator);
+            return row -> {
+                Object v = data.getValue(row, col);
+                if (null == v) {
+                    return false;
+                }
+                boolean match = false;
+                for (Object literal : literals) {
+                    if (compare(v, literal, numeric) == 0) {
+                        match = true;
+                        break;
+                    }
+                }
+                return not != match;
+            };
+        }
+        if (SqlOperatorEnum.BETWEEN.getValue().equals(operator)) {
+            if (!(value instanceof List) || ((List<?>) value).size() < 2) {
+                return null;
+            }
+            Object low = literal(((List<?>) value).get(0));
+            Object high = literal(((List<?>) value).get(1));
+            return row -> {
+                Object v = data.getValue(row, col);
+                return null != v && compare(v, low, numeric) >= 0 && compare(v, high, numeric) <= 0;
+            };
+        }
+        if (SqlOperatorEnum.LIKE.getValue().equals(operator)) {
+            Pattern pattern = likePattern(String.valueOf(literal(value)));
+            return row -> {
+                Object v = data.getValue(row, col);
+                return null != v && pattern.matcher(String.valueOf(v)).matches();
+            };
+        }
+
+        Object literal = literal(value);
+        switch (operator) {
+            case "=":
+                return row -> null != data.getValue(row, col) && compare(data.getValue(row, col), literal, numeric) == 0;
+            case "!=":
+            case "<>":
+                return row -> null != data.getValue(row, col) && compare(data.getValue(row, col), literal, numeric) != 0;
+            case ">":
+                return row -> null != data.getValue(row, col) && compare(data.getValue(row, col), literal, numeric) > 0;
+            case ">=":
+                return row -> null != data.getValue(row, col) && compare(data.getValue(row, col), literal, numeric) >= 0;
+            case "<":
+                return row -> null != data.getValue(row, col) && compare(data.getValue(row, col), literal, numeric) < 0;
+            case "<=":
+                return row -> null != data.getValue(row, col) && compare(data.getValue(row, col), literal, numeric) <= 0;
+            default:
+                return null;
+        }
+    }
+
+    private static int compare(Object value, Object literal, boolean numeric) {
+        if (numeric || (value instanceof Number && literal instanceof Number)) {
+            Double a = toDouble(value);
+            Double b = toDouble(literal);
+            if (null != a && null != b) {
+                return Double.compare(a, b);
+            }
+        }
+        return String.valueOf(value).compareTo(String.valueOf(literal));
+    }
+
+    private static int compareNullable(Object a, Object b) {
+        if (null == a || null == b) {
+            return null == a ? (null == b ? 0 : -1) : 1;
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return String.valueOf(a).compareTo(String.valueOf(b));
+    }
+
+    private static Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return null == value ? null : Double.valueOf(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Object literal(Object value) {
+        if (value instanceof String) {
+            String s = ((String) value).trim();
+            if (s.length() >= 2 && s.startsWith("'") && s.endsWith("'")) {
+                return s.substring(1, s.length() - 1);
+            }
+            return s;
+        }
+        return value;
+    }
+
+    private static Pattern likePattern(String like) {
+        StringBuilder regex = new StringBuilder();
+        for (char c : like.toCharArray()) {
+            if (c == '%') {
+                regex.append(".*");
+            } else if (c == '_') {
+                regex.append('.');
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static String resultType(String func, String sourceType) {
+        switch (func) {
+            case "COUNT":
+            case "COUNTDISTINCT":
+                return "BIGINT";
+            case "SUM":
+            case "AVG":
+                return "DOUBLE";
+            default:
+                return sourceType;
+        }
+    }
+
+    /**
+     * 去掉列名两侧的标识符引号
+     */
+    private static String unquote(String column) {
+        if (null == column) {
+            return null;
+        }
+        String c = column.trim();
+        if (c.length() >= 2 && (c.startsWith("`") || c.startsWith("\"") || c.startsWith("["))) {
+            return c.substring(1, c.length() - 1);
+        }
+        return c;
+    }
+
+
+    private static final class Accumulator {
+        private final String func;
+        private double sum;
+        private long count;
+        private Object extreme;
+        private Set<Object> distinct;
+
+        Accumulator(String func) {
+            this.func = func;
+            if ("COUNTDISTINCT".equals(func)) {
+                distinct = new HashSet<>();
+            }
+        }
+
+        void add(Object value) {
+            if (null == value) {
+                return;
+            }
+            count++;
+            switch (func) {
+                case "SUM":
+                case "AVG":
+                    Double d = toDouble(value);
+                    if (null != d) {
+                        sum += d;
+                    }
+                    break;
+                case "COUNTDISTINCT":
+                    distinct.add(value);
+                    break;
+                case "MAX":
+                    if (null == extreme || compareNullable(value, extreme) > 0) {
+                        extreme = value;
+                    }
+                    break;
+                case "MIN":
+                    if (null == extreme || compareNullable(value, extreme) < 0) {
+                        extreme = value;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        Object result() {
+            switch (func) {
+                case "SUM":
+                    return count == 0 ? null : sum;
+                case "AVG":
+                    return count == 0 ? null : sum / count;
+                case "COUNT":
+                    return count;
+                case "COUNTDISTINCT":
+                    return (long) distinct.size();
+                default:
+                    return extreme;
+            }
+        }
+    }
+}
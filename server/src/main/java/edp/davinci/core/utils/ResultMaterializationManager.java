@@ -0,0 +1,263 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.davinci.core.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.webank.wedatasphere.dss.visualis.res.ResultSetPageReader;
+import edp.core.exception.ServerException;
+import edp.core.model.ColumnarResult;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.MD5Util;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.model.User;
+import edp.davinci.model.View;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static edp.core.consts.Consts.COMMA;
+import static edp.core.consts.Consts.MINUS;
+
+/**
+ * DWC 结果集 view（临时 view）的物化登记：
+ * 同一用户的同一 view 版本（执行代码不变）在 ttl 内只重新执行一次并登记结果集路径，并发请求等待同一次执行；
+ * 结果集行数不超过 local-max-rows 时载入内存，之后的分组 / 聚合 / 筛选在进程内完成，不再提交 Spark 任务
+ */
+@Slf4j
+@Component
+public class ResultMaterializationManager {
+
+    @Value("${source.materialize.ttl:3600}")
+    private long ttl;
+
+    @Value("${source.materialize.max-views:200}")
+    private long maxViews;
+
+    @Value("${source.materialize.local-max-rows:100000}")
+    private int localMaxRows;
+
+    /**
+     * 结果集读取失败后，间隔该时间（秒）再重试载入
+     */
+    @Value("${source.materialize.load-retry-interval:60}")
+    private long loadRetryInterval;
+
+    private Cache<String, CompletableFuture<Materialization>> materializations;
+
+    /**
+     * 已写回 view 配置的 view 版本
+     */
+    private Cache<String, Boolean> persistedVersions;
+
+    private final LongAdder materialized = new LongAdder();
+
+    private final LongAdder reused = new LongAdder();
+
+    private final LongAdder localQueries = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        materializations = Caffeine.newBuilder()
+                .maximumSize(maxViews)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+        persistedVersions = Caffeine.newBuilder()
+                .maximumSize(maxViews)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 获取 view 当前版本的结果集路径，未登记时执行 materializer 并登记
+     *
+     * @param view
+     * @param executionCode DWC 结果对应的执行代码
+     * @param user          执行用户，结果集按用户隔离
+     * @param materializer  执行并返回结果集路径
+     * @return
+     */
+    public String getResultPath(View view, String executionCode, User user, Callable<String> materializer) {
+        String key = getKey(view, executionCode, user);
+        CompletableFuture<Materialization> future = materializations.getIfPresent(key);
+        if (null == future) {
+            // materializer 耗时较长，不在缓存的 compute 中执行，登记 future 后由当前线程执行
+            CompletableFuture<Materialization> created = new CompletableFuture<>();
+            future = materializations.asMap().putIfAbsent(key, created);
+            if (null == future) {
+                return materialize(view, key, created, materializer);
+            }
+        }
+        Materialization materialization = await(future);
+        if (null == materialization) {
+            // 其他请求的执行失败（如超出其配额被拒绝）时，以当前请求的身份再执行一次，不再登记
+            return call(view, materializer);
+        }
+        reused.increment();
+        return materialization.resultPath;
+    }
+
+    /**
+     * 同一 view 版本的结果集路径写回 view 配置，在有效期内只写回一次，不随执行用户重复更新；写回失败时下次重试
+     */
+    public void persistOnce(View view, String executionCode, Runnable persister) {
+        String key = view.getId() + MINUS + MD5Util.getMD5(executionCode, true, 32);
+        if (null != persistedVersions.asMap().putIfAbsent(key, Boolean.TRUE)) {
+            return;
+        }
+        try {
+            persister.run();
+        } catch (RuntimeException e) {
+            persistedVersions.invalidate(key);
+            throw e;
+        }
+    }
+
+    private String materialize(View view, String key, CompletableFuture<Materialization> future, Callable<String> materializer) {
+        try {
+            String resultPath = call(view, materializer);
+            future.complete(new Materialization(resultPath));
+            return resultPath;
+        } catch (RuntimeException e) {
+            materializations.asMap().remove(key, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private String call(View view, Callable<String> materializer) {
+        try {
+            String resultPath = materializer.call();
+            materialized.increment();
+            log.info("view ({}) materialized to {}", view.getId(), resultPath);
+            return resultPath;
+        } catch (ServerException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServerException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 等待其他请求的执行结果，执行失败时返回 null
+     */
+    private static Materialization await(CompletableFuture<Materialization> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException("interrupted while waiting for view materialization", e);
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 在已物化的结果上执行查询；未物化、结果过大或包含不支持的条件时返回 null
+     */
+    public PaginateWithQueryColumns queryLocal(View view, String executionCode, User user, ViewExecuteParam executeParam) {
+        CompletableFuture<Materialization> future = materializations.getIfPresent(getKey(view, executionCode, user));
+        Materialization materialization = null == future || future.isCompletedExceptionally() ? null : future.getNow(null);
+        if (null == materialization || !materialization.load(localMaxRows, TimeUnit.SECONDS.toMillis(loadRetryInterval))) {
+            return null;
+        }
+        PaginateWithQueryColumns paginate = LocalQueryEngine.query(materialization.data, materialization.columns, executeParam);
+        if (null == paginate) {
+            fallbacks.increment();
+        } else {
+            localQueries.increment();
+        }
+        return paginate;
+    }
+
+    public void invalidate(Long viewId) {
+        String prefix = viewId + MINUS;
+        materializations.asMap().keySet().removeIf(k -> k.startsWith(prefix));
+        persistedVersions.asMap().keySet().removeIf(k -> k.startsWith(prefix));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("views", materializations.estimatedSize());
+        stats.put("materialized", materialized.sum());
+        stats.put("reused", reused.sum());
+        stats.put("localQueries", localQueries.sum());
+        stats.put("fallbacks", fallbacks.sum());
+        return stats;
+    }
+
+    /**
+     * viewId-MD5(执行用户-执行代码)，以 viewId 开头便于按 view 失效
+     */
+    private static String getKey(View view, String executionCode, User user) {
+        String umUser = null == user ? null : user.getName();
+        return view.getId() + MINUS + MD5Util.getMD5(umUser + MINUS + executionCode, true, 32);
+    }
+
+
+    private static final class Materialization {
+        private final String resultPath;
+        private volatile boolean loaded;
+        private long retryTime;
+        private ColumnarResult data;
+        private List<QueryColumn> columns;
+
+        Materialization(String resultPath) {
+            this.resultPath = resultPath;
+        }
+
+        /**
+         * 首次使用时读取结果集，行数超过阈值则只记录不可本地执行；
+         * 读取失败时不标记为已载入，retryInterval 毫秒后再次尝试
+         */
+        synchronized boolean load(int maxRows, long retryInterval) {
+            if (!loaded && System.currentTimeMillis() >= retryTime) {
+                if (maxRows <= 0 || null == resultPath || resultPath.contains(COMMA)) {
+                    loaded = true;
+                } else {
+                    try {
+                        PaginateWithQueryColumns paginate = ResultSetPageReader.readPage(resultPath, 1, maxRows + 1, -1);
+                        if (paginate.getTotalCount() <= maxRows) {
+                            data = paginate.getColumnarResult();
+                            columns = paginate.getColumns();
+                        }
+                        loaded = true;
+                    } catch (Exception e) {
+                        retryTime = System.currentTimeMillis() + retryInterval;
+                        log.warn("load materialized result {} error: {}", resultPath, e.getMessage());
+                    }
+                }
+            }
+            return null != data;
+        }
+    }
+}
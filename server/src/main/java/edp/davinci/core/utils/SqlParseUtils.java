@@ -21,6 +21,9 @@ package edp.davinci.core.utils;
 
 import com.sun.tools.javac.util.ListBuffer;
 import com.webank.wedatasphere.linkis.entrance.interceptor.impl.CustomVariableUtils;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import edp.core.common.executor.ExecutorRegistry;
 import edp.core.consts.Consts;
 import edp.core.exception.ServerException;
 import edp.core.utils.CollectionUtils;
@@ -30,9 +33,11 @@ import edp.davinci.core.enums.SqlOperatorEnum;
 import edp.davinci.core.enums.SqlVariableTypeEnum;
 import edp.davinci.core.enums.SqlVariableValueTypeEnum;
 import edp.davinci.core.model.SqlEntity;
+import edp.davinci.core.model.ViewSqlPlan;
 import edp.davinci.model.SqlVariable;
 import edp.davinci.model.SqlVariableChannel;
 import edp.davinci.model.User;
+import edp.davinci.model.View;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
@@ -42,6 +47,8 @@ import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.stringtemplate.v4.ST;
+import org.stringtemplate.v4.STGroup;
+import org.stringtemplate.v4.STGroupFile;
 
 import java.util.*;
 import java.util.concurrent.*;
@@ -60,9 +67,28 @@ public class SqlParseUtils {
 
     private static final String WITH = "with";
 
+    private static final Pattern PATTERN_QUERYVAR = Pattern.compile(REG_QUERYVAR);
+
+    private static final Set<String> OPERATORS = Arrays.stream(SqlOperatorEnum.values()).map(SqlOperatorEnum::getValue).collect(Collectors.toSet());
+
+    /**
+     * 按表达式与分隔符缓存已编译的正则
+     */
+    private static final Map<String, Pattern> PATTERNS = new ConcurrentHashMap<>();
+
+    private static volatile STGroup sqlTemplateGroup;
+
+    private final Cache<Long, ViewSqlPlan> viewSqlPlans = Caffeine.newBuilder()
+            .maximumSize(2000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+
     @Autowired
     private DacChannelUtil dacChannelUtil;
 
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
 
     /**
      * 解析sql
@@ -76,14 +102,12 @@ public class SqlParseUtils {
         }
 
         sqlStr = SqlUtils.filterAnnotate(sqlStr);
-        sqlStr = sqlStr.replaceAll(NEW_LINE_CHAR, SPACE).trim();
+        sqlStr = StringUtils.replace(sqlStr, NEW_LINE_CHAR, SPACE).trim();
 
         char delimiter = getSqlTempDelimiter(sqlTempDelimiter);
-        Pattern p = Pattern.compile(getReg(REG_SQL_PLACEHOLDER, delimiter, false));
-        Matcher matcher = p.matcher(sqlStr);
+        Matcher matcher = getPattern(REG_SQL_PLACEHOLDER, delimiter, false).matcher(sqlStr);
         // Linkis compatible
-        Pattern pQuery = Pattern.compile(REG_QUERYVAR);
-        Matcher matcherQuery = pQuery.matcher(sqlStr);
+        Matcher matcherQuery = PATTERN_QUERYVAR.matcher(sqlStr);
 
 
         if (!matcher.find() && !matcherQuery.find()) {
@@ -93,52 +117,140 @@ public class SqlParseUtils {
         Map<String, Object> queryParamMap = new ConcurrentHashMap<>();
         Map<String, List<String>> authParamMap = new Hashtable<>();
 
-        //解析参数
+        //解析参数，默认值均为本地计算，无需切换线程
         if (!CollectionUtils.isEmpty(variables)) {
-            ExecutorService executorService = Executors.newFixedThreadPool(8);
-            try {
-                CountDownLatch countDownLatch = new CountDownLatch(variables.size());
-                List<Future> futures = new ArrayList<>(variables.size());
-                variables.forEach(variable -> futures.add(executorService.submit(() -> {
-                    try {
-                        SqlVariableTypeEnum typeEnum = SqlVariableTypeEnum.typeOf(variable.getType());
-                        if (null != typeEnum) {
-                            switch (typeEnum) {
-                                case QUERYVAR:
-                                    queryParamMap.put(variable.getName().trim(), SqlVariableValueTypeEnum.getValues(variable.getValueType(), variable.getDefaultValues(), variable.isUdf()));
-                                    break;
-                                case AUTHVARE:
-                                    if (null != variable) {
-                                        List<String> v = getAuthVarValue(variable, null);
-                                        authParamMap.put(variable.getName().trim(), null == v ? new ArrayList<>() : v);
-                                    }
-                                    break;
-                            }
-                        }
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                })));
+            for (SqlVariable variable : variables) {
+                SqlVariableTypeEnum typeEnum = SqlVariableTypeEnum.typeOf(variable.getType());
+                if (null == typeEnum) {
+                    continue;
+                }
+                switch (typeEnum) {
+                    case QUERYVAR:
+                        queryParamMap.put(variable.getName().trim(), SqlVariableValueTypeEnum.getValues(variable.getValueType(), variable.getDefaultValues(), variable.isUdf()));
+                        break;
+                    case AUTHVARE:
+                        List<String> v = getAuthVarValue(variable, null);
+                        authParamMap.put(variable.getName().trim(), null == v ? new ArrayList<>() : v);
+                        break;
+                }
+            }
+        }
+        return new SqlEntity(sqlStr, queryParamMap, authParamMap);
+    }
 
-                try {
-                    for (Future future : futures) {
-                        future.get();
-                    }
-                    countDownLatch.await();
-                } catch (ExecutionException e) {
-                    executorService.shutdownNow();
-                    throw (ServerException) e.getCause();
+
+    /**
+     * 获取 view 的 SQL 解析结果，view 未更新时复用缓存，返回可修改的副本
+     *
+     * @param view
+     * @param sqlTempDelimiter
+     * @return
+     */
+    public SqlEntity parseViewSql(View view, String sqlTempDelimiter) throws ServerException {
+        if (null == view.getId()) {
+            return parseSql(view.getSql(), view.getVariables(), sqlTempDelimiter);
+        }
+        ViewSqlPlan plan = viewSqlPlans.getIfPresent(view.getId());
+        if (null == plan || !plan.matches(view)) {
+            plan = new ViewSqlPlan(view, parseSql(view.getSql(), view.getVariables(), sqlTempDelimiter));
+            viewSqlPlans.put(view.getId(), plan);
+        }
+        return plan.newSqlEntity();
+    }
+
+    public void invalidateViewSql(Long viewId) {
+        viewSqlPlans.invalidate(viewId);
+    }
+
+    /**
+     * 共享的 SQL 模板组，避免每次查询从 classpath 重新加载
+     */
+    public static STGroup getSqlTemplateGroup() {
+        if (null == sqlTemplateGroup) {
+            synchronized (SqlParseUtils.class) {
+                if (null == sqlTemplateGroup) {
+                    STGroupFile group = new STGroupFile(Constants.SQL_TEMPLATE);
+                    group.load();
+                    sqlTemplateGroup = group;
                 }
+            }
+        }
+        return sqlTemplateGroup;
+    }
 
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } finally {
-                executorService.shutdown();
+    private static Pattern getPattern(String express, char delimiter, boolean isAuthPress) {
+        return PATTERNS.computeIfAbsent(express + delimiter, k -> Pattern.compile(getReg(express, delimiter, isAuthPress)));
+    }
+
+
+    /**
+     * 批量获取权限变量值：已缓存及非远程的变量在当前线程计算，
+     * 未命中缓存的数据权限中心调用提交到共享线程池，支持批量接口的 channel 合并为一次请求
+     *
+     * @param variables
+     * @param email
+     * @return 与 variables 一一对应的取值，null 表示无权限
+     */
+    public List<List<String>> getAuthVarValues(List<SqlVariable> variables, String email) throws ServerException {
+        List<List<String>> values = new ArrayList<>(Collections.nCopies(variables.size(), null));
+
+        Map<String, Set<String>> batchMisses = new HashMap<>();
+        variables.stream().filter(v -> isRemoteAuthVar(v, email) && dacChannelUtil.isBatchEnable(v.getChannel().getName()))
+                .filter(v -> !dacChannelUtil.isDataCached(v.getChannel().getName(), String.valueOf(v.getChannel().getBizId()), email))
+                .forEach(v -> batchMisses.computeIfAbsent(v.getChannel().getName(), k -> new HashSet<>()).add(String.valueOf(v.getChannel().getBizId())));
+
+        List<Future<?>> prefetches = new ArrayList<>();
+        batchMisses.forEach((dacName, bizIds) -> {
+            if (bizIds.size() > 1) {
+                prefetches.add(executorRegistry.getParamResolveExecutor().submit(() -> dacChannelUtil.getData(dacName, bizIds, email)));
+            }
+        });
+        waitAll(prefetches);
+
+        Map<Integer, Future<List<String>>> futures = new HashMap<>();
+        for (int i = 0; i < variables.size(); i++) {
+            SqlVariable variable = variables.get(i);
+            if (isRemoteAuthVar(variable, email)
+                    && !dacChannelUtil.isDataCached(variable.getChannel().getName(), String.valueOf(variable.getChannel().getBizId()), email)) {
+                futures.put(i, executorRegistry.getParamResolveExecutor().submit(() -> getAuthVarValue(variable, email)));
+            } else {
+                values.set(i, getAuthVarValue(variable, email));
             }
         }
-        return new SqlEntity(sqlStr, queryParamMap, authParamMap);
+
+        waitAll(futures.values());
+        futures.forEach((i, future) -> {
+            try {
+                values.set(i, future.get());
+            } catch (InterruptedException | ExecutionException e) {
+                // waitAll 已确保全部成功完成
+            }
+        });
+        return values;
+    }
+
+    private void waitAll(Collection<? extends Future<?>> futures) throws ServerException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ServerException(e.getMessage());
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            if (e.getCause() instanceof ServerException) {
+                throw (ServerException) e.getCause();
+            }
+            throw new ServerException(e.getCause().getMessage(), e.getCause());
+        }
     }
 
+    private boolean isRemoteAuthVar(SqlVariable variable, String email) {
+        SqlVariableChannel channel = variable.getChannel();
+        return null != channel && DacChannelUtil.dacMap.containsKey(channel.getName()) && !StringUtils.isEmpty(email);
+    }
 
     public List<String> getAuthVarValue(SqlVariable variable, String email) {
         SqlVariableChannel channel = variable.getChannel();
@@ -173,15 +285,12 @@ public class SqlParseUtils {
         char delimiter = getSqlTempDelimiter(sqlTempDelimiter);
 
         //替换auth@var
-        Pattern p = Pattern.compile(getReg(REG_AUTHVAR, delimiter, true));
-        Matcher matcher = p.matcher(sql);
-
-        Map<String, List<SqlOperatorEnum>> operatorMap = Arrays.stream(SqlOperatorEnum.values()).collect(Collectors.groupingBy(e -> e.getValue()));
+        Matcher matcher = getPattern(REG_AUTHVAR, delimiter, true).matcher(sql);
 
         Set<String> expSet = new HashSet<>();
         while (matcher.find()) {
             String group = matcher.group();
-            for (String key : operatorMap.keySet()) {
+            for (String key : OPERATORS) {
                 if (group.toUpperCase().contains(key)) {
                     expSet.add(group);
                 }
@@ -207,8 +316,7 @@ public class SqlParseUtils {
 //        sql = st.render();
 
         //Linkis compatible
-        Pattern queryP = Pattern.compile(REG_QUERYVAR);
-        Matcher matcherQuery = queryP.matcher(sql);
+        Matcher matcherQuery = PATTERN_QUERYVAR.matcher(sql);
         while (matcherQuery.find()) {
             String group = matcherQuery.group();
             String key = StringUtils.substringBetween(group, "${", "}");
@@ -21,6 +21,7 @@ package edp.davinci.dao;
 
 import edp.davinci.model.DownloadRecord;
 import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 import org.apache.ibatis.annotations.Update;
 
@@ -56,8 +57,14 @@ public interface DownloadRecordMapper {
             "update download_record",
             "set path = #{path,jdbcType=VARCHAR},",
             "status = #{status,jdbcType=SMALLINT},",
+            "row_count = #{rowCount,jdbcType=BIGINT},",
             "last_download_time = #{lastDownloadTime,jdbcType=TIMESTAMP}",
             "where id = #{id,jdbcType=BIGINT}"
     })
     int updateById(DownloadRecord downloadRecord);
+
+    @Update({
+            "update download_record set row_count = #{rowCount,jdbcType=BIGINT} where id = #{id,jdbcType=BIGINT}"
+    })
+    int updateRowCount(@Param("id") Long id, @Param("rowCount") Long rowCount);
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dao;
+
+import edp.davinci.model.ExportJob;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+public interface ExportJobMapper {
+
+    int insert(ExportJob exportJob);
+
+    @Select({
+            "select * from export_job where `status` = #{status} order by priority, id limit #{limit}"
+    })
+    List<ExportJob> getByStatus(@Param("status") Short status, @Param("limit") int limit);
+
+    /**
+     * 仅当任务仍在排队时占用，返回 0 表示已被其他实例取走
+     */
+    @Update({
+            "update export_job set `status` = #{running}, `owner` = #{owner}, attempts = attempts + 1, start_time = #{startTime}, heartbeat_time = #{startTime}",
+            "where id = #{id} and `status` = #{queued}"
+    })
+    int claim(@Param("id") Long id, @Param("owner") String owner, @Param("startTime") Date startTime,
+              @Param("queued") Short queued, @Param("running") Short running);
+
+    /**
+     * 仅当任务仍由本实例持有时更新，返回 0 表示租约已过期、任务已被其他实例接管
+     */
+    @Update({
+            "update export_job set `status` = #{status}, end_time = #{endTime} where id = #{id} and `owner` = #{owner}"
+    })
+    int finish(@Param("id") Long id, @Param("owner") String owner, @Param("status") Short status, @Param("endTime") Date endTime);
+
+    /**
+     * 排队中的任务超过最大尝试次数时置为失败
+     */
+    @Update({
+            "update export_job set `status` = #{status}, end_time = #{endTime} where id = #{id} and `status` = #{queued}"
+    })
+    int finishQueued(@Param("id") Long id, @Param("queued") Short queued, @Param("status") Short status, @Param("endTime") Date endTime);
+
+    /**
+     * 续约本实例正在执行的任务
+     */
+    int heartbeat(@Param("ids") Collection<Long> ids, @Param("owner") String owner,
+                  @Param("heartbeatTime") Date heartbeatTime, @Param("running") Short running);
+
+    /**
+     * 重启后将本实例未完成的任务放回队列
+     */
+    @Update({
+            "update export_job set `status` = #{queued}, `owner` = null where `status` = #{running} and `owner` = #{owner}"
+    })
+    int requeueByOwner(@Param("owner") String owner, @Param("queued") Short queued, @Param("running") Short running);
+
+    /**
+     * 其他实例上租约过期（实例已宕机）的任务放回队列
+     */
+    @Update({
+            "update export_job set `status` = #{queued}, `owner` = null",
+            "where `status` = #{running} and `owner` != #{owner} and ifnull(heartbeat_time, start_time) < #{before}"
+    })
+    int requeueStale(@Param("owner") String owner, @Param("before") Date before, @Param("queued") Short queued, @Param("running") Short running);
+
+    @Delete({
+            "delete from export_job where `status` in (#{success}, #{failed}) and create_time < DATE_FORMAT((NOW() - INTERVAL 1 MONTH),'%Y%m%d')"
+    })
+    int deleteFinished(@Param("success") Short success, @Param("failed") Short failed);
+}
@@ -49,11 +49,17 @@ public interface ShareDownloadRecordMapper {
             "update share_download_record",
             "set path = #{path,jdbcType=VARCHAR},",
             "status = #{status,jdbcType=SMALLINT},",
+            "row_count = #{rowCount,jdbcType=BIGINT},",
             "last_download_time = #{lastDownloadTime,jdbcType=TIMESTAMP}",
             "where id = #{id,jdbcType=BIGINT}"
     })
     int updateById(ShareDownloadRecord record);
 
+    @Update({
+            "update share_download_record set row_count = #{rowCount,jdbcType=BIGINT} where id = #{id,jdbcType=BIGINT}"
+    })
+    int updateRowCount(@Param("id") Long id, @Param("rowCount") Long rowCount);
+
     @Select({"SELECT * FROM share_download_record WHERE id NOT IN\n" +
             "(\n" +
             "    SELECT tmp.id\n" +
@@ -0,0 +1,33 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.dashboardDto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * dashboard 批量取数参数，items 为空时按 dashboard 与 widget 的已保存配置查询所有组件
+ */
+@Data
+public class DashboardDataParam {
+
+    private List<DashboardItemDataParam> items;
+}
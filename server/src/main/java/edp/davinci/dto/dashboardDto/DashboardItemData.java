@@ -0,0 +1,55 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.dashboardDto;
+
+import edp.core.model.Paginate;
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * dashboard 批量取数中单个组件的结果，每个组件完成后单独输出一行
+ */
+@Data
+public class DashboardItemData {
+
+    private Long itemId;
+
+    private Long widgetId;
+
+    private int code;
+
+    private String msg;
+
+    /**
+     * 结果缓存状态（HIT / STALE / MISS / BYPASS）
+     */
+    private String cache;
+
+    private Paginate<Map<String, Object>> payload;
+
+    public DashboardItemData() {
+    }
+
+    public DashboardItemData(Long itemId, Long widgetId) {
+        this.itemId = itemId;
+        this.widgetId = widgetId;
+    }
+}
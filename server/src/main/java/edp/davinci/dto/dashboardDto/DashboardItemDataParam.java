@@ -0,0 +1,38 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.dashboardDto;
+
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import lombok.Data;
+
+import javax.validation.constraints.Min;
+
+/**
+ * dashboard 中单个组件的取数参数，executeParam 为前端按当前全局筛选状态生成的查询参数，
+ * 为空时使用已保存的配置
+ */
+@Data
+public class DashboardItemDataParam {
+
+    @Min(value = 1L, message = "Invalid dashboard item id")
+    private Long itemId;
+
+    private ViewExecuteParam executeParam;
+}
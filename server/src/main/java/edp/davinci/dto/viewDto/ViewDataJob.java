@@ -0,0 +1,53 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+package edp.davinci.dto.viewDto;
+
+import edp.core.common.query.AsyncQueryJob;
+import lombok.Data;
+
+@Data
+public class ViewDataJob {
+
+    private String jobId;
+
+    private Long viewId;
+
+    private String group;
+
+    private String status;
+
+    private float progress;
+
+    private String message;
+
+    private long createTime;
+
+    public ViewDataJob() {
+    }
+
+    public ViewDataJob(AsyncQueryJob job) {
+        this.jobId = job.getId();
+        this.viewId = job.getViewId();
+        this.group = job.getGroup();
+        this.status = job.getStatus().name();
+        this.progress = job.getProgress();
+        this.message = job.getErrorMessage();
+        this.createTime = job.getCreateTime();
+    }
+}
@@ -20,6 +20,7 @@
 package edp.davinci.dto.viewDto;
 
 import com.alibaba.druid.util.StringUtils;
+import com.alibaba.fastjson.annotation.JSONField;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.SqlUtils;
 import lombok.Data;
@@ -35,6 +36,8 @@ import static edp.core.consts.Consts.*;
 
 @Data
 public class ViewExecuteParam {
+    public static final String GROUPING_FLAG = "VISUALIS_G";
+
     private List<String> groups;
     private List<Aggregator> aggregators;
     private List<Order> orders;
@@ -50,6 +53,33 @@ public class ViewExecuteParam {
 
     private boolean nativeQuery = false;
 
+    /**
+     * keyset 分页：上一页末行在各排序列上的值，与 orders 一一对应
+     */
+    private List<Object> keyset;
+
+    /**
+     * 为 true 时首页总数优先使用数据库统计信息估算，精确总数在后台计算
+     */
+    private boolean estimateCount = false;
+
+    /**
+     * 请求组（如 dashboard + widget），与 generation 一起使用，同一组内更新的一代请求会取消旧的查询
+     */
+    private String requestGroup;
+
+    /**
+     * 请求组内递增的代数
+     */
+    private Long generation;
+
+    /**
+     * 合并查询的分组集合（GROUPING SETS），由 dashboard 批量取数时合并同一 view 的多个组件生成，
+     * 结果中附加各分组列的 GROUPING 标记列 GROUPING_FLAG + 序号；仅供内部使用，不从请求中绑定
+     */
+    @JSONField(serialize = false, deserialize = false)
+    private List<List<String>> groupingSets;
+
     public ViewExecuteParam() {
     }
 
@@ -123,6 +153,64 @@ public class ViewExecuteParam {
         return list;
     }
 
+    /**
+     * keyset 分页条件：排序列均为分组列、非首页且已知总数时生效，
+     * 按排序方向生成 (c1 > v1) OR (c1 = v1 AND c2 > v2) ...，不满足条件时返回 null
+     */
+    public String getKeysetFilter(String jdbcUrl, String dbVersion) {
+        if (CollectionUtils.isEmpty(keyset) || CollectionUtils.isEmpty(orders) || keyset.size() != orders.size()
+                || pageNo <= 1 || pageSize < 1 || totalCount < 1 || CollectionUtils.isEmpty(getGroups())) {
+            return null;
+        }
+        String prefix = SqlUtils.getKeywordPrefix(jdbcUrl, dbVersion);
+        String suffix = SqlUtils.getKeywordSuffix(jdbcUrl, dbVersion);
+        List<String> columns = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < orders.size(); i++) {
+            String column = orders.get(i).getColumn().trim();
+            if (!StringUtils.isEmpty(prefix) && column.length() > prefix.length() + suffix.length()
+                    && column.startsWith(prefix) && column.endsWith(suffix)) {
+                column = column.substring(prefix.length(), column.length() - suffix.length());
+            }
+            String value = toSqlValue(keyset.get(i));
+            if (!groups.contains(column) || null == value) {
+                return null;
+            }
+            columns.add(getField(column, jdbcUrl, dbVersion));
+            values.add(value);
+        }
+
+        StringBuilder sb = new StringBuilder(PARENTHESES_START);
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(PARENTHESES_START);
+            for (int j = 0; j < i; j++) {
+                sb.append(columns.get(j)).append(" = ").append(values.get(j)).append(" AND ");
+            }
+            String direction = orders.get(i).getDirection();
+            boolean desc = null != direction && "DESC".equalsIgnoreCase(direction.trim());
+            sb.append(columns.get(i)).append(desc ? " < " : " > ").append(values.get(i));
+            sb.append(PARENTHESES_END);
+        }
+        return sb.append(PARENTHESES_END).toString();
+    }
+
+    private static String toSqlValue(Object value) {
+        if (null == value) {
+            return null;
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return String.valueOf(value);
+        }
+        String str = String.valueOf(value);
+        if (str.contains("\\")) {
+            return null;
+        }
+        return APOSTROPHE + str.replace(APOSTROPHE, APOSTROPHE + APOSTROPHE) + APOSTROPHE;
+    }
+
     public void addExcludeColumn(Set<String> excludeColumns, String jdbcUrl, String dbVersion) {
         if (!CollectionUtils.isEmpty(excludeColumns) && !CollectionUtils.isEmpty(aggregators)) {
             excludeColumns.addAll(this.aggregators.stream()
@@ -133,6 +221,20 @@ public class ViewExecuteParam {
         }
     }
 
+    /**
+     * 聚合列在结果集中的列名，与 getAggregators 生成的别名一致
+     */
+    public List<String> getAggregatorLabels() {
+        List<String> labels = new ArrayList<>();
+        if (!CollectionUtils.isEmpty(aggregators)) {
+            aggregators.forEach(a -> {
+                String func = "COUNTDISTINCT".equals(a.getFunc().trim().toUpperCase()) ? "COUNTDISTINCT" : a.getFunc().trim();
+                labels.add(func + PARENTHESES_START + a.getColumn() + PARENTHESES_END);
+            });
+        }
+        return labels;
+    }
+
     public List<String> getAggregators(String jdbcUrl, String dbVersion) {
         if (!CollectionUtils.isEmpty(aggregators)) {
             return this.aggregators.stream().map(a -> formatColumn(a.getColumn(), a.getFunc(), jdbcUrl, dbVersion, false)).collect(Collectors.toList());
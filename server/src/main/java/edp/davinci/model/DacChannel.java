@@ -32,4 +32,10 @@ public class DacChannel {
 
     @JSONField(name = "auth-code")
     private String authCode;
+
+    /**
+     * 是否支持 /bizs/data?bizIds= 批量接口
+     */
+    @JSONField(name = "batch-enable")
+    private boolean batchEnable = false;
 }
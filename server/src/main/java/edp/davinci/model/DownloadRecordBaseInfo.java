@@ -34,6 +34,11 @@ public class DownloadRecordBaseInfo {
 
     private Short status;
 
+    /**
+     * 已导出行数，导出过程中定期更新
+     */
+    private Long rowCount;
+
     private Date createTime;
 
     private Date lastDownloadTime;
@@ -0,0 +1,45 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.model;
+
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 持久化的导出任务，context 为 WidgetContext 列表的 JSON
+ */
+@Data
+public class ExportJob {
+    private Long id;
+    private String action;
+    private Long recordId;
+    private String uuid;
+    private Long userId;
+    private Integer priority;
+    private Short status;
+    private Integer attempts;
+    private String context;
+    private String owner;
+    private Date createTime;
+    private Date startTime;
+    private Date heartbeatTime;
+    private Date endTime;
+}
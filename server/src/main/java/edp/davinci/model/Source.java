@@ -23,6 +23,7 @@ package edp.davinci.model;
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSONObject;
 import com.alibaba.fastjson.annotation.JSONField;
+import edp.core.common.jdbc.DataSourcePoolConfig;
 import edp.core.model.BaseSource;
 import edp.core.utils.SourceUtils;
 import lombok.Data;
@@ -180,6 +181,26 @@ public class Source extends BaseSource {
         return params;
     }
 
+    /**
+     * 从config中获取连接池配置
+     * <p>
+     * json key: pool
+     *
+     * @return
+     */
+    @JSONField(serialize = false)
+    public DataSourcePoolConfig getPoolConfig() {
+        if (null == config) {
+            return null;
+        }
+        try {
+            return DataSourcePoolConfig.of(JSONObject.parseObject(this.config));
+        } catch (Exception e) {
+            log.error("get pool config from source config, {}", e.getMessage());
+        }
+        return null;
+    }
+
     @Override
     public String toString() {
         return "Source{" +
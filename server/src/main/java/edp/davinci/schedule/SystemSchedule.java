@@ -22,8 +22,10 @@ package edp.davinci.schedule;
 import edp.core.consts.Consts;
 import edp.core.exception.ServerException;
 import edp.core.utils.*;
+import edp.davinci.core.enums.ExportJobStatus;
 import edp.davinci.core.enums.FileTypeEnum;
 import edp.davinci.dao.CronJobMapper;
+import edp.davinci.dao.ExportJobMapper;
 import edp.davinci.dao.ShareDownloadRecordMapper;
 import edp.davinci.model.CronJob;
 import edp.davinci.model.ShareDownloadRecord;
@@ -54,6 +56,9 @@ public class SystemSchedule {
     @Autowired
     private ShareDownloadRecordMapper shareDownloadRecordMapper;
 
+    @Autowired
+    private ExportJobMapper exportJobMapper;
+
 
     @Scheduled(cron = "0 0 1 * * *")
     public void clearTempDir() {
@@ -101,6 +106,14 @@ public class SystemSchedule {
         shareDownloadRecordMapper.deleteByCondition();
     }
 
+    /**
+     * 每天凌晨 1 点清理一个月前已结束的导出任务
+     */
+    @Scheduled(cron = "0 0 1 * * *")
+    public void clearExportJob() {
+        exportJobMapper.deleteFinished(ExportJobStatus.SUCCESS.getStatus(), ExportJobStatus.FAILED.getStatus());
+    }
+
     private void deleteFile(File file){
         if(file == null || !file.exists()){
             return;
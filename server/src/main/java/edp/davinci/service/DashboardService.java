@@ -22,6 +22,7 @@ package edp.davinci.service;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedExecption;
+import edp.davinci.core.common.DashboardDataWriter;
 import edp.davinci.core.service.CheckEntityService;
 import edp.davinci.dto.dashboardDto.*;
 import edp.davinci.dto.roleDto.VizVisibility;
@@ -30,6 +31,7 @@ import edp.davinci.model.MemDashboardWidget;
 import edp.davinci.model.Role;
 import edp.davinci.model.User;
 
+import java.io.IOException;
 import java.util.List;
 
 public interface DashboardService extends CheckEntityService {
@@ -38,6 +40,8 @@ public interface DashboardService extends CheckEntityService {
 
     DashboardWithMem getDashboardMemWidgets(Long portalId, Long dashboardId, User user) throws NotFoundException, UnAuthorizedExecption, ServerException;
 
+    void streamDashboardData(Long portalId, Long dashboardId, DashboardDataParam param, User user, DashboardDataWriter writer) throws NotFoundException, UnAuthorizedExecption, ServerException, IOException;
+
     Dashboard createDashboard(DashboardCreate dashboardCreate, User user) throws NotFoundException, UnAuthorizedExecption, ServerException;
 
     void updateDashboards(Long portalId, DashboardDto[] dashboards, User user) throws NotFoundException, UnAuthorizedExecption, ServerException;
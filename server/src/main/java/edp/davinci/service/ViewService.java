@@ -19,6 +19,7 @@
 
 package edp.davinci.service;
 
+import edp.core.common.jdbc.ResultRowHandler;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedExecption;
@@ -26,6 +27,7 @@ import edp.core.model.Paginate;
 import edp.core.model.PaginateWithQueryColumns;
 import edp.davinci.core.service.CheckEntityService;
 import edp.davinci.dto.viewDto.*;
+import edp.davinci.model.RelRoleView;
 import edp.davinci.model.User;
 import edp.davinci.service.excel.SQLContext;
 
@@ -53,8 +55,27 @@ public interface ViewService extends CheckEntityService {
 
     Paginate<Map<String, Object>> getData(Long id, ViewExecuteParam executeParam, User user) throws NotFoundException, UnAuthorizedExecption, ServerException, SQLException;
 
+    ViewDataJob submitData(Long id, ViewExecuteParam executeParam, String group, User user) throws NotFoundException, UnAuthorizedExecption, ServerException;
+
+    ViewDataJob getDataJob(String jobId, User user) throws NotFoundException;
+
+    Paginate<Map<String, Object>> getDataJobResult(String jobId, int pageNo, int pageSize, User user) throws NotFoundException, ServerException;
+
+    boolean cancelDataJob(String jobId, User user);
+
+    int cancelDataJobs(String group, User user);
+
+    void streamData(Long id, ViewExecuteParam executeParam, User user, ResultRowHandler handler) throws NotFoundException, UnAuthorizedExecption, ServerException, SQLException;
+
+    void streamResultData(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user, ResultRowHandler handler) throws ServerException;
+
     PaginateWithQueryColumns getResultDataList(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user) throws ServerException, SQLException;
 
+    /**
+     * 批量取数时同一请求内复用用户在各 view 上的权限配置（viewId -> RelRoleView）
+     */
+    PaginateWithQueryColumns getResultDataList(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user, Map<Long, List<RelRoleView>> roleViews) throws ServerException, SQLException;
+
     List<Map<String, Object>> getDistinctValue(Long id, DistinctParam param, User user) throws NotFoundException, ServerException, UnAuthorizedExecption;
 //=======
 //    List<Map<String, Object>> getResultDataList(ViewWithProjectAndSource viewWithProjectAndSource, ViewExecuteParam executeParam, User user,String sharedUser) throws ServerException;
@@ -25,21 +25,18 @@ import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.davinci.core.enums.NumericUnitEnum;
 import edp.davinci.core.model.ExcelHeader;
-import edp.davinci.core.model.FieldCurrency;
-import edp.davinci.core.model.FieldNumeric;
-import edp.davinci.core.utils.ExcelUtils;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellRangeAddress;
 
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import static edp.core.consts.Consts.EMPTY;
-
 /**
  * Created by IntelliJ IDEA.
  *
@@ -50,40 +47,20 @@ import static edp.core.consts.Consts.EMPTY;
 @Slf4j
 public abstract class AbstractSheetWriter {
 
-    private CellStyle header;
-
-    private CellStyle myDefault;
-
-    private CellStyle general;
-
-    private DataFormat format;
+    private SheetPartWriter part;
 
-    private int nextRowNum = 0;
+    private WorkbookStyles.SheetStyles styles;
 
-    //用于记录表头对应数据格式
-    Map<String, CellStyle> headerFormatMap = new HashMap();
-    //用于标记标记数字格式单位
-    Map<String, NumericUnitEnum> dataUnitMap = new HashMap();
     //记录列最大字符数
     Map<String, Integer> columnWidthMap = new HashMap();
 
+    private ColumnPlan[] columnPlans;
+
 
     protected void init(SheetContext context) throws Exception {
-        format = context.getWorkbook().createDataFormat();
-        //默认格式
-        myDefault = context.getWorkbook().createCellStyle();
-        //常规格式
-        general = context.getWorkbook().createCellStyle();
-        general.setDataFormat(format.getFormat("General"));
-        //表头格式 粗体居中
-        header = context.getWorkbook().createCellStyle();
-        Font font = context.getWorkbook().createFont();
-        font.setFontName("黑体");
-        font.setBoldweight(Font.BOLDWEIGHT_BOLD);
-        header.setFont(font);
-        header.setDataFormat(format.getFormat("@"));
-        header.setAlignment(CellStyle.ALIGN_CENTER);
-        header.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
+        //sheet 独占自己的数据部件，样式已由 workbook 线程预先创建
+        part = context.getPart();
+        styles = context.getStyles();
     }
 
     protected void writeHeader(SheetContext context) throws Exception {
@@ -106,139 +83,151 @@ public abstract class AbstractSheetWriter {
                     queryColumns.add(queryColumn);
                     queryColumn.setType(excelHeader.getType());
                     //设置列的最大长度
-                    columnWidthMap.put(queryColumn.getName(), Math.max(queryColumn.getName().getBytes().length, queryColumn.getType().getBytes().length));
-                }
-                //获取对应数据格式
-                if (null != excelHeader.getFormat()) {
-                    Object o = excelHeader.getFormat();
-                    //设置列货币数值的单位
-                    if (o instanceof FieldNumeric || o instanceof FieldCurrency) {
-                        FieldNumeric fieldNumeric = (FieldNumeric) o;
-                        if (null != fieldNumeric.getUnit()) {
-                            dataUnitMap.put(excelHeader.getKey(), fieldNumeric.getUnit());
-                        }
-                    }
-                    //设置列数据格式
-                    String dataFormat = ExcelUtils.getDataFormat(excelHeader.getFormat());
-                    if (!StringUtils.isEmpty(dataFormat)) {
-                        CellStyle dataStyle = context.getWorkbook().createCellStyle();
-                        DataFormat xssfDataFormat = context.getWorkbook().createDataFormat();
-                        dataStyle.setDataFormat(xssfDataFormat.getFormat(dataFormat));
-                        headerFormatMap.put(excelHeader.getKey(), dataStyle);
-                    }
+                    columnWidthMap.put(queryColumn.getName(), Math.max(charWidth(queryColumn.getName()), charWidth(queryColumn.getType())));
                 }
             }
             if (!CollectionUtils.isEmpty(queryColumns)) {
                 context.setQueryColumns(queryColumns);
             }
-            //画出表头
-            for (int i = 0; i < rownum; i++) {
-                Row headerRow = context.getSheet().createRow(i);
-                nextRowNum++;
-                for (int j = 0; j < colnum; j++) {
-                    headerRow.createCell(j);
-                }
-            }
+            //行需按顺序写出，先在内存中排好多级表头
+            String[][] headerCells = new String[rownum][colnum];
             for (ExcelHeader excelHeader : context.getExcelHeaders()) {
                 //合并单元格
                 if (excelHeader.isMerged() && null != excelHeader.getRange() && excelHeader.getRange().length == 4) {
                     int[] range = excelHeader.getRange();
                     if (!(range[0] == range[1] && range[2] == range[3])) {
-                        CellRangeAddress cellRangeAddress = new CellRangeAddress(range[0], range[1], range[2], range[3]);
-                        context.getSheet().addMergedRegion(cellRangeAddress);
+                        part.addMergedRegion(new CellRangeAddress(range[0], range[1], range[2], range[3]));
+                    }
+                }
+                headerCells[excelHeader.getRow()][excelHeader.getCol()] = StringUtils.isEmpty(excelHeader.getAlias()) ? excelHeader.getKey() : excelHeader.getAlias();
+            }
+            //画出表头
+            for (int i = 0; i < rownum; i++) {
+                part.startRow();
+                for (int j = 0; j < colnum; j++) {
+                    if (null == headerCells[i][j]) {
+                        part.writeBlank(j, 0);
+                    } else {
+                        part.writeString(j, headerCells[i][j], styles.getHeader());
                     }
                 }
-                Cell cell = context.getSheet().getRow(excelHeader.getRow()).getCell(excelHeader.getCol());
-                cell.setCellStyle(header);
-                cell.setCellValue(StringUtils.isEmpty(excelHeader.getAlias()) ? excelHeader.getKey() : excelHeader.getAlias());
             }
         } else {
-            Row row = context.getSheet().createRow(nextRowNum++);
+            part.startRow();
             for (int i = 0; i < context.getQueryColumns().size(); i++) {
                 QueryColumn queryColumn = context.getQueryColumns().get(i);
-                columnWidthMap.put(queryColumn.getName(), Math.max(queryColumn.getName().getBytes().length, queryColumn.getType().getBytes().length));
-                Cell cell = row.createCell(i);
-                cell.setCellStyle(header);
-                cell.setCellValue(queryColumn.getName());
+                columnWidthMap.put(queryColumn.getName(), Math.max(charWidth(queryColumn.getName()), charWidth(queryColumn.getType())));
+                part.writeString(i, queryColumn.getName(), styles.getHeader());
             }
         }
         //添加数据类型行
         if (context.getContain()) {
-            Row row = context.getSheet().createRow(nextRowNum++);
+            part.startRow();
             for (int i = 0; i < context.getQueryColumns().size(); i++) {
                 String type = context.getQueryColumns().get(i).getType();
                 if (context.getTable()) {
                     type = SqlTypeEnum.VARCHAR.getName();
                 }
-                row.createCell(i).setCellValue(type);
+                part.writeString(i, type, 0);
             }
         }
     }
 
-    protected void writeLine(SheetContext context, Map<String, Object> dataMap) {
-        Row row = context.getSheet().createRow(nextRowNum++);
-        for (int j = 0; j < context.getQueryColumns().size(); j++) {
-            QueryColumn queryColumn = context.getQueryColumns().get(j);
-            myDefault.setDataFormat(format.getFormat("@"));
-            Object value = dataMap.get(queryColumn.getName());
-            Cell cell = row.createCell(j);
-            if (null != value) {
-                if (value instanceof Number || queryColumn.getType().equals("value")) {
+    /**
+     * 按最终的列顺序生成列计划（结果集序号、数据格式、单位、是否数值列），每个 sheet 只生成一次
+     *
+     * @param context
+     * @param ordinals 列名 -> 结果集中的列序号
+     */
+    protected void initColumnPlan(SheetContext context, Map<String, Integer> ordinals) {
+        List<QueryColumn> queryColumns = context.getQueryColumns();
+        columnPlans = new ColumnPlan[queryColumns.size()];
+        for (int i = 0; i < columnPlans.length; i++) {
+            QueryColumn queryColumn = queryColumns.get(i);
+            String name = queryColumn.getName();
+            Integer ordinal = ordinals.get(name);
+            columnPlans[i] = new ColumnPlan(null == ordinal ? 0 : ordinal,
+                    styles.getColumnStyle(name),
+                    styles.getUnit(name),
+                    "value".equals(queryColumn.getType()),
+                    columnWidthMap.getOrDefault(name, 0));
+        }
+    }
 
-                    Double v = formatNumber(value, dataUnitMap.get(queryColumn.getName()));
+    /**
+     * 按列计划从结果集当前行按序号读取并写入一行，不再为每行构建 Map
+     */
+    protected void writeRow(SheetContext context, ResultSet rs) throws SQLException, IOException {
+        part.startRow();
+        for (int j = 0; j < columnPlans.length; j++) {
+            ColumnPlan plan = columnPlans[j];
+            writeCell(j, plan, plan.ordinal > 0 ? rs.getObject(plan.ordinal) : null);
+        }
+    }
 
-                    if (v == null) {
-                        cell.setCellValue(String.valueOf(value));
-                    } else {
-                        cell.setCellValue(v);
-                    }
+    /**
+     * 按列序号（从 1 开始）从值数组写入一行，用于结果集文件等非 jdbc 来源
+     */
+    protected void writeRow(SheetContext context, Object[] values) throws IOException {
+        part.startRow();
+        for (int j = 0; j < columnPlans.length; j++) {
+            ColumnPlan plan = columnPlans[j];
+            writeCell(j, plan, plan.ordinal > 0 && plan.ordinal <= values.length ? values[plan.ordinal - 1] : null);
+        }
+    }
 
-                    if (null != headerFormatMap && headerFormatMap.containsKey(queryColumn.getName())) {
-                        cell.setCellStyle(headerFormatMap.get(queryColumn.getName()));
-                    } else {
-                        cell.setCellStyle(general);
-                    }
-                } else {
-                    cell.setCellValue(String.valueOf(value));
-                }
+    private void writeCell(int j, ColumnPlan plan, Object value) throws IOException {
+        if (null == value) {
+            part.writeBlank(j, styles.getText());
+            return;
+        }
 
-                if (columnWidthMap.containsKey(queryColumn.getName())) {
-                    if (String.valueOf(value).getBytes().length > columnWidthMap.get(queryColumn.getName())) {
-                        columnWidthMap.put(queryColumn.getName(), String.valueOf(value).getBytes().length);
-                    }
-                }
+        int width;
+        if (value instanceof Number || plan.numeric) {
+            double v = formatNumber(value, plan.unit);
+            if (Double.isNaN(v)) {
+                String text = value.toString();
+                part.writeString(j, text, plan.style);
+                width = charWidth(text);
             } else {
-                cell.setCellValue(EMPTY);
-                cell.setCellStyle(myDefault);
+                part.writeNumber(j, v, plan.style);
+                width = numberWidth(value);
             }
+        } else {
+            String text = value.toString();
+            part.writeString(j, text, 0);
+            width = charWidth(text);
+        }
+
+        if (width > plan.width) {
+            plan.width = width;
         }
     }
 
     protected void writeBody(SheetContext context) {
     }
 
-    protected Boolean refreshHeightWidth(SheetContext context) {
-        context.getSheet().setDefaultRowHeight((short) (20 * 20));
-        for (int i = 0; i < context.getQueryColumns().size(); i++) {
-            context.getSheet().autoSizeColumn(i, true);
-            QueryColumn queryColumn = context.getQueryColumns().get(i);
-            if (columnWidthMap.containsKey(queryColumn.getName())) {
-                Integer width = columnWidthMap.get(queryColumn.getName());
-                if (width > 0) {
-                    width = width > 255 ? 255 : width;
-                    context.getSheet().setColumnWidth(i, width * 256);
-                }
+    /**
+     * 按记录的最大字符数设置列宽，替代 autoSizeColumn 对已刷出数据的重复扫描
+     */
+    protected void refreshHeightWidth(SheetContext context) {
+        int[] widths = new int[context.getQueryColumns().size()];
+        for (int i = 0; i < widths.length; i++) {
+            if (null != columnPlans && i < columnPlans.length) {
+                widths[i] = columnPlans[i].width;
             } else {
-                context.getSheet().setColumnWidth(i, context.getSheet().getColumnWidth(i) * 12 / 10);
+                widths[i] = columnWidthMap.getOrDefault(context.getQueryColumns().get(i).getName(), 0);
             }
         }
-        return true;
+        part.setColumnWidths(widths);
     }
 
-
-    private Double formatNumber(Object value, NumericUnitEnum unitEnum) {
+    /**
+     * 转为数值，无法转换时返回 NaN
+     */
+    private static double formatNumber(Object value, NumericUnitEnum unitEnum) {
         try {
-            Double d = Double.parseDouble(String.valueOf(value));
+            double d = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
 
             if (null == unitEnum) {
                 return d;
@@ -256,6 +245,47 @@ public abstract class AbstractSheetWriter {
             return d;
         } catch (NumberFormatException e) {
         }
-        return null;
+        return Double.NaN;
+    }
+
+    /**
+     * 按字符数计算列宽，非 ASCII 字符（如中文）按两个字符宽度计
+     */
+    private static int charWidth(String text) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            width += text.charAt(i) < 0x80 ? 1 : 2;
+        }
+        return width;
+    }
+
+    private static int numberWidth(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            long n = ((Number) value).longValue();
+            int width = n < 0 ? 1 : 0;
+            do {
+                width++;
+                n /= 10;
+            } while (n != 0);
+            return width;
+        }
+        return value.toString().length();
+    }
+
+
+    private static final class ColumnPlan {
+        private final int ordinal;
+        private final int style;
+        private final NumericUnitEnum unit;
+        private final boolean numeric;
+        private int width;
+
+        ColumnPlan(int ordinal, int style, NumericUnitEnum unit, boolean numeric, int width) {
+            this.ordinal = ordinal;
+            this.style = style;
+            this.unit = unit;
+            this.numeric = numeric;
+            this.width = width;
+        }
     }
 }
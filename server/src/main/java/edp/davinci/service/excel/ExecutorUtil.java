@@ -19,7 +19,7 @@
 
 package edp.davinci.service.excel;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import edp.davinci.core.config.SpringContextHolder;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.*;
@@ -34,25 +34,13 @@ import java.util.concurrent.*;
 @Slf4j
 public class ExecutorUtil {
 
-    public static final ExecutorService WORKBOOK_WORKERS = Executors.newFixedThreadPool(4,
-            new ThreadFactoryBuilder().setNameFormat("workbook-worker-%d").setDaemon(true).build());
-
-    public static final ExecutorService SHEET_WORKERS = Executors.newFixedThreadPool(16,
-            new ThreadFactoryBuilder().setNameFormat("sheet-worker-%d").setDaemon(true).build());
-
-
-    public static <T> Future<T> submitWorkbookTask(WorkbookWorker worker) {
-        printThreadPoolStatusLog(WORKBOOK_WORKERS, "WORKBOOK_WORKERS");
-        return ExecutorUtil.WORKBOOK_WORKERS.submit(worker);
-    }
-
-    public static <T> Future<T> submitWorkbookTask(WorkBookContext context) {
-        return ExecutorUtil.submitWorkbookTask(new WorkbookWorker(context));
-    }
-
+    /**
+     * sheet 任务在共享的 export-sheet 线程池中执行，workbook 任务统一由 ExportJobScheduler 调度
+     */
     public static <T> Future<T> submitSheetTask(SheetWorker worker) {
-        printThreadPoolStatusLog(SHEET_WORKERS, "SHEET_WORKERS");
-        return ExecutorUtil.SHEET_WORKERS.submit(worker);
+        ExecutorService executor = ((ExportJobScheduler) SpringContextHolder.getBean(ExportJobScheduler.class)).getSheetExecutor();
+        printThreadPoolStatusLog(executor, ExportJobScheduler.EXPORT_SHEET);
+        return executor.submit(worker);
     }
 
     public static <T> Future<T> submitSheetTask(SheetContext context) {
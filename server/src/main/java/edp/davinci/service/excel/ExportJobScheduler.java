@@ -0,0 +1,502 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.alibaba.fastjson.JSONObject;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.executor.InstrumentedThreadPoolExecutor;
+import edp.core.exception.QueryRejectedException;
+import edp.davinci.core.enums.ActionEnum;
+import edp.davinci.core.enums.DownloadTaskStatus;
+import edp.davinci.core.enums.ExportJobStatus;
+import edp.davinci.dao.DownloadRecordMapper;
+import edp.davinci.dao.ExportJobMapper;
+import edp.davinci.dao.ShareDownloadRecordMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.model.DownloadRecord;
+import edp.davinci.model.ExportJob;
+import edp.davinci.model.ShareDownloadRecord;
+import edp.davinci.model.User;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.net.InetAddress;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 导出任务调度：
+ * 下载与分享下载任务持久化到 export_job，按 ActionEnum 优先级排队，受全局与单用户并发上限约束，
+ * 重启后未完成的任务重新入队（超过最大尝试次数则置为失败）；执行中的任务定时续约，
+ * 租约过期的任务才会被其他实例接管；定时邮件任务只在内存中排队
+ */
+@Slf4j
+@Component
+public class ExportJobScheduler {
+
+    public static final String EXPORT_WORKBOOK = "export-workbook";
+
+    public static final String EXPORT_SHEET = "export-sheet";
+
+    private static final Comparator<Job> JOB_ORDER = Comparator.<Job>comparingInt(x -> x.priority).thenComparingLong(x -> x.seq);
+
+    //以下状态由 this 保护
+    private final TreeSet<Job> pending = new TreeSet<>(JOB_ORDER);
+
+    private final Set<Long> known = new HashSet<>();
+
+    private final Map<Long, Integer> runningByUser = new HashMap<>();
+
+    private final Set<Long> runningJobs = new HashSet<>();
+
+    private int running = 0;
+
+    private boolean recovered = false;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder succeeded = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder recoveredJobs = new LongAdder();
+
+    private final LongAdder queueMillis = new LongAdder();
+
+    private final LongAdder runMillis = new LongAdder();
+
+    private final AtomicLong maxQueueMillis = new AtomicLong();
+
+    private final AtomicLong maxRunMillis = new AtomicLong();
+
+    @Autowired
+    private ExportJobMapper exportJobMapper;
+
+    @Autowired
+    private DownloadRecordMapper downloadRecordMapper;
+
+    @Autowired
+    private ShareDownloadRecordMapper shareDownloadRecordMapper;
+
+    @Autowired
+    private UserMapper userMapper;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    @Value("${source.export.max-running:4}")
+    private int maxRunning;
+
+    @Value("${source.export.user-max-running:2}")
+    private int userMaxRunning;
+
+    @Value("${source.export.max-queued:200}")
+    private int maxQueued;
+
+    @Value("${source.export.user-max-queued:10}")
+    private int userMaxQueued;
+
+    @Value("${source.export.max-attempts:3}")
+    private int maxAttempts;
+
+    /**
+     * 其他实例上超过该时长（秒）未续约的任务视为实例已宕机，需大于续约间隔
+     */
+    @Value("${source.export.lease-timeout:300}")
+    private long leaseTimeout;
+
+    @Value("${source.export.sheet-pool-size:16}")
+    private int sheetPoolSize;
+
+    @Value("${source.export.instance-id:}")
+    private String instanceId;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    @Value("${source.result-limit:1000000}")
+    private int resultLimit;
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.isEmpty(instanceId)) {
+            try {
+                instanceId = InetAddress.getLocalHost().getHostName() + ":" + serverPort;
+            } catch (Exception e) {
+                instanceId = "localhost:" + serverPort;
+            }
+        }
+    }
+
+    /**
+     * 提交前检查排队上限，超过时拒绝（429），由调用方稍后重试
+     *
+     * @param userId
+     */
+    public void checkCapacity(Long userId) {
+        int userJobs;
+        int queued;
+        synchronized (this) {
+            queued = pending.size();
+            userJobs = runningByUser.getOrDefault(userId, 0);
+            for (Job job : pending) {
+                if (Objects.equals(job.userId, userId)) {
+                    userJobs++;
+                }
+            }
+        }
+        if (queued >= maxQueued) {
+            rejected.increment();
+            throw new QueryRejectedException("There are too many export tasks in queue, please try again later", 60L);
+        }
+        if (userJobs >= userMaxQueued) {
+            rejected.increment();
+            throw new QueryRejectedException("You have too many unfinished export tasks, please try again later", 60L);
+        }
+    }
+
+    /**
+     * 提交持久化的下载任务，记录需已创建
+     *
+     * @param context
+     * @param recordId download_record / share_download_record 的 id
+     * @param uuid     分享下载的 uuid
+     */
+    public void submit(WorkBookContext context, Long recordId, String uuid) {
+        ActionEnum action = context.getWrapper().getAction();
+        ExportJob exportJob = new ExportJob();
+        exportJob.setAction(action.name());
+        exportJob.setRecordId(recordId);
+        exportJob.setUuid(uuid);
+        exportJob.setUserId(null == context.getUser() ? null : context.getUser().getId());
+        exportJob.setPriority(action.getPriority());
+        exportJob.setStatus(ExportJobStatus.QUEUED.getStatus());
+        exportJob.setAttempts(0);
+        exportJob.setContext(JSONObject.toJSONString(context.getWidgets()));
+        exportJob.setCreateTime(new Date());
+        exportJobMapper.insert(exportJob);
+
+        Job job = new Job(exportJob, sequence.incrementAndGet());
+        job.context = context;
+        enqueue(job);
+    }
+
+    /**
+     * 提交只在内存中排队的任务（定时邮件），完成后由 MsgNotifier 通知等待方
+     */
+    public void submit(WorkBookContext context) {
+        ActionEnum action = context.getWrapper().getAction();
+        Job job = new Job(null, action, action.getPriority(), sequence.incrementAndGet(),
+                null == context.getUser() ? null : context.getUser().getId());
+        job.context = context;
+        enqueue(job);
+    }
+
+    public InstrumentedThreadPoolExecutor getSheetExecutor() {
+        return executorRegistry.get(EXPORT_SHEET, sheetPoolSize, 256);
+    }
+
+    /**
+     * 恢复与拉取数据库中排队的任务（含其他实例提交、未来得及执行的任务）
+     */
+    @Scheduled(initialDelayString = "${source.export.poll-interval:30000}", fixedDelayString = "${source.export.poll-interval:30000}")
+    public void poll() {
+        try {
+            if (!recovered) {
+                int count = exportJobMapper.requeueByOwner(instanceId, ExportJobStatus.QUEUED.getStatus(), ExportJobStatus.RUNNING.getStatus());
+                if (count > 0) {
+                    log.info("export job scheduler requeue {} unfinished jobs of {}", count, instanceId);
+                }
+                recovered = true;
+            }
+            exportJobMapper.requeueStale(instanceId, new Date(System.currentTimeMillis() - leaseTimeout * 1000L),
+                    ExportJobStatus.QUEUED.getStatus(), ExportJobStatus.RUNNING.getStatus());
+
+            List<ExportJob> jobs = exportJobMapper.getByStatus(ExportJobStatus.QUEUED.getStatus(), maxQueued);
+            for (ExportJob exportJob : jobs) {
+                synchronized (this) {
+                    if (known.contains(exportJob.getId())) {
+                        continue;
+                    }
+                }
+                if (null != exportJob.getAttempts() && exportJob.getAttempts() >= maxAttempts) {
+                    log.warn("export job {} failed after {} attempts", exportJob.getId(), exportJob.getAttempts());
+                    if (exportJobMapper.finishQueued(exportJob.getId(), ExportJobStatus.QUEUED.getStatus(),
+                            ExportJobStatus.FAILED.getStatus(), new Date()) > 0) {
+                        failRecord(exportJob);
+                        failed.increment();
+                    }
+                    continue;
+                }
+                recoveredJobs.increment();
+                enqueue(new Job(exportJob, sequence.incrementAndGet()));
+            }
+        } catch (Exception e) {
+            log.error("export job scheduler poll error: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 续约本实例正在执行的任务
+     */
+    @Scheduled(initialDelayString = "${source.export.heartbeat-interval:60000}", fixedDelayString = "${source.export.heartbeat-interval:60000}")
+    public void heartbeat() {
+        List<Long> ids;
+        synchronized (this) {
+            if (runningJobs.isEmpty()) {
+                return;
+            }
+            ids = new ArrayList<>(runningJobs);
+        }
+        try {
+            int count = exportJobMapper.heartbeat(ids, instanceId, new Date(), ExportJobStatus.RUNNING.getStatus());
+            if (count < ids.size()) {
+                log.warn("export job scheduler renewed {} of {} running jobs, some leases were lost", count, ids.size());
+            }
+        } catch (Exception e) {
+            log.error("export job scheduler heartbeat error: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (this) {
+            stats.put("instance", instanceId);
+            stats.put("queued", pending.size());
+            stats.put("running", running);
+            stats.put("runningByUser", new HashMap<>(runningByUser));
+        }
+        stats.put("maxRunning", maxRunning);
+        stats.put("userMaxRunning", userMaxRunning);
+        stats.put("maxQueued", maxQueued);
+        stats.put("userMaxQueued", userMaxQueued);
+        stats.put("submitted", submitted.sum());
+        stats.put("recovered", recoveredJobs.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("succeeded", succeeded.sum());
+        stats.put("failed", failed.sum());
+        long finished = succeeded.sum() + failed.sum();
+        stats.put("avgQueueMillis", finished > 0 ? queueMillis.sum() / finished : 0L);
+        stats.put("maxQueueMillis", maxQueueMillis.get());
+        stats.put("avgRunMillis", finished > 0 ? runMillis.sum() / finished : 0L);
+        stats.put("maxRunMillis", maxRunMillis.get());
+        return stats;
+    }
+
+    private void enqueue(Job job) {
+        submitted.increment();
+        synchronized (this) {
+            if (null != job.id && !known.add(job.id)) {
+                return;
+            }
+            pending.add(job);
+        }
+        dispatch();
+    }
+
+    /**
+     * 在锁内选出任务并预占并发名额，数据库占用在锁外进行，失败时归还名额
+     */
+    private void dispatch() {
+        while (true) {
+            Job next = null;
+            synchronized (this) {
+                if (running >= maxRunning) {
+                    return;
+                }
+                for (Job job : pending) {
+                    if (runningByUser.getOrDefault(job.userId, 0) < userMaxRunning) {
+                        next = job;
+                        break;
+                    }
+                }
+                if (null == next) {
+                    return;
+                }
+                pending.remove(next);
+                running++;
+                runningByUser.merge(next.userId, 1, Integer::sum);
+            }
+            if (null != next.id) {
+                boolean claimed = claim(next);
+                synchronized (this) {
+                    if (!claimed) {
+                        release(next);
+                        continue;
+                    }
+                    runningJobs.add(next.id);
+                }
+            }
+            final Job job = next;
+            executorRegistry.get(EXPORT_WORKBOOK, maxRunning, maxRunning).execute(() -> run(job));
+        }
+    }
+
+    /**
+     * 归还任务占用的并发名额，需持有 this
+     */
+    private void release(Job job) {
+        running--;
+        runningByUser.computeIfPresent(job.userId, (k, v) -> v > 1 ? v - 1 : null);
+        if (null != job.id) {
+            known.remove(job.id);
+            runningJobs.remove(job.id);
+        }
+    }
+
+    private boolean claim(Job job) {
+        try {
+            return exportJobMapper.claim(job.id, instanceId, new Date(),
+                    ExportJobStatus.QUEUED.getStatus(), ExportJobStatus.RUNNING.getStatus()) > 0;
+        } catch (Exception e) {
+            log.error("claim export job {} error: {}", job.id, e.getMessage());
+            return false;
+        }
+    }
+
+    private void run(Job job) {
+        long start = System.currentTimeMillis();
+        long queued = start - job.enqueueTime;
+        queueMillis.add(queued);
+        maxQueueMillis.accumulateAndGet(queued, Math::max);
+
+        boolean success = false;
+        try {
+            WorkBookContext context = null != job.context ? job.context : restore(job);
+            if (null != context) {
+                new WorkbookWorker<String>(context).call();
+                success = StringUtils.isNotEmpty(context.getWrapper().getRst());
+            }
+        } catch (Exception e) {
+            log.error("export job {} error", job.id, e);
+        } finally {
+            long cost = System.currentTimeMillis() - start;
+            runMillis.add(cost);
+            maxRunMillis.accumulateAndGet(cost, Math::max);
+            (success ? succeeded : failed).increment();
+            if (null != job.id) {
+                try {
+                    if (exportJobMapper.finish(job.id, instanceId,
+                            success ? ExportJobStatus.SUCCESS.getStatus() : ExportJobStatus.FAILED.getStatus(), new Date()) == 0) {
+                        log.warn("export job {} lease lost, it was taken over by another instance", job.id);
+                    }
+                } catch (Exception e) {
+                    log.error("finish export job {} error: {}", job.id, e.getMessage());
+                }
+            }
+            synchronized (this) {
+                release(job);
+            }
+            dispatch();
+        }
+    }
+
+    /**
+     * 重启后由持久化的任务重建 WorkBookContext
+     */
+    private WorkBookContext restore(Job job) {
+        ExportJob exportJob = job.exportJob;
+        User user = null == exportJob.getUserId() ? null : userMapper.getById(exportJob.getUserId());
+        List<WidgetContext> widgets = JSONObject.parseArray(exportJob.getContext(), WidgetContext.class);
+        MsgWrapper<?> wrapper;
+        switch (job.action) {
+            case DOWNLOAD:
+                DownloadRecord record = downloadRecordMapper.getById(exportJob.getRecordId());
+                if (null == record) {
+                    log.warn("download record {} of export job {} not found", exportJob.getRecordId(), job.id);
+                    return null;
+                }
+                wrapper = new MsgWrapper<>(record, ActionEnum.DOWNLOAD, record.getId());
+                break;
+            case SHAREDOWNLOAD:
+                ShareDownloadRecord shareRecord = shareDownloadRecordMapper.getShareDownloadRecordBy(exportJob.getRecordId(), exportJob.getUuid());
+                if (null == shareRecord) {
+                    log.warn("share download record {} of export job {} not found", exportJob.getRecordId(), job.id);
+                    return null;
+                }
+                wrapper = new MsgWrapper<>(shareRecord, ActionEnum.SHAREDOWNLOAD, exportJob.getUuid());
+                break;
+            default:
+                log.warn("export job {} with action {} can not be restored", job.id, job.action);
+                return null;
+        }
+        return WorkBookContext.newWorkBookContext(wrapper, widgets, user, resultLimit);
+    }
+
+    private void failRecord(ExportJob exportJob) {
+        try {
+            if (ActionEnum.DOWNLOAD.name().equals(exportJob.getAction())) {
+                DownloadRecord record = downloadRecordMapper.getById(exportJob.getRecordId());
+                if (null != record) {
+                    record.setStatus(DownloadTaskStatus.FAILED.getStatus());
+                    downloadRecordMapper.updateById(record);
+                }
+            } else if (ActionEnum.SHAREDOWNLOAD.name().equals(exportJob.getAction())) {
+                ShareDownloadRecord record = shareDownloadRecordMapper.getShareDownloadRecordBy(exportJob.getRecordId(), exportJob.getUuid());
+                if (null != record) {
+                    record.setStatus(DownloadTaskStatus.FAILED.getStatus());
+                    shareDownloadRecordMapper.updateById(record);
+                }
+            }
+        } catch (Exception e) {
+            log.error("update record of export job {} error: {}", exportJob.getId(), e.getMessage());
+        }
+    }
+
+
+    private static final class Job {
+        private final Long id;
+        private final ExportJob exportJob;
+        private final ActionEnum action;
+        private final int priority;
+        private final long seq;
+        private final Long userId;
+        private final long enqueueTime = System.currentTimeMillis();
+        private WorkBookContext context;
+
+        Job(ExportJob exportJob, long seq) {
+            this.id = exportJob.getId();
+            this.exportJob = exportJob;
+            this.action = ActionEnum.valueOf(exportJob.getAction());
+            this.priority = null == exportJob.getPriority() ? action.getPriority() : exportJob.getPriority();
+            this.seq = seq;
+            this.userId = exportJob.getUserId();
+        }
+
+        Job(ExportJob exportJob, ActionEnum action, int priority, long seq, Long userId) {
+            this.id = null;
+            this.exportJob = exportJob;
+            this.action = action;
+            this.priority = priority;
+            this.seq = seq;
+            this.userId = userId;
+        }
+    }
+}
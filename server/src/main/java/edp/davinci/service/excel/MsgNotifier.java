@@ -20,6 +20,7 @@
 package edp.davinci.service.excel;
 
 import edp.davinci.core.config.SpringContextHolder;
+import edp.davinci.core.enums.ActionEnum;
 import edp.davinci.core.enums.DownloadTaskStatus;
 import edp.davinci.dao.DownloadRecordMapper;
 import edp.davinci.dao.ShareDownloadRecordMapper;
@@ -41,6 +42,22 @@ import java.util.concurrent.locks.ReentrantLock;
 @Slf4j
 public abstract class MsgNotifier {
 
+    /**
+     * 导出过程中更新下载记录的已导出行数
+     */
+    public static void progress(MsgWrapper<?> wrapper) {
+        try {
+            if (wrapper.getAction() == ActionEnum.DOWNLOAD && wrapper.getMsg() instanceof DownloadRecord) {
+                ((DownloadRecordMapper) SpringContextHolder.getBean(DownloadRecordMapper.class))
+                        .updateRowCount(((DownloadRecord) wrapper.getMsg()).getId(), wrapper.getRows());
+            } else if (wrapper.getAction() == ActionEnum.SHAREDOWNLOAD && wrapper.getMsg() instanceof ShareDownloadRecord) {
+                ((ShareDownloadRecordMapper) SpringContextHolder.getBean(ShareDownloadRecordMapper.class))
+                        .updateRowCount(((ShareDownloadRecord) wrapper.getMsg()).getId(), wrapper.getRows());
+            }
+        } catch (Exception e) {
+            log.warn("update download progress error: {}", e.getMessage());
+        }
+    }
 
     protected void tell(MsgWrapper wrapper) {
         if (wrapper == null || wrapper.getMsg() == null) {
@@ -54,6 +71,7 @@ public abstract class MsgNotifier {
                     log.error("DownloadAction record is null,nothing to do");
                     break;
                 }
+                record.setRowCount(wrapper.getRows());
                 if (StringUtils.isNotEmpty(wrapper.getRst())) {
                     record.setStatus(DownloadTaskStatus.SUCCESS.getStatus());
                     record.setPath(wrapper.getRst());
@@ -87,6 +105,7 @@ public abstract class MsgNotifier {
                     break;
                 }
 
+                shareDownloadRecord.setRowCount(wrapper.getRows());
                 if (StringUtils.isNotEmpty(wrapper.getRst())) {
                     shareDownloadRecord.setStatus(DownloadTaskStatus.SUCCESS.getStatus());
                     shareDownloadRecord.setPath(wrapper.getRst());
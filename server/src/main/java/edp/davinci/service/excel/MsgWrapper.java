@@ -22,6 +22,8 @@ package edp.davinci.service.excel;
 import edp.davinci.core.enums.ActionEnum;
 import lombok.ToString;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Created by IntelliJ IDEA.
  *
@@ -42,6 +44,11 @@ public class MsgWrapper<T> {
 
     public String xUUID;
 
+    /**
+     * 各 sheet 已写出的行数之和
+     */
+    private final AtomicLong rows = new AtomicLong();
+
     public MsgWrapper(T msg, ActionEnum action, Long xId) {
         this.msg=msg;
         this.action=action;
@@ -93,4 +100,12 @@ public class MsgWrapper<T> {
     public void setxUUID(String xUUID) {
         this.xUUID = xUUID;
     }
+
+    public long addRows(long delta) {
+        return rows.addAndGet(delta);
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
 }
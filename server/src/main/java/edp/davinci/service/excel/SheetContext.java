@@ -19,14 +19,14 @@
 
 package edp.davinci.service.excel;
 
+import edp.core.common.jdbc.ResultRowHandler;
 import edp.core.model.QueryColumn;
 import edp.core.utils.SqlUtils;
 import edp.davinci.core.model.ExcelHeader;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 
 import java.io.Serializable;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Created by IntelliJ IDEA.
@@ -41,8 +41,8 @@ public class SheetContext implements Serializable {
     private List<QueryColumn> totalColumns;
     private List<QueryColumn> queryColumns;
     private List<String> excludeColumns;
-    private Sheet sheet;
-    private Workbook workbook;
+    private SheetPartWriter part;
+    private WorkbookStyles.SheetStyles styles;
     private Boolean contain;
     private SqlUtils sqlUtils;
     private Boolean isTable;
@@ -53,14 +53,18 @@ public class SheetContext implements Serializable {
     private int sheetNo;
     private MsgWrapper wrapper;
     private int resultLimit;
+    /**
+     * Hive 数据源的结果由 Linkis 结果集文件逐行回调，不经过 jdbcTemplate
+     */
+    private transient Consumer<ResultRowHandler> streamer;
 
     private SheetContext(List<String> executeSql,
                          List<String> querySql,
                          List<QueryColumn> totalColumns,
                          List<QueryColumn> queryColumns,
                          List<String> excludeColumns,
-                         Sheet sheet,
-                         Workbook workbook,
+                         SheetPartWriter part,
+                         WorkbookStyles.SheetStyles styles,
                          Boolean contain,
                          SqlUtils sqlUtils,
                          Boolean isTable,
@@ -70,14 +74,15 @@ public class SheetContext implements Serializable {
                          String name,
                          int sheetNo,
                          MsgWrapper wrapper,
-                         int resultLimit) {
+                         int resultLimit,
+                         Consumer<ResultRowHandler> streamer) {
         this.executeSql = executeSql;
         this.querySql = querySql;
         this.totalColumns = totalColumns;
         this.queryColumns = queryColumns;
         this.excludeColumns = excludeColumns;
-        this.sheet = sheet;
-        this.workbook = workbook;
+        this.part = part;
+        this.styles = styles;
         this.contain = contain;
         this.sqlUtils = sqlUtils;
         this.isTable = isTable;
@@ -88,6 +93,7 @@ public class SheetContext implements Serializable {
         this.sheetNo = sheetNo;
         this.wrapper = wrapper;
         this.resultLimit = resultLimit;
+        this.streamer = streamer;
     }
 
     public static SheetContextBuilder newSheetContextBuilder() {
@@ -134,20 +140,20 @@ public class SheetContext implements Serializable {
         this.excludeColumns = excludeColumns;
     }
 
-    public Sheet getSheet() {
-        return sheet;
+    public SheetPartWriter getPart() {
+        return part;
     }
 
-    public void setSheet(Sheet sheet) {
-        this.sheet = sheet;
+    public void setPart(SheetPartWriter part) {
+        this.part = part;
     }
 
-    public Workbook getWorkbook() {
-        return workbook;
+    public WorkbookStyles.SheetStyles getStyles() {
+        return styles;
     }
 
-    public void setWorkbook(Workbook workbook) {
-        this.workbook = workbook;
+    public void setStyles(WorkbookStyles.SheetStyles styles) {
+        this.styles = styles;
     }
 
     public Boolean getContain() {
@@ -206,6 +212,10 @@ public class SheetContext implements Serializable {
         this.name = name;
     }
 
+    public String getSheetName() {
+        return sheetNo + "-" + name;
+    }
+
     public int getSheetNo() {
         return sheetNo;
     }
@@ -230,6 +240,14 @@ public class SheetContext implements Serializable {
         this.resultLimit = resultLimit;
     }
 
+    public Consumer<ResultRowHandler> getStreamer() {
+        return streamer;
+    }
+
+    public void setStreamer(Consumer<ResultRowHandler> streamer) {
+        this.streamer = streamer;
+    }
+
     @Override
     public String toString() {
         return "SheetContext{" +
@@ -238,7 +256,7 @@ public class SheetContext implements Serializable {
                 ", totalColumns=" + totalColumns +
                 ", queryColumns=" + queryColumns +
                 ", excludeColumns=" + excludeColumns +
-                ", sheet=" + sheet.getSheetName() +
+                ", sheet=" + getSheetName() +
                 ", contain=" + contain +
                 ", isTable=" + isTable +
                 ", excelHeaders=" + excelHeaders +
@@ -254,8 +272,8 @@ public class SheetContext implements Serializable {
         private List<String> executeSql;
         private List<String> querySql;
         List<String> excludeColumns;
-        private Sheet sheet;
-        private Workbook workbook;
+        private SheetPartWriter part;
+        private WorkbookStyles.SheetStyles styles;
         private Boolean contain;
         private SqlUtils sqlUtils;
         private Boolean isTable;
@@ -266,6 +284,7 @@ public class SheetContext implements Serializable {
         private int sheetNo;
         private MsgWrapper wrapper;
         private int resultLimit;
+        private Consumer<ResultRowHandler> streamer;
 
         public SheetContextBuilder() {
         }
@@ -286,13 +305,13 @@ public class SheetContext implements Serializable {
         }
 
 
-        public SheetContextBuilder buildSheet(Sheet sheet) {
-            this.sheet = sheet;
+        public SheetContextBuilder buildPart(SheetPartWriter part) {
+            this.part = part;
             return this;
         }
 
-        public SheetContextBuilder buildWorkbook(Workbook workbook) {
-            this.workbook = workbook;
+        public SheetContextBuilder buildStyles(WorkbookStyles.SheetStyles styles) {
+            this.styles = styles;
             return this;
         }
 
@@ -346,6 +365,11 @@ public class SheetContext implements Serializable {
             return this;
         }
 
+        public SheetContextBuilder buildStreamer(Consumer<ResultRowHandler> streamer) {
+            this.streamer = streamer;
+            return this;
+        }
+
 
         public SheetContext build() {
             return new SheetContext(
@@ -354,8 +378,8 @@ public class SheetContext implements Serializable {
                     null,
                     null,
                     this.excludeColumns,
-                    this.sheet,
-                    this.workbook,
+                    this.part,
+                    this.styles,
                     this.contain,
                     this.sqlUtils,
                     this.isTable,
@@ -365,7 +389,8 @@ public class SheetContext implements Serializable {
                     this.name,
                     this.sheetNo,
                     this.wrapper,
-                    this.resultLimit
+                    this.resultLimit,
+                    this.streamer
             );
         }
 
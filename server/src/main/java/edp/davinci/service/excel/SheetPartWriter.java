@@ -0,0 +1,266 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.IOUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单个 sheet 的数据部件：sheetData 中的行直接以 XML 流式写入独立的临时文件，
+ * 只由所属的 sheet 线程写入，最终由 workbook 线程拼接进 xlsx 的 worksheet 部件
+ */
+@Slf4j
+public class SheetPartWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_COLUMN_WIDTH = 255;
+
+    private final File file;
+
+    private final Writer out;
+
+    private final List<CellRangeAddress> mergedRegions = new ArrayList<>();
+
+    private String[] columnRefs = new String[0];
+
+    private int[] columnWidths = new int[0];
+
+    private int rowNum = 0;
+
+    private String rowRef;
+
+    private boolean closed = false;
+
+    public SheetPartWriter() throws IOException {
+        this.file = File.createTempFile("visualis-sheet-", ".xml");
+        this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * 开始下一行，返回行号（从 0 开始）
+     */
+    public int startRow() throws IOException {
+        endRow();
+        rowRef = Integer.toString(++rowNum);
+        out.write("<row r=\"");
+        out.write(rowRef);
+        out.write("\">");
+        return rowNum - 1;
+    }
+
+    public void writeString(int col, String value, int style) throws IOException {
+        startCell(col, style);
+        out.write(" t=\"inlineStr\"><is><t xml:space=\"preserve\">");
+        writeEscaped(value);
+        out.write("</t></is></c>");
+    }
+
+    public void writeNumber(int col, double value, int style) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeString(col, Double.toString(value), style);
+            return;
+        }
+        startCell(col, style);
+        out.write("><v>");
+        out.write(Double.toString(value));
+        out.write("</v></c>");
+    }
+
+    public void writeBlank(int col, int style) throws IOException {
+        startCell(col, style);
+        out.write("/>");
+    }
+
+    public void addMergedRegion(CellRangeAddress region) {
+        mergedRegions.add(region);
+    }
+
+    /**
+     * 列宽，单位为字符数，0 为默认宽度
+     */
+    public void setColumnWidths(int[] columnWidths) {
+        this.columnWidths = columnWidths;
+    }
+
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            endRow();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * 关闭并删除临时文件
+     */
+    public void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            log.warn("close sheet part {} error: {}", file.getName(), e.getMessage());
+        }
+        if (file.exists() && !file.delete()) {
+            log.warn("sheet part {} can not be deleted", file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * 以模板 worksheet XML 为骨架，替换其中的 sheetData 并补充列宽与合并单元格后写出
+     *
+     * @param template 模板 workbook 中对应的 worksheet 部件
+     * @param os       目标 xlsx 的 zip 条目流，不会被关闭
+     */
+    public void writeSheet(InputStream template, OutputStream os) throws IOException {
+        close();
+        String xml = new String(IOUtils.toByteArray(template), StandardCharsets.UTF_8);
+        int start = xml.indexOf("<sheetData");
+        if (start < 0) {
+            throw new IOException("sheetData not found in worksheet template");
+        }
+        int tagEnd = xml.indexOf('>', start);
+        int end;
+        if (xml.charAt(tagEnd - 1) == '/') {
+            end = tagEnd + 1;
+        } else {
+            end = xml.indexOf("</sheetData>", tagEnd) + "</sheetData>".length();
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        writer.write(xml, 0, start);
+        writeCols(writer);
+        writer.write("<sheetData>");
+        writer.flush();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+            IOUtils.copy(in, os);
+        }
+        writer.write("</sheetData>");
+        writeMergeCells(writer);
+        writer.write(xml, end, xml.length() - end);
+        writer.flush();
+    }
+
+    private void endRow() throws IOException {
+        if (null != rowRef) {
+            out.write("</row>");
+            rowRef = null;
+        }
+    }
+
+    private void startCell(int col, int style) throws IOException {
+        out.write("<c r=\"");
+        out.write(columnRef(col));
+        out.write(rowRef);
+        out.write('"');
+        if (style > 0) {
+            out.write(" s=\"");
+            out.write(Integer.toString(style));
+            out.write('"');
+        }
+    }
+
+    private String columnRef(int col) {
+        if (col >= columnRefs.length) {
+            String[] refs = new String[Math.max(col + 1, columnRefs.length * 2)];
+            System.arraycopy(columnRefs, 0, refs, 0, columnRefs.length);
+            columnRefs = refs;
+        }
+        String ref = columnRefs[col];
+        if (null == ref) {
+            ref = CellReference.convertNumToColString(col);
+            columnRefs[col] = ref;
+        }
+        return ref;
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '<':
+                    out.write("&lt;");
+                    break;
+                case '>':
+                    out.write("&gt;");
+                    break;
+                case '&':
+                    out.write("&amp;");
+                    break;
+                case '"':
+                    out.write("&quot;");
+                    break;
+                case '\t':
+                case '\n':
+                case '\r':
+                    out.write(c);
+                    break;
+                default:
+                    //XML 1.0 不允许的控制字符
+                    out.write(c < 0x20 || c == 0xFFFE || c == 0xFFFF ? '?' : c);
+                    break;
+            }
+        }
+    }
+
+    private void writeCols(Writer writer) throws IOException {
+        boolean started = false;
+        for (int i = 0; i < columnWidths.length; i++) {
+            if (columnWidths[i] <= 0) {
+                continue;
+            }
+            if (!started) {
+                writer.write("<cols>");
+                started = true;
+            }
+            writer.write("<col min=\"" + (i + 1) + "\" max=\"" + (i + 1) + "\" width=\""
+                    + Math.min(columnWidths[i], MAX_COLUMN_WIDTH) + "\" customWidth=\"1\"/>");
+        }
+        if (started) {
+            writer.write("</cols>");
+        }
+    }
+
+    private void writeMergeCells(Writer writer) throws IOException {
+        if (mergedRegions.isEmpty()) {
+            return;
+        }
+        writer.write("<mergeCells count=\"" + mergedRegions.size() + "\">");
+        for (CellRangeAddress region : mergedRegions) {
+            writer.write("<mergeCell ref=\"" + region.formatAsString() + "\"/>");
+        }
+        writer.write("</mergeCells>");
+    }
+}
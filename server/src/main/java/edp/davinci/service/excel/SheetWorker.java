@@ -20,16 +20,23 @@
 package edp.davinci.service.excel;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Maps;
+import edp.core.common.jdbc.CancellableJdbcTemplate;
+import edp.core.common.jdbc.ResultRowHandler;
+import edp.core.common.query.QueryScheduler;
+import edp.core.enums.QueryPriorityEnum;
 import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.SqlUtils;
+import edp.davinci.core.config.SpringContextHolder;
 import edp.davinci.core.enums.ActionEnum;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.ResultSetMetaData;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -51,6 +58,8 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
 
     private int maxRows = 1000000;
 
+    private static final int PROGRESS_ROWS = 10000;
+
     public SheetWorker(SheetContext context) {
         this.context = context;
     }
@@ -60,37 +69,39 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
         Stopwatch watch = Stopwatch.createStarted();
         Boolean rst = true;
         try {
-            JdbcTemplate template = context.getSqlUtils().jdbcTemplate();
-            propertiesSet(template);
-            buildQueryColumn(template);
-            super.init(context);
-            super.writeHeader(context);
-            template.setMaxRows(context.getResultLimit() > 0 && context.getResultLimit() <= maxRows ? context.getResultLimit() : maxRows);
-            template.setFetchSize(500);
-
-            String sql = context.getQuerySql().get(context.getQuerySql().size() - 1);
-            Set<String> queryFromsAndJoins = SqlUtils.getQueryFromsAndJoins(sql);
-            template.query(sql, rs -> {
-                Map<String, Object> dataMap = Maps.newHashMap();
-                for (int i = 1; i <= rs.getMetaData().getColumnCount(); i++) {
-                    dataMap.put(SqlUtils.getColumnLabel(queryFromsAndJoins, rs.getMetaData().getColumnLabel(i)), rs.getObject(rs.getMetaData().getColumnLabel(i)));
+            //导出与定时邮件的查询优先级低于交互查询，共享数据源并发配额
+            QueryScheduler.setPriority(context.getWrapper().getAction() == ActionEnum.MAIL ? QueryPriorityEnum.SCHEDULE : QueryPriorityEnum.DOWNLOAD);
+            if (null != context.getStreamer()) {
+                //Hive 数据源：Linkis 任务只提交一次，结果集文件逐行写入
+                context.getStreamer().accept(new SheetRowHandler());
+                if (null == context.getQueryColumns()) {
+                    throw new IllegalArgumentException("can not find any QueryColumn,widgetId=" + context.getWidgetId());
                 }
-                writeLine(context, dataMap);
-            });
+            } else {
+                writeByJdbc();
+            }
             super.refreshHeightWidth(context);
         } catch (Exception e) {
             log.error("sheet worker error,context=" + context.toString(), e);
             rst = false;
+        } finally {
+            QueryScheduler.clearPriority();
+            try {
+                context.getPart().close();
+            } catch (Exception e) {
+                log.error("close sheet part error,context=" + context.toString(), e);
+                rst = false;
+            }
         }
 
         if (context.getWrapper().getAction() == ActionEnum.DOWNLOAD) {
             Object[] args = {rst, context.getWrapper().getAction(), context.getWrapper().getxId(),
-                    context.getSheet().getSheetName(), context.getDashboardId(), context.getWidgetId()
+                    context.getSheetName(), context.getDashboardId(), context.getWidgetId()
                     , watch.elapsed(TimeUnit.MILLISECONDS)};
             log.info("sheet worker complete status={},action={},xid={},sheetName={},dashboardId={},widgetId={},cost={}ms", args);
         } else if (context.getWrapper().getAction() == ActionEnum.SHAREDOWNLOAD) {
             Object[] args = {rst, context.getWrapper().getAction(), context.getWrapper().getxUUID(),
-                    context.getSheet().getSheetName(), context.getDashboardId(), context.getWidgetId()
+                    context.getSheetName(), context.getDashboardId(), context.getWidgetId()
                     , watch.elapsed(TimeUnit.MILLISECONDS)};
             log.info("sheet worker complete status={},action={},xUUID={},sheetName={},dashboardId={},widgetId={},cost={}ms", args);
         }
@@ -99,6 +110,106 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
     }
 
 
+    private void writeByJdbc() throws Exception {
+        CancellableJdbcTemplate template = context.getSqlUtils().jdbcTemplate();
+        propertiesSet(template);
+        buildQueryColumn(template);
+        super.init(context);
+        super.writeHeader(context);
+
+        String sql = context.getQuerySql().get(context.getQuerySql().size() - 1);
+        Set<String> queryFromsAndJoins = SqlUtils.getQueryFromsAndJoins(sql);
+        SqlUtils sqlUtils = context.getSqlUtils();
+        QueryScheduler queryScheduler = SpringContextHolder.getBean(QueryScheduler.class);
+        queryScheduler.execute(sqlUtils.getSourceKey(), sqlUtils.getMaxActive(), null, null, () -> {
+            return template.query(sql, getRowLimit(), 500, rs -> {
+                //列序号只解析一次，逐行按序号读取；列名重复时取最后一列
+                ResultSetMetaData metaData = rs.getMetaData();
+                Map<String, Integer> ordinals = new HashMap<>();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    ordinals.put(SqlUtils.getColumnLabel(queryFromsAndJoins, metaData.getColumnLabel(i)), i);
+                }
+                initColumnPlan(context, ordinals);
+                try {
+                    while (rs.next()) {
+                        writeRow(context, rs);
+                        progress();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+        });
+    }
+
+    private int getRowLimit() {
+        return context.getResultLimit() > 0 && context.getResultLimit() <= maxRows ? context.getResultLimit() : maxRows;
+    }
+
+    private void progress() {
+        if (context.getWrapper().addRows(1) % PROGRESS_ROWS == 0) {
+            MsgNotifier.progress(context.getWrapper());
+        }
+    }
+
+    /**
+     * 结果集文件的列在第一行之前回调，此时写表头并生成列计划
+     */
+    private class SheetRowHandler implements ResultRowHandler {
+
+        private final int rowLimit = getRowLimit();
+
+        private int rows;
+
+        @Override
+        public void onColumns(List<QueryColumn> columns) throws IOException {
+            List<QueryColumn> queryColumns = new ArrayList<>();
+            Map<String, Integer> ordinals = new HashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                QueryColumn column = columns.get(i);
+                ordinals.put(column.getName(), i + 1);
+                if (!CollectionUtils.isEmpty(context.getExcludeColumns()) && context.getExcludeColumns().contains(column.getName())) {
+                    continue;
+                }
+                queryColumns.add(new QueryColumn(column.getName(), column.getType()));
+            }
+            if (CollectionUtils.isEmpty(queryColumns)) {
+                throw new IllegalArgumentException("can not find any QueryColumn,widgetId=" + context.getWidgetId());
+            }
+            context.setTotalColumns(new ArrayList<>(columns));
+            context.setQueryColumns(queryColumns);
+            try {
+                init(context);
+                writeHeader(context);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            initColumnPlan(context, ordinals);
+        }
+
+        @Override
+        public void onRow(Object[] values) throws IOException {
+            if (rows >= rowLimit) {
+                return;
+            }
+            writeRow(context, values);
+            rows++;
+            progress();
+        }
+
+        @Override
+        public boolean needTotalCount() {
+            return false;
+        }
+
+        @Override
+        public void onComplete(int pageNo, int pageSize, long totalCount) {
+        }
+    }
+
     private void propertiesSet(JdbcTemplate template) {
         if (!CollectionUtils.isEmpty(context.getExecuteSql())) {
             context.getExecuteSql().stream().filter(x -> x != null).forEach(x -> {
@@ -116,12 +227,11 @@ public class SheetWorker<T> extends AbstractSheetWriter implements Callable {
         }
     }
 
-    private void buildQueryColumn(JdbcTemplate template) {
-        template.setMaxRows(1);
+    private void buildQueryColumn(CancellableJdbcTemplate template) {
         String sql = context.getQuerySql().get(context.getQuerySql().size() - 1);
         sql = String.format(QUERY_META_SQL, sql);
         Set<String> queryFromsAndJoins = SqlUtils.getQueryFromsAndJoins(sql);
-        template.query(sql, rs -> {
+        template.query(sql, 1, rs -> {
             ResultSetMetaData metaData = rs.getMetaData();
             List<QueryColumn> totalColumns = new ArrayList<>();
             List<QueryColumn> queryColumns = new ArrayList<>();
@@ -0,0 +1,155 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import com.alibaba.druid.util.StringUtils;
+import edp.davinci.core.enums.NumericUnitEnum;
+import edp.davinci.core.model.ExcelHeader;
+import edp.davinci.core.model.FieldCurrency;
+import edp.davinci.core.model.FieldNumeric;
+import edp.davinci.core.utils.ExcelUtils;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 导出 workbook 的样式表，在提交 sheet 任务前由 workbook 线程统一创建；
+ * sheet 线程只持有样式序号，不再访问 workbook
+ */
+public class WorkbookStyles {
+
+    private final Workbook workbook;
+
+    private final DataFormat format;
+
+    private final short header;
+
+    private final short text;
+
+    private final short general;
+
+    //相同数据格式的列共用一个样式
+    private final Map<String, Short> formatStyles = new HashMap<>();
+
+    public WorkbookStyles(Workbook workbook) {
+        this.workbook = workbook;
+        this.format = workbook.createDataFormat();
+
+        //默认格式
+        CellStyle textStyle = workbook.createCellStyle();
+        textStyle.setDataFormat(format.getFormat("@"));
+        this.text = textStyle.getIndex();
+
+        //常规格式
+        CellStyle generalStyle = workbook.createCellStyle();
+        generalStyle.setDataFormat(format.getFormat("General"));
+        this.general = generalStyle.getIndex();
+
+        //表头格式 粗体居中
+        CellStyle headerStyle = workbook.createCellStyle();
+        Font font = workbook.createFont();
+        font.setFontName("黑体");
+        font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+        headerStyle.setFont(font);
+        headerStyle.setDataFormat(format.getFormat("@"));
+        headerStyle.setAlignment(CellStyle.ALIGN_CENTER);
+        headerStyle.setVerticalAlignment(CellStyle.VERTICAL_CENTER);
+        this.header = headerStyle.getIndex();
+    }
+
+    /**
+     * 按表头配置生成 sheet 的列数据格式与数值单位
+     *
+     * @param excelHeaders
+     * @return
+     */
+    public SheetStyles map(List<ExcelHeader> excelHeaders) {
+        Map<String, Short> columnStyles = new HashMap<>();
+        Map<String, NumericUnitEnum> units = new HashMap<>();
+        if (null != excelHeaders) {
+            for (ExcelHeader excelHeader : excelHeaders) {
+                Object o = excelHeader.getFormat();
+                if (null == o) {
+                    continue;
+                }
+                //设置列货币数值的单位
+                if (o instanceof FieldNumeric || o instanceof FieldCurrency) {
+                    FieldNumeric fieldNumeric = (FieldNumeric) o;
+                    if (null != fieldNumeric.getUnit()) {
+                        units.put(excelHeader.getKey(), fieldNumeric.getUnit());
+                    }
+                }
+                //设置列数据格式
+                String dataFormat = ExcelUtils.getDataFormat(o);
+                if (!StringUtils.isEmpty(dataFormat)) {
+                    columnStyles.put(excelHeader.getKey(), formatStyles.computeIfAbsent(dataFormat, x -> {
+                        CellStyle dataStyle = workbook.createCellStyle();
+                        dataStyle.setDataFormat(format.getFormat(x));
+                        return dataStyle.getIndex();
+                    }));
+                }
+            }
+        }
+        return new SheetStyles(header, text, general, columnStyles, units);
+    }
+
+
+    public static class SheetStyles {
+        private final short header;
+        private final short text;
+        private final short general;
+        private final Map<String, Short> columnStyles;
+        private final Map<String, NumericUnitEnum> units;
+
+        SheetStyles(short header, short text, short general, Map<String, Short> columnStyles, Map<String, NumericUnitEnum> units) {
+            this.header = header;
+            this.text = text;
+            this.general = general;
+            this.columnStyles = Collections.unmodifiableMap(columnStyles);
+            this.units = Collections.unmodifiableMap(units);
+        }
+
+        public short getHeader() {
+            return header;
+        }
+
+        public short getText() {
+            return text;
+        }
+
+        /**
+         * 列的数值样式，未配置数据格式时为常规格式
+         */
+        public short getColumnStyle(String column) {
+            Short style = columnStyles.get(column);
+            return null == style ? general : style;
+        }
+
+        public NumericUnitEnum getUnit(String column) {
+            return units.get(column);
+        }
+    }
+}
@@ -21,6 +21,8 @@ package edp.davinci.service.excel;
 
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.Lists;
+import com.webank.wedatasphere.dss.visualis.utils.VisualisUtils;
+import edp.core.common.jdbc.ResultRowHandler;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.FileUtils;
 import edp.core.utils.SqlUtils;
@@ -33,18 +35,25 @@ import edp.davinci.core.utils.ExcelUtils;
 import edp.davinci.dao.ViewMapper;
 import edp.davinci.dto.viewDto.ViewExecuteParam;
 import edp.davinci.dto.viewDto.ViewWithProjectAndSource;
+import edp.davinci.model.User;
 import edp.davinci.service.ViewService;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
-import java.io.FileOutputStream;
+import java.io.*;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Created by IntelliJ IDEA.
@@ -68,24 +77,31 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
     @Override
     public T call() throws Exception {
         Stopwatch watch = Stopwatch.createStarted();
-        Workbook wb = null;
+        XSSFWorkbook template = null;
+        List<SheetContext> sheetContextList = null;
         log.info("workbook worker start: action={}, xid={}", context.getWrapper().getAction(), context.getWrapper().getxId());
         String filePath = null;
         try {
-            List<SheetContext> sheetContextList = buildSheetContextList();
+            sheetContextList = buildSheetContextList();
             if (CollectionUtils.isEmpty(sheetContextList)) {
                 throw new IllegalArgumentException("sheetContextList is empty");
             }
-            wb = new SXSSFWorkbook(1000);
-            List<Future> futures = Lists.newArrayList();
+            //模板 workbook 只在当前线程创建 sheet 与样式，各 sheet 线程写入各自的数据部件
+            template = new XSSFWorkbook();
+            WorkbookStyles styles = new WorkbookStyles(template);
+            Map<String, SheetPartWriter> sheetParts = new HashMap<>();
             int sheetNo = 0;
             for (SheetContext sheetContext : sheetContextList) {
                 sheetNo++;
-                String name = sheetNo + "-" + sheetContext.getName();
-                Sheet sheet = wb.createSheet(name);
-                sheetContext.setSheet(sheet);
-                sheetContext.setWorkbook(wb);
                 sheetContext.setSheetNo(sheetNo);
+                XSSFSheet sheet = template.createSheet(sheetContext.getSheetName());
+                sheet.setDefaultRowHeight((short) (20 * 20));
+                sheetContext.setStyles(styles.map(sheetContext.getExcelHeaders()));
+                sheetContext.setPart(new SheetPartWriter());
+                sheetParts.put(sheet.getPackagePart().getPartName().getName().substring(1), sheetContext.getPart());
+            }
+            List<Future> futures = Lists.newArrayList();
+            for (SheetContext sheetContext : sheetContextList) {
                 Future<Boolean> future = ExecutorUtil.submitSheetTask(sheetContext);
                 futures.add(future);
             }
@@ -95,19 +111,12 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
             }
             if (rst) {
                 filePath = ((FileUtils) SpringContextHolder.getBean(FileUtils.class)).getFilePath(FileTypeEnum.XLSX, this.context.getWrapper());
-                FileOutputStream out = null;
                 try {
-                    out = new FileOutputStream(filePath);
-                    wb.write(out);
-                    out.flush();
-                    out.close();
+                    assemble(template, sheetParts, filePath);
                 } catch (Exception e) {
+                    FileUtils.delete(filePath);
                     filePath = null;
                     throw e;
-                } finally {
-                    if (out != null) {
-                        out.close();
-                    }
                 }
                 context.getWrapper().setRst(filePath);
             } else {
@@ -121,7 +130,10 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                 FileUtils.delete(filePath);
             }
         } finally {
-            wb = null;
+            if (null != sheetContextList) {
+                sheetContextList.stream().filter(x -> null != x.getPart()).forEach(x -> x.getPart().delete());
+            }
+            template = null;
         }
         if (context.getWrapper().getAction() == ActionEnum.DOWNLOAD) {
             Object[] args = {StringUtils.isNotEmpty(filePath), context.getWrapper().getAction(), context.getWrapper().getxId(), filePath, watch.elapsed(TimeUnit.MILLISECONDS)};
@@ -134,6 +146,28 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
     }
 
 
+    /**
+     * 将模板 workbook 写出后逐个复制 zip 条目，worksheet 条目替换为对应 sheet 的数据部件
+     */
+    static void assemble(XSSFWorkbook template, Map<String, SheetPartWriter> sheetParts, String filePath) throws IOException {
+        ByteArrayOutputStream templateOut = new ByteArrayOutputStream();
+        template.write(templateOut);
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(templateOut.toByteArray()));
+             ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(filePath)))) {
+            ZipEntry entry;
+            while (null != (entry = zis.getNextEntry())) {
+                zos.putNextEntry(new ZipEntry(entry.getName()));
+                SheetPartWriter part = sheetParts.get(entry.getName());
+                if (null == part) {
+                    IOUtils.copy(zis, zos);
+                } else {
+                    part.writeSheet(zis, zos);
+                }
+                zos.closeEntry();
+            }
+        }
+    }
+
     private List<SheetContext> buildSheetContextList() throws Exception {
         List<SheetContext> sheetContextList = Lists.newArrayList();
         for (WidgetContext context : context.getWidgets()) {
@@ -154,6 +188,22 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
 
             SqlUtils sqlUtils = ((SqlUtils) SpringContextHolder.getBean(SqlUtils.class)).init(viewWithProjectAndSource.getSource());
 
+            //Hive 数据源只提交一次 Linkis 任务，由结果集文件逐行写入 sheet
+            Consumer<ResultRowHandler> streamer = null;
+            if (VisualisUtils.isHiveDataSource(viewWithProjectAndSource.getSource())) {
+                ViewExecuteParam streamParam = executeParam;
+                streamParam.setPageNo(-1);
+                streamParam.setPageSize(-1);
+                int resultLimit = this.context.getResultLimit();
+                if (resultLimit > 0 && (streamParam.getLimit() <= 0 || streamParam.getLimit() > resultLimit)) {
+                    streamParam.setLimit(resultLimit);
+                }
+                boolean isMaintainer = context.getIsMaintainer();
+                User user = this.context.getUser();
+                streamer = handler -> ((ViewService) SpringContextHolder.getBean(ViewService.class))
+                        .streamResultData(isMaintainer, viewWithProjectAndSource, streamParam, user, handler);
+            }
+
             boolean isTable;
             List<ExcelHeader> excelHeaders = null;
             if (isTable = ExcelUtils.isTable(context.getWidget().getConfig())) {
@@ -173,6 +223,7 @@ public class WorkbookWorker<T> extends MsgNotifier implements Callable {
                     .buildName(context.getWidget().getName())
                     .buildWrapper(this.context.getWrapper())
                     .buildResultLimist(this.context.getResultLimit())
+                    .buildStreamer(streamer)
                     .build();
             sheetContextList.add(sheetContext);
         }
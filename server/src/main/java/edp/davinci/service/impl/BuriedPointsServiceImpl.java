@@ -3,7 +3,7 @@ package edp.davinci.service.impl;
 import edp.core.model.QueryColumn;
 import edp.core.model.TableInfo;
 import edp.core.utils.SqlUtils;
-import edp.davinci.core.common.Constants;
+import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.service.BuriedPointsService;
 import edp.davinci.service.elastic.ElasticOperationService;
 import lombok.extern.slf4j.Slf4j;
@@ -14,7 +14,6 @@ import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
-import org.stringtemplate.v4.STGroupFile;
 
 import javax.annotation.PostConstruct;
 import java.lang.reflect.Method;
@@ -99,7 +98,7 @@ public class BuriedPointsServiceImpl implements BuriedPointsService {
     private String getInsertSql(Class clz, Set<QueryColumn> headers){
         String tableName = getTableName4Info(clz);
 
-        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        STGroup stg = SqlParseUtils.getSqlTemplateGroup();
         ST st = stg.getInstanceOf("insertData");
         st.add("tableName", tableName);
         st.add("columns", headers);
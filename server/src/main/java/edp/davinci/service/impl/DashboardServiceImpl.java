@@ -21,43 +21,72 @@ package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
 import com.alibaba.fastjson.JSON;
+import com.webank.wedatasphere.dss.visualis.utils.VisualisUtils;
+import edp.core.common.cache.ResultCache;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.query.CancellationTicket;
+import edp.core.common.query.QueryCancellationRegistry;
+import edp.core.enums.HttpCodeEnum;
 import edp.core.exception.NotFoundException;
+import edp.core.exception.QueryCancelledException;
+import edp.core.exception.QueryRejectedException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedExecption;
+import edp.core.model.PaginateWithQueryColumns;
 import edp.core.utils.CollectionUtils;
+import edp.davinci.common.utils.ScriptUtiils;
+import edp.davinci.core.common.DashboardDataWriter;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
 import edp.davinci.core.enums.VizEnum;
+import edp.davinci.core.model.MergedViewQuery;
+import edp.davinci.core.model.PermissionSnapshot;
+import edp.davinci.core.service.PermissionSnapshotCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.dashboardDto.*;
 import edp.davinci.dto.projectDto.ProjectDetail;
 import edp.davinci.dto.projectDto.ProjectPermission;
 import edp.davinci.dto.roleDto.VizVisibility;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import edp.davinci.dto.viewDto.ViewWithSource;
 import edp.davinci.model.*;
 import edp.davinci.service.DashboardService;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.ShareService;
+import edp.davinci.service.ViewService;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.script.ScriptEngine;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 import static edp.core.consts.Consts.COMMA;
+import static edp.core.consts.Consts.EMPTY;
+import static edp.core.consts.Consts.MINUS;
 
 @Slf4j
 @Service("dashboardService")
 public class DashboardServiceImpl extends VizCommonService implements DashboardService {
     private static final Logger optLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_OPERATION.getName());
 
+    public static final String DASHBOARD_DATA = "dashboard-data";
+
     @Autowired
     private ProjectService projectService;
 
+    @Autowired
+    private PermissionSnapshotCache permissionSnapshotCache;
+
     @Autowired
     private DashboardPortalMapper dashboardPortalMapper;
 
@@ -76,6 +105,33 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
     @Autowired
     private ShareService shareService;
 
+    @Autowired
+    private ViewService viewService;
+
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
+    /**
+     * 单个批量取数请求同时执行的查询数
+     */
+    @Value("${source.dashboard-data.parallelism:4}")
+    private int dataParallelism;
+
+    @Value("${source.dashboard-data.pool-size:16}")
+    private int dataPoolSize;
+
+    @Value("${source.dashboard-data.queue-capacity:256}")
+    private int dataQueueCapacity;
+
+    /**
+     * 同一 view 上只在分组 / 聚合上不同的组件合并查询
+     */
+    @Value("${source.dashboard-data.merge:true}")
+    private boolean dataMerge;
+
+    @Value("${source.result-limit:1000000}")
+    private int resultLimit;
+
 
     @Override
     public synchronized boolean isExist(String name, Long id, Long portalId) {
@@ -198,6 +254,270 @@ public class DashboardServiceImpl extends VizCommonService implements DashboardS
         return dashboardWithMem;
     }
 
+    /**
+     * 批量获取dashboard下所有组件的数据：
+     * 权限只校验一次，同一 view 且参数相同的组件只查询一次，
+     * 查询按 dataParallelism 并发执行，每个组件完成后立即输出
+     *
+     * @param portalId
+     * @param dashboardId
+     * @param param
+     * @param user
+     * @param writer
+     */
+    @Override
+    public void streamDashboardData(Long portalId, Long dashboardId, DashboardDataParam param, User user, DashboardDataWriter writer) throws NotFoundException, UnAuthorizedExecption, ServerException, IOException {
+        DashboardWithMem dashboardWithMem = getDashboardMemWidgets(portalId, dashboardId, user);
+        if (null == dashboardWithMem) {
+            throw new UnAuthorizedExecption("you have not permission to view this dashboard");
+        }
+
+        DashboardPortal portal = dashboardPortalMapper.getById(dashboardWithMem.getDashboardPortalId());
+        PermissionSnapshot permission = permissionSnapshotCache.getSnapshot(portal.getProjectId(), user);
+        if (!permission.isAllowGetData()) {
+            throw new UnAuthorizedExecption("you have not permission to get data");
+        }
+        boolean maintainer = permission.isMaintainer();
+
+        Map<Long, MemDashboardWidget> relations = new LinkedHashMap<>();
+        dashboardWithMem.getWidgets().forEach(w -> relations.put(w.getId(), w));
+        Map<Long, Widget> widgets = new HashMap<>();
+        Set<Long> widgetIds = relations.values().stream().map(MemDashboardWidget::getWidgetId).collect(Collectors.toSet());
+        if (!CollectionUtils.isEmpty(widgetIds)) {
+            widgetMapper.getByIds(widgetIds).forEach(w -> widgets.put(w.getId(), w));
+        }
+
+        List<DashboardItemDataParam> items = null == param ? null : param.getItems();
+        if (CollectionUtils.isEmpty(items)) {
+            items = relations.keySet().stream().map(id -> {
+                DashboardItemDataParam item = new DashboardItemDataParam();
+                item.setItemId(id);
+                return item;
+            }).collect(Collectors.toList());
+        }
+
+        //按 view + 查询参数分组
+        Map<String, DashboardDataGroup> groups = new LinkedHashMap<>();
+        Map<Long, ViewWithSource> views = new HashMap<>();
+        ScriptEngine engine = null;
+        for (DashboardItemDataParam item : items) {
+            MemDashboardWidget relation = relations.get(item.getItemId());
+            Widget widget = null == relation ? null : widgets.get(relation.getWidgetId());
+            if (null == widget) {
+                writer.write(fail(new DashboardItemData(item.getItemId(), null), HttpCodeEnum.NOT_FOUND.getCode(), "dashboard item is not found"));
+                continue;
+            }
+
+            ViewWithSource viewWithSource = views.computeIfAbsent(widget.getViewId(), viewMapper::getViewWithSource);
+            if (null == viewWithSource || !Objects.equals(viewWithSource.getProjectId(), portal.getProjectId())) {
+                writer.write(fail(new DashboardItemData(item.getItemId(), widget.getId()), HttpCodeEnum.NOT_FOUND.getCode(), "view is not found"));
+                continue;
+            }
+
+            ViewExecuteParam executeParam = item.getExecuteParam();
+            if (null == executeParam) {
+                if (null == engine) {
+                    try {
+                        engine = ScriptUtiils.getExecuptParamScriptEngine();
+                    } catch (Exception e) {
+                        throw new ServerException(e.getMessage(), e);
+                    }
+                }
+                executeParam = ScriptUtiils.getViewExecuteParam(engine, dashboardWithMem.getConfig(), widget.getConfig(), relation.getId());
+            }
+
+            DashboardItemData data = new DashboardItemData(item.getItemId(), widget.getId());
+            if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+                //与 /getdata 一致：不查询，payload 为空
+                data.setCode(HttpCodeEnum.OK.getCode());
+                writer.write(data);
+                continue;
+            }
+
+            ViewExecuteParam groupParam = executeParam;
+            groups.computeIfAbsent(widget.getViewId() + MINUS + JSON.toJSONString(executeParam),
+                    k -> new DashboardDataGroup(viewWithSource, groupParam)).items.add(data);
+        }
+
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        List<DashboardDataGroup> tasks = mergeGroups(groups.values());
+        Map<Long, List<RelRoleView>> roleViews = new ConcurrentHashMap<>();
+        CompletionService<DashboardDataGroup> completionService = new ExecutorCompletionService<>(executorRegistry.get(DASHBOARD_DATA, dataPoolSize, dataQueueCapacity));
+        List<Future<DashboardDataGroup>> futures = new ArrayList<>();
+        Iterator<DashboardDataGroup> pending = tasks.iterator();
+        int running = 0;
+        boolean completed = false;
+        try {
+            while (running < Math.max(1, dataParallelism) && pending.hasNext()) {
+                futures.add(submitGroup(completionService, pending.next(), dashboardId, maintainer, user, roleViews));
+                running++;
+            }
+            while (running > 0) {
+                DashboardDataGroup done = completionService.take().get();
+                running--;
+                if (pending.hasNext()) {
+                    futures.add(submitGroup(completionService, pending.next(), dashboardId, maintainer, user, roleViews));
+                    running++;
+                }
+                for (DashboardDataGroup group : done.members.isEmpty() ? Collections.singletonList(done) : done.members) {
+                    for (DashboardItemData data : group.items) {
+                        if (null == group.error) {
+                            data.setCode(HttpCodeEnum.OK.getCode());
+                            data.setCache(group.cache);
+                            data.setPayload(group.paginate);
+                            writer.write(data);
+                        } else {
+                            writer.write(fail(data, getErrorCode(group.error), group.error.getMessage()));
+                        }
+                    }
+                }
+            }
+            completed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServerException(e.getMessage(), e);
+        } catch (ExecutionException e) {
+            throw new ServerException(e.getMessage(), e);
+        } finally {
+            if (!completed) {
+                //客户端断开等异常退出时不再执行剩余查询，并取消已在数据库上执行的查询
+                futures.forEach(f -> f.cancel(true));
+                tasks.stream().filter(group -> null != group.ticket).forEach(group -> group.ticket.cancel());
+            }
+        }
+    }
+
+    /**
+     * 每个查询绑定自己的取消 ticket，ticket 在执行线程上登记 JDBC Statement / Linkis 任务
+     */
+    private Future<DashboardDataGroup> submitGroup(CompletionService<DashboardDataGroup> completionService, DashboardDataGroup group,
+                                                   Long dashboardId, boolean maintainer, User user, Map<Long, List<RelRoleView>> roleViews) {
+        group.ticket = QueryCancellationRegistry.newTicket(DASHBOARD_DATA + MINUS + dashboardId + MINUS + group.viewWithSource.getId());
+        return completionService.submit(() -> QueryCancellationRegistry.call(group.ticket, () -> executeGroup(group, maintainer, user, roleViews)));
+    }
+
+    /**
+     * 同一 view 上筛选条件、参数及排序相同，只在分组 / 聚合上不同的组件合并为一次查询；
+     * 数据源不支持 GROUPING SETS 时只合并分组相同的组件
+     */
+    private List<DashboardDataGroup> mergeGroups(Collection<DashboardDataGroup> groups) {
+        List<DashboardDataGroup> tasks = new ArrayList<>();
+        Map<String, List<DashboardDataGroup>> candidates = new LinkedHashMap<>();
+        for (DashboardDataGroup group : groups) {
+            Source source = group.viewWithSource.getSource();
+            String mergeKey = !dataMerge || null == source || VisualisUtils.isHiveDataSource(source) ? null : MergedViewQuery.getMergeKey(group.executeParam);
+            if (null == mergeKey) {
+                tasks.add(group);
+                continue;
+            }
+            if (!MergedViewQuery.supportsGroupingSets(source.getJdbcUrl())) {
+                mergeKey = mergeKey + MINUS + (null == group.executeParam.getGroups() ? EMPTY : new TreeSet<>(group.executeParam.getGroups()).toString());
+            }
+            candidates.computeIfAbsent(group.viewWithSource.getId() + MINUS + mergeKey, k -> new ArrayList<>()).add(group);
+        }
+
+        candidates.values().forEach(list -> {
+            MergedViewQuery merge = MergedViewQuery.merge(list.stream().map(g -> g.executeParam).collect(Collectors.toList()),
+                    MergedViewQuery.supportsGroupingSets(list.get(0).viewWithSource.getSource().getJdbcUrl()));
+            if (null == merge) {
+                tasks.addAll(list);
+                return;
+            }
+            DashboardDataGroup task = new DashboardDataGroup(list.get(0).viewWithSource, merge.getExecuteParam());
+            task.merge = merge;
+            task.members.addAll(list);
+            tasks.add(task);
+        });
+        return tasks;
+    }
+
+    private DashboardDataGroup executeGroup(DashboardDataGroup group, boolean maintainer, User user, Map<Long, List<RelRoleView>> roleViews) {
+        if (null != group.merge) {
+            executeMerged(group, maintainer, user, roleViews);
+            return group;
+        }
+        // 执行线程被复用，读取前清除上一个查询留下的缓存状态
+        ResultCache.clearStatus();
+        try {
+            group.paginate = viewService.getResultDataList(maintainer, group.viewWithSource, group.executeParam, user, roleViews);
+        } catch (Exception e) {
+            log.warn("get data of view ({}) for dashboard error: {}", group.viewWithSource.getId(), e.getMessage());
+            group.error = e;
+        } finally {
+            group.cache = ResultCache.statusHeaders().getFirst(ResultCache.HEADER_CACHE_STATUS);
+        }
+        return group;
+    }
+
+    /**
+     * 执行合并查询并拆分到各组件；结果达到 resultLimit 可能被截断或拆分失败时各组件分别查询
+     */
+    private void executeMerged(DashboardDataGroup group, boolean maintainer, User user, Map<Long, List<RelRoleView>> roleViews) {
+        ResultCache.clearStatus();
+        try {
+            PaginateWithQueryColumns merged = viewService.getResultDataList(maintainer, group.viewWithSource, group.executeParam, user, roleViews);
+            String cache = ResultCache.statusHeaders().getFirst(ResultCache.HEADER_CACHE_STATUS);
+            if (null == merged || merged.getResultSize() < resultLimit) {
+                boolean split = true;
+                for (DashboardDataGroup member : group.members) {
+                    member.paginate = null == merged ? null : group.merge.split(merged, member.executeParam);
+                    member.cache = cache;
+                    split = split && (null == merged || null != member.paginate);
+                }
+                if (split) {
+                    return;
+                }
+            }
+        } catch (QueryRejectedException | QueryCancelledException e) {
+            group.members.forEach(member -> member.error = e);
+            return;
+        } catch (Exception e) {
+            log.warn("merged query of view ({}) error, execute separately: {}", group.viewWithSource.getId(), e.getMessage());
+        } finally {
+            ResultCache.clearStatus();
+        }
+        group.members.forEach(member -> executeGroup(member, maintainer, user, roleViews));
+    }
+
+    private static int getErrorCode(Exception e) {
+        if (e instanceof QueryRejectedException) {
+            return HttpStatus.TOO_MANY_REQUESTS.value();
+        }
+        if (e instanceof UnAuthorizedExecption) {
+            return HttpCodeEnum.UNAUTHORIZED.getCode();
+        }
+        if (e instanceof NotFoundException) {
+            return HttpCodeEnum.NOT_FOUND.getCode();
+        }
+        return HttpCodeEnum.FAIL.getCode();
+    }
+
+    private static DashboardItemData fail(DashboardItemData data, int code, String msg) {
+        data.setCode(code);
+        data.setMsg(msg);
+        return data;
+    }
+
+    private static final class DashboardDataGroup {
+        private final ViewWithSource viewWithSource;
+        private final ViewExecuteParam executeParam;
+        private final List<DashboardItemData> items = new ArrayList<>();
+        private PaginateWithQueryColumns paginate;
+        private String cache;
+        private Exception error;
+        private MergedViewQuery merge;
+        private CancellationTicket ticket;
+        private final List<DashboardDataGroup> members = new ArrayList<>();
+
+        DashboardDataGroup(ViewWithSource viewWithSource, ViewExecuteParam executeParam) {
+            this.viewWithSource = viewWithSource;
+            this.executeParam = executeParam;
+        }
+    }
+
 
     /**
      * 新建dashboard
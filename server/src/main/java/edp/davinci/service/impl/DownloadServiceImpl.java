@@ -30,7 +30,7 @@ import edp.davinci.dto.viewDto.DownloadViewExecuteParam;
 import edp.davinci.model.DownloadRecord;
 import edp.davinci.model.User;
 import edp.davinci.service.DownloadService;
-import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.excel.ExportJobScheduler;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -59,6 +59,9 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
     @Autowired
     private UserMapper userMapper;
 
+    @Autowired
+    private ExportJobScheduler exportJobScheduler;
+
     @Override
     public List<DownloadRecord> queryDownloadRecordPage(Long userId) {
         return downloadRecordMapper.getDownloadRecordsByUser(userId);
@@ -94,6 +97,8 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
 
     @Override
     public Boolean submit(DownloadType type, Long id, User user, List<DownloadViewExecuteParam> params) {
+        //排队已满时直接拒绝，不再创建下载记录
+        exportJobScheduler.checkCapacity(user.getId());
         try {
             List<WidgetContext> widgetList = getWidgetContexts(type, id, user, params);
             DownloadRecord record = new DownloadRecord();
@@ -103,7 +108,7 @@ public class DownloadServiceImpl extends DownloadCommonService implements Downlo
             record.setStatus(DownloadTaskStatus.PROCESSING.getStatus());
             downloadRecordMapper.insert(record);
             MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.DOWNLOAD, record.getId());
-            ExecutorUtil.submitWorkbookTask(WorkBookContext.newWorkBookContext(wrapper, widgetList, user, resultLimit));
+            exportJobScheduler.submit(WorkBookContext.newWorkBookContext(wrapper, widgetList, user, resultLimit), record.getId(), null);
             log.info("Download task submit: {}", wrapper);
         } catch (Exception e) {
             log.error("submit download task error,e=", e);
@@ -42,6 +42,7 @@ import edp.davinci.model.*;
 import edp.davinci.service.ProjectService;
 import edp.davinci.service.ShareService;
 import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.excel.ExportJobScheduler;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -92,6 +93,9 @@ public class EmailScheduleServiceImpl implements ScheduleService {
     @Autowired
     private DisplayMapper displayMapper;
 
+    @Autowired
+    private ExportJobScheduler exportJobScheduler;
+
     @Autowired
     private ProjectService projectService;
 
@@ -318,7 +322,7 @@ public class EmailScheduleServiceImpl implements ScheduleService {
                 Condition condition = lock.newCondition();
                 MsgMailExcel msgMailExcel = new MsgMailExcel(lock, condition);
                 context.setWrapper(new MsgWrapper(msgMailExcel, ActionEnum.MAIL, uuid));
-                ExecutorUtil.submitWorkbookTask(context);
+                exportJobScheduler.submit(context);
                 condition.await();
                 excelContents.add(new ExcelContent(name, msgMailExcel.getFilePath()));
                 countDownLatch.countDown();
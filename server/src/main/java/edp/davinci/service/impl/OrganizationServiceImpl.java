@@ -28,6 +28,7 @@ import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.model.TokenEntity;
+import edp.davinci.core.service.PermissionSnapshotCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.organizationDto.*;
 import edp.davinci.model.Organization;
@@ -78,6 +79,9 @@ public class OrganizationServiceImpl implements OrganizationService {
     @Autowired
     private ServerUtils serverUtils;
 
+    @Autowired
+    private PermissionSnapshotCache permissionSnapshotCache;
+
     @Override
     public synchronized boolean isExist(String name, Long id, Long scopeId) {
         Long orgId = organizationMapper.getIdByName(name);
@@ -149,6 +153,7 @@ public class OrganizationServiceImpl implements OrganizationService {
         organization.setUpdateTime(new Date());
 
         organizationMapper.update(organization);
+        permissionSnapshotCache.invalidateOrganization(organization.getId());
         optLogger.info("organization ({}) is update by (:{}), origin: ({})", organization.toString(), user.getId(), origin);
         return true;
     }
@@ -254,6 +259,7 @@ public class OrganizationServiceImpl implements OrganizationService {
 
         //删除organization
         organizationMapper.deleteById(id);
+        permissionSnapshotCache.invalidateAll();
 
         optLogger.info("organization ({}) is delete by (:{})", organization.toString(), user.getId());
         return true;
@@ -566,6 +572,7 @@ public class OrganizationServiceImpl implements OrganizationService {
         int i = relUserOrganizationMapper.deleteById(relationId);
 
         if (i > 0) {
+            permissionSnapshotCache.invalidateOrganization(rel.getOrgId());
             //更新组织成员数量
             organization.setMemberNum(organization.getMemberNum() > 0 ? organization.getMemberNum() - 1 : organization.getMemberNum());
             organizationMapper.updateMemberNum(organization);
@@ -625,6 +632,7 @@ public class OrganizationServiceImpl implements OrganizationService {
         rel.updatedBy(user.getId());
         int i = relUserOrganizationMapper.updateMemberRole(rel);
         if (i > 0) {
+            permissionSnapshotCache.invalidateOrganization(rel.getOrgId());
             optLogger.info("RelUserOrganization ({}) is update by (:{}), origin", rel.toString(), user.getId(), origin);
             return true;
         } else {
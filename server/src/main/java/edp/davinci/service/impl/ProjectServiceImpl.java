@@ -31,6 +31,7 @@ import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
+import edp.davinci.core.service.PermissionSnapshotCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.organizationDto.OrganizationInfo;
 import edp.davinci.dto.projectDto.*;
@@ -98,6 +99,9 @@ public class ProjectServiceImpl implements ProjectService {
     @Autowired
     private RoleMapper roleMapper;
 
+    @Autowired
+    private PermissionSnapshotCache permissionSnapshotCache;
+
 
     @Override
     public boolean isExist(String name, Long id, Long scopeId) {
@@ -279,7 +283,7 @@ public class ProjectServiceImpl implements ProjectService {
         project.setOrgId(organization.getId());
         int i = projectMapper.changeOrganization(project);
         if (i > 0) {
-
+            permissionSnapshotCache.invalidateProject(project.getId());
             optLogger.info("project (:{}) transferd from org(:{}) to org(:{})", project.getId(), beforeOrgId, orgId);
 
             boolean isTransfer = true;
@@ -345,6 +349,7 @@ public class ProjectServiceImpl implements ProjectService {
         //删除project
         int i = projectMapper.deleteById(project.getId());
         if (i > 0) {
+            permissionSnapshotCache.invalidateProject(project.getId());
             optLogger.info("project ({}) delete by user(:{})", project.toString(), user.getId());
             Organization organization = organizationMapper.getById(project.getOrgId());
             organization.setProjectNum(organization.getProjectNum() - 1);
@@ -388,6 +393,7 @@ public class ProjectServiceImpl implements ProjectService {
 
         int i = projectMapper.updateBaseInfo(project);
         if (i > 0) {
+            permissionSnapshotCache.invalidateProject(project.getId());
             optLogger.info("project ({}) update to ({}) by user(:{})", originInfo, project.baseInfoToString());
             return project;
         } else {
@@ -478,6 +484,7 @@ public class ProjectServiceImpl implements ProjectService {
             admins.forEach(u -> relProjectAdmins.add(new RelProjectAdmin(id, u.getId()).createdBy(user.getId())));
             int insert = relProjectAdminMapper.insertBatch(relProjectAdmins);
             if (insert > 0) {
+                permissionSnapshotCache.invalidateProject(id);
                 Map<Long, User> userMap = new HashMap<>();
                 admins.forEach(u -> userMap.put(u.getId(), u));
 
@@ -525,6 +532,7 @@ public class ProjectServiceImpl implements ProjectService {
 
         int i = relProjectAdminMapper.deleteById(relationId);
         if (i > 0) {
+            permissionSnapshotCache.invalidateProject(relProjectAdmin.getProjectId());
             optLogger.info("relProjectAdmin ({}) delete by user(:{})", relProjectAdmin.toString(), user.getId());
             return true;
         } else {
@@ -601,6 +609,7 @@ public class ProjectServiceImpl implements ProjectService {
     @Transactional
     public List<RoleProject> postRoles(Long id, List<Long> roleIds, User user) throws ServerException, UnAuthorizedExecption, NotFoundException {
         ProjectDetail projectDetail = getProjectDetail(id, user, true);
+        permissionSnapshotCache.invalidateProject(id);
 
         List<Role> roleList = roleMapper.selectByIdsAndOrgId(projectDetail.getOrgId(), roleIds);
 
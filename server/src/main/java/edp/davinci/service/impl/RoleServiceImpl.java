@@ -27,6 +27,7 @@ import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserOrgRoleEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
 import edp.davinci.core.enums.VizVisiblityEnum;
+import edp.davinci.core.service.PermissionSnapshotCache;
 import edp.davinci.dao.*;
 import edp.davinci.dto.roleDto.*;
 import edp.davinci.model.*;
@@ -105,6 +106,9 @@ public class RoleServiceImpl implements RoleService {
     @Autowired
     private DashboardPortalService dashboardPortalService;
 
+    @Autowired
+    private PermissionSnapshotCache permissionSnapshotCache;
+
 
     /**
      * 新建Role
@@ -167,6 +171,7 @@ public class RoleServiceImpl implements RoleService {
 
         int delete = roleMapper.deleteById(id);
         if (delete > 0) {
+            permissionSnapshotCache.invalidateAll();
             optLogger.info("role ( {} ) delete by user( :{} )", role.toString(), user.getId());
 
             Organization organization = organizationMapper.getById(role.getOrgId());
@@ -301,6 +306,7 @@ public class RoleServiceImpl implements RoleService {
 
         int i = relRoleUserMapper.insertBatch(relRoleUsers);
         if (i > 0) {
+            permissionSnapshotCache.invalidateAll();
             Map<Long, User> map = new HashMap<>();
             members.forEach(m -> map.put(m.getId(), m));
             return relRoleUsers.stream().map(r -> new RelRoleMember(r.getId(), map.get(r.getUserId()))).collect(Collectors.toList());
@@ -348,6 +354,7 @@ public class RoleServiceImpl implements RoleService {
 
         int i = relRoleUserMapper.deleteById(relationId);
         if (i > 0) {
+            permissionSnapshotCache.invalidateAll();
             optLogger.info("relRoleUser ({}) delete by user(:{})", relRoleUser.toString(), user.getId());
             return true;
         } else {
@@ -380,6 +387,7 @@ public class RoleServiceImpl implements RoleService {
             relRoleUserMapper.deleteByRoleIdAndMemberIds(id, deleteIds);
         }
         relRoleUserMapper.insertBatch(collect);
+        permissionSnapshotCache.invalidateAll();
 
         optLogger.info("replace role(:{}) member by user(:{})", id, user.getId());
         return relRoleUserMapper.getMembersByRoleId(id);
@@ -451,6 +459,7 @@ public class RoleServiceImpl implements RoleService {
 
         relRoleProjectMapper.insert(relRoleProject);
         if (null != relRoleProject.getId() && relRoleProject.getId().longValue() > 0L) {
+            permissionSnapshotCache.invalidateProject(projectId);
             optLogger.info("create relRoleProject ( {} ) update by user( :{} )", relRoleProject.toString(), user.getId());
             RoleProject roleProject = new RoleProject(project);
             BeanUtils.copyProperties(relRoleProject, roleProject);
@@ -494,6 +503,7 @@ public class RoleServiceImpl implements RoleService {
 
         int i = relRoleProjectMapper.deleteByRoleAndProject(roleId, projectId);
         if (i > 0) {
+            permissionSnapshotCache.invalidateProject(projectId);
             optLogger.info("relRoleProject ({}) delete by user(:{})", relRoleProject.toString(), user.getId());
             return true;
         } else {
@@ -575,6 +585,7 @@ public class RoleServiceImpl implements RoleService {
         int i = relRoleProjectMapper.update(relRoleProject);
 
         if (i > 0) {
+            permissionSnapshotCache.invalidateProject(relRoleProject.getProjectId());
             optLogger.info("relRoleProject ( {} ) update by user( :{} ), origin ( {} )", relRoleProject.toString(), user.getId(), origin);
             return true;
         } else {
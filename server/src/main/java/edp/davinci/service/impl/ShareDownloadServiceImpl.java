@@ -29,7 +29,7 @@ import edp.davinci.model.ShareDownloadRecord;
 import edp.davinci.model.User;
 import edp.davinci.service.ShareDownloadService;
 import edp.davinci.service.ShareService;
-import edp.davinci.service.excel.ExecutorUtil;
+import edp.davinci.service.excel.ExportJobScheduler;
 import edp.davinci.service.excel.MsgWrapper;
 import edp.davinci.service.excel.WidgetContext;
 import edp.davinci.service.excel.WorkBookContext;
@@ -50,9 +50,13 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
     @Autowired
     private ShareService shareService;
 
+    @Autowired
+    private ExportJobScheduler exportJobScheduler;
+
     @Override
     public boolean submit(DownloadType downloadType, String uuid, String token, User user, List<DownloadViewExecuteParam> params) {
         ShareInfo shareInfo = shareService.getShareInfo(token, user);
+        exportJobScheduler.checkCapacity(null == shareInfo.getShareUser() ? null : shareInfo.getShareUser().getId());
 
         try {
             List<WidgetContext> widgetList = getWidgetContexts(downloadType, shareInfo.getShareId(), user == null ? shareInfo.getShareUser() : user, params);
@@ -65,7 +69,7 @@ public class ShareDownloadServiceImpl extends DownloadCommonService implements S
             shareDownloadRecordMapper.insertSelective(record);
 
             MsgWrapper wrapper = new MsgWrapper(record, ActionEnum.SHAREDOWNLOAD, uuid);
-            ExecutorUtil.submitWorkbookTask(WorkBookContext.newWorkBookContext(wrapper, widgetList, shareInfo.getShareUser(), resultLimit));
+            exportJobScheduler.submit(WorkBookContext.newWorkBookContext(wrapper, widgetList, shareInfo.getShareUser(), resultLimit), record.getId(), uuid);
             log.info("Share download task submit: {}", wrapper);
             return true;
         } catch (Exception e) {
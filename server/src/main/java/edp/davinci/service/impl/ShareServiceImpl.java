@@ -28,10 +28,9 @@ import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedExecption;
 import edp.core.model.Paginate;
-import edp.core.model.PaginateWithQueryColumns;
-import edp.core.model.QueryColumn;
 import edp.core.utils.*;
 import edp.davinci.core.common.Constants;
+import edp.davinci.core.common.CsvResultWriter;
 import edp.davinci.core.common.ResultMap;
 import edp.davinci.core.model.TokenEntity;
 import edp.davinci.core.utils.CsvUtils;
@@ -53,10 +52,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.mindrot.jbcrypt.BCrypt;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -107,6 +109,15 @@ public class ShareServiceImpl implements ShareService {
     @Autowired
     private ServerUtils serverUtils;
 
+    @Value("${source.csv-export.gzip:false}")
+    private boolean csvGzip;
+
+    @Value("${source.csv-export.buffer-size:65536}")
+    private int csvBufferSize;
+
+    @Value("${source.csv-export.progress-rows:100000}")
+    private int csvProgressRows;
+
     @Override
     public User shareLogin(String token, UserLogin userLogin) throws NotFoundException, ServerException, UnAuthorizedExecption {
         //AES解密
@@ -450,26 +461,28 @@ public class ShareServiceImpl implements ShareService {
         executeParam.setPageSize(-1);
         executeParam.setPageNo(-1);
 
-        PaginateWithQueryColumns paginate = null;
-        try {
-            boolean maintainer = projectService.isMaintainer(projectDetail, shareInfo.getShareUser());
-            paginate = viewService.getResultDataList(maintainer, viewWithSource, executeParam, shareInfo.getShareUser());
-        } catch (SQLException e) {
-            e.printStackTrace();
-            throw new ServerException(HttpCodeEnum.SERVER_ERROR.getMessage());
-        }
-        List<QueryColumn> columns = paginate.getColumns();
+        String csvPath = fileUtils.fileBasePath + File.separator + "csv";
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
+        File csvFile = CsvUtils.createCsvFile(csvPath, viewWithSource.getName() + "_" + sdf.format(new Date()), csvGzip);
 
-        if (!CollectionUtils.isEmpty(columns)) {
-            String csvPath = fileUtils.fileBasePath + File.separator + "csv";
-            File file = new File(csvPath);
-            if (!file.exists()) {
-                file.mkdirs();
+        //结果逐行写入文件，不在内存中物化整个结果集
+        boolean maintainer = projectService.isMaintainer(projectDetail, shareInfo.getShareUser());
+        boolean written = false;
+        try (CsvResultWriter writer = new CsvResultWriter(new FileOutputStream(csvFile), csvGzip, csvBufferSize, csvProgressRows,
+                rows -> log.info("share csv ({}) exported {} rows", csvFile.getName(), rows))) {
+            viewService.streamResultData(maintainer, viewWithSource, executeParam, shareInfo.getShareUser(), writer);
+            written = writer.isStarted();
+        } catch (IOException e) {
+            written = false;
+            log.error("write share csv ({}) error: {}", csvFile.getName(), e.getMessage());
+            throw new ServerException(HttpCodeEnum.SERVER_ERROR.getMessage());
+        } finally {
+            if (!written) {
+                csvFile.delete();
             }
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMdd");
-            String csvName = viewWithSource.getName() + "_" + sdf.format(new Date());
-            String fileFullPath = CsvUtils.formatCsvWithFirstAsHeader(csvPath, csvName, columns, paginate.getResultList());
-            filePath = fileFullPath.replace(fileUtils.fileBasePath, EMPTY);
+        }
+        if (written) {
+            filePath = (csvPath + File.separator + csvFile.getName()).replace(fileUtils.fileBasePath, EMPTY);
         }
 
         return serverUtils.getHost() + filePath;
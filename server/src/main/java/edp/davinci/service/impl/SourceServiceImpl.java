@@ -21,6 +21,7 @@ package edp.davinci.service.impl;
 
 import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.Lists;
+import edp.core.common.executor.ExecutorRegistry;
 import edp.core.common.jdbc.JdbcDataSource;
 import com.webank.wedatasphere.dss.visualis.service.hive.HiveDBHelper;
 import com.webank.wedatasphere.dss.visualis.utils.VisualisUtils;
@@ -33,11 +34,11 @@ import edp.core.model.DBTables;
 import edp.core.model.QueryColumn;
 import edp.core.model.TableInfo;
 import edp.core.utils.*;
-import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.*;
 import edp.davinci.core.model.DataUploadEntity;
 import edp.davinci.core.utils.CsvUtils;
 import edp.davinci.core.utils.ExcelUtils;
+import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dao.SourceMapper;
 import edp.davinci.dao.ViewMapper;
 import edp.davinci.dto.projectDto.ProjectDetail;
@@ -60,14 +61,13 @@ import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
-import org.stringtemplate.v4.STGroupFile;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import static edp.core.consts.Consts.JDBC_DATASOURCE_DEFAULT_VERSION;
@@ -94,6 +94,9 @@ public class SourceServiceImpl implements SourceService {
     @Autowired
     private JdbcDataSource jdbcDataSource;
 
+    @Autowired
+    private ExecutorRegistry executorRegistry;
+
     @Autowired
     HiveDBHelper hiveDBHelper;
 
@@ -267,6 +270,7 @@ public class SourceServiceImpl implements SourceService {
 
         if (testConnection) {
             String origin = source.toString();
+            sqlUtils.release(source);
 
             BeanUtils.copyProperties(sourceInfo, source);
             source.updatedBy(user.getId());
@@ -274,6 +278,8 @@ public class SourceServiceImpl implements SourceService {
 
             int update = sourceMapper.update(source);
             if (update > 0) {
+                // 释放测试连接时按新配置创建的实例，下次使用时按数据源的连接池配置重建
+                sqlUtils.release(source);
                 optLogger.info("source ({}) update by user(:{}), origin ( {} )", source.toString(), user.getId(), origin);
                 return source;
             } else {
@@ -318,6 +324,7 @@ public class SourceServiceImpl implements SourceService {
 
         int i = sourceMapper.deleteById(id);
         if (i > 0) {
+            sqlUtils.release(source);
             optLogger.info("source ({}) delete by user(:{})", source.toString(), user.getId());
             return true;
         } else {
@@ -632,6 +639,7 @@ public class SourceServiceImpl implements SourceService {
 
         SourceUtils sourceUtils = new SourceUtils(jdbcDataSource);
         sourceUtils.releaseDataSource(source.getJdbcUrl(), source.getName(), source.getPassword(), source.getDbVersion(), source.isExt());
+        sqlUtils.release(source);
         return sqlUtils.init(source).testConnection();
     }
 
@@ -651,7 +659,7 @@ public class SourceServiceImpl implements SourceService {
 
         SqlUtils sqlUtils = this.sqlUtils.init(source);
 
-        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+        STGroup stg = SqlParseUtils.getSqlTemplateGroup();
 
         String sql = null;
 
@@ -756,15 +764,15 @@ public class SourceServiceImpl implements SourceService {
                 }
             }
 
-            ExecutorService executorService = Executors.newFixedThreadPool(8);
+            ExecutorService executorService = executorRegistry.getUploadInsertExecutor();
 
-            STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+            STGroup stg = SqlParseUtils.getSqlTemplateGroup();
             ST st = stg.getInstanceOf("insertData");
             st.add("tableName", tableName);
             st.add("columns", headers);
             String sql = st.render();
             log.info("sql : {}", st.render());
-            Future future = null;
+            List<Future<?>> futures = new ArrayList<>(totalPage);
 
             //分页批量插入
             long startTime = System.currentTimeMillis();
@@ -772,28 +780,30 @@ public class SourceServiceImpl implements SourceService {
             for (int pageNum = 1; pageNum < totalPage + 1; pageNum++) {
                 int localPageNum = pageNum;
                 int localPageSize = pageSize;
-                future = executorService.submit(() -> {
+                futures.add(executorService.submit(() -> {
                     int starNum = (localPageNum - 1) * localPageSize;
                     int endNum = localPageNum * localPageSize > totalSize ? (totalSize) : localPageNum * localPageSize;
                     log.info("executeInsert thread-{} : start:{}, end: {}", localPageNum, starNum, endNum);
                     sqlUtils.executeBatch(sql, headers, values.subList(starNum, endNum));
-                });
+                }));
             }
 
             try {
-                future.get();
+                for (Future<?> future : futures) {
+                    future.get();
+                }
 
                 long endTime = System.currentTimeMillis();
                 log.info("executeRealJob insert end ----  {}", DateUtils.toyyyyMMddHHmmss(endTime));
                 log.info("execution time {} second", (endTime - startTime) / 1000);
             } catch (InterruptedException e) {
                 e.printStackTrace();
+                futures.forEach(f -> f.cancel(true));
                 throw new ServerException(e.getMessage());
             } catch (ExecutionException e) {
                 e.printStackTrace();
+                futures.forEach(f -> f.cancel(true));
                 throw new ServerException(e.getMessage());
-            } finally {
-                executorService.shutdown();
             }
         }
     }
@@ -24,8 +24,20 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.Maps;
+import edp.core.common.cache.ResultCache;
+import edp.core.common.jdbc.AsyncQueryExecutor;
+import edp.core.common.jdbc.ResultRowHandler;
+import edp.core.common.query.AsyncQueryJob;
+import edp.core.common.query.AsyncQueryManager;
+import edp.core.common.query.CancellationTicket;
+import edp.core.common.query.QueryCancellationRegistry;
+import edp.core.common.query.QueryCoalescer;
+import edp.core.common.query.QueryScheduler;
 import edp.core.consts.Consts;
+import edp.core.enums.QueryJobStatusEnum;
 import edp.core.exception.NotFoundException;
+import edp.core.exception.QueryCancelledException;
+import edp.core.exception.QueryRejectedException;
 import com.webank.wedatasphere.linkis.server.BDPJettyServerHelper;
 import com.webank.wedatasphere.dss.visualis.model.DWCResultInfo;
 import com.webank.wedatasphere.dss.visualis.ujes.UJESJob;
@@ -38,13 +50,16 @@ import edp.core.utils.CollectionUtils;
 import edp.core.utils.MD5Util;
 import edp.core.utils.RedisUtils;
 import edp.core.utils.SqlUtils;
-import edp.davinci.core.common.Constants;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.SqlVariableTypeEnum;
 import edp.davinci.core.enums.SqlVariableValueTypeEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
+import edp.davinci.core.model.PermissionSnapshot;
 import edp.davinci.core.model.SqlEntity;
+import edp.davinci.core.model.ViewCachePolicy;
 import edp.davinci.core.model.SqlFilter;
+import edp.davinci.core.service.PermissionSnapshotCache;
+import edp.davinci.core.utils.ResultMaterializationManager;
 import edp.davinci.core.utils.SqlParseUtils;
 import edp.davinci.dao.RelRoleViewMapper;
 import edp.davinci.dao.SourceMapper;
@@ -70,7 +85,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
-import org.stringtemplate.v4.STGroupFile;
 
 import java.sql.SQLException;
 import java.util.*;
@@ -89,6 +103,11 @@ public class ViewServiceImpl implements ViewService {
 
     private static final Logger optLogger = LoggerFactory.getLogger(LogNameEnum.BUSINESS_OPERATION.getName());
 
+    /**
+     * 批量取数时当前线程复用的权限配置，viewId -> RelRoleView
+     */
+    private static final ThreadLocal<Map<Long, List<RelRoleView>>> ROLE_VIEWS = new ThreadLocal<>();
+
     @Autowired
     private ViewMapper viewMapper;
 
@@ -107,6 +126,27 @@ public class ViewServiceImpl implements ViewService {
     @Autowired
     private RedisUtils redisUtils;
 
+    @Autowired
+    private QueryCoalescer queryCoalescer;
+
+    @Autowired
+    private QueryScheduler queryScheduler;
+
+    @Autowired
+    private QueryCancellationRegistry queryCancellationRegistry;
+
+    @Autowired
+    private PermissionSnapshotCache permissionSnapshotCache;
+
+    @Autowired
+    private ResultCache resultCache;
+
+    @Autowired
+    private AsyncQueryManager asyncQueryManager;
+
+    @Autowired
+    private ResultMaterializationManager resultMaterializationManager;
+
     @Autowired
     private ProjectService projectService;
 
@@ -118,6 +158,8 @@ public class ViewServiceImpl implements ViewService {
 
     private static final String SQL_VARABLE_KEY = "name";
 
+    private static final String ESTIMATE_COUNT = "estimate";
+
     @Override
     public synchronized boolean isExist(String name, Long id, Long projectId) {
         Long viewId = viewMapper.getByNameWithProjectId(name, projectId);
@@ -197,7 +239,7 @@ public class ViewServiceImpl implements ViewService {
         //解析变量
         List<SqlVariable> variables = viewWithSource.getVariables();
         //解析sql
-        SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter);
+        SqlEntity sqlEntity = sqlParseUtils.parseViewSql(viewWithSource, sqlTempDelimiter);
         //列权限（只记录被限制访问的字段）
         Set<String> excludeColumns = new HashSet<>();
 
@@ -352,6 +394,8 @@ public class ViewServiceImpl implements ViewService {
             BeanUtils.copyProperties(viewUpdate, view);
             view.setProjectId(projectDetail.getId());
             viewMapper.update(view);
+            sqlParseUtils.invalidateViewSql(view.getId());
+            resultMaterializationManager.invalidate(view.getId());
             return true;
         }
         //测试连接
@@ -365,6 +409,9 @@ public class ViewServiceImpl implements ViewService {
 
             int update = viewMapper.update(viewWithSource);
             if (update > 0) {
+                sqlParseUtils.invalidateViewSql(viewWithSource.getId());
+                resultMaterializationManager.invalidate(viewWithSource.getId());
+                permissionSnapshotCache.invalidateView(viewWithSource.getId());
                 optLogger.info("view ({}) is updated by user(:{}), origin: ({})", viewWithSource.toString(), user.getId(), originStr);
                 if (CollectionUtils.isEmpty(viewUpdate.getRoles())) {
                     relRoleViewMapper.deleteByViewId(viewUpdate.getId());
@@ -421,6 +468,9 @@ public class ViewServiceImpl implements ViewService {
 
         int i = viewMapper.deleteById(id);
         if (i > 0) {
+            sqlParseUtils.invalidateViewSql(id);
+            resultMaterializationManager.invalidate(id);
+            permissionSnapshotCache.invalidateView(id);
             optLogger.info("view ( {} ) delete by user( :{} )", view.toString(), user.getId());
             relRoleViewMapper.deleteByViewId(id);
         }
@@ -556,22 +606,255 @@ public class ViewServiceImpl implements ViewService {
             throw new NotFoundException("view is not found");
         }
 
-        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
+        PermissionSnapshot permission = permissionSnapshotCache.getSnapshot(viewWithSource.getProjectId(), user);
+        if (!permission.isAllowGetData()) {
+            throw new UnAuthorizedExecption("you have not permission to get data");
+        }
+
+        boolean maintainer = permission.isMaintainer();
+        CancellationTicket ticket = openCancellationTicket(executeParam, user);
+        try {
+            return QueryCancellationRegistry.call(ticket, () -> getResultDataList(maintainer, viewWithSource, executeParam, user));
+        } catch (ServerException | SQLException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ServerException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按 用户 + 请求组 登记本次请求，取消同组更早一代仍在执行的查询
+     */
+    private CancellationTicket openCancellationTicket(ViewExecuteParam executeParam, User user) {
+        if (null == executeParam || StringUtils.isEmpty(executeParam.getRequestGroup()) || null == user) {
+            return null;
+        }
+        return queryCancellationRegistry.open(user.getId() + MINUS + executeParam.getRequestGroup(), executeParam.getGeneration());
+    }
+
+    /**
+     * 异步提交view数据查询，立即返回任务信息；
+     * Hive 数据源直接提交到 Linkis，其余数据源在共享线程池中执行
+     *
+     * @param id
+     * @param executeParam
+     * @param group        任务分组（如 dashboard），用于批量取消
+     * @param user
+     * @return
+     */
+    @Override
+    public ViewDataJob submitData(Long id, ViewExecuteParam executeParam, String group, User user) throws NotFoundException, UnAuthorizedExecption, ServerException {
+        ViewWithSource viewWithSource = viewMapper.getViewWithSource(id);
+        if (null == viewWithSource) {
+            log.info("view (:{}) not found", id);
+            throw new NotFoundException("view is not found");
+        }
+
+        PermissionSnapshot permission = permissionSnapshotCache.getSnapshot(viewWithSource.getProjectId(), user);
+        if (!permission.isAllowGetData()) {
+            throw new UnAuthorizedExecption("you have not permission to get data");
+        }
+        boolean maintainer = permission.isMaintainer();
+
+        Source source = viewWithSource.getSource();
+        if (null == source) {
+            throw new NotFoundException("source is not found");
+        }
+
+        CancellationTicket ticket = openCancellationTicket(executeParam, user);
+        try {
+            if (null != executeParam
+                    && !(CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))
+                    && VisualisUtils.isHiveDataSource(source)
+                    && !VisualisUtils.isFirstTime(viewWithSource)) {
+                PreparedQuery query = prepareQuery(maintainer, viewWithSource, executeParam, user);
+                if (null != query && query.sqlUtils instanceof AsyncQueryExecutor) {
+                    Project project = permissionSnapshotCache.getSnapshot(source.getProjectId(), user).getProjectDetail();
+                    buildQuerySql(query.querySqlList, source, executeParam);
+                    String script = getRunningScript(user, source, viewWithSource, project, false,
+                            String.join(Consts.SEMICOLON, query.executeSqlList) + Consts.SEMICOLON + String.join(Consts.SEMICOLON, query.querySqlList));
+                    //任务在 Linkis 中执行，提交前获得许可，任务结束后由 asyncQueryManager 释放
+                    QueryScheduler.Permit permit = queryScheduler.acquire(getSchedulerKey(query.sqlUtils, source), query.sqlUtils.getMaxActive(),
+                            source.getProjectId(), user.getId());
+                    return new ViewDataJob(QueryCancellationRegistry.call(ticket,
+                            () -> asyncQueryManager.submit(user.getId(), id, group, (AsyncQueryExecutor) query.sqlUtils, script, permit)));
+                }
+            }
+        } catch (ServerException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("submit view (:{}) data query error: {}", id, e.getMessage());
+            throw new ServerException(e.getMessage(), e);
+        }
+
+        return new ViewDataJob(asyncQueryManager.submit(user.getId(), id, group,
+                () -> QueryCancellationRegistry.call(ticket, () -> {
+                    try {
+                        return getResultDataList(maintainer, viewWithSource, executeParam, user);
+                    } finally {
+                        ResultCache.clearStatus();
+                    }
+                })));
+    }
+
+    @Override
+    public ViewDataJob getDataJob(String jobId, User user) throws NotFoundException {
+        AsyncQueryJob job = asyncQueryManager.get(jobId, user.getId());
+        if (null == job) {
+            throw new NotFoundException("job is not found");
+        }
+        return new ViewDataJob(job);
+    }
+
+    /**
+     * 获取已完成的异步查询结果，Linkis 任务从结果集文件按页读取
+     *
+     * @param jobId
+     * @param pageNo
+     * @param pageSize
+     * @param user
+     * @return
+     */
+    @Override
+    public Paginate<Map<String, Object>> getDataJobResult(String jobId, int pageNo, int pageSize, User user) throws NotFoundException, ServerException {
+        AsyncQueryJob job = asyncQueryManager.get(jobId, user.getId());
+        if (null == job) {
+            throw new NotFoundException("job is not found");
+        }
 
-        boolean allowGetData = projectService.allowGetData(projectDetail, user);
+        QueryJobStatusEnum status = job.getStatus();
+        if (status != QueryJobStatusEnum.SUCCEED) {
+            String message = job.getErrorMessage();
+            throw new ServerException("job is " + status.name().toLowerCase() + (null == message ? "" : ": " + message));
+        }
 
-        if (!allowGetData) {
+        try {
+            return job.fetch(pageNo, pageSize);
+        } catch (Exception e) {
+            log.error("fetch job ({}) result error: {}", jobId, e.getMessage());
+            throw new ServerException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean cancelDataJob(String jobId, User user) {
+        return asyncQueryManager.cancel(jobId, user.getId());
+    }
+
+    @Override
+    public int cancelDataJobs(String group, User user) {
+        return asyncQueryManager.cancelGroup(group, user.getId());
+    }
+
+    /**
+     * 流式返回view源数据集，结果直接从 ResultSet 写入 handler
+     *
+     * @param id
+     * @param executeParam
+     * @param user
+     * @param handler
+     */
+    @Override
+    public void streamData(Long id, ViewExecuteParam executeParam, User user, ResultRowHandler handler) throws NotFoundException, UnAuthorizedExecption, ServerException, SQLException {
+        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+            return;
+        }
+
+        ViewWithSource viewWithSource = viewMapper.getViewWithSource(id);
+        if (null == viewWithSource) {
+            log.info("view (:{}) not found", id);
+            throw new NotFoundException("view is not found");
+        }
+
+        PermissionSnapshot permission = permissionSnapshotCache.getSnapshot(viewWithSource.getProjectId(), user);
+        if (!permission.isAllowGetData()) {
             throw new UnAuthorizedExecption("you have not permission to get data");
         }
+        streamResultData(permission.isMaintainer(), viewWithSource, executeParam, user, handler);
+    }
+
+    /**
+     * 流式获取结果集，结果直接从 ResultSet（Hive 数据源为 Linkis 结果集文件）写入 handler，不在内存中物化
+     *
+     * @param isMaintainer
+     * @param viewWithSource
+     * @param executeParam
+     * @param user
+     * @param handler
+     * @throws ServerException
+     */
+    @Override
+    public void streamResultData(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user, ResultRowHandler handler) throws ServerException {
+        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+            return;
+        }
+
+        Source source = viewWithSource.getSource();
+        if (null == source) {
+            throw new NotFoundException("source is not found");
+        }
+
+        try {
+            PreparedQuery query = prepareQuery(isMaintainer, viewWithSource, executeParam, user);
+            if (null == query) {
+                return;
+            }
 
-        boolean maintainer = projectService.isMaintainer(projectDetail, user);
-        return getResultDataList(maintainer, viewWithSource, executeParam, user);
+            //Hive 数据源只提交一次 Linkis 任务，结果集文件逐行写入 handler
+            if (VisualisUtils.isHiveDataSource(source)) {
+                PaginateWithQueryColumns local = queryLocalResult(viewWithSource, query.querySqlList, source, executeParam, user);
+                if (null != local) {
+                    handler.onPaginate(local);
+                    return;
+                }
+                List<String> scripts = getHiveScripts(viewWithSource, query.executeSqlList, query.querySqlList, query.sqlEntity, source, executeParam, user);
+                scheduleQuery(query.sqlUtils, source, user, () -> {
+                    for (int i = 0; i < scripts.size() - 1; i++) {
+                        query.sqlUtils.execute(scripts.get(i));
+                    }
+                    query.sqlUtils.query4Stream(
+                            scripts.get(scripts.size() - 1),
+                            executeParam.getPageNo(),
+                            executeParam.getPageSize(),
+                            executeParam.getTotalCount(),
+                            executeParam.getLimit(),
+                            query.excludeColumns,
+                            handler);
+                    return null;
+                });
+                return;
+            }
+
+            buildQuerySql(query.querySqlList, source, executeParam);
+            if (!CollectionUtils.isEmpty(query.executeSqlList)) {
+                query.executeSqlList.forEach(sql -> query.sqlUtils.execute(sql));
+            }
+
+            boolean keyset = null != getKeysetFilter(source, executeParam);
+            scheduleQuery(query.sqlUtils, source, user, () -> {
+                query.sqlUtils.query4Stream(
+                        query.querySqlList.get(query.querySqlList.size() - 1),
+                        executeParam.getPageNo(),
+                        executeParam.getPageSize(),
+                        executeParam.getTotalCount(),
+                        executeParam.getLimit(),
+                        query.excludeColumns,
+                        keyset,
+                        handler);
+                return null;
+            });
+        } catch (ServerException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new ServerException(e.getMessage());
+        }
     }
 
     public void buildQuerySql(List<String> querySqlList, Source source, ViewExecuteParam executeParam) {
         if (null != executeParam) {
             //构造参数， 原有的被传入的替换
-            STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+            STGroup stg = SqlParseUtils.getSqlTemplateGroup();
             ST st = stg.getInstanceOf("querySql");
             st.add("nativeQuery", executeParam.isNativeQuery());
             st.add("groups", executeParam.getGroups());
@@ -582,9 +865,13 @@ public class ViewServiceImpl implements ViewService {
                 st.add("aggregators", executeParam.getAggregators(source.getJdbcUrl(), source.getDbVersion()));
             }
             st.add("orders", executeParam.getOrders(source.getJdbcUrl(), source.getDbVersion()));
-            st.add("filters", convertFilters(executeParam.getFilters(), source));
+            st.add("filters", addKeysetFilter(convertFilters(executeParam.getFilters(), source), source, executeParam));
             st.add("keywordPrefix", sqlUtils.getKeywordPrefix(source.getJdbcUrl(), source.getDbVersion()));
             st.add("keywordSuffix", sqlUtils.getKeywordSuffix(source.getJdbcUrl(), source.getDbVersion()));
+            if (!CollectionUtils.isEmpty(executeParam.getGroupingSets())) {
+                st.add("groupingSets", executeParam.getGroupingSets());
+                st.add("groupingFlag", ViewExecuteParam.GROUPING_FLAG);
+            }
 
             for (int i = 0; i < querySqlList.size(); i++) {
                 st.add("sql", querySqlList.get(i));
@@ -594,6 +881,26 @@ public class ViewServiceImpl implements ViewService {
         }
     }
 
+    /**
+     * jdbc 数据源的 keyset 分页，将上一页末行之后的条件追加到筛选条件中
+     */
+    private List<String> addKeysetFilter(List<String> whereClauses, Source source, ViewExecuteParam executeParam) {
+        String keysetFilter = getKeysetFilter(source, executeParam);
+        if (null == keysetFilter) {
+            return whereClauses;
+        }
+        List<String> list = null == whereClauses ? new ArrayList<>() : new ArrayList<>(whereClauses);
+        list.add(keysetFilter);
+        return list;
+    }
+
+    private String getKeysetFilter(Source source, ViewExecuteParam executeParam) {
+        if (VisualisUtils.isHiveDataSource(source)) {
+            return null;
+        }
+        return executeParam.getKeysetFilter(source.getJdbcUrl(), source.getDbVersion());
+    }
+
     public List<String> convertFilters(List<String> filterStrs, Source source){
         List<String> whereClauses = new ArrayList<>();
         List<SqlFilter> filters = new ArrayList<>();
@@ -620,6 +927,16 @@ public class ViewServiceImpl implements ViewService {
     }
 
 
+    @Override
+    public PaginateWithQueryColumns getResultDataList(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user, Map<Long, List<RelRoleView>> roleViews) throws ServerException, SQLException {
+        ROLE_VIEWS.set(roleViews);
+        try {
+            return getResultDataList(isMaintainer, viewWithSource, executeParam, user);
+        } finally {
+            ROLE_VIEWS.remove();
+        }
+    }
+
     /**
      * 获取结果集
      *
@@ -633,120 +950,221 @@ public class ViewServiceImpl implements ViewService {
     @Override
     public PaginateWithQueryColumns getResultDataList(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user) throws ServerException, SQLException {
         PaginateWithQueryColumns paginate = null;
+        ResultCache.bypass();
+        boolean completed = false;
+        try {
+            if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
+                return null;
+            }
 
-        if (null == executeParam || (CollectionUtils.isEmpty(executeParam.getGroups()) && CollectionUtils.isEmpty(executeParam.getAggregators()))) {
-            return null;
-        }
+            if (null == viewWithSource.getSource()) {
+                throw new NotFoundException("source is not found");
+            }
 
-        if (null == viewWithSource.getSource()) {
-            throw new NotFoundException("source is not found");
-        }
+            try {
+                PreparedQuery query = prepareQuery(isMaintainer, viewWithSource, executeParam, user);
+                if (null != query) {
+                    Source source = query.source;
 
-        String cacheKey = null;
-        try {
+                    // buildQuerySql / buildScala 会修改 sql 列表，后台刷新时需重新执行，每次使用副本
+                    Callable<PaginateWithQueryColumns> loader = () -> executeResultQuery(query.sqlUtils, source, viewWithSource,
+                            new ArrayList<>(query.executeSqlList), new ArrayList<>(query.querySqlList), query.sqlEntity, executeParam, query.excludeColumns, user);
 
-            if (!StringUtils.isEmpty(viewWithSource.getSql())) {
-                //解析变量
-                List<SqlVariable> variables = viewWithSource.getVariables();
-                //解析sql
-                SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter);
-                //列权限（只记录被限制访问的字段）
-                Set<String> excludeColumns = new HashSet<>();
-                packageParams(isMaintainer, viewWithSource.getId(), sqlEntity, variables, executeParam.getParams(), excludeColumns, user);
-                String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter, user);
+                    ViewCachePolicy cachePolicy = ViewCachePolicy.of(viewWithSource, executeParam);
+                    if (!cachePolicy.isEnable()) {
+                        paginate = loader.call();
+                    } else {
+                        paginate = resultCache.get(getResultCacheKey(source, query.srcSql, executeParam, query.excludeColumns), loader,
+                                cachePolicy.getSoftTtl(), cachePolicy.getHardTtl(), null != executeParam.getFlush() && executeParam.getFlush());
+                    }
+                }
+            } catch (QueryRejectedException | QueryCancelledException e) {
+                throw e;
+            } catch (Exception e) {
+                QueryCancellationRegistry.checkCancelled();
+                e.printStackTrace();
+                throw new ServerException(e.getMessage());
+            }
 
-                Source source = viewWithSource.getSource();
+            completed = true;
+            return paginate;
+        } finally {
+            if (!completed) {
+                //缓存状态只在请求成功时由调用方读取
+                ResultCache.clearStatus();
+            }
+        }
+    }
 
-                SqlUtils sqlUtils = this.sqlUtils.init(source);
-                List<String> executeSqlList = sqlParseUtils.getSqls(srcSql, false);
-                List<String> querySqlList = sqlParseUtils.getSqls(srcSql, true);
+    /**
+     * 解析 view sql、绑定参数及权限变量，sql 为空时返回 null
+     */
+    private PreparedQuery prepareQuery(boolean isMaintainer, ViewWithSource viewWithSource, ViewExecuteParam executeParam, User user) throws Exception {
+        if (StringUtils.isEmpty(viewWithSource.getSql())) {
+            return null;
+        }
+        PreparedQuery query = new PreparedQuery();
+        //解析变量
+        List<SqlVariable> variables = viewWithSource.getVariables();
+        //解析sql
+        query.sqlEntity = sqlParseUtils.parseViewSql(viewWithSource, sqlTempDelimiter);
+        //列权限（只记录被限制访问的字段）
+        query.excludeColumns = new HashSet<>();
+        packageParams(isMaintainer, viewWithSource.getId(), query.sqlEntity, variables, executeParam.getParams(), query.excludeColumns, user);
+        query.srcSql = sqlParseUtils.replaceParams(query.sqlEntity.getSql(), query.sqlEntity.getQuaryParams(), query.sqlEntity.getAuthParams(), sqlTempDelimiter, user);
 
-                if (!CollectionUtils.isEmpty(querySqlList)) {
-                    executeParam.addExcludeColumn(excludeColumns, source.getJdbcUrl(), source.getDbVersion());
+        query.source = viewWithSource.getSource();
 
-                    if (null != executeParam
-                            && null != executeParam.getCache()
-                            && executeParam.getCache()
-                            && executeParam.getExpired() > 0L) {
+        query.sqlUtils = this.sqlUtils.init(query.source);
+        query.executeSqlList = sqlParseUtils.getSqls(query.srcSql, false);
+        query.querySqlList = sqlParseUtils.getSqls(query.srcSql, true);
 
-                        StringBuilder slatBuilder = new StringBuilder();
-                        slatBuilder.append(executeParam.getPageNo());
-                        slatBuilder.append(MINUS);
-                        slatBuilder.append(executeParam.getLimit());
-                        slatBuilder.append(MINUS);
-                        slatBuilder.append(executeParam.getPageSize());
-                        excludeColumns.forEach(slatBuilder::append);
+        if (CollectionUtils.isEmpty(query.querySqlList)) {
+            return null;
+        }
+        executeParam.addExcludeColumn(query.excludeColumns, query.source.getJdbcUrl(), query.source.getDbVersion());
+        return query;
+    }
 
-                        cacheKey = MD5Util.getMD5(slatBuilder.toString() + querySqlList.get(querySqlList.size() - 1), true, 32);
+    private PaginateWithQueryColumns executeResultQuery(SqlUtils sqlUtils, Source source, ViewWithSource viewWithSource,
+                                                        List<String> executeSqlList, List<String> querySqlList, SqlEntity sqlEntity,
+                                                        ViewExecuteParam executeParam, Set<String> excludeColumns, User user) throws Exception {
+        PaginateWithQueryColumns paginate = null;
+        if(VisualisUtils.isHiveDataSource(source)){
+            PaginateWithQueryColumns local = queryLocalResult(viewWithSource, querySqlList, source, executeParam, user);
+            if (null != local) {
+                return local;
+            }
+            for (String script : getHiveScripts(viewWithSource, executeSqlList, querySqlList, sqlEntity, source, executeParam, user)) {
+                paginate = coalesceQuery(sqlUtils, source, script, executeParam, excludeColumns, user);
+            }
+        } else {
+            buildQuerySql(querySqlList, source, executeParam);
+            if (!CollectionUtils.isEmpty(executeSqlList)) {
+                executeSqlList.forEach(sql -> sqlUtils.execute(sql));
+            }
 
-                        if (!executeParam.getFlush()) {
-                            try {
-                                Object object = redisUtils.get(cacheKey);
-                                if (null != object && executeParam.getCache()) {
-                                    paginate = (PaginateWithQueryColumns) object;
-                                    return paginate;
-                                }
-                            } catch (Exception e) {
-                                log.warn("get data by cache: {}", e.getMessage());
-                            }
-                        }
-                    }
+            for (String sql : querySqlList) {
+                paginate = coalesceQuery(sqlUtils, source, sql, executeParam, excludeColumns, user);
+            }
+        }
+        return paginate;
+    }
 
-                    if(VisualisUtils.isHiveDataSource(source)){
-                        Project project = projectService.getProjectDetail(source.getProjectId(), user, false);
-                        if(VisualisUtils.isFirstTime(viewWithSource)){
-                            buildScala(querySqlList,sqlEntity,executeParam,source,viewWithSource, user);
-                            for (String sql : querySqlList) {
-                                paginate = sqlUtils.syncQuery4Paginate(
-                                        getRunningScript(user, source, viewWithSource, project, true, sql),
-                                        executeParam.getPageNo(),
-                                        executeParam.getPageSize(),
-                                        executeParam.getTotalCount(),
-                                        executeParam.getLimit(),
-                                        excludeColumns);
-                            }
-                        } else {
-                            buildQuerySql(querySqlList, source, executeParam);
-                            paginate = sqlUtils.syncQuery4Paginate(
-                                    getRunningScript(user, source, viewWithSource, project,false, String.join(Consts.SEMICOLON, executeSqlList) + Consts.SEMICOLON + String.join(Consts.SEMICOLON, querySqlList)),
-                                    executeParam.getPageNo(),
-                                    executeParam.getPageSize(),
-                                    executeParam.getTotalCount(),
-                                    executeParam.getLimit(),
-                                    excludeColumns);
-                        }
-                    } else {
-                        buildQuerySql(querySqlList, source, executeParam);
-                        if (!CollectionUtils.isEmpty(executeSqlList)) {
-                            executeSqlList.forEach(sql -> sqlUtils.execute(sql));
-                        }
+    /**
+     * 首次打开的临时 view：结果集已物化且足够小时在进程内计算，不再提交 Spark 任务；不满足时返回 null
+     */
+    private PaginateWithQueryColumns queryLocalResult(View view, List<String> querySqlList, Source source, ViewExecuteParam executeParam, User user) {
+        if (!VisualisUtils.isFirstTime(view) || querySqlList.size() != 1) {
+            return null;
+        }
+        DWCResultInfo dwcResultInfo = getDwcResultInfo(view);
+        if (null == dwcResultInfo) {
+            return null;
+        }
+        materializeResult(view, dwcResultInfo, source, executeParam, user);
+        return resultMaterializationManager.queryLocal(view, dwcResultInfo.getExecutionCode(), user, executeParam);
+    }
 
-                        for (String sql : querySqlList) {
-                            paginate = sqlUtils.syncQuery4Paginate(
-                                    sql,
-                                    executeParam.getPageNo(),
-                                    executeParam.getPageSize(),
-                                    executeParam.getTotalCount(),
-                                    executeParam.getLimit(),
-                                    excludeColumns);
-                        }
-                    }
-                }
+    /**
+     * Hive 数据源提交给 Linkis 的脚本，最后一个脚本的结果即查询结果；会修改 querySqlList
+     */
+    private List<String> getHiveScripts(View view, List<String> executeSqlList, List<String> querySqlList, SqlEntity sqlEntity,
+                                        Source source, ViewExecuteParam executeParam, User user) {
+        Project project = permissionSnapshotCache.getSnapshot(source.getProjectId(), user).getProjectDetail();
+        List<String> scripts = new ArrayList<>();
+        if (VisualisUtils.isFirstTime(view)) {
+            buildScala(querySqlList, sqlEntity, executeParam, source, view, user);
+            for (String sql : querySqlList) {
+                scripts.add(getRunningScript(user, source, view, project, true, sql));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new ServerException(e.getMessage());
+        } else {
+            buildQuerySql(querySqlList, source, executeParam);
+            scripts.add(getRunningScript(user, source, view, project, false,
+                    String.join(Consts.SEMICOLON, executeSqlList) + Consts.SEMICOLON + String.join(Consts.SEMICOLON, querySqlList)));
         }
+        return scripts;
+    }
 
-        if (null != executeParam
-                && null != executeParam.getCache()
-                && executeParam.getCache()
-                && executeParam.getExpired() > 0L
-                && null != paginate && !CollectionUtils.isEmpty(paginate.getResultList())) {
-            redisUtils.set(cacheKey, paginate, executeParam.getExpired(), TimeUnit.SECONDS);
+    /**
+     * 结果缓存 key：绑定参数后的 sql、分组 / 聚合 / 筛选 / 排序、分页及列权限
+     */
+    private String getResultCacheKey(Source source, String srcSql, ViewExecuteParam executeParam, Set<String> excludeColumns) {
+        StringBuilder slatBuilder = new StringBuilder();
+        slatBuilder.append(source.getId()).append(MINUS);
+        slatBuilder.append(executeParam.getPageNo()).append(MINUS);
+        slatBuilder.append(executeParam.getLimit()).append(MINUS);
+        slatBuilder.append(executeParam.getPageSize()).append(MINUS);
+        slatBuilder.append(executeParam.getTotalCount()).append(MINUS);
+        slatBuilder.append(executeParam.isNativeQuery()).append(MINUS);
+        slatBuilder.append(JSON.toJSONString(executeParam.getGroups()));
+        slatBuilder.append(JSON.toJSONString(executeParam.getAggregators()));
+        slatBuilder.append(JSON.toJSONString(executeParam.getFilters()));
+        slatBuilder.append(JSON.toJSONString(executeParam.getOrders()));
+        slatBuilder.append(JSON.toJSONString(executeParam.getKeyset()));
+        if (!CollectionUtils.isEmpty(executeParam.getGroupingSets())) {
+            slatBuilder.append(JSON.toJSONString(executeParam.getGroupingSets()));
         }
+        new TreeSet<>(excludeColumns).forEach(slatBuilder::append);
+        slatBuilder.append(srcSql);
+        return MD5Util.getMD5(slatBuilder.toString(), true, 32);
+    }
 
-        return paginate;
+    /**
+     * 相同的查询（SQL、分页、列权限均一致）在执行中时合并为一次执行
+     */
+    private PaginateWithQueryColumns coalesceQuery(SqlUtils sqlUtils, Source source, String sql, ViewExecuteParam executeParam, Set<String> excludeColumns, User user) throws Exception {
+        String key = queryCoalescer.buildKey(source.getId(), sql,
+                executeParam.getPageNo(), executeParam.getPageSize(), executeParam.getTotalCount(), executeParam.getLimit(), excludeColumns);
+        Callable<PaginateWithQueryColumns> query;
+        if (null != getKeysetFilter(source, executeParam)) {
+            query = () -> sqlUtils.query4Keyset(
+                    sql,
+                    executeParam.getPageNo(),
+                    executeParam.getPageSize(),
+                    executeParam.getTotalCount(),
+                    executeParam.getLimit(),
+                    excludeColumns);
+        } else if (executeParam.isEstimateCount() && !VisualisUtils.isHiveDataSource(source)) {
+            key = key + MINUS + ESTIMATE_COUNT;
+            query = () -> sqlUtils.syncQuery4Paginate(
+                    sql,
+                    executeParam.getPageNo(),
+                    executeParam.getPageSize(),
+                    executeParam.getTotalCount(),
+                    executeParam.getLimit(),
+                    excludeColumns,
+                    true);
+        } else {
+            query = () -> sqlUtils.syncQuery4Paginate(
+                    sql,
+                    executeParam.getPageNo(),
+                    executeParam.getPageSize(),
+                    executeParam.getTotalCount(),
+                    executeParam.getLimit(),
+                    excludeColumns);
+        }
+        return queryCoalescer.execute(key, () -> scheduleQuery(sqlUtils, source, user, query));
+    }
+
+    /**
+     * 经准入控制（用户 / 项目 / 数据源并发及排队）后执行查询
+     */
+    private <T> T scheduleQuery(SqlUtils sqlUtils, Source source, User user, Callable<T> query) throws Exception {
+        return queryScheduler.execute(getSchedulerKey(sqlUtils, source), sqlUtils.getMaxActive(), source.getProjectId(), null == user ? null : user.getId(), () -> {
+            //排队期间被取代的请求不再执行，执行中被取消的查询统一转为 QueryCancelledException
+            QueryCancellationRegistry.checkCancelled();
+            try {
+                return query.call();
+            } catch (Exception e) {
+                QueryCancellationRegistry.checkCancelled();
+                throw e;
+            }
+        });
+    }
+
+    private static String getSchedulerKey(SqlUtils sqlUtils, Source source) {
+        return null != sqlUtils.getSourceKey() ? sqlUtils.getSourceKey() : String.valueOf(source.getId());
     }
 
     private String getRunningScript(User user,Source source, View view, Project project, Boolean isFirst,String script){
@@ -780,21 +1198,45 @@ public class ViewServiceImpl implements ViewService {
         querySqlList.set((querySqlList.size()-1),view.getName());
         buildQuerySql(querySqlList, source, executeParam);
 
+        DWCResultInfo dwcResultInfo = getDwcResultInfo(view);
+        if (null != dwcResultInfo) {
+            materializeResult(view, dwcResultInfo, source, executeParam, user);
+            querySqlList.set(0, VisualisUtils.buildScala(querySqlList.get(0),dwcResultInfo,view.getName()));
+        }
+    }
+
+    private DWCResultInfo getDwcResultInfo(View view) {
         JSONObject jsonObject = JSONObject.parseObject(view.getConfig());
         String dwcResultInfoKey = VisualisUtils.DWC_RESULT_INFO().getValue();
         if (null != jsonObject && jsonObject.containsKey(dwcResultInfoKey)) {
-            DWCResultInfo dwcResultInfo = BDPJettyServerHelper.gson().fromJson(jsonObject.getString(dwcResultInfoKey), DWCResultInfo.class);
-            //update tmp view result info
-            Project project = projectService.getProjectDetail(source.getProjectId(), user, false);
-            String resultPath = String.join(",", sqlUtils.querySQLWithResultSetLocation(getRunningScript(user, source, view, project, false, dwcResultInfo.getExecutionCode()), executeParam.getLimit()));
-            log.info("got new tmp view result path: " + resultPath);
-            dwcResultInfo.setResultPath(resultPath);
-            jsonObject.put(dwcResultInfoKey, dwcResultInfo);
-            view.setConfig(JSONObject.toJSONString(jsonObject));
-            viewMapper.update(view);
-
-            querySqlList.set(0, VisualisUtils.buildScala(querySqlList.get(0),dwcResultInfo,view.getName()));
+            return BDPJettyServerHelper.gson().fromJson(jsonObject.getString(dwcResultInfoKey), DWCResultInfo.class);
         }
+        return null;
+    }
+
+    /**
+     * 重新执行 DWC 结果对应的代码并更新临时 view 的结果集路径，同一用户的同一 view 版本在有效期内只执行一次；
+     * 执行与其他查询一样经过准入控制，结果集路径每个 view 版本只写回一次
+     */
+    private void materializeResult(View view, DWCResultInfo dwcResultInfo, Source source, ViewExecuteParam executeParam, User user) {
+        String resultPath = resultMaterializationManager.getResultPath(view, dwcResultInfo.getExecutionCode(), user, () -> {
+            Project project = permissionSnapshotCache.getSnapshot(source.getProjectId(), user).getProjectDetail();
+            String script = getRunningScript(user, source, view, project, false, dwcResultInfo.getExecutionCode());
+            SqlUtils sourceSqlUtils = sqlUtils.init(source);
+            String path = scheduleQuery(sourceSqlUtils, source, user,
+                    () -> String.join(",", sourceSqlUtils.querySQLWithResultSetLocation(script, executeParam.getLimit())));
+            log.info("got new tmp view result path: " + path);
+            //update tmp view result info
+            resultMaterializationManager.persistOnce(view, dwcResultInfo.getExecutionCode(), () -> {
+                dwcResultInfo.setResultPath(path);
+                JSONObject jsonObject = JSONObject.parseObject(view.getConfig());
+                jsonObject.put(VisualisUtils.DWC_RESULT_INFO().getValue(), dwcResultInfo);
+                view.setConfig(JSONObject.toJSONString(jsonObject));
+                viewMapper.update(view);
+            });
+            return path;
+        });
+        dwcResultInfo.setResultPath(resultPath);
     }
 
     @Override
@@ -805,15 +1247,12 @@ public class ViewServiceImpl implements ViewService {
             throw new NotFoundException("view is not found");
         }
 
-        ProjectDetail projectDetail = projectService.getProjectDetail(viewWithSource.getProjectId(), user, false);
-
-        boolean allowGetData = projectService.allowGetData(projectDetail, user);
-
-        if (!allowGetData) {
+        PermissionSnapshot permission = permissionSnapshotCache.getSnapshot(viewWithSource.getProjectId(), user);
+        if (!permission.isAllowGetData()) {
             throw new UnAuthorizedExecption();
         }
 
-        return getDistinctValueData(projectService.isMaintainer(projectDetail, user), viewWithSource, param, user);
+        return getDistinctValueData(permission.isMaintainer(), viewWithSource, param, user);
     }
 
 
@@ -823,7 +1262,7 @@ public class ViewServiceImpl implements ViewService {
         try {
             if (!StringUtils.isEmpty(viewWithSource.getSql())) {
                 List<SqlVariable> variables = viewWithSource.getVariables();
-                SqlEntity sqlEntity = sqlParseUtils.parseSql(viewWithSource.getSql(), variables, sqlTempDelimiter);
+                SqlEntity sqlEntity = sqlParseUtils.parseViewSql(viewWithSource, sqlTempDelimiter);
                 packageParams(isMaintainer, viewWithSource.getId(), sqlEntity, variables, param.getParams(), null, user);
 
                 String srcSql = sqlParseUtils.replaceParams(sqlEntity.getSql(), sqlEntity.getQuaryParams(), sqlEntity.getAuthParams(), sqlTempDelimiter, user);
@@ -838,7 +1277,7 @@ public class ViewServiceImpl implements ViewService {
                 if (!CollectionUtils.isEmpty(querySqlList)) {
                     String cacheKey = null;
                     if (null != param) {
-                        STGroup stg = new STGroupFile(Constants.SQL_TEMPLATE);
+                        STGroup stg = SqlParseUtils.getSqlTemplateGroup();
                         ST st = stg.getInstanceOf("queryDistinctSql");
                         st.add("columns", param.getColumns());
                         st.add("filters", convertFilters(param.getFilters(), source));
@@ -865,7 +1304,7 @@ public class ViewServiceImpl implements ViewService {
 
                     List<Map<String, Object>> list = null;
                     if(VisualisUtils.isHiveDataSource(source)){
-                        Project project = projectService.getProjectDetail(source.getProjectId(), user, false);
+                        Project project = permissionSnapshotCache.getSnapshot(source.getProjectId(), user).getProjectDetail();
                         list = sqlUtils.query4List(getRunningScript(user, source, viewWithSource, project, false, String.join(Consts.SEMICOLON, executeSqlList) + Consts.SEMICOLON + String.join(Consts.SEMICOLON, querySqlList)), -1);
                     } else {
                         if (!CollectionUtils.isEmpty(executeSqlList)) {
@@ -965,13 +1404,21 @@ public class ViewServiceImpl implements ViewService {
         return null;
     }
 
+    private List<RelRoleView> getRoleViews(Long userId, Long viewId) {
+        Map<Long, List<RelRoleView>> roleViews = ROLE_VIEWS.get();
+        if (null == roleViews) {
+            return permissionSnapshotCache.getRoleViews(userId, viewId);
+        }
+        return roleViews.computeIfAbsent(viewId, id -> permissionSnapshotCache.getRoleViews(userId, id));
+    }
+
     private void packageParams(boolean isProjectMaintainer, Long viewId, SqlEntity sqlEntity, List<SqlVariable> variables, List<Param> paramList, Set<String> excludeColumns, User user) {
 
         List<SqlVariable> queryVariables = getQueryVariables(variables);
         List<SqlVariable> authVariables = null;
 
         if (!isProjectMaintainer) {
-            List<RelRoleView> roleViewList = relRoleViewMapper.getByUserAndView(user.getId(), viewId);
+            List<RelRoleView> roleViewList = getRoleViews(user.getId(), viewId);
             authVariables = getAuthVariables(roleViewList, variables);
             if (null != excludeColumns) {
                 Set<String> eclmns = getExcludeColumns(roleViewList);
@@ -1015,48 +1462,17 @@ public class ViewServiceImpl implements ViewService {
 
         //权限参数
         if (!CollectionUtils.isEmpty(authVariables)) {
-            ExecutorService executorService = Executors.newFixedThreadPool(8);
-            CountDownLatch countDownLatch = new CountDownLatch(authVariables.size());
-            Map<String, Set<String>> map = new Hashtable<>();
-            List<Future> futures = new ArrayList<>(authVariables.size());
-            try {
-                authVariables.forEach(sqlVariable -> {
-                    try {
-                        futures.add(executorService.submit(() -> {
-                            if (null != sqlVariable) {
-                                Set<String> vSet = null;
-                                if (map.containsKey(sqlVariable.getName().trim())) {
-                                    vSet = map.get(sqlVariable.getName().trim());
-                                } else {
-                                    vSet = new HashSet<>();
-                                }
-
-                                List<String> values = sqlParseUtils.getAuthVarValue(sqlVariable, user.getEmail());
-                                if (null == values) {
-                                    vSet.add(N0_AUTH_PERMISSION);
-                                } else if (!values.isEmpty()) {
-                                    vSet.addAll(values);
-                                }
-                                map.put(sqlVariable.getName().trim(), vSet);
-                            }
-                        }));
-                    } finally {
-                        countDownLatch.countDown();
-                    }
-                });
-                try {
-                    for (Future future : futures) {
-                        future.get();
-                    }
-                    countDownLatch.await();
-                } catch (ExecutionException e) {
-                    executorService.shutdownNow();
-                    throw (ServerException) e.getCause();
+            authVariables = authVariables.stream().filter(Objects::nonNull).collect(Collectors.toList());
+            List<List<String>> authValues = sqlParseUtils.getAuthVarValues(authVariables, user.getEmail());
+            Map<String, Set<String>> map = new HashMap<>();
+            for (int i = 0; i < authVariables.size(); i++) {
+                Set<String> vSet = map.computeIfAbsent(authVariables.get(i).getName().trim(), k -> new HashSet<>());
+                List<String> values = authValues.get(i);
+                if (null == values) {
+                    vSet.add(N0_AUTH_PERMISSION);
+                } else if (!values.isEmpty()) {
+                    vSet.addAll(values);
                 }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } finally {
-                executorService.shutdown();
             }
 
             if (!CollectionUtils.isEmpty(map)) {
@@ -1124,10 +1540,20 @@ public class ViewServiceImpl implements ViewService {
                 if (!CollectionUtils.isEmpty(relRoleViews)) {
                     relRoleViewMapper.insertBatch(relRoleViews);
                 }
+                permissionSnapshotCache.invalidateView(view.getId());
             }).start();
         }
     }
 
 
-}
 
+    private static final class PreparedQuery {
+        private Source source;
+        private SqlUtils sqlUtils;
+        private SqlEntity sqlEntity;
+        private String srcSql;
+        private List<String> executeSqlList;
+        private List<String> querySqlList;
+        private Set<String> excludeColumns;
+    }
+}
@@ -20,14 +20,15 @@
 package edp.davinci.service.impl;
 
 import com.alibaba.druid.util.StringUtils;
+import edp.core.common.cache.ResultCache;
 import edp.core.exception.NotFoundException;
 import edp.core.exception.ServerException;
 import edp.core.exception.UnAuthorizedExecption;
 import edp.core.model.PaginateWithQueryColumns;
-import edp.core.model.QueryColumn;
 import edp.core.utils.CollectionUtils;
 import edp.core.utils.FileUtils;
 import edp.core.utils.ServerUtils;
+import edp.davinci.core.common.CsvResultWriter;
 import edp.davinci.core.enums.FileTypeEnum;
 import edp.davinci.core.enums.LogNameEnum;
 import edp.davinci.core.enums.UserPermissionEnum;
@@ -58,6 +59,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -108,6 +110,12 @@ public class WidgetServiceImpl implements WidgetService {
     @Autowired
     private ProjectService projectService;
 
+    @Value("${source.csv-export.gzip:false}")
+    private boolean csvGzip;
+
+    @Value("${source.csv-export.buffer-size:65536}")
+    private int csvBufferSize;
+
     @Override
     public synchronized boolean isExist(String name, Long id, Long projectId) {
         Long widgetId = widgetMapper.getByNameWithProjectId(name, projectId);
@@ -373,20 +381,21 @@ public class WidgetServiceImpl implements WidgetService {
 
                 boolean maintainer = projectService.isMaintainer(projectDetail, user);
 
-                PaginateWithQueryColumns paginate = viewService.getResultDataList(maintainer, viewWithSource, executeParam, user);
-                List<QueryColumn> columns = paginate.getColumns();
-                if (!CollectionUtils.isEmpty(columns)) {
-                    File file = new File(rootPath);
-                    if (!file.exists()) {
-                        file.mkdirs();
+                String csvName = widget.getName() + "_" +
+                        System.currentTimeMillis() +
+                        UUID.randomUUID().toString().replace("-", EMPTY);
+                File csvFile = CsvUtils.createCsvFile(rootPath, csvName, csvGzip);
+
+                //结果逐行写入文件，不在内存中物化整个结果集
+                try (CsvResultWriter writer = new CsvResultWriter(new FileOutputStream(csvFile), csvGzip, csvBufferSize, 0, null)) {
+                    viewService.streamResultData(maintainer, viewWithSource, executeParam, user, writer);
+                    if (writer.isStarted()) {
+                        filePath = csvFile.getPath();
+                    }
+                } finally {
+                    if (null == filePath) {
+                        csvFile.delete();
                     }
-
-                    String csvName = widget.getName() + "_" +
-                            System.currentTimeMillis() +
-                            UUID.randomUUID().toString().replace("-", EMPTY) +
-                            FileTypeEnum.CSV.getFormat();
-
-                    filePath = CsvUtils.formatCsvWithFirstAsHeader(rootPath, csvName, columns, paginate.getResultList());
                 }
             } else if (type.equals(FileTypeEnum.XLSX.getType())) {
 
@@ -472,6 +481,7 @@ public class WidgetServiceImpl implements WidgetService {
                 } catch (SQLException e) {
                     e.printStackTrace();
                 } finally {
+                    ResultCache.clearStatus();
                     sheet = null;
                     countDownLatch.countDown();
                 }
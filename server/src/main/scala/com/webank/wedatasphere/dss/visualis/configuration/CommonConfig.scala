@@ -46,4 +46,10 @@ object CommonConfig {
 
   val HIVE_DATASOURCE_NAME = CommonVars("wds.dss.visualis.hive.datasource.name", "hive")
 
+  val RESULT_SET_INDEX_CACHE_SIZE = CommonVars("wds.dss.visualis.resultset.index.cache.size", 1000)
+
+  val RESULT_SET_INDEX_CACHE_EXPIRE = CommonVars("wds.dss.visualis.resultset.index.cache.expire", 3600)
+
+  val RESULT_SET_INDEX_INTERVAL = CommonVars("wds.dss.visualis.resultset.index.interval", 1000)
+
 }
@@ -31,14 +31,19 @@ import com.webank.wedatasphere.linkis.scheduler.queue.SchedulerEventState
 import com.webank.wedatasphere.linkis.server.{BDPJettyServerHelper, JMap}
 import com.webank.wedatasphere.linkis.server.security.SecurityFilter
 import com.webank.wedatasphere.linkis.storage.FSFactory
+import org.apache.commons.io.IOUtils
+import org.apache.commons.lang.StringUtils
 import com.webank.wedatasphere.linkis.storage.resultset.table.{TableMetaData, TableRecord}
 import com.webank.wedatasphere.linkis.storage.resultset.{ResultSetFactory, ResultSetReader}
 import com.webank.wedatasphere.dss.visualis.configuration.CommonConfig
 import com.webank.wedatasphere.dss.visualis.exception.{ResultTypeException, SparkEngineExecuteException, VGErrorException}
-import com.webank.wedatasphere.dss.visualis.res.ResultHelper
+import com.webank.wedatasphere.dss.visualis.res.ResultSetPageReader
 import com.webank.wedatasphere.dss.visualis.ujes.UJESJob
 import com.webank.wedatasphere.dss.visualis.utils.VisualisUtils
 import com.webank.wedatasphere.linkis.adapt.LinkisUtils
+import edp.core.common.jdbc.{AsyncQueryExecutor, CancellableJdbcTemplate, ResultRowHandler}
+import edp.core.common.query.{Cancellable, QueryCancellationRegistry}
+import edp.core.enums.QueryJobStatusEnum
 import edp.core.exception.{ServerException, SourceException}
 import edp.core.model._
 import edp.core.utils.SqlUtils
@@ -58,7 +63,6 @@ import org.json4s._
 import org.json4s.jackson._
 import org.json4s.jackson.Serialization.{read, write}
 import org.springframework.context.annotation.Scope
-import org.springframework.jdbc.core.JdbcTemplate
 import org.springframework.web.context.WebApplicationContext
 
 import scala.collection.JavaConversions
@@ -69,7 +73,7 @@ import scala.collection.JavaConversions
   */
 @Component
 @Scope("prototype")
-class SparkEntranceExecutor extends SqlUtils with Logging{
+class SparkEntranceExecutor extends SqlUtils with AsyncQueryExecutor with Logging{
   private var umUser:String=""
   implicit val formats = DefaultFormats
   @Autowired
@@ -104,8 +108,7 @@ class SparkEntranceExecutor extends SqlUtils with Logging{
     init(source)
   }
 
-  private def executeUntil[T](sql: String, op: VisualisJob => T): T = {
-    info(s"$umUser began to executeRealJob script:$sql")
+  private def submitJob(sql: String): String = {
     val input = read[UJESJob](sql)
     var code =input.code
     val jobType = input.jobType
@@ -125,30 +128,93 @@ class SparkEntranceExecutor extends SqlUtils with Logging{
     requestMap.put(TaskConstant.PARAMS,new util.HashMap())
     val execId = entranceServer.execute(requestMap)
     SparkEntranceExecutor.putJobCache(umUser,execId)//缓存相应的执行ID
-    entranceServer.getJob(execId) foreach {
-      case job: VisualisJob =>
-        job.waitForCompleted()
-        if (!SchedulerEventState.isSucceed(job.getState)){
-          job.getTask match {
-            case t: RequestPersistTask =>
-              if(t.getErrCode != null && t.getErrDesc != null){
-                throw SparkEngineExecuteException(t.getErrCode, "spark engine run sql failed:" + t.getErrDesc)
-              }
-            case _ =>
-          }
-          if(job.getErrorResponse != null){
-            throw SparkEngineExecuteException(60001, job.getErrorResponse.message)
-          }
-          throw SparkEngineExecuteException(60001, "spark engine run sql failed")
+    //登记到当前请求组，被更新的请求取代时 kill 该任务
+    QueryCancellationRegistry.attachCurrent(new Cancellable {
+      override def cancel(): Unit = SparkEntranceExecutor.this.cancel(execId)
+      override def isDone: Boolean = entranceServer.getJob(execId).forall(job => SchedulerEventState.isCompleted(job.getState))
+    })
+    execId
+  }
+
+  private def getVisualisJob(execId: String): VisualisJob = entranceServer.getJob(execId) match {
+    case Some(job: VisualisJob) => job
+    case Some(_) => throw new VGErrorException(70001, "executeRealJob failed, not supported job type.")
+    case _ => throw new VGErrorException(70001, s"executeRealJob failed, cannot find the job $execId.")
+  }
+
+  private def failedException(job: VisualisJob): SparkEngineExecuteException = {
+    job.getTask match {
+      case t: RequestPersistTask =>
+        if(t.getErrCode != null && t.getErrDesc != null){
+          return SparkEngineExecuteException(t.getErrCode, "spark engine run sql failed:" + t.getErrDesc)
         }
-        info(s"$umUser finish to executeRealJob script:$sql")
-        SparkEntranceExecutor.removeJobCache(umUser,execId)
-        return op(job)
       case _ =>
-        SparkEntranceExecutor.removeJobCache(umUser,execId)
-        throw new VGErrorException(70001, "executeRealJob failed, not supported job type.")
     }
-    throw new VGErrorException(70001, s"executeRealJob failed, cannot find the job $execId.")
+    if(job.getErrorResponse != null){
+      return SparkEngineExecuteException(60001, job.getErrorResponse.message)
+    }
+    SparkEngineExecuteException(60001, "spark engine run sql failed")
+  }
+
+  private def executeUntil[T](sql: String, op: VisualisJob => T): T = {
+    info(s"$umUser began to executeRealJob script:$sql")
+    val execId = submitJob(sql)
+    val jobUser = umUser
+    //任务失败或等待被中断时同样清除执行 ID 缓存
+    try {
+      val job = getVisualisJob(execId)
+      job.waitForCompleted()
+      if (!SchedulerEventState.isSucceed(job.getState)){
+        throw failedException(job)
+      }
+      info(s"$jobUser finish to executeRealJob script:$sql")
+      op(job)
+    } finally {
+      SparkEntranceExecutor.removeJobCache(jobUser, execId)
+    }
+  }
+
+  override def submit(script: String): String = {
+    info(s"$umUser began to submit script:$script")
+    submitJob(script)
+  }
+
+  override def getStatus(execId: String): QueryJobStatusEnum = entranceServer.getJob(execId) match {
+    case Some(job) =>
+      val state = job.getState
+      if (SchedulerEventState.isSucceed(state)) QueryJobStatusEnum.SUCCEED
+      else if (state == SchedulerEventState.Cancelled) QueryJobStatusEnum.CANCELLED
+      else if (SchedulerEventState.isCompleted(state)) QueryJobStatusEnum.FAILED
+      else if (SchedulerEventState.isRunning(state)) QueryJobStatusEnum.RUNNING
+      else QueryJobStatusEnum.SUBMITTED
+    case _ => QueryJobStatusEnum.FAILED
+  }
+
+  override def getProgress(execId: String): Float = entranceServer.getJob(execId).map(_.getProgress).getOrElse(0f)
+
+  override def getErrorMessage(execId: String): String = entranceServer.getJob(execId) match {
+    case Some(job: VisualisJob) if SchedulerEventState.isCompleted(job.getState) && !SchedulerEventState.isSucceed(job.getState) =>
+      failedException(job).getMessage
+    case Some(_) => null
+    case _ => s"cannot find the job $execId."
+  }
+
+  override def fetch(execId: String, pageNo: Int, pageSize: Int): PaginateWithQueryColumns = {
+    val job = getVisualisJob(execId)
+    if (!SchedulerEventState.isSucceed(job.getState)){
+      throw failedException(job)
+    }
+    SparkEntranceExecutor.removeJobCache(umUser, execId)
+    toPaginate(job.getResultSets, pageNo, pageSize, -1)
+  }
+
+  override def cancel(execId: String): Boolean = entranceServer.getJob(execId) match {
+    case Some(job) if !SchedulerEventState.isCompleted(job.getState) =>
+      info(s"kill job $execId")
+      job.kill()
+      SparkEntranceExecutor.removeJobCache(umUser, execId)
+      true
+    case _ => false
   }
 
   private def getHistoryQuery(sql: String): Option[RequestPersistTask] = {
@@ -197,74 +263,6 @@ class SparkEntranceExecutor extends SqlUtils with Logging{
 
   }
 
-  /**
-    * 将一个结果集文件或结果集解析成一个List
-    * @param resultSet 结果集文件或结果集
-    * @return
-    */
-  private def getResultSet(resultSet: String): util.List[util.Map[String, AnyRef]] = {
-    info(s"$umUser began to get the result of execution :$resultSet")
-    val rsFactory= ResultSetFactory.getInstance
-    val res = new util.ArrayList[util.Map[String, AnyRef]]()
-    if(rsFactory.isResultSet(resultSet)){
-      val resultSetModel =  rsFactory.getResultSetByContent(resultSet)
-      if(ResultSetFactory.TABLE_TYPE != resultSetModel.resultSetType()){
-        throw new VGErrorException(60013,"不支持不是表格的结果集")
-      }
-      val reader =ResultSetReader.getResultSetReader(resultSetModel,resultSet)
-      val metaData = reader.getMetaData.asInstanceOf[TableMetaData]
-      while (reader.hasNext) {
-        val record = reader.getRecord.asInstanceOf[TableRecord]
-        val lineMap = new util.LinkedHashMap[String, AnyRef]()
-        val columns = metaData.columns
-        val row = record.row
-        if (columns.size > 0) {
-          for (x <- 0 until columns.size) {
-            lineMap.put(columns(x).columnName, parseValue(row(x)))
-          }
-        }
-        res.add(lineMap)
-      }
-      info(s"$umUser finish to get the result of execution :$resultSet")
-      res
-    }else if(rsFactory.isResultSetPath(resultSet)){
-      val resPath = new FsPath(resultSet)
-      val resultSetContent =  rsFactory.getResultSetByPath(resPath)
-      if(ResultSetFactory.TABLE_TYPE != resultSetContent.resultSetType()){
-        throw new VGErrorException(60014,"不支持不是表格的结果集")
-      }
-      val fs = FSFactory.getFs(resPath)
-      fs.init(null)
-      val reader =ResultSetReader.getResultSetReader(resultSetContent,fs.read(resPath))
-      val metaData = reader.getMetaData.asInstanceOf[TableMetaData]
-      while (reader.hasNext){
-        val record = reader.getRecord.asInstanceOf[TableRecord]
-        val lineMap = new util.LinkedHashMap[String,AnyRef]()
-        val columns = metaData.columns
-        val row = record.row
-        if(columns.size>0) {
-          for (x <- 0 until columns.size) {
-            lineMap.put(columns(x).columnName, parseValue(row(x)))
-          }
-        }
-        res.add(lineMap)
-      }
-      info(s"$umUser finish to get the result of execution :$resultSet")
-      res
-    }else{
-      throw new ResultTypeException(60015,"结果集类型异常:"+resultSet)
-    }
-  }
-
-  private def parseValue(original: Any) : AnyRef = {
-    original match {
-      case bigDecimal: BigDecimal => bigDecimal.toDouble.asInstanceOf[AnyRef]
-      case bool: Boolean => bool.toString
-      case boolean: java.lang.Boolean => boolean.toString
-      case _ => original.asInstanceOf[AnyRef]
-    }
-  }
-
   override def querySQLWithResultSetLocation(sql: String, limit: Int) : Array[String] = {
 //    getHistoryQuery(sql).map(_.getResultLocation).map{l =>
 //      val fsPath = new FsPath(l)
@@ -302,21 +300,80 @@ class SparkEntranceExecutor extends SqlUtils with Logging{
 
   override def query4List(sql: String, limit: Int): util.List[util.Map[String, AnyRef]] = {
     val resultSets = querySQLWithResultSetPaths(sql, limit)
-    if(resultSets.isEmpty) new util.ArrayList[util.Map[String, AnyRef]] else getResultSet(resultSets(resultSets.length - 1))
+    if(resultSets.isEmpty) new util.ArrayList[util.Map[String, AnyRef]] else {
+      val resultSet = resultSets(resultSets.length - 1)
+      info(s"$umUser began to get the result of execution :$resultSet")
+      val res = ResultSetPageReader.readList(resultSet)
+      info(s"$umUser finish to get the result of execution :$resultSet")
+      res
+    }
   }
 
-  override def query4Paginate(sql: String, pageNo: Int, pageSize: Int, totalCount: Int, limit: Int, excludeColumns: util.Set[String]): PaginateWithQueryColumns = {
-    val paginateWithQueryColumns = new PaginateWithQueryColumns
-    val resultSets = querySQLWithResultSetPaths(sql, limit)
+  override def query4Paginate(sql: String, pageNo: Int, pageSize: Int, totalCount: Int, limit: Int, excludeColumns: util.Set[String]): PaginateWithQueryColumns =
+    toPaginate(querySQLWithResultSetPaths(sql, limit), pageNo, pageSize, limit)
+
+  /**
+    * 只提交一次任务，从任务的结果目录定位最后一个结果集文件，逐行回调 handler，
+    * 不再经过 PaginateWithQueryColumns 物化
+    */
+  override def query4Stream(sql: String, pageNo: Int, pageSize: Int, totalCount: Int, limit: Int,
+                            excludeColumns: util.Set[String], handler: ResultRowHandler): Unit =
+    executeUntil(sql, getLastResultSet) match {
+      case Some(resultSet) =>
+        info(s"$umUser began to stream the result of execution :$resultSet")
+        val count = ResultSetPageReader.stream(resultSet, pageNo, pageSize, limit, excludeColumns, handler)
+        info(s"$umUser finish to stream $count rows of the result of execution :$resultSet")
+      case None =>
+        handler.onColumns(new util.ArrayList[QueryColumn])
+        handler.onComplete(1, 0, 0)
+    }
+
+  /**
+    * 任务的最后一个结果集：优先列出 RequestPersistTask 的结果目录，
+    * 目录无法读取时退回任务登记的结果集
+    */
+  private def getLastResultSet(job: VisualisJob): Option[String] = {
+    val fromLocation = job.getTask match {
+      case t: RequestPersistTask if StringUtils.isNotBlank(t.getResultLocation) =>
+        val location = t.getResultLocation.stripSuffix("/")
+        Utils.tryCatch {
+          val fsPath = new FsPath(location)
+          val fs = FSFactory.getFs(fsPath)
+          fs.init(null)
+          fs.list(fsPath).map(_.getPath.split("/").last)
+            .filter(ResultSetFactory.getInstance.isResultSetPath)
+            .sortBy(resultSetIndex).lastOption
+            .map(location + "/" + _)
+        } { t: Throwable =>
+          warn(s"Failed to list result location $location", t)
+          None
+        }
+      case _ => None
+    }
+    fromLocation.orElse(job.getResultSets.lastOption)
+  }
+
+  /**
+    * 结果集文件名形如 _N.dolphin，按 N 排序
+    */
+  private def resultSetIndex(name: String): Int =
+    scala.util.Try(name.substring(name.lastIndexOf('_') + 1, name.indexOf('.')).toInt).getOrElse(-1)
 
+  /**
+    * 按页读取最后一个结果集，不再把整个结果集载入内存
+    */
+  private def toPaginate(resultSets: Array[String], pageNo: Int, pageSize: Int, limit: Int): PaginateWithQueryColumns = {
     if(resultSets.isEmpty){
+      val paginateWithQueryColumns = new PaginateWithQueryColumns
       paginateWithQueryColumns.setResultList(new util.ArrayList[util.Map[String, AnyRef]])
+      paginateWithQueryColumns
     } else {
-      paginateWithQueryColumns.setResultList(getResultSet(resultSets(resultSets.length - 1)))
-      val columns = ResultHelper.getResultType(resultSets(resultSets.length - 1))
-      paginateWithQueryColumns.setColumns(columns.map(col => new QueryColumn(col.columnName,col.dataType.typeName)).toList)
+      val resultSet = resultSets(resultSets.length - 1)
+      info(s"$umUser began to read page $pageNo of the result of execution :$resultSet")
+      val paginateWithQueryColumns = ResultSetPageReader.readPage(resultSet, pageNo, pageSize, limit)
+      info(s"$umUser finish to read ${paginateWithQueryColumns.getResultSize} rows of the result of execution :$resultSet")
+      paginateWithQueryColumns
     }
-    return  paginateWithQueryColumns;
   }
 
   /**
@@ -338,14 +395,14 @@ class SparkEntranceExecutor extends SqlUtils with Logging{
   override def getColumns(sql: String): util.List[QueryColumn] = {
     val resultSets = querySQLWithResultSetPaths(sql, 2)
     if(resultSets.isEmpty) null else {
-      val columns = ResultHelper.getResultType(resultSets(resultSets.length - 1))
+      val columns = ResultSetPageReader.getColumns(resultSets(resultSets.length - 1))
       columns.map(col => new QueryColumn(col.columnName,col.dataType.typeName)).toList
     }
   }
 
   override def testConnection(): Boolean = super.testConnection()
 
-  override def jdbcTemplate(): JdbcTemplate = super.jdbcTemplate()
+  override def jdbcTemplate(): CancellableJdbcTemplate = super.jdbcTemplate()
 
   override def executeBatch(sql: String, headers: util.Set[QueryColumn], datas: util.List[util.Map[String, AnyRef]]): Unit = super.executeBatch(sql, headers, datas)
 
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019 WeBank
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.webank.wedatasphere.dss.visualis.res
+
+import java.util
+import java.util.concurrent.TimeUnit
+
+import com.github.benmanes.caffeine.cache.{Cache, Caffeine}
+import com.webank.wedatasphere.dss.visualis.configuration.CommonConfig
+import com.webank.wedatasphere.dss.visualis.exception.{ResultTypeException, VGErrorException}
+import com.webank.wedatasphere.linkis.common.io.FsPath
+import com.webank.wedatasphere.linkis.common.io.resultset.{ResultSetReader => TableReader}
+import com.webank.wedatasphere.linkis.common.utils.{Logging, Utils}
+import com.webank.wedatasphere.linkis.storage.FSFactory
+import com.webank.wedatasphere.linkis.storage.domain.Column
+import com.webank.wedatasphere.linkis.storage.resultset.table.{TableMetaData, TableRecord}
+import com.webank.wedatasphere.linkis.storage.resultset.{ResultSetFactory, ResultSetReader}
+import edp.core.common.jdbc.ResultRowHandler
+import edp.core.model.{ColumnVector, ColumnarResult, PaginateWithQueryColumns, QueryColumn}
+import org.apache.commons.io.IOUtils
+import org.apache.commons.io.input.CountingInputStream
+
+import scala.collection.JavaConversions._
+import scala.collection.mutable
+
+/**
+  * 按页读取 Linkis 结果集：跳过前面的记录，只解析当前页；
+  * 结果集文件的列信息、总行数和每隔 interval 行的字节偏移在首次读取时缓存，之后翻页直接定位到附近的记录
+  */
+object ResultSetPageReader extends Logging {
+
+  private case class ResultSetIndex(columns: Array[Column], totalCount: Int, interval: Int, offsets: Array[Long])
+
+  private val INDEX_CACHE: Cache[String, ResultSetIndex] = Caffeine.newBuilder()
+    .maximumSize(CommonConfig.RESULT_SET_INDEX_CACHE_SIZE.getValue.toLong)
+    .expireAfterAccess(CommonConfig.RESULT_SET_INDEX_CACHE_EXPIRE.getValue.toLong, TimeUnit.SECONDS)
+    .build[String, ResultSetIndex]()
+
+  /**
+    * 打开结果集文件或结果集内容对应的表格Reader
+    * @param resultSet 结果集文件或结果集
+    * @return
+    */
+  def getTableReader(resultSet: String): TableReader[TableMetaData, TableRecord] = openTableReader(resultSet)._1
+
+  /**
+    * 打开表格Reader，结果集文件同时返回计数的输入流（结果集内容为 null），用于记录和定位记录的字节偏移
+    */
+  private def openTableReader(resultSet: String): (TableReader[TableMetaData, TableRecord], CountingInputStream) = {
+    val rsFactory= ResultSetFactory.getInstance
+    if(rsFactory.isResultSet(resultSet)){
+      val resultSetModel =  rsFactory.getResultSetByContent(resultSet)
+      if(ResultSetFactory.TABLE_TYPE != resultSetModel.resultSetType()){
+        throw new VGErrorException(60013,"不支持不是表格的结果集")
+      }
+      (ResultSetReader.getResultSetReader(resultSetModel,resultSet).asInstanceOf[TableReader[TableMetaData, TableRecord]], null)
+    }else if(rsFactory.isResultSetPath(resultSet)){
+      val resPath = new FsPath(resultSet)
+      val resultSetContent =  rsFactory.getResultSetByPath(resPath)
+      if(ResultSetFactory.TABLE_TYPE != resultSetContent.resultSetType()){
+        throw new VGErrorException(60014,"不支持不是表格的结果集")
+      }
+      val fs = FSFactory.getFs(resPath)
+      fs.init(null)
+      val input = new CountingInputStream(fs.read(resPath))
+      (ResultSetReader.getResultSetReader(resultSetContent,input).asInstanceOf[TableReader[TableMetaData, TableRecord]], input)
+    }else{
+      throw new ResultTypeException(60015,"结果集类型异常:"+resultSet)
+    }
+  }
+
+  /**
+    * 读取结果集的一页，pageNo / pageSize 小于 1 时读取全部（受 limit 限制）
+    * @param resultSet 结果集文件或结果集
+    * @return
+    */
+  def readPage(resultSet: String, pageNo: Int, pageSize: Int, limit: Int): PaginateWithQueryColumns = {
+    val paged = pageNo > 0 && pageSize > 0
+    val offset = if (paged) (pageNo - 1) * pageSize else 0
+    val end = {
+      val pageEnd = if (paged) offset.toLong + pageSize else Int.MaxValue.toLong
+      (if (limit > 0) math.min(pageEnd, limit.toLong) else pageEnd).toInt
+    }
+    val cacheable = ResultSetFactory.getInstance.isResultSetPath(resultSet)
+    val index = if (cacheable) Option(INDEX_CACHE.getIfPresent(resultSet)) else None
+
+    val builder = ColumnarResult.newBuilder()
+    var columns: Array[Column] = null
+    var totalCount = 0
+    val (reader, input) = openTableReader(resultSet)
+    Utils.tryFinally {
+      columns = reader.getMetaData.asInstanceOf[TableMetaData].columns
+      columns.foreach(col => builder.addColumn(col.columnName, ColumnVector.forTypeName(col.dataType.typeName)))
+      val append = (row: Array[Any]) => appendRow(builder, row, columns.length)
+      index match {
+        case Some(i) =>
+          totalCount = i.totalCount
+          readRange(reader, input, i, offset, end)(append)
+        case None =>
+          //首次读取：逐条遍历，只转换当前页，同时统计总行数
+          val built = scan(reader, input, columns, offset, end)(append)
+          totalCount = built.totalCount
+          if (cacheable) INDEX_CACHE.put(resultSet, built)
+      }
+    }(IOUtils.closeQuietly(reader))
+
+    val paginate = new PaginateWithQueryColumns
+    paginate.setColumnarResult(builder.build())
+    paginate.setColumns(columns.map(col => new QueryColumn(col.columnName, col.dataType.typeName)).toList)
+    if (limit > 0) totalCount = math.min(totalCount, limit)
+    if (paged) {
+      paginate.setPageNo(pageNo)
+      paginate.setPageSize(pageSize)
+    } else {
+      paginate.setPageNo(1)
+      paginate.setPageSize(paginate.getResultSize)
+    }
+    paginate.setTotalCount(totalCount)
+    paginate
+  }
+
+  /**
+    * 逐行回调结果集，只复用一个值数组，不物化整个结果集；
+    * pageNo / pageSize 小于 1 时回调全部记录（受 limit 限制），排除列不回调，重名列取最后一列
+    * @param resultSet 结果集文件或结果集
+    * @return 回调的行数
+    */
+  def stream(resultSet: String, pageNo: Int, pageSize: Int, limit: Int,
+             excludeColumns: util.Set[String], handler: ResultRowHandler): Int = {
+    val paged = pageNo > 0 && pageSize > 0
+    val offset = if (paged) (pageNo - 1) * pageSize else 0
+    val end = {
+      val pageEnd = if (paged) offset.toLong + pageSize else Int.MaxValue.toLong
+      (if (limit > 0) math.min(pageEnd, limit.toLong) else pageEnd).toInt
+    }
+    val cacheable = ResultSetFactory.getInstance.isResultSetPath(resultSet)
+    val index = if (cacheable) Option(INDEX_CACHE.getIfPresent(resultSet)) else None
+    var count = 0
+    val (reader, input) = openTableReader(resultSet)
+    Utils.tryFinally {
+      val columns = reader.getMetaData.asInstanceOf[TableMetaData].columns
+      //重名列保留最后一列，与 jdbc 结果的处理一致
+      val labelOrdinals = new util.LinkedHashMap[String, Integer]()
+      columns.indices
+        .filter(i => null == excludeColumns || !excludeColumns.contains(columns(i).columnName))
+        .foreach(i => labelOrdinals.put(columns(i).columnName, i))
+      val ordinals = labelOrdinals.values.map(_.intValue).toArray
+      handler.onColumns(ordinals.map(i => new QueryColumn(columns(i).columnName, columns(i).dataType.typeName)).toList)
+      val values = new Array[AnyRef](ordinals.length)
+      val emit = (original: Array[Any]) => {
+        for (x <- ordinals.indices) {
+          values(x) = parseValue(original(ordinals(x)))
+        }
+        handler.onRow(values)
+        count += 1
+      }
+      val rows = index match {
+        case Some(i) =>
+          readRange(reader, input, i, offset, end)(emit)
+          i.totalCount
+        case None if paged && handler.needTotalCount =>
+          //分页且需要总行数时遍历全部记录，并缓存索引供之后翻页使用
+          val built = scan(reader, input, columns, offset, end)(emit)
+          if (cacheable) INDEX_CACHE.put(resultSet, built)
+          built.totalCount
+        case None =>
+          //全量导出或不需要总行数时读到 end 即停止
+          var row = 0
+          while (row < end && reader.hasNext) {
+            if (row >= offset) emit(reader.getRecord.asInstanceOf[TableRecord].row)
+            row += 1
+          }
+          row
+      }
+      val totalCount = if (limit > 0) math.min(rows, limit) else rows
+      if (paged) handler.onComplete(pageNo, pageSize, totalCount)
+      else handler.onComplete(1, count, totalCount)
+    }(IOUtils.closeQuietly(reader))
+    count
+  }
+
+  /**
+    * 结果集的列信息，已缓存时不再打开文件
+    */
+  def getColumns(resultSet: String): Array[Column] = {
+    val index = if (ResultSetFactory.getInstance.isResultSetPath(resultSet)) INDEX_CACHE.getIfPresent(resultSet) else null
+    if (null != index) index.columns else {
+      val reader = getTableReader(resultSet)
+      Utils.tryFinally(reader.getMetaData.asInstanceOf[TableMetaData].columns)(IOUtils.closeQuietly(reader))
+    }
+  }
+
+  /**
+    * 将一个结果集文件或结果集解析成一个List
+    * @param resultSet 结果集文件或结果集
+    * @return
+    */
+  def readList(resultSet: String): util.List[util.Map[String, AnyRef]] = {
+    val res = new util.ArrayList[util.Map[String, AnyRef]]()
+    val reader = getTableReader(resultSet)
+    Utils.tryFinally {
+      val columns = reader.getMetaData.asInstanceOf[TableMetaData].columns
+      while (reader.hasNext) {
+        val row = reader.getRecord.asInstanceOf[TableRecord].row
+        val lineMap = new util.LinkedHashMap[String, AnyRef]()
+        for (x <- 0 until columns.size) {
+          lineMap.put(columns(x).columnName, parseValue(row(x)))
+        }
+        res.add(lineMap)
+      }
+    }(IOUtils.closeQuietly(reader))
+    res
+  }
+
+  /**
+    * 遍历全部记录，回调 [offset, end) 内的行，同时每隔 interval 行记录下一条记录的字节偏移
+    */
+  private def scan(reader: TableReader[TableMetaData, TableRecord], input: CountingInputStream, columns: Array[Column],
+                   offset: Int, end: Int)(onRow: Array[Any] => Unit): ResultSetIndex = {
+    val interval = math.max(CommonConfig.RESULT_SET_INDEX_INTERVAL.getValue.intValue, 1)
+    val offsets = mutable.ArrayBuilder.make[Long]()
+    if (null != input) offsets += input.getByteCount
+    var row = 0
+    while (reader.hasNext) {
+      if (row >= offset && row < end) {
+        onRow(reader.getRecord.asInstanceOf[TableRecord].row)
+      }
+      row += 1
+      if (null != input && row % interval == 0) offsets += input.getByteCount
+    }
+    ResultSetIndex(columns, row, interval, offsets.result())
+  }
+
+  /**
+    * 已有索引时回调 [offset, end) 内的行：先跳到 offset 之前最近的已记录偏移，再逐条跳过剩余的行
+    */
+  private def readRange(reader: TableReader[TableMetaData, TableRecord], input: CountingInputStream, index: ResultSetIndex,
+                        offset: Int, end: Int)(onRow: Array[Any] => Unit): Unit = {
+    val readEnd = math.min(end, index.totalCount)
+    if (offset < readEnd) {
+      if (offset > 0) {
+        val block = if (null == input || index.offsets.isEmpty) 0 else math.min(offset / index.interval, index.offsets.length - 1)
+        if (block > 0) IOUtils.skipFully(input, index.offsets(block) - input.getByteCount)
+        val rest = offset - block * index.interval
+        if (rest > 0) reader.skip(rest)
+      }
+      var row = offset
+      while (row < readEnd && reader.hasNext) {
+        onRow(reader.getRecord.asInstanceOf[TableRecord].row)
+        row += 1
+      }
+    }
+  }
+
+  private def appendRow(builder: ColumnarResult.Builder, row: Array[Any], size: Int): Unit = {
+    for (x <- 0 until size) {
+      builder.append(x, parseValue(row(x)))
+    }
+    builder.endRow()
+  }
+
+  def parseValue(original: Any) : AnyRef = {
+    original match {
+      case bigDecimal: BigDecimal => bigDecimal.toDouble.asInstanceOf[AnyRef]
+      case bool: Boolean => bool.toString
+      case boolean: java.lang.Boolean => boolean.toString
+      case _ => original.asInstanceOf[AnyRef]
+    }
+  }
+}
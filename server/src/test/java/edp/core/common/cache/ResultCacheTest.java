@@ -0,0 +1,202 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.query.QueryScheduler;
+import edp.core.enums.QueryPriorityEnum;
+import edp.core.model.ColumnarResult;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 磁盘缓存按字节数淘汰最久未访问的文件、定期清理过期文件、重启后重建索引；后台刷新以后台优先级在共享线程池执行
+ */
+public class ResultCacheTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private static final List<QueryColumn> COLUMNS = Collections.singletonList(new QueryColumn("name", "VARCHAR"));
+
+    private File dir;
+
+    private ExecutorRegistry executorRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("result-cache-test").toFile();
+        executorRegistry = new ExecutorRegistry();
+    }
+
+    @After
+    public void tearDown() {
+        executorRegistry.shutdown();
+        File[] files = dir.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFilesOverDiskLimit() throws Exception {
+        ResultCache cache = newCache(Long.MAX_VALUE);
+        cache.get("a", () -> paginate("a"), HOUR, HOUR, false);
+        long bytes = (Long) cache.getStats().get("diskBytes");
+        set(cache, "diskMaxBytes", bytes * 2 + bytes / 2);
+
+        Thread.sleep(5L);
+        cache.get("b", () -> paginate("b"), HOUR, HOUR, false);
+        Thread.sleep(5L);
+        clearL1(cache);
+        assertEquals("a", firstName(cache.get("a", () -> paginate("reloaded"), HOUR, HOUR, false)));
+        Thread.sleep(5L);
+        cache.get("c", () -> paginate("c"), HOUR, HOUR, false);
+
+        Map<String, Object> stats = cache.getStats();
+        assertEquals(2, stats.get("diskEntries"));
+        assertEquals(1L, stats.get("diskEvictions"));
+        assertTrue((Long) stats.get("diskBytes") <= bytes * 2 + bytes / 2);
+
+        clearL1(cache);
+        assertEquals("b-reloaded", firstName(cache.get("b", () -> paginate("b-reloaded"), HOUR, HOUR, false)));
+        assertEquals(2, dir.listFiles().length);
+    }
+
+    @Test
+    public void sweepDeletesExpiredFiles() throws Exception {
+        ResultCache cache = newCache(Long.MAX_VALUE);
+        cache.get("a", () -> paginate("a"), 50L, 50L, false);
+        cache.get("b", () -> paginate("b"), HOUR, HOUR, false);
+        assertEquals(2, dir.listFiles().length);
+
+        Thread.sleep(100L);
+        cache.sweepDisk();
+
+        assertEquals(1, cache.getStats().get("diskEntries"));
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    @Test
+    public void rebuildsIndexFromDiskOnStartup() throws Exception {
+        ResultCache cache = newCache(Long.MAX_VALUE);
+        cache.get("a", () -> paginate("a"), HOUR, HOUR, false);
+        long bytes = (Long) cache.getStats().get("diskBytes");
+        assertTrue(new File(dir, "orphan.tmp").createNewFile());
+
+        ResultCache restarted = newCache(Long.MAX_VALUE);
+        assertEquals(1, restarted.getStats().get("diskEntries"));
+        assertEquals(bytes, restarted.getStats().get("diskBytes"));
+        assertEquals(1, dir.listFiles().length);
+
+        AtomicInteger loads = new AtomicInteger();
+        PaginateWithQueryColumns paginate = restarted.get("a", () -> {
+            loads.incrementAndGet();
+            return paginate("reloaded");
+        }, HOUR, HOUR, false);
+        assertEquals("a", firstName(paginate));
+        assertEquals(0, loads.get());
+    }
+
+    @Test
+    public void refreshesStaleResultInBackground() throws Exception {
+        ResultCache cache = newCache(Long.MAX_VALUE);
+        cache.get("a", () -> paginate("a"), 1L, HOUR, false);
+        Thread.sleep(5L);
+
+        CountDownLatch refreshed = new CountDownLatch(1);
+        AtomicReference<QueryPriorityEnum> priority = new AtomicReference<>();
+        AtomicReference<String> thread = new AtomicReference<>();
+        PaginateWithQueryColumns stale = cache.get("a", () -> {
+            priority.set(QueryScheduler.currentPriority());
+            thread.set(Thread.currentThread().getName());
+            refreshed.countDown();
+            return paginate("b");
+        }, 1L, HOUR, false);
+
+        assertEquals("a", firstName(stale));
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertEquals(QueryPriorityEnum.BACKGROUND, priority.get());
+        assertNotNull(thread.get());
+        assertTrue(thread.get().startsWith(ExecutorRegistry.BACKGROUND_QUERY));
+    }
+
+    private ResultCache newCache(long diskMaxBytes) throws Exception {
+        ResultCache cache = new ResultCache();
+        set(cache, "executorRegistry", executorRegistry);
+        set(cache, "l1MaxBytes", 1024L * 1024L);
+        set(cache, "l2Type", "disk");
+        set(cache, "diskPath", dir.getAbsolutePath());
+        set(cache, "diskMaxBytes", diskMaxBytes);
+        cache.init();
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void clearL1(ResultCache cache) throws Exception {
+        Field field = ResultCache.class.getDeclaredField("l1");
+        field.setAccessible(true);
+        ((Cache<String, ?>) field.get(cache)).invalidateAll();
+    }
+
+    private static PaginateWithQueryColumns paginate(String name) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("name", name);
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setPageNo(1);
+        paginate.setPageSize(1);
+        paginate.setTotalCount(1L);
+        paginate.setColumns(COLUMNS);
+        paginate.setColumnarResult(ColumnarResult.of(COLUMNS, Collections.singletonList(row)));
+        return paginate;
+    }
+
+    private static String firstName(PaginateWithQueryColumns paginate) {
+        return String.valueOf(paginate.getResultList().get(0).get("name"));
+    }
+
+    private static void set(ResultCache cache, String name, Object value) throws Exception {
+        Field field = ResultCache.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(cache, value);
+    }
+}
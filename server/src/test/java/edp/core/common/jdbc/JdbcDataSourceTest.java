@@ -0,0 +1,121 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import edp.core.utils.SourceUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 连接池共享的 JdbcTemplate：随连接池缓存，连接池替换后重建；按次设置的 maxRows 不影响共享模板
+ */
+public class JdbcDataSourceTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:jdbc_data_source_test;DB_CLOSE_DELAY=-1";
+
+    private static final String USERNAME = "sa";
+
+    private JdbcDataSource jdbcDataSource;
+
+    private String key;
+
+    @Before
+    public void setUp() throws Exception {
+        jdbcDataSource = new JdbcDataSource();
+        set("maxActive", 2);
+        set("maxWait", 1000L);
+        set("timeBetweenEvictionRunsMillis", 60000L);
+        set("minEvictableIdleTimeMillis", 300000L);
+        set("failureThreshold", 3);
+        set("baseBackoff", 1000L);
+        set("maxBackoff", 1000L);
+        jdbcDataSource.init();
+        key = SourceUtils.getKey(JDBC_URL, USERNAME, null, null, false);
+    }
+
+    @After
+    public void tearDown() {
+        jdbcDataSource.removeDatasource(JDBC_URL, USERNAME, null, null, false);
+    }
+
+    @Test
+    public void reusesTemplateForSamePool() throws Exception {
+        DruidDataSource dataSource = getDataSource();
+        CancellableJdbcTemplate template = jdbcDataSource.getJdbcTemplate(key, JDBC_URL, dataSource);
+
+        assertSame(template, jdbcDataSource.getJdbcTemplate(key, JDBC_URL, getDataSource()));
+        assertEquals(1000, template.getFetchSize());
+    }
+
+    @Test
+    public void rebuildsTemplateAfterPoolReplaced() throws Exception {
+        DruidDataSource dataSource = getDataSource();
+        CancellableJdbcTemplate template = jdbcDataSource.getJdbcTemplate(key, JDBC_URL, dataSource);
+        dataSource.close();
+
+        DruidDataSource replaced = getDataSource();
+        assertNotSame(dataSource, replaced);
+        assertNotSame(template, jdbcDataSource.getJdbcTemplate(key, JDBC_URL, replaced));
+        // 已替换的连接池不再缓存
+        assertNotSame(jdbcDataSource.getJdbcTemplate(key, JDBC_URL, dataSource), jdbcDataSource.getJdbcTemplate(key, JDBC_URL, dataSource));
+    }
+
+    @Test
+    public void perCallMaxRowsLeavesSharedTemplateUntouched() throws Exception {
+        CancellableJdbcTemplate template = jdbcDataSource.getJdbcTemplate(key, JDBC_URL, getDataSource());
+        template.execute("CREATE TABLE IF NOT EXISTS t_rows (id INT)");
+        template.execute("DELETE FROM t_rows");
+        template.execute("INSERT INTO t_rows VALUES (1), (2), (3)");
+
+        List<Map<String, Object>> limited = template.queryForList("SELECT id FROM t_rows ORDER BY id", 2);
+        Integer count = template.query("SELECT id FROM t_rows", 0, rs -> {
+            int rows = 0;
+            while (rs.next()) {
+                rows++;
+            }
+            return rows;
+        });
+
+        assertEquals(2, limited.size());
+        assertEquals(Integer.valueOf(3), count);
+        assertEquals(-1, template.getMaxRows());
+        assertEquals(3, template.queryForList("SELECT id FROM t_rows").size());
+    }
+
+    private DruidDataSource getDataSource() throws Exception {
+        return jdbcDataSource.getDataSource(JDBC_URL, USERNAME, null, null, null, false);
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = JdbcDataSource.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(jdbcDataSource, value);
+    }
+}
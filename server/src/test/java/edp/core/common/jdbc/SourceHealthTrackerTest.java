@@ -0,0 +1,157 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.jdbc;
+
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import edp.core.exception.SourceException;
+import org.junit.Test;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 数据源熔断：阈值、指数退避、到期探测与恢复，以及查询路径借出连接的结果回报
+ */
+public class SourceHealthTrackerTest {
+
+    private static final String KEY = "source";
+
+    private static final String JDBC_URL = "jdbc:mysql://localhost:3306/test";
+
+    @Test
+    public void opensAfterThresholdFailures() throws Exception {
+        SourceHealthTracker tracker = new SourceHealthTracker(3, 60000L, 600000L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        tracker.recordFailure(KEY, JDBC_URL);
+        tracker.checkAvailable(KEY, JDBC_URL);
+        assertTrue((Boolean) tracker.getStats(KEY).get("healthy"));
+
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertFalse((Boolean) tracker.getStats(KEY).get("healthy"));
+        assertUnavailable(tracker);
+    }
+
+    @Test
+    public void backoffGrowsExponentiallyUpToMax() {
+        SourceHealthTracker tracker = new SourceHealthTracker(1, 1000L, 3000L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertBackoff(tracker, 1000L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertBackoff(tracker, 2000L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertBackoff(tracker, 3000L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertBackoff(tracker, 3000L);
+    }
+
+    @Test
+    public void letsOneProbeThroughAfterBackoff() throws Exception {
+        SourceHealthTracker tracker = new SourceHealthTracker(1, 50L, 50L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertUnavailable(tracker);
+
+        Thread.sleep(80L);
+        tracker.checkAvailable(KEY, JDBC_URL);
+        // 探测未回报前其余请求仍被拒绝
+        assertUnavailable(tracker);
+    }
+
+    @Test
+    public void successClosesBreaker() throws Exception {
+        SourceHealthTracker tracker = new SourceHealthTracker(1, 60000L, 60000L);
+        tracker.recordFailure(KEY, JDBC_URL);
+        assertUnavailable(tracker);
+
+        tracker.recordSuccess(KEY);
+        tracker.checkAvailable(KEY, JDBC_URL);
+        assertEquals(0, tracker.getStats(KEY).get("failures"));
+    }
+
+    @Test
+    public void queryPathRecordsConnectionOutcome() throws Exception {
+        SourceHealthTracker tracker = new SourceHealthTracker(1, 60000L, 60000L);
+        HealthTrackingDataSource failing = new HealthTrackingDataSource(new StubDataSource(new SQLException("refused")), tracker, KEY, JDBC_URL);
+        try {
+            failing.getConnection();
+            fail();
+        } catch (SQLException e) {
+            // expected
+        }
+        assertUnavailable(tracker);
+
+        new HealthTrackingDataSource(new StubDataSource(null), tracker, KEY, JDBC_URL).getConnection();
+        tracker.checkAvailable(KEY, JDBC_URL);
+    }
+
+    @Test
+    public void poolWaitTimeoutIsNotFailure() throws Exception {
+        SourceHealthTracker tracker = new SourceHealthTracker(1, 60000L, 60000L);
+        HealthTrackingDataSource dataSource = new HealthTrackingDataSource(new StubDataSource(new GetConnectionTimeoutException("wait millis 5000")), tracker, KEY, JDBC_URL);
+        try {
+            dataSource.getConnection();
+            fail();
+        } catch (GetConnectionTimeoutException e) {
+            // expected
+        }
+        tracker.checkAvailable(KEY, JDBC_URL);
+        assertEquals(0, tracker.getStats(KEY).get("failures"));
+    }
+
+    private static void assertUnavailable(SourceHealthTracker tracker) {
+        try {
+            tracker.checkAvailable(KEY, JDBC_URL);
+            fail("datasource should be unavailable");
+        } catch (SourceException e) {
+            // expected
+        }
+    }
+
+    private static void assertBackoff(SourceHealthTracker tracker, long expected) {
+        long retryAfter = (Long) tracker.getStats(KEY).get("retryAfter");
+        assertTrue("retryAfter " + retryAfter, retryAfter > expected - 200L && retryAfter <= expected);
+    }
+
+    private static final class StubDataSource extends AbstractDataSource {
+        private final SQLException error;
+
+        StubDataSource(SQLException error) {
+            this.error = error;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (null != error) {
+                throw error;
+            }
+            return null;
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+    }
+}
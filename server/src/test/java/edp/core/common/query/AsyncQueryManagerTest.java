@@ -0,0 +1,173 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.jdbc.AsyncQueryExecutor;
+import edp.core.enums.QueryJobStatusEnum;
+import edp.core.model.PaginateWithQueryColumns;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 异步执行器提交的任务在提交前获得准入许可，任务结束、取消或提交失败时释放
+ */
+public class AsyncQueryManagerTest {
+
+    private QueryScheduler scheduler;
+
+    private AsyncQueryManager manager;
+
+    private ExecutorRegistry executorRegistry;
+
+    private StubExecutor executor;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new QueryScheduler();
+        set(scheduler, "enable", true);
+        set(scheduler, "perUser", 4);
+        set(scheduler, "perProject", 16);
+        set(scheduler, "perSource", 10);
+        set(scheduler, "queueCapacity", 10);
+        set(scheduler, "maxWait", 50L);
+        set(scheduler, "gateIdleTimeout", 600L);
+        scheduler.init();
+
+        executorRegistry = new ExecutorRegistry();
+        manager = new AsyncQueryManager();
+        set(manager, "executorRegistry", executorRegistry);
+        set(manager, "jobTtl", 3600L);
+        set(manager, "maxJobs", 100L);
+        set(manager, "poolSize", 1);
+        set(manager, "queueCapacity", 1);
+        set(manager, "retryAfter", 10L);
+        manager.init();
+
+        executor = new StubExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executorRegistry.shutdown();
+    }
+
+    @Test
+    public void permitIsReleasedWhenJobFinishes() throws Exception {
+        QueryScheduler.Permit permit = scheduler.acquire("source", 1, null, 1L);
+        AsyncQueryJob job = manager.submit(1L, 1L, null, executor, "select 1", permit);
+
+        manager.releaseFinishedPermits();
+        assertFalse(permit.isReleased());
+        assertEquals(1, sourceStat("active"));
+
+        executor.status = QueryJobStatusEnum.FAILED;
+        manager.releaseFinishedPermits();
+        assertTrue(permit.isReleased());
+        assertEquals(0, sourceStat("active"));
+        assertEquals(QueryJobStatusEnum.FAILED, job.getStatus());
+    }
+
+    @Test
+    public void permitIsReleasedWhenJobIsCancelled() throws Exception {
+        QueryScheduler.Permit permit = scheduler.acquire("source", 1, null, 1L);
+        AsyncQueryJob job = manager.submit(1L, 1L, null, executor, "select 1", permit);
+
+        assertTrue(manager.cancel(job.getId(), 1L));
+        assertTrue(permit.isReleased());
+        assertEquals(0, sourceStat("active"));
+    }
+
+    @Test
+    public void permitIsReleasedWhenSubmitFails() throws Exception {
+        QueryScheduler.Permit permit = scheduler.acquire("source", 1, null, 1L);
+        executor.failSubmit = true;
+        try {
+            manager.submit(1L, 1L, null, executor, "select 1", permit);
+            fail("submit should fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertTrue(permit.isReleased());
+        assertEquals(0, sourceStat("active"));
+    }
+
+    private Object sourceStat(String name) {
+        return scheduler.getStats().stream()
+                .filter(s -> "source".equals(s.get("scope")))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new)
+                .get(name);
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+
+    private static final class StubExecutor implements AsyncQueryExecutor {
+        private volatile QueryJobStatusEnum status = QueryJobStatusEnum.RUNNING;
+        private volatile boolean failSubmit;
+
+        @Override
+        public String submit(String script) {
+            if (failSubmit) {
+                throw new IllegalStateException("linkis is down");
+            }
+            return "exec-1";
+        }
+
+        @Override
+        public QueryJobStatusEnum getStatus(String execId) {
+            return status;
+        }
+
+        @Override
+        public float getProgress(String execId) {
+            return 0f;
+        }
+
+        @Override
+        public String getErrorMessage(String execId) {
+            return null;
+        }
+
+        @Override
+        public PaginateWithQueryColumns fetch(String execId, int pageNo, int pageSize) {
+            return null;
+        }
+
+        @Override
+        public boolean cancel(String execId) {
+            status = QueryJobStatusEnum.CANCELLED;
+            return true;
+        }
+    }
+}
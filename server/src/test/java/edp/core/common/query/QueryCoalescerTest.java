@@ -0,0 +1,300 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import edp.core.exception.QueryRejectedException;
+import edp.core.model.ColumnarPaginate;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.core.utils.RedisUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 相同查询合并：单节点并发合并（等待方获得浅拷贝）、失败传递、发起方被拒绝时按自身配额重试、等待超时，以及集群模式下的锁与结果共享
+ */
+public class QueryCoalescerTest {
+
+    private static final String KEY = "key";
+
+    private QueryCoalescer coalescer;
+
+    private MemoryRedisUtils redisUtils;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        coalescer = new QueryCoalescer();
+        redisUtils = new MemoryRedisUtils();
+        set(coalescer, "redisUtils", redisUtils);
+        set(coalescer, "enable", true);
+        set(coalescer, "cluster", false);
+        set(coalescer, "waitTimeout", 5000L);
+        set(coalescer, "lockTtl", 5000L);
+        set(coalescer, "resultTtl", 5000L);
+        set(coalescer, "pollInterval", 10L);
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void buildKeyIgnoresBlankAndExcludeOrder() {
+        String key = coalescer.buildKey(1L, "SELECT *\n  FROM t", 1, 20, 0, 0, new HashSet<>(Arrays.asList("a", "b")));
+        assertEquals(key, coalescer.buildKey(1L, " SELECT * FROM t ", 1, 20, 0, 0, new HashSet<>(Arrays.asList("b", "a"))));
+        assertNotEquals(key, coalescer.buildKey(1L, "SELECT * FROM t", 2, 20, 0, 0, new HashSet<>(Arrays.asList("a", "b"))));
+        assertNotEquals(key, coalescer.buildKey(1L, "SELECT * FROM t", 1, 20, 0, 0, Collections.singleton("a")));
+        assertNotEquals(key, coalescer.buildKey(2L, "SELECT * FROM t", 1, 20, 0, 0, new HashSet<>(Arrays.asList("a", "b"))));
+    }
+
+    @Test
+    public void concurrentIdenticalQueriesRunOnce() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        PaginateWithQueryColumns result = paginate();
+
+        Future<PaginateWithQueryColumns> leader = executor.submit(() -> coalescer.execute(KEY, () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await();
+            return result;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Future<PaginateWithQueryColumns>> followers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            followers.add(executor.submit(() -> coalescer.execute(KEY, () -> {
+                calls.incrementAndGet();
+                return paginate();
+            })));
+        }
+        waitForHits(3);
+        release.countDown();
+
+        assertSame(result, leader.get(5, TimeUnit.SECONDS));
+        for (Future<PaginateWithQueryColumns> follower : followers) {
+            PaginateWithQueryColumns copy = follower.get(5, TimeUnit.SECONDS);
+            assertNotSame(result, copy);
+            assertEquals(result.getResultList(), copy.getResultList());
+            //等待方修改分页与结果列表不影响发起方
+            copy.setPageNo(2);
+            copy.getResultList().clear();
+        }
+        assertEquals(-1, result.getPageNo());
+        assertEquals(1, result.getResultList().size());
+        assertEquals(1, calls.get());
+        assertEquals(0, coalescer.getStats().get("inflight"));
+    }
+
+    @Test
+    public void failureReachesWaitersAndIsNotKept() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<PaginateWithQueryColumns> leader = executor.submit(() -> coalescer.execute(KEY, () -> {
+            started.countDown();
+            release.await();
+            throw new IllegalStateException("boom");
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<PaginateWithQueryColumns> follower = executor.submit(() -> coalescer.execute(KEY, QueryCoalescerTest::paginate));
+        waitForHits(1);
+        release.countDown();
+
+        assertFails(leader);
+        assertFails(follower);
+
+        PaginateWithQueryColumns result = paginate();
+        assertSame(result, coalescer.execute(KEY, () -> result));
+    }
+
+    @Test
+    public void waiterRetriesUnderOwnQuotaWhenLeaderIsRejected() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<PaginateWithQueryColumns> leader = executor.submit(() -> coalescer.execute(KEY, () -> {
+            started.countDown();
+            release.await();
+            throw new QueryRejectedException("too many queries", 1L);
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        PaginateWithQueryColumns own = paginate();
+        Future<PaginateWithQueryColumns> follower = executor.submit(() -> coalescer.execute(KEY, () -> own));
+        waitForHits(1);
+        release.countDown();
+
+        try {
+            leader.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QueryRejectedException);
+        }
+        assertSame(own, follower.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void waiterRunsItselfAfterTimeout() throws Exception {
+        set(coalescer, "waitTimeout", 50L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        executor.submit(() -> coalescer.execute(KEY, () -> {
+            started.countDown();
+            release.await();
+            return paginate();
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        PaginateWithQueryColumns own = paginate();
+        try {
+            assertSame(own, coalescer.execute(KEY, () -> own));
+            assertEquals(1L, coalescer.getStats().get("timeouts"));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void clusterWaiterReadsPublishedResult() throws Exception {
+        set(coalescer, "cluster", true);
+        redisUtils.values.put("visualis:inflight:lock:" + KEY, "other-node");
+        executor.submit(() -> {
+            Thread.sleep(50L);
+            redisUtils.values.put("visualis:inflight:result:" + KEY, ColumnarPaginate.of(paginate()));
+            return null;
+        });
+
+        PaginateWithQueryColumns result = coalescer.execute(KEY, () -> {
+            fail("result should come from the lock holder");
+            return null;
+        });
+        assertEquals(1, result.getResultList().size());
+        assertEquals("east", result.getResultList().get(0).get("region"));
+        assertEquals(1L, coalescer.getStats().get("clusterHits"));
+    }
+
+    @Test
+    public void clusterHolderPublishesAndReleasesOwnLock() throws Exception {
+        set(coalescer, "cluster", true);
+        coalescer.execute(KEY, QueryCoalescerTest::paginate);
+
+        assertTrue(redisUtils.values.get("visualis:inflight:result:" + KEY) instanceof ColumnarPaginate);
+        assertFalse(redisUtils.values.containsKey("visualis:inflight:lock:" + KEY));
+    }
+
+    private void waitForHits(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while ((Long) coalescer.getStats().get("hits") < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("followers did not join the inflight query");
+            }
+            Thread.sleep(5L);
+        }
+    }
+
+    private static void assertFails(Future<PaginateWithQueryColumns> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    private static PaginateWithQueryColumns paginate() {
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(Collections.singletonList(new QueryColumn("region", "VARCHAR")));
+        Map<String, Object> row = new HashMap<>();
+        row.put("region", "east");
+        paginate.setResultList(new ArrayList<>(Collections.singletonList(row)));
+        return paginate;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    /**
+     * 内存实现的 Redis 操作，仅覆盖合并查询用到的方法
+     */
+    private static final class MemoryRedisUtils extends RedisUtils {
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+        @Override
+        public boolean isRedisEnable() {
+            return true;
+        }
+
+        @Override
+        public boolean setIfAbsent(String key, Object value, Long millisecond) {
+            return null == values.putIfAbsent(key, value);
+        }
+
+        @Override
+        public boolean deleteIfEquals(String key, Object value) {
+            return values.remove(key, value);
+        }
+
+        @Override
+        public boolean set(String key, Object value, Long millisecond) {
+            values.put(key, value);
+            return true;
+        }
+
+        @Override
+        public Object get(String key) {
+            return values.get(key);
+        }
+    }
+}
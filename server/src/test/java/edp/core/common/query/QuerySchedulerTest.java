@@ -0,0 +1,320 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.common.query;
+
+import edp.core.enums.QueryPriorityEnum;
+import edp.core.exception.QueryRejectedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 查询准入控制：并发许可、优先级排队、拒绝与附属查询准入
+ */
+public class QuerySchedulerTest {
+
+    private QueryScheduler scheduler;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        scheduler = new QueryScheduler();
+        set(scheduler, "enable", true);
+        set(scheduler, "perUser", 4);
+        set(scheduler, "perProject", 16);
+        set(scheduler, "perSource", 10);
+        set(scheduler, "queueCapacity", 10);
+        set(scheduler, "maxWait", 5000L);
+        set(scheduler, "gateIdleTimeout", 600L);
+        scheduler.init();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void limitsConcurrencyPerSource() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(executor.submit(() -> scheduler.execute("source", 2, null, null, () -> {
+                peak.accumulateAndGet(running.incrementAndGet(), Math::max);
+                Thread.sleep(20L);
+                running.decrementAndGet();
+                return null;
+            })));
+        }
+        for (Future<Object> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(2, peak.get());
+        assertEquals(8L, sourceStat("admitted"));
+        assertEquals(0, sourceStat("active"));
+    }
+
+    @Test
+    public void waitersAreAdmittedByPriorityThenArrival() throws Exception {
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> holder = executor.submit(() -> scheduler.execute("source", 1, null, null, () -> {
+            holding.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        Future<Object> schedule = submit(QueryPriorityEnum.SCHEDULE, "schedule", order);
+        waitForQueue(1);
+        Future<Object> download = submit(QueryPriorityEnum.DOWNLOAD, "download", order);
+        waitForQueue(2);
+        Future<Object> first = submit(QueryPriorityEnum.INTERACTIVE, "interactive-1", order);
+        waitForQueue(3);
+        Future<Object> second = submit(QueryPriorityEnum.INTERACTIVE, "interactive-2", order);
+        waitForQueue(4);
+
+        release.countDown();
+        holder.get(5, TimeUnit.SECONDS);
+        for (Future<Object> future : Arrays.asList(schedule, download, first, second)) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(Arrays.asList("interactive-1", "interactive-2", "download", "schedule"), order);
+    }
+
+    @Test
+    public void rejectsWhenQueueIsFull() throws Exception {
+        set(scheduler, "queueCapacity", 1);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> scheduler.execute("source", 1, null, null, () -> {
+            holding.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+        Future<Object> queued = executor.submit(() -> scheduler.execute("source", 1, null, null, () -> null));
+        waitForQueue(1);
+
+        try {
+            scheduler.execute("source", 1, null, null, () -> null);
+            fail("query should be rejected when the queue is full");
+        } catch (QueryRejectedException e) {
+            assertTrue(e.getRetryAfter() >= 1L);
+        } finally {
+            release.countDown();
+        }
+        queued.get(5, TimeUnit.SECONDS);
+        assertEquals(1L, sourceStat("rejected"));
+    }
+
+    @Test
+    public void rejectsAfterMaxWait() throws Exception {
+        set(scheduler, "maxWait", 50L);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> scheduler.execute("source", 1, null, null, () -> {
+            holding.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+        try {
+            scheduler.execute("source", 1, null, null, () -> null);
+            fail("query should be rejected after waiting too long");
+        } catch (QueryRejectedException e) {
+            // expected
+        } finally {
+            release.countDown();
+        }
+        assertEquals(0, sourceStat("queueDepth"));
+    }
+
+    @Test
+    public void userLimitAppliesAcrossSources() throws Exception {
+        set(scheduler, "perUser", 1);
+        set(scheduler, "maxWait", 50L);
+        scheduler.execute("source-a", 0, null, 1L, () -> {
+            try {
+                scheduler.execute("source-b", 0, null, 1L, () -> null);
+                fail("second query of the same user should wait for the first");
+            } catch (QueryRejectedException e) {
+                // expected
+            }
+            return scheduler.execute("source-b", 0, null, 2L, () -> null);
+        });
+    }
+
+    @Test
+    public void idleGatesAreEvicted() throws Exception {
+        set(scheduler, "gateIdleTimeout", 1L);
+        scheduler.init();
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> busy = executor.submit(() -> scheduler.execute("busy", 1, null, null, () -> {
+            holding.countDown();
+            release.await();
+            return null;
+        }));
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+        scheduler.execute("idle", 1, null, null, () -> null);
+        assertEquals(2, scheduler.getStats().size());
+
+        Thread.sleep(1500L);
+        List<Map<String, Object>> stats = scheduler.getStats();
+        assertEquals(1, stats.size());
+        assertEquals("busy", stats.get(0).get("name"));
+
+        release.countDown();
+        busy.get(5, TimeUnit.SECONDS);
+        Thread.sleep(1500L);
+        assertTrue(scheduler.getStats().isEmpty());
+    }
+
+    @Test
+    public void alongsideTakesExtraPermitWhenFree() throws Exception {
+        String result = scheduler.execute("source", 2, 1L, 1L, () -> {
+            QueryScheduler.Admission admission = QueryScheduler.currentAdmission();
+            assertNotNull(admission);
+            return scheduler.executeAlongside(admission, () -> {
+                assertEquals(2, sourceStat("active"));
+                return "count";
+            });
+        });
+        assertEquals("count", result);
+        assertNull(QueryScheduler.currentAdmission());
+        assertEquals(0, sourceStat("active"));
+    }
+
+    @Test
+    public void alongsideIsRejectedInsteadOfWaitingOnOwnPermit() throws Exception {
+        scheduler.execute("source", 1, null, null, () -> {
+            try {
+                scheduler.executeAlongside(QueryScheduler.currentAdmission(), () -> "count");
+                fail("count query should not wait for the permit held by its own query");
+            } catch (QueryRejectedException e) {
+                // expected
+            }
+            assertEquals(1, sourceStat("active"));
+            return null;
+        });
+        assertEquals(0, sourceStat("active"));
+        assertEquals(0L, sourceStat("rejected"));
+    }
+
+    @Test
+    public void alongsideWithoutAdmissionRunsDirectly() throws Exception {
+        assertEquals("count", scheduler.executeAlongside(null, () -> "count"));
+    }
+
+    @Test
+    public void permitIsHeldUntilReleased() throws Exception {
+        QueryScheduler.Permit permit = scheduler.acquire("source", 1, 1L, 1L);
+        assertEquals(1, sourceStat("active"));
+
+        Future<Object> waiting = executor.submit(() -> scheduler.execute("source", 1, null, null, () -> "query"));
+        waitForQueue(1);
+
+        permit.release();
+        permit.release();
+        assertEquals("query", waiting.get(5, TimeUnit.SECONDS));
+        assertTrue(permit.isReleased());
+        assertEquals(0, sourceStat("active"));
+        assertEquals(0, sourceStat("queueDepth"));
+    }
+
+    @Test
+    public void rejectedAcquireReleasesPartialPermits() throws Exception {
+        set(scheduler, "maxWait", 50L);
+        QueryScheduler.Permit held = scheduler.acquire("source", 1, null, null);
+        try {
+            scheduler.acquire("source", 1, 1L, 1L);
+            fail("permit should be rejected after waiting too long");
+        } catch (QueryRejectedException e) {
+            // expected
+        }
+        // 已获得的用户、项目许可随拒绝释放
+        scheduler.execute("other", 1, 1L, 1L, () -> null);
+        assertEquals(0, scheduler.getStats().stream()
+                .filter(s -> "user".equals(s.get("scope")))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new)
+                .get("active"));
+        held.release();
+    }
+
+    private Future<Object> submit(QueryPriorityEnum priority, String name, List<String> order) {
+        return executor.submit(() -> {
+            QueryScheduler.setPriority(priority);
+            try {
+                return scheduler.execute("source", 1, null, null, () -> order.add(name));
+            } finally {
+                QueryScheduler.clearPriority();
+            }
+        });
+    }
+
+    private void waitForQueue(int depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!Integer.valueOf(depth).equals(sourceStat("queueDepth"))) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("queue depth did not reach " + depth);
+            }
+            Thread.sleep(5L);
+        }
+    }
+
+    private Object sourceStat(String name) {
+        return scheduler.getStats().stream()
+                .filter(s -> "source".equals(s.get("scope")))
+                .findFirst()
+                .orElseThrow(IllegalStateException::new)
+                .get(name);
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.model;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import edp.davinci.core.config.WebMvcConfig;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 接口响应按 MVC 的 fastjson 配置序列化时，列式结果只以 resultList 形式输出
+ */
+public class PaginateWithQueryColumnsTest {
+
+    private static final List<QueryColumn> COLUMNS = Arrays.asList(new QueryColumn("name", "VARCHAR"), new QueryColumn("amount", "BIGINT"));
+
+    @Test
+    public void columnarPaginateSerializesOnlyRowsAndPaging() {
+        Map<String, Object> first = new LinkedHashMap<>();
+        first.put("name", "a");
+        first.put("amount", 1L);
+        Map<String, Object> second = new LinkedHashMap<>();
+        second.put("name", "b");
+        second.put("amount", null);
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setPageNo(1);
+        paginate.setPageSize(20);
+        paginate.setTotalCount(2L);
+        paginate.setColumns(COLUMNS);
+        paginate.setColumnarResult(ColumnarResult.of(COLUMNS, rows(first, second)));
+
+        JSONObject json = JSON.parseObject(toJson(paginate));
+        assertEquals(new HashSet<>(Arrays.asList("pageNo", "pageSize", "totalCount", "totalCountEstimated", "columns", "resultList")),
+                json.keySet());
+
+        JSONArray rows = json.getJSONArray("resultList");
+        assertEquals(2, rows.size());
+        assertEquals(new HashSet<>(Arrays.asList("name", "amount")), rows.getJSONObject(0).keySet());
+        assertEquals("a", rows.getJSONObject(0).getString("name"));
+        assertEquals(1L, rows.getJSONObject(0).getLongValue("amount"));
+        // 与 /getdata 一致，null 输出为空字符串
+        assertEquals("", rows.getJSONObject(1).getString("amount"));
+    }
+
+    @Test
+    public void rowPaginateSerializesSameShape() {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("name", "a");
+        row.put("amount", 1L);
+
+        PaginateWithQueryColumns columnar = new PaginateWithQueryColumns();
+        columnar.setColumns(COLUMNS);
+        columnar.setColumnarResult(ColumnarResult.of(COLUMNS, rows(row)));
+
+        PaginateWithQueryColumns rows = new PaginateWithQueryColumns();
+        rows.setColumns(COLUMNS);
+        rows.setResultList(rows(row));
+
+        assertEquals(JSON.parseObject(toJson(rows)), JSON.parseObject(toJson(columnar)));
+    }
+
+    private static List<Map<String, Object>> rows(Map<String, Object> first) {
+        return rows(first, null);
+    }
+
+    private static List<Map<String, Object>> rows(Map<String, Object> first, Map<String, Object> second) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        rows.add(first);
+        if (null != second) {
+            rows.add(second);
+        }
+        return rows;
+    }
+
+    private static String toJson(Object object) {
+        FastJsonConfig config = WebMvcConfig.newFastJsonConfig();
+        return JSON.toJSONString(object, config.getSerializeConfig(), config.getSerializeFilters(),
+                config.getDateFormat(), JSON.DEFAULT_GENERATE_FEATURE, config.getSerializerFeatures());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.core.utils;
+
+import edp.core.common.jdbc.JdbcDataSource;
+import edp.core.common.jdbc.ResultRowHandler;
+import edp.core.model.QueryColumn;
+import edp.davinci.runner.LoadSupportDataSourceRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 分页流式查询：不需要总数时不执行 count，keyset 分页不再跳过前面的页
+ */
+public class SqlUtilsStreamTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:sql_utils_stream_test;DB_CLOSE_DELAY=-1";
+
+    private static final String USERNAME = "sa";
+
+    private static final String SQL = "SELECT id FROM t_stream ORDER BY id";
+
+    private JdbcDataSource jdbcDataSource;
+
+    private SqlUtils sqlUtils;
+
+    @Before
+    public void setUp() throws Exception {
+        jdbcDataSource = new JdbcDataSource();
+        set("maxActive", 2);
+        set("maxWait", 1000L);
+        set("timeBetweenEvictionRunsMillis", 60000L);
+        set("minEvictableIdleTimeMillis", 300000L);
+        set("failureThreshold", 3);
+        set("baseBackoff", 1000L);
+        set("maxBackoff", 1000L);
+        jdbcDataSource.init();
+        LoadSupportDataSourceRunner.getSupportDatasourceMap().put("h2", "jdbc:h2:");
+        sqlUtils = SqlUtils.SqlUtilsBuilder.SqlUtils()
+                .withJdbcUrl(JDBC_URL)
+                .withUsername(USERNAME)
+                .withJdbcDataSource(jdbcDataSource)
+                .withResultLimit(1000)
+                .build();
+        sqlUtils.jdbcTemplate().execute("CREATE TABLE IF NOT EXISTS t_stream (id INT)");
+        sqlUtils.jdbcTemplate().execute("DELETE FROM t_stream");
+        sqlUtils.jdbcTemplate().execute("INSERT INTO t_stream VALUES (1), (2), (3), (4), (5)");
+    }
+
+    @After
+    public void tearDown() {
+        jdbcDataSource.removeDatasource(JDBC_URL, USERNAME, null, null, false);
+    }
+
+    @Test
+    public void countsTotalWhenHandlerNeedsIt() throws Exception {
+        RecordingHandler handler = new RecordingHandler(true);
+        sqlUtils.query4Stream(SQL, 2, 2, 0, -1, null, handler);
+
+        assertEquals(ids(3, 4), handler.ids);
+        assertEquals(5L, handler.totalCount);
+    }
+
+    @Test
+    public void skipsCountWhenHandlerDoesNotNeedIt() throws Exception {
+        RecordingHandler handler = new RecordingHandler(false);
+        sqlUtils.query4Stream(SQL, 2, 2, 0, -1, null, handler);
+
+        assertEquals(ids(3, 4), handler.ids);
+        assertEquals(2L, handler.totalCount);
+    }
+
+    @Test
+    public void keysetPageIsNotSkippedAgain() throws Exception {
+        RecordingHandler handler = new RecordingHandler(true);
+        sqlUtils.query4Stream("SELECT id FROM t_stream WHERE id > 2 ORDER BY id", 2, 2, 5, 3, null, true, handler);
+
+        // limit 3 时第二页只剩 1 行
+        assertEquals(ids(3), handler.ids);
+        assertEquals(2, handler.pageNo);
+        assertEquals(3L, handler.totalCount);
+    }
+
+    private static List<Integer> ids(int first) {
+        List<Integer> ids = new ArrayList<>();
+        ids.add(first);
+        return ids;
+    }
+
+    private static List<Integer> ids(int first, int second) {
+        List<Integer> ids = ids(first);
+        ids.add(second);
+        return ids;
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = JdbcDataSource.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(jdbcDataSource, value);
+    }
+
+
+    private static final class RecordingHandler implements ResultRowHandler {
+        private final boolean needTotalCount;
+        private final List<Integer> ids = new ArrayList<>();
+        private int pageNo;
+        private long totalCount = -1L;
+
+        RecordingHandler(boolean needTotalCount) {
+            this.needTotalCount = needTotalCount;
+        }
+
+        @Override
+        public void onColumns(List<QueryColumn> columns) {
+        }
+
+        @Override
+        public void onRow(Object[] values) {
+            ids.add(((Number) values[0]).intValue());
+        }
+
+        @Override
+        public void onComplete(int pageNo, int pageSize, long totalCount) {
+            this.pageNo = pageNo;
+            this.totalCount = totalCount;
+        }
+
+        @Override
+        public boolean needTotalCount() {
+            return needTotalCount;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.common;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.support.config.FastJsonConfig;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.davinci.core.config.WebMvcConfig;
+import edp.davinci.dto.dashboardDto.DashboardItemData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * dashboard 批量取数的每行输出与 /getdata 使用相同的 fastjson 配置
+ */
+public class DashboardDataWriterTest {
+
+    private final FastJsonConfig fastJsonConfig = WebMvcConfig.newFastJsonConfig();
+
+    @Test
+    public void writesItemsLikeGetData() throws Exception {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 1234567890123456789L);
+        row.put("name", null);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        rows.add(row);
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(Arrays.asList(new QueryColumn("id", "BIGINT"), new QueryColumn("name", "VARCHAR")));
+        paginate.setResultList(rows);
+
+        DashboardItemData data = new DashboardItemData(1L, 2L);
+        data.setCode(200);
+        data.setPayload(paginate);
+        DashboardItemData empty = new DashboardItemData(3L, 4L);
+        empty.setCode(200);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DashboardDataWriter writer = new DashboardDataWriter(fastJsonConfig, out);
+        writer.write(data);
+        writer.write(empty);
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+
+        JSONObject first = JSON.parseObject(lines[0]);
+        JSONObject payload = first.getJSONObject("payload");
+        assertEquals(JSON.parseObject(toJson(paginate)), payload);
+        JSONObject value = payload.getJSONArray("resultList").getJSONObject(0);
+        // 超过 JS 精度的长整型输出为字符串，null 输出为空字符串
+        assertEquals("1234567890123456789", value.get("id"));
+        assertEquals("", value.get("name"));
+
+        // 未查询的组件与 /getdata 相同，payload 为空字符串
+        JSONObject second = JSON.parseObject(lines[1]);
+        assertEquals(200, second.getIntValue("code"));
+        assertEquals("", second.get("payload"));
+    }
+
+    private String toJson(Object object) {
+        return JSON.toJSONString(object, fastJsonConfig.getSerializeConfig(), fastJsonConfig.getSerializeFilters(),
+                fastJsonConfig.getDateFormat(), JSON.DEFAULT_GENERATE_FEATURE, fastJsonConfig.getSerializerFeatures());
+    }
+}
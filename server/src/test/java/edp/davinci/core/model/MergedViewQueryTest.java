@@ -0,0 +1,139 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.model;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.model.ColumnVector;
+import edp.core.model.ColumnarResult;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 合并查询：GROUPING SETS 合并、按列拆分组件结果，以及 groupingSets 不可从请求绑定
+ */
+public class MergedViewQueryTest {
+
+    private static final String POSTGRES_URL = "jdbc:postgresql://localhost:5432/test";
+
+    @Test
+    public void mergesDifferentGroupsIntoGroupingSets() {
+        MergedViewQuery merge = MergedViewQuery.merge(Arrays.asList(byRegion(), byYear()), MergedViewQuery.supportsGroupingSets(POSTGRES_URL));
+        ViewExecuteParam merged = merge.getExecuteParam();
+        assertEquals(Arrays.asList("region", "year"), merged.getGroups());
+        assertEquals(Arrays.asList(Collections.singletonList("region"), Collections.singletonList("year")), merged.getGroupingSets());
+
+        assertNull(MergedViewQuery.merge(Arrays.asList(byRegion(), byYear()), false));
+    }
+
+    @Test
+    public void splitsRowsAndColumnsOfEachWidget() {
+        MergedViewQuery merge = MergedViewQuery.merge(Arrays.asList(byRegion(), byYear()), true);
+        PaginateWithQueryColumns merged = mergedResult();
+
+        PaginateWithQueryColumns region = merge.split(merged, byRegion());
+        assertEquals(Arrays.asList("region", "sum(amount)"), names(region.getColumns()));
+        assertEquals(2, region.getTotalCount());
+        assertEquals(2, region.getResultSize());
+        assertEquals(row("region", "east", "sum(amount)", 10L), region.getResultList().get(0));
+        assertEquals(row("region", "west", "sum(amount)", 5L), region.getResultList().get(1));
+
+        PaginateWithQueryColumns year = merge.split(merged, byYear());
+        assertEquals(Arrays.asList("year", "sum(amount)"), names(year.getColumns()));
+        assertEquals(1, year.getResultSize());
+        assertEquals(row("year", 2019L, "sum(amount)", 15L), year.getResultList().get(0));
+    }
+
+    @Test
+    public void groupingSetsAreNotBoundFromRequest() {
+        ViewExecuteParam param = JSON.parseObject("{\"groups\":[\"region\"],\"groupingSets\":[[\"region) UNION SELECT 1 --\"]]}",
+                ViewExecuteParam.class);
+        assertEquals(Collections.singletonList("region"), param.getGroups());
+        assertNull(param.getGroupingSets());
+
+        param.setGroupingSets(Collections.singletonList(Collections.singletonList("region")));
+        assertFalse(JSON.parseObject(JSON.toJSONString(param)).containsKey("groupingSets"));
+    }
+
+    private static ViewExecuteParam byRegion() {
+        return param("region");
+    }
+
+    private static ViewExecuteParam byYear() {
+        return param("year");
+    }
+
+    private static ViewExecuteParam param(String group) {
+        return new ViewExecuteParam(Collections.singletonList(group), Collections.singletonList(new Aggregator("amount", "sum")),
+                null, null, null, false, 0L, false);
+    }
+
+    private static PaginateWithQueryColumns mergedResult() {
+        ColumnarResult.Builder builder = ColumnarResult.newBuilder()
+                .addColumn("region", ColumnVector.forTypeName("VARCHAR"))
+                .addColumn("year", ColumnVector.forTypeName("BIGINT"))
+                .addColumn("sum(amount)", ColumnVector.forTypeName("BIGINT"))
+                .addColumn(ViewExecuteParam.GROUPING_FLAG + 0, ColumnVector.forTypeName("INT"))
+                .addColumn(ViewExecuteParam.GROUPING_FLAG + 1, ColumnVector.forTypeName("INT"));
+        appendRow(builder, "east", null, 10L, 0, 1);
+        appendRow(builder, "west", null, 5L, 0, 1);
+        appendRow(builder, null, 2019L, 15L, 1, 0);
+
+        PaginateWithQueryColumns paginate = new PaginateWithQueryColumns();
+        paginate.setColumns(Arrays.asList(new QueryColumn("region", "VARCHAR"), new QueryColumn("year", "BIGINT"),
+                new QueryColumn("sum(amount)", "BIGINT"), new QueryColumn(ViewExecuteParam.GROUPING_FLAG + 0, "INT"),
+                new QueryColumn(ViewExecuteParam.GROUPING_FLAG + 1, "INT")));
+        paginate.setColumnarResult(builder.build());
+        return paginate;
+    }
+
+    private static void appendRow(ColumnarResult.Builder builder, Object... values) {
+        for (int i = 0; i < values.length; i++) {
+            builder.append(i, values[i]);
+        }
+        builder.endRow();
+    }
+
+    private static Map<String, Object> row(String label, Object value, String aggregate, Object aggregateValue) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put(label, value);
+        row.put(aggregate, aggregateValue);
+        return row;
+    }
+
+    private static List<String> names(List<QueryColumn> columns) {
+        List<String> names = new ArrayList<>();
+        columns.forEach(c -> names.add(c.getName()));
+        return names;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.utils;
+
+import com.alibaba.fastjson.JSON;
+import edp.core.model.ColumnVector;
+import edp.core.model.ColumnarResult;
+import edp.core.model.PaginateWithQueryColumns;
+import edp.core.model.QueryColumn;
+import edp.davinci.core.model.SqlFilter;
+import edp.davinci.dto.viewDto.Aggregator;
+import edp.davinci.dto.viewDto.Order;
+import edp.davinci.dto.viewDto.ViewExecuteParam;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 进程内查询与数据源执行等价 SQL 的结果对比，数据源使用 H2 内存库
+ */
+public class LocalQueryEngineTest {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:local_query;DATABASE_TO_UPPER=false";
+
+    private static final String VIEW_SQL = "SELECT * FROM sales";
+
+    private static Connection connection;
+
+    private static ColumnarResult data;
+
+    private static List<QueryColumn> columns;
+
+    @BeforeClass
+    public static void setUp() throws SQLException {
+        connection = DriverManager.getConnection(JDBC_URL);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE sales (region VARCHAR(32), product VARCHAR(32), amount DOUBLE, qty INT)");
+            stmt.execute("INSERT INTO sales VALUES " +
+                    "('east', 'apple', 10.5, 3), ('east', 'banana', 4.0, 1), ('east', 'apple', 7.25, 5), " +
+                    "('west', 'apple', 3.0, 2), ('west', 'cherry', 12.0, 4), ('west', 'cherry', NULL, 6), " +
+                    "('north', 'banana', 8.5, NULL), ('north', 'avocado', 1.5, 7), (NULL, 'apple', 2.0, 1), " +
+                    "('south', NULL, 6.0, 2)");
+        }
+
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(VIEW_SQL)) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            ColumnarResult.Builder builder = ColumnarResult.newBuilder();
+            columns = new ArrayList<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                builder.addColumn(metaData.getColumnLabel(i), ColumnVector.forSqlType(metaData.getColumnType(i), metaData.isSigned(i)), i);
+                columns.add(new QueryColumn(metaData.getColumnLabel(i), metaData.getColumnTypeName(i)));
+            }
+            while (rs.next()) {
+                builder.readRow(rs);
+            }
+            data = builder.build();
+        }
+    }
+
+    @AfterClass
+    public static void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void groupWithAggregators() throws SQLException {
+        assertSameResult("SELECT region, SUM(amount), COUNT(qty), AVG(amount) FROM sales GROUP BY region ORDER BY region",
+                param(Collections.singletonList("region"),
+                        Arrays.asList(aggregator("amount", "sum"), aggregator("qty", "count"), aggregator("amount", "avg")),
+                        null, Collections.singletonList(order("region", "asc"))));
+    }
+
+    @Test
+    public void multiGroupWithFilter() throws SQLException {
+        assertSameResult("SELECT region, product, MAX(qty), MIN(amount) FROM sales WHERE qty > 1 " +
+                        "GROUP BY region, product ORDER BY region DESC, product",
+                param(Arrays.asList("region", "product"),
+                        Arrays.asList(aggregator("qty", "max"), aggregator("amount", "min")),
+                        Collections.singletonList(filter("qty", ">", 1, "INT")),
+                        Arrays.asList(order("region", "desc"), order("product", "asc"))));
+    }
+
+    @Test
+    public void countDistinct() throws SQLException {
+        assertSameResult("SELECT region, COUNT(DISTINCT product) FROM sales GROUP BY region ORDER BY region",
+                param(Collections.singletonList("region"),
+                        Collections.singletonList(aggregator("product", "COUNTDISTINCT")),
+                        null, Collections.singletonList(order("region", "asc"))));
+    }
+
+    @Test
+    public void aggregateWithoutGroups() throws SQLException {
+        assertSameResult("SELECT SUM(amount), COUNT(qty) FROM sales WHERE region IN ('east', 'west')",
+                param(null,
+                        Arrays.asList(aggregator("amount", "sum"), aggregator("qty", "count")),
+                        Collections.singletonList(filter("region", "in", Arrays.asList("'east'", "'west'"), "VARCHAR")),
+                        null));
+    }
+
+    @Test
+    public void aggregateWithoutMatchedRows() throws SQLException {
+        assertSameResult("SELECT SUM(amount), COUNT(qty) FROM sales WHERE region = 'nowhere'",
+                param(null,
+                        Arrays.asList(aggregator("amount", "sum"), aggregator("qty", "count")),
+                        Collections.singletonList(filter("region", "=", "'nowhere'", "VARCHAR")),
+                        null));
+    }
+
+    @Test
+    public void orderByAggregator() throws SQLException {
+        assertSameResult("SELECT product, SUM(qty) FROM sales WHERE product LIKE 'a%' GROUP BY product ORDER BY SUM(qty) DESC",
+                param(Collections.singletonList("product"),
+                        Collections.singletonList(aggregator("qty", "sum")),
+                        Collections.singletonList(filter("product", "like", "'a%'", "VARCHAR")),
+                        Collections.singletonList(order("sum(qty)", "desc"))));
+    }
+
+    @Test
+    public void relationFilter() throws SQLException {
+        SqlFilter or = new SqlFilter();
+        or.setType(SqlFilter.Type.relation);
+        or.setValue(SqlFilter.Type.or);
+        or.setChildren(Arrays.asList(
+                JSON.parseObject(filter("amount", "between", Arrays.asList(3, 8), "DOUBLE"), SqlFilter.class),
+                JSON.parseObject(filter("product", "=", "'cherry'", "VARCHAR"), SqlFilter.class)));
+        assertSameResult("SELECT region, SUM(amount) FROM sales WHERE (amount BETWEEN 3 AND 8) OR product = 'cherry' " +
+                        "GROUP BY region ORDER BY region",
+                param(Collections.singletonList("region"),
+                        Collections.singletonList(aggregator("amount", "sum")),
+                        Collections.singletonList(JSON.toJSONString(or)),
+                        Collections.singletonList(order("region", "asc"))));
+    }
+
+    @Test
+    public void nativeQueryWithPagination() throws SQLException {
+        List<List<Object>> expected = querySource("SELECT region, product, amount FROM sales WHERE amount >= 3 " +
+                "ORDER BY amount DESC, product");
+
+        ViewExecuteParam param = param(Arrays.asList("region", "product"),
+                Collections.singletonList(aggregator("amount", null)),
+                Collections.singletonList(filter("amount", ">=", 3, "DOUBLE")),
+                Arrays.asList(order("amount", "desc"), order("product", "asc")));
+        param.setNativeQuery(true);
+        param.setPageNo(2);
+        param.setPageSize(3);
+        PaginateWithQueryColumns paginate = LocalQueryEngine.query(data, columns, param);
+        assertNotNull(paginate);
+        assertEquals(expected.size(), paginate.getTotalCount());
+        assertEquals(expected.subList(3, 6), toRows(paginate));
+    }
+
+    @Test
+    public void unsupportedQueryFallsBack() {
+        assertNull(LocalQueryEngine.query(data, columns, param(Collections.singletonList("region"),
+                Collections.singletonList(aggregator("amount", "stddev")), null, null)));
+        assertNull(LocalQueryEngine.query(data, columns, param(Collections.singletonList("unknown"),
+                Collections.singletonList(aggregator("amount", "sum")), null, null)));
+    }
+
+    private static void assertSameResult(String sql, ViewExecuteParam executeParam) throws SQLException {
+        List<List<Object>> expected = querySource(sql);
+        PaginateWithQueryColumns paginate = LocalQueryEngine.query(data, columns, executeParam);
+        assertNotNull(paginate);
+        assertEquals(expected.size(), paginate.getTotalCount());
+        assertEquals(expected, toRows(paginate));
+    }
+
+    private static List<List<Object>> querySource(String sql) throws SQLException {
+        List<List<Object>> rows = new ArrayList<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            int count = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                List<Object> row = new ArrayList<>();
+                for (int i = 1; i <= count; i++) {
+                    row.add(normalize(rs.getObject(i)));
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private static List<List<Object>> toRows(PaginateWithQueryColumns paginate) {
+        ColumnarResult result = paginate.getColumnarResult();
+        List<List<Object>> rows = new ArrayList<>();
+        for (int row = 0; row < result.getRowCount(); row++) {
+            List<Object> values = new ArrayList<>();
+            for (int col = 0; col < paginate.getColumns().size(); col++) {
+                values.add(normalize(result.getValue(row, col)));
+            }
+            rows.add(values);
+        }
+        return rows;
+    }
+
+    /**
+     * 数值统一比较到小数点后 6 位，数据源与进程内计算的数值类型可以不同
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Number) {
+            return new BigDecimal(((Number) value).doubleValue()).setScale(6, BigDecimal.ROUND_HALF_UP);
+        }
+        return value;
+    }
+
+    private static ViewExecuteParam param(List<String> groups, List<Aggregator> aggregators, List<String> filters, List<Order> orders) {
+        ViewExecuteParam param = new ViewExecuteParam();
+        param.setGroups(groups);
+        param.setAggregators(aggregators);
+        param.setFilters(filters);
+        param.setOrders(orders);
+        return param;
+    }
+
+    private static Aggregator aggregator(String column, String func) {
+        Aggregator aggregator = new Aggregator();
+        aggregator.setColumn(column);
+        aggregator.setFunc(func);
+        return aggregator;
+    }
+
+    private static Order order(String column, String direction) {
+        Order order = new Order();
+        order.setColumn(column);
+        order.setDirection(direction);
+        return order;
+    }
+
+    private static String filter(String name, String operator, Object value, String sqlType) {
+        SqlFilter filter = new SqlFilter();
+        filter.setType(SqlFilter.Type.filter);
+        filter.setName(name);
+        filter.setOperator(operator);
+        filter.setValue(value);
+        filter.setSqlType(sqlType);
+        return JSON.toJSONString(filter);
+    }
+}
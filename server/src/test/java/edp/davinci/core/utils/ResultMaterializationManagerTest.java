@@ -0,0 +1,176 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.core.utils;
+
+import edp.core.exception.QueryRejectedException;
+import edp.davinci.model.User;
+import edp.davinci.model.View;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 临时 view 物化：并发请求只执行一次，执行失败时等待方以自身身份重试，结果集路径每个 view 版本只写回一次
+ */
+public class ResultMaterializationManagerTest {
+
+    private static final String CODE = "select * from t";
+
+    private ResultMaterializationManager manager;
+
+    private View view;
+
+    private User user;
+
+    @Before
+    public void setUp() throws Exception {
+        manager = new ResultMaterializationManager();
+        set("ttl", 3600L);
+        set("maxViews", 10L);
+        manager.init();
+        view = new View();
+        view.setId(1L);
+        user = new User();
+        user.setName("alice");
+    }
+
+    @Test
+    public void concurrentRequestsMaterializeOnce() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> manager.getResultPath(view, CODE, user, () -> {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "hdfs:///tmp/_0.dolphin";
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            Future<String> waiter = executor.submit(() -> manager.getResultPath(view, CODE, user, () -> {
+                calls.incrementAndGet();
+                return "hdfs:///tmp/_1.dolphin";
+            }));
+            release.countDown();
+
+            assertEquals("hdfs:///tmp/_0.dolphin", leader.get(5, TimeUnit.SECONDS));
+            assertEquals("hdfs:///tmp/_0.dolphin", waiter.get(5, TimeUnit.SECONDS));
+            assertEquals(1, calls.get());
+            assertEquals(1L, manager.getStats().get("reused"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void waiterMaterializesItselfWhenLeaderIsRejected() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> manager.getResultPath(view, CODE, user, () -> {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                throw new QueryRejectedException("too many queries", 1000L);
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            Future<String> waiter = executor.submit(() -> manager.getResultPath(view, CODE, user, () -> "hdfs:///tmp/_1.dolphin"));
+            Thread.sleep(100L);
+            release.countDown();
+
+            assertEquals("hdfs:///tmp/_1.dolphin", waiter.get(5, TimeUnit.SECONDS));
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof QueryRejectedException);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedMaterializationIsNotRegistered() {
+        try {
+            manager.getResultPath(view, CODE, user, () -> {
+                throw new QueryRejectedException("too many queries", 1000L);
+            });
+            fail();
+        } catch (QueryRejectedException e) {
+            // 准入拒绝原样抛出
+        }
+        assertEquals("hdfs:///tmp/_2.dolphin", manager.getResultPath(view, CODE, user, () -> "hdfs:///tmp/_2.dolphin"));
+    }
+
+    @Test
+    public void persistsOncePerViewVersion() {
+        AtomicInteger persisted = new AtomicInteger();
+        User other = new User();
+        other.setName("bob");
+        manager.getResultPath(view, CODE, user, () -> {
+            manager.persistOnce(view, CODE, persisted::incrementAndGet);
+            return "hdfs:///tmp/_3.dolphin";
+        });
+        manager.getResultPath(view, CODE, other, () -> {
+            manager.persistOnce(view, CODE, persisted::incrementAndGet);
+            return "hdfs:///tmp/_4.dolphin";
+        });
+        assertEquals(1, persisted.get());
+
+        manager.invalidate(view.getId());
+        manager.persistOnce(view, CODE, persisted::incrementAndGet);
+        assertEquals(2, persisted.get());
+    }
+
+    @Test
+    public void retriesPersistAfterFailure() {
+        AtomicInteger persisted = new AtomicInteger();
+        try {
+            manager.persistOnce(view, CODE, () -> {
+                throw new IllegalStateException("db down");
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            // 写回失败
+        }
+        manager.persistOnce(view, CODE, persisted::incrementAndGet);
+        assertEquals(1, persisted.get());
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = ResultMaterializationManager.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(manager, value);
+    }
+}
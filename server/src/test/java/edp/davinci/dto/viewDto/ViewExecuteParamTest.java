@@ -0,0 +1,98 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.dto.viewDto;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * keyset 分页条件的 SQL 生成：多列排序方向、值转义，以及不满足条件时退回 offset 分页
+ */
+public class ViewExecuteParamTest {
+
+    private static final String MYSQL_URL = "jdbc:mysql://localhost:3306/test";
+
+    @Test
+    public void singleColumnAscending() {
+        ViewExecuteParam param = param(Arrays.asList("region"), Arrays.asList(new Order("region", "asc")), Arrays.asList("east"));
+        assertEquals("((`region` > 'east'))", param.getKeysetFilter(MYSQL_URL, null));
+    }
+
+    @Test
+    public void multiColumnMixedDirections() {
+        ViewExecuteParam param = param(Arrays.asList("region", "year"),
+                Arrays.asList(new Order("`region`", "ASC"), new Order("year", "DESC")),
+                Arrays.asList("east", 2019));
+        assertEquals("((`region` > 'east') OR (`region` = 'east' AND `year` < 2019))", param.getKeysetFilter(MYSQL_URL, null));
+    }
+
+    @Test
+    public void quotesAreEscaped() {
+        ViewExecuteParam param = param(Arrays.asList("name"), Arrays.asList(new Order("name", "ASC")), Arrays.asList("o'neil"));
+        assertEquals("((`name` > 'o''neil'))", param.getKeysetFilter(MYSQL_URL, null));
+    }
+
+    @Test
+    public void unsupportedValuesFallBackToOffset() {
+        assertNull(param(Arrays.asList("name"), Arrays.asList(new Order("name", "ASC")), Arrays.asList("a\\b"))
+                .getKeysetFilter(MYSQL_URL, null));
+        assertNull(param(Arrays.asList("name"), Arrays.asList(new Order("name", "ASC")), new ArrayList<>(Arrays.asList((Object) null)))
+                .getKeysetFilter(MYSQL_URL, null));
+    }
+
+    @Test
+    public void nonGroupOrAggregateOrderFallsBackToOffset() {
+        assertNull(param(Arrays.asList("region"), Arrays.asList(new Order("year", "ASC")), Arrays.asList(2019))
+                .getKeysetFilter(MYSQL_URL, null));
+        assertNull(param(Arrays.asList("region"), Arrays.asList(new Order("sum(amount)", "DESC")), Arrays.asList(10))
+                .getKeysetFilter(MYSQL_URL, null));
+    }
+
+    @Test
+    public void requiresLaterPageAndKnownTotal() {
+        ViewExecuteParam firstPage = param(Arrays.asList("region"), Arrays.asList(new Order("region", "ASC")), Arrays.asList("east"));
+        firstPage.setPageNo(1);
+        assertNull(firstPage.getKeysetFilter(MYSQL_URL, null));
+
+        ViewExecuteParam unknownTotal = param(Arrays.asList("region"), Arrays.asList(new Order("region", "ASC")), Arrays.asList("east"));
+        unknownTotal.setTotalCount(0);
+        assertNull(unknownTotal.getKeysetFilter(MYSQL_URL, null));
+
+        ViewExecuteParam sizeMismatch = param(Arrays.asList("region"), Arrays.asList(new Order("region", "ASC")), Arrays.asList("east", "west"));
+        assertNull(sizeMismatch.getKeysetFilter(MYSQL_URL, null));
+    }
+
+    private static ViewExecuteParam param(List<String> groups, List<Order> orders, List<?> keyset) {
+        ViewExecuteParam param = new ViewExecuteParam();
+        param.setGroups(new ArrayList<>(groups));
+        param.setOrders(new ArrayList<>(orders));
+        param.setKeyset(new ArrayList<>(keyset));
+        param.setPageNo(2);
+        param.setPageSize(20);
+        param.setTotalCount(100);
+        return param;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import edp.core.common.executor.ExecutorRegistry;
+import edp.core.common.executor.InstrumentedThreadPoolExecutor;
+import edp.core.exception.QueryRejectedException;
+import edp.davinci.core.enums.ActionEnum;
+import edp.davinci.core.enums.ExportJobStatus;
+import edp.davinci.dao.ExportJobMapper;
+import edp.davinci.dao.UserMapper;
+import edp.davinci.model.ExportJob;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 导出任务调度：优先级、全局与单用户并发上限、锁外占用失败、按持有者结束、续约与排队上限
+ */
+public class ExportJobSchedulerTest {
+
+    private static final String INSTANCE = "node-a";
+
+    private StubExportJobMapper mapper;
+
+    private HoldingExecutorRegistry registry;
+
+    private ExportJobScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        mapper = new StubExportJobMapper();
+        registry = new HoldingExecutorRegistry();
+        scheduler = new ExportJobScheduler();
+        set("exportJobMapper", mapper);
+        set("executorRegistry", registry);
+        set("userMapper", Proxy.newProxyInstance(UserMapper.class.getClassLoader(), new Class<?>[]{UserMapper.class}, (proxy, method, args) -> null));
+        set("maxRunning", 1);
+        set("userMaxRunning", 1);
+        set("maxQueued", 200);
+        set("userMaxQueued", 10);
+        set("maxAttempts", 3);
+        set("leaseTimeout", 300L);
+        set("instanceId", INSTANCE);
+    }
+
+    @Test
+    public void runsJobsInPriorityOrder() {
+        mapper.queued.add(job(1L, 2, 1L));
+        mapper.queued.add(job(2L, 0, 2L));
+        mapper.queued.add(job(3L, 1, 3L));
+        scheduler.poll();
+        // 第一个任务入队时即被派发，其余按优先级排队
+        assertEquals(Collections.singletonList(1L), mapper.claimed);
+
+        registry.runAll();
+        assertEquals(Arrays.asList(1L, 2L, 3L), mapper.claimed);
+    }
+
+    @Test
+    public void respectsGlobalAndUserLimits() throws Exception {
+        set("maxRunning", 2);
+        mapper.queued.add(job(1L, 0, 1L));
+        mapper.queued.add(job(2L, 0, 1L));
+        mapper.queued.add(job(3L, 0, 2L));
+        mapper.queued.add(job(4L, 0, 3L));
+        scheduler.poll();
+        // 用户 1 同时只能运行一个，全局只能运行两个
+        assertEquals(Arrays.asList(1L, 3L), mapper.claimed);
+        assertEquals(2, registry.held.size());
+
+        registry.runNext();
+        assertEquals(Arrays.asList(1L, 3L, 2L), mapper.claimed);
+    }
+
+    @Test
+    public void skipsJobClaimedByOtherInstance() {
+        mapper.lost.add(1L);
+        mapper.queued.add(job(1L, 0, 1L));
+        mapper.queued.add(job(2L, 1, 2L));
+        scheduler.poll();
+        assertEquals(Collections.singletonList(2L), mapper.claimed);
+        assertEquals(1, scheduler.getStats().get("running"));
+        assertEquals(0, scheduler.getStats().get("queued"));
+    }
+
+    @Test
+    public void finishesOnlyOwnedJobs() {
+        mapper.queued.add(job(1L, 0, 1L));
+        scheduler.poll();
+        registry.runAll();
+        assertEquals(Collections.singletonList("1@" + INSTANCE), mapper.finished);
+        assertEquals(0, scheduler.getStats().get("running"));
+    }
+
+    @Test
+    public void failsQueuedJobAfterMaxAttempts() {
+        ExportJob exportJob = job(1L, 0, 1L);
+        exportJob.setAttempts(3);
+        mapper.queued.add(exportJob);
+        scheduler.poll();
+        assertTrue(mapper.claimed.isEmpty());
+        assertEquals(Collections.singletonList(1L), mapper.finishedQueued);
+    }
+
+    @Test
+    public void renewsRunningJobs() throws Exception {
+        set("maxRunning", 2);
+        mapper.queued.add(job(1L, 0, 1L));
+        mapper.queued.add(job(2L, 0, 2L));
+        scheduler.poll();
+        scheduler.heartbeat();
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), new HashSet<>(mapper.renewed));
+
+        registry.runAll();
+        mapper.renewed.clear();
+        scheduler.heartbeat();
+        assertTrue(mapper.renewed.isEmpty());
+    }
+
+    @Test
+    public void rejectsWhenUserHasTooManyJobs() throws Exception {
+        set("userMaxQueued", 2);
+        mapper.queued.add(job(1L, 0, 1L));
+        mapper.queued.add(job(2L, 0, 1L));
+        scheduler.poll();
+        try {
+            scheduler.checkCapacity(1L);
+            fail();
+        } catch (QueryRejectedException e) {
+            // expected
+        }
+        scheduler.checkCapacity(2L);
+    }
+
+    private static ExportJob job(Long id, int priority, Long userId) {
+        ExportJob exportJob = new ExportJob();
+        exportJob.setId(id);
+        // MAIL 不可恢复，执行时直接失败，便于在测试线程中推进队列
+        exportJob.setAction(ActionEnum.MAIL.name());
+        exportJob.setPriority(priority);
+        exportJob.setUserId(userId);
+        exportJob.setStatus(ExportJobStatus.QUEUED.getStatus());
+        exportJob.setAttempts(0);
+        return exportJob;
+    }
+
+    private void set(String name, Object value) throws Exception {
+        Field field = ExportJobScheduler.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(scheduler, value);
+    }
+
+    /**
+     * 暂存提交的任务，由测试线程逐个执行
+     */
+    private static final class HoldingExecutorRegistry extends ExecutorRegistry {
+
+        private final Deque<Runnable> held = new ArrayDeque<>();
+
+        private final InstrumentedThreadPoolExecutor executor = new InstrumentedThreadPoolExecutor("export-test", 1, 1) {
+            @Override
+            public void execute(Runnable command) {
+                held.add(command);
+            }
+        };
+
+        @Override
+        public InstrumentedThreadPoolExecutor get(String name, int poolSize, int queueCapacity) {
+            return executor;
+        }
+
+        void runNext() {
+            held.poll().run();
+        }
+
+        void runAll() {
+            while (!held.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+
+    private static final class StubExportJobMapper implements ExportJobMapper {
+
+        private final List<ExportJob> queued = new ArrayList<>();
+
+        private final Set<Long> lost = new HashSet<>();
+
+        private final List<Long> claimed = new ArrayList<>();
+
+        private final List<String> finished = new ArrayList<>();
+
+        private final List<Long> finishedQueued = new ArrayList<>();
+
+        private final List<Long> renewed = new ArrayList<>();
+
+        @Override
+        public int insert(ExportJob exportJob) {
+            return 1;
+        }
+
+        @Override
+        public List<ExportJob> getByStatus(Short status, int limit) {
+            return new ArrayList<>(queued);
+        }
+
+        @Override
+        public int claim(Long id, String owner, Date startTime, Short queued, Short running) {
+            if (lost.contains(id)) {
+                return 0;
+            }
+            claimed.add(id);
+            return 1;
+        }
+
+        @Override
+        public int finish(Long id, String owner, Short status, Date endTime) {
+            finished.add(id + "@" + owner);
+            return 1;
+        }
+
+        @Override
+        public int finishQueued(Long id, Short queued, Short status, Date endTime) {
+            finishedQueued.add(id);
+            return 1;
+        }
+
+        @Override
+        public int heartbeat(Collection<Long> ids, String owner, Date heartbeatTime, Short running) {
+            renewed.addAll(ids);
+            return ids.size();
+        }
+
+        @Override
+        public int requeueByOwner(String owner, Short queued, Short running) {
+            return 0;
+        }
+
+        @Override
+        public int requeueStale(String owner, Date before, Short queued, Short running) {
+            return 0;
+        }
+
+        @Override
+        public int deleteFinished(Short success, Short failed) {
+            return 0;
+        }
+    }
+}
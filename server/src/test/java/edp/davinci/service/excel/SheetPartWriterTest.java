@@ -0,0 +1,125 @@
+/*
+ * <<
+ *  Davinci
+ *  ==
+ *  Copyright (C) 2016 - 2019 EDP
+ *  ==
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *  >>
+ *
+ */
+
+package edp.davinci.service.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * 各 sheet 数据部件拼接为 xlsx：单元格类型与样式、转义、列宽、合并单元格及空 sheet
+ */
+public class SheetPartWriterTest {
+
+    private final List<SheetPartWriter> parts = new ArrayList<>();
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("visualis-test-", ".xlsx");
+    }
+
+    @After
+    public void tearDown() {
+        parts.forEach(SheetPartWriter::delete);
+        file.delete();
+    }
+
+    @Test
+    public void assemblesSheetsFromParts() throws Exception {
+        XSSFWorkbook template = new XSSFWorkbook();
+        XSSFCellStyle style = template.createCellStyle();
+        style.setDataFormat(template.createDataFormat().getFormat("0.00"));
+        Map<String, SheetPartWriter> sheetParts = new HashMap<>();
+
+        SheetPartWriter sales = part(template, "sales", sheetParts);
+        sales.startRow();
+        sales.writeString(0, "region", 0);
+        sales.writeString(1, "amount", 0);
+        sales.startRow();
+        sales.writeString(0, "a < b & \"c\"", 0);
+        sales.writeNumber(1, 12.5, style.getIndex());
+        sales.startRow();
+        sales.writeBlank(0, 0);
+        sales.writeNumber(1, Double.NaN, 0);
+        sales.writeString(2, "x\u0001y", 0);
+        sales.addMergedRegion(new CellRangeAddress(0, 0, 0, 1));
+        sales.setColumnWidths(new int[]{12, 0});
+
+        SheetPartWriter empty = part(template, "empty", sheetParts);
+
+        WorkbookWorker.assemble(template, sheetParts, file.getAbsolutePath());
+        assertEquals(3, sales.getRowNum());
+        assertEquals(0, empty.getRowNum());
+
+        try (InputStream in = new FileInputStream(file)) {
+            XSSFWorkbook workbook = new XSSFWorkbook(in);
+            assertEquals(2, workbook.getNumberOfSheets());
+
+            XSSFSheet sheet = workbook.getSheet("sales");
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals("region", sheet.getRow(0).getCell(0).getStringCellValue());
+            assertEquals("a < b & \"c\"", sheet.getRow(1).getCell(0).getStringCellValue());
+
+            Cell amount = sheet.getRow(1).getCell(1);
+            assertEquals(Cell.CELL_TYPE_NUMERIC, amount.getCellType());
+            assertEquals(12.5, amount.getNumericCellValue(), 0.0);
+            assertEquals("0.00", amount.getCellStyle().getDataFormatString());
+
+            XSSFRow last = sheet.getRow(2);
+            assertEquals(Cell.CELL_TYPE_BLANK, last.getCell(0).getCellType());
+            assertEquals("NaN", last.getCell(1).getStringCellValue());
+            assertEquals("x?y", last.getCell(2).getStringCellValue());
+
+            assertEquals(1, sheet.getNumMergedRegions());
+            assertEquals("A1:B1", sheet.getMergedRegion(0).formatAsString());
+            assertEquals(12 * 256, sheet.getColumnWidth(0));
+
+            XSSFSheet emptySheet = workbook.getSheet("empty");
+            assertNull(emptySheet.getRow(0));
+        }
+    }
+
+    private SheetPartWriter part(XSSFWorkbook template, String name, Map<String, SheetPartWriter> sheetParts) throws Exception {
+        XSSFSheet sheet = template.createSheet(name);
+        SheetPartWriter part = new SheetPartWriter();
+        parts.add(part);
+        sheetParts.put(sheet.getPackagePart().getPartName().getName().substring(1), part);
+        return part;
+    }
+}